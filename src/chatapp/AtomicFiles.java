@@ -0,0 +1,63 @@
+package chatapp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// Replaces files without ever leaving a half-written version behind. The new
+// content goes to a temp file next to the target, is forced to disk, and is
+// then renamed over the target, so a crash leaves either the old file or the
+// new one.
+public final class AtomicFiles {
+
+    // Writes the full content of the replacement file
+    public interface Content {
+        void writeTo(FileChannel out) throws IOException;
+    }
+
+    private AtomicFiles() {
+    }
+
+    public static void write(Path target, Content content) throws IOException {
+        Path temp = tempFileFor(target);
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                content.writeTo(out);
+                out.force(true);
+            }
+            replace(temp, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    // Temp file used while replacing target; one left behind by a crash is stale
+    static Path tempFileFor(Path target) {
+        return target.resolveSibling(target.getFileName() + ".tmp");
+    }
+
+    // Renames a finished, forced temp file over target
+    static void replace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    // Makes the rename itself durable. Directories cannot be opened on every
+    // platform (e.g. Windows), where the rename is left to the file system.
+    private static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Not supported here
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package chatapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+// Compact binary message records.
+//
+// A file starts with the magic bytes "QCMB" and a format version byte. Each
+// record after it is:
+//   u8      schema version (currently 1)
+//   varint  payload length
+//   bytes   payload
+//   u32     CRC32 of the payload, big-endian
+//
+// Version 1 payload, in order: message ID (varint), message count (zig-zag
+// varint), recipient code + 1 (varint, 0 when unset), status ordinal (u8, then
+// a length-prefixed string when it is STATUS_OTHER), timestamp (zig-zag
+// varint), hash and message text (varint length + UTF-8 each). Deletion
+// records (tombstones) use STATUS_DELETED and empty strings; status records
+// use STATUS_DELIVERED or STATUS_READ, no recipient and empty strings.
+//
+// Text is stored as raw UTF-8, so nothing is escaped on write or unescaped on read.
+// An incomplete or damaged record at the very end of the file is what an
+// interrupted append leaves behind; validLength() finds where it starts.
+public class BinaryMessageCodec implements MessageCodec {
+    public static final int FORMAT_VERSION = 1;
+    public static final int SCHEMA_VERSION = 1;
+    private static final byte[] MAGIC = {'Q', 'C', 'M', 'B'};
+
+    @Override
+    public byte[] fileHeader() {
+        byte[] header = Arrays.copyOf(MAGIC, MAGIC.length + 1);
+        header[MAGIC.length] = FORMAT_VERSION;
+        return header;
+    }
+
+    @Override
+    public ByteBuffer encode(List<Message> messages) {
+        ByteSink out = new ByteSink(messages.size() * 96);
+        ByteSink payload = new ByteSink(256);
+        CRC32 crc = new CRC32();
+        for (Message message : messages) {
+            payload.reset();
+            writePayload(payload, message);
+
+            crc.reset();
+            crc.update(payload.bytes, 0, payload.size);
+            out.write(SCHEMA_VERSION);
+            out.writeVarLong(payload.size);
+            out.write(payload.bytes, 0, payload.size);
+            out.writeInt((int) crc.getValue());
+        }
+        return ByteBuffer.wrap(out.bytes, 0, out.size);
+    }
+
+    @Override
+    public Stream<Message> read(InputStream in) throws IOException {
+        Reader reader = new Reader(new BufferedInputStream(in, 65536));
+        Spliterator<Message> spliterator = Spliterators.spliteratorUnknownSize(reader,
+            Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static void writePayload(ByteSink out, Message message) {
+        out.writeVarLong(message.getMessageIdValue());
+        out.writeVarLong(zigZag(message.getMessageCount()));
+        long recipient = message.getRecipientCode();
+        out.writeVarLong(recipient == PhoneNumberCodec.NONE ? 0 : recipient + 1);
+
+        byte status = message.isTombstone()
+            ? ColumnarMessageStore.STATUS_DELETED : ColumnarMessageStore.statusOf(message.getStatus());
+        out.write(status);
+        if (status == ColumnarMessageStore.STATUS_OTHER) {
+            out.writeString(message.getStatus());
+        }
+
+        out.writeVarLong(zigZag(message.getTimestamp()));
+        out.writeString(message.getMessageHash());
+        out.writeString(message.getMessage());
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public long validLength(FileChannel in, long start, LongConsumer recordEnds) throws IOException {
+        long size = in.size();
+        Reader reader = new Reader(new BufferedInputStream(
+            Channels.newInputStream(in.position(start)), 65536), start);
+        if (start == 0) {
+            if (size < MAGIC.length + 1) {
+                // The header itself was never completed
+                for (int i = 0; i < Math.min(size, MAGIC.length); i++) {
+                    if (reader.read() != MAGIC[i]) {
+                        throw new IOException("Not a binary message store");
+                    }
+                }
+                return 0;
+            }
+            reader.checkHeader();
+        }
+
+        while (true) {
+            long recordStart = reader.offset;
+            int frame = reader.readFrame();
+            if (frame == Reader.FRAME_OK) {
+                recordEnds.accept(reader.offset);
+                continue;
+            }
+            if (frame == Reader.FRAME_DAMAGED && !reader.atEnd() && !isZeroFilled(in, recordStart)) {
+                throw new IOException(reader.damage + "; later records would be lost by truncating it");
+            }
+            return recordStart;
+        }
+    }
+
+    // A crash can leave the end of a file extended but never written, which reads back as zeros
+    private static boolean isZeroFilled(FileChannel in, long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        long position = from;
+        int n;
+        while ((n = in.read(buffer, position)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) != 0) {
+                    return false;
+                }
+            }
+            position += n;
+            buffer.clear();
+        }
+        return true;
+    }
+
+    // Streams messages out of a binary file. An incomplete record at the end
+    // (an interrupted append) ends the stream; a damaged record is an error.
+    private static class Reader implements Iterator<Message>, Closeable {
+        static final int FRAME_OK = 0;
+        static final int FRAME_END = 1;
+        static final int FRAME_TORN = 2;
+        static final int FRAME_DAMAGED = 3;
+
+        private final InputStream in;
+        private final CRC32 crc = new CRC32();
+        private byte[] payload = new byte[256];
+        private int payloadLength;
+        private long offset;
+        private boolean headerChecked;
+        private boolean finished = false;
+        private Message next;
+        private String damage;
+
+        Reader(InputStream in) {
+            this(in, 0);
+        }
+
+        // Reads from a record boundary at offset; the header is only checked from the start
+        Reader(InputStream in, long offset) {
+            this.in = in;
+            this.offset = offset;
+            this.headerChecked = offset > 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !finished) {
+                try {
+                    next = readRecord();
+                } catch (IOException e) {
+                    finished = true;
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Message message = next;
+            next = null;
+            return message;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finished = true;
+            in.close();
+        }
+
+        private Message readRecord() throws IOException {
+            if (!headerChecked) {
+                checkHeader();
+                if (finished) {
+                    return null;
+                }
+            }
+
+            int frame = readFrame();
+            if (frame == FRAME_DAMAGED) {
+                throw new IOException(damage);
+            }
+            if (frame != FRAME_OK) {
+                finished = true;
+                return null;
+            }
+
+            try {
+                return decode(new ByteSource(payload, payloadLength));
+            } catch (RuntimeException e) {
+                System.err.println("Error parsing message: " + e.getMessage());
+                return null;
+            }
+        }
+
+        // Reads the next record into payload and checks its version and CRC
+        int readFrame() throws IOException {
+            long recordStart = offset;
+            int version = read();
+            if (version < 0) {
+                return FRAME_END;
+            }
+            if (version != SCHEMA_VERSION) {
+                damage = "Unsupported record version " + version + " at offset " + recordStart;
+                return FRAME_DAMAGED;
+            }
+
+            long length = readVarLong();
+            if (length == -1) {
+                return FRAME_TORN;
+            }
+            if (length < 0 || length > Integer.MAX_VALUE - 8) {
+                damage = "Invalid record length at offset " + recordStart;
+                return FRAME_DAMAGED;
+            }
+            if (payload.length < length) {
+                payload = new byte[Math.max((int) length, payload.length * 2)];
+            }
+            if (!readFully(payload, (int) length)) {
+                return FRAME_TORN;
+            }
+            int b0 = read(), b1 = read(), b2 = read(), b3 = read();
+            if (b3 < 0) {
+                return FRAME_TORN;
+            }
+
+            crc.reset();
+            crc.update(payload, 0, (int) length);
+            int stored = (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+            if (stored != (int) crc.getValue()) {
+                damage = "Checksum mismatch in record at offset " + recordStart;
+                return FRAME_DAMAGED;
+            }
+            payloadLength = (int) length;
+            return FRAME_OK;
+        }
+
+        boolean atEnd() throws IOException {
+            in.mark(1);
+            boolean end = in.read() < 0;
+            in.reset();
+            return end;
+        }
+
+        void checkHeader() throws IOException {
+            headerChecked = true;
+            for (int i = 0; i < MAGIC.length; i++) {
+                int b = read();
+                if (b < 0 && i == 0) {
+                    finished = true;
+                    return;
+                }
+                if (b != MAGIC[i]) {
+                    throw new IOException("Not a binary message store");
+                }
+            }
+            int version = read();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported binary store version " + version);
+            }
+        }
+
+        private Message decode(ByteSource source) {
+            long messageID = source.readVarLong();
+            int count = (int) unZigZag(source.readVarLong());
+            long recipient = source.readVarLong() - 1;
+
+            byte status = source.readByte();
+            String statusText = status == ColumnarMessageStore.STATUS_OTHER
+                ? source.readString() : ColumnarMessageStore.statusName(status);
+            long timestamp = unZigZag(source.readVarLong());
+            String hash = source.readString();
+            String text = source.readString();
+
+            if (status == ColumnarMessageStore.STATUS_DELETED) {
+                Message tombstone = Message.tombstone(messageID);
+                tombstone.setTimestamp(timestamp);
+                return tombstone;
+            }
+            // Validates the ID and recipient, like the setters used by the JSON reader
+            return Message.restore(messageID, recipient, text, count, hash, statusText, timestamp);
+        }
+
+        int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                offset++;
+            }
+            return b;
+        }
+
+        private boolean readFully(byte[] buffer, int length) throws IOException {
+            int done = 0;
+            while (done < length) {
+                int n = in.read(buffer, done, length - done);
+                if (n < 0) {
+                    return false;
+                }
+                done += n;
+            }
+            offset += length;
+            return true;
+        }
+
+        // Returns -1 at end of input and -2 for a malformed varint
+        private long readVarLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                int b = read();
+                if (b < 0) {
+                    return -1;
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+                if (shift > 63) {
+                    return -2;
+                }
+            }
+        }
+    }
+
+    private static class ByteSink {
+        byte[] bytes;
+        int size = 0;
+
+        ByteSink(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] source, int offset, int length) {
+            ensure(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeString(String text) {
+            byte[] encoded = (text != null ? text : "").getBytes(StandardCharsets.UTF_8);
+            writeVarLong(encoded.length);
+            write(encoded, 0, encoded.length);
+        }
+    }
+
+    private static class ByteSource {
+        private final byte[] bytes;
+        private final int limit;
+        private int position = 0;
+
+        ByteSource(byte[] bytes, int limit) {
+            this.bytes = bytes;
+            this.limit = limit;
+        }
+
+        byte readByte() {
+            if (position >= limit) {
+                throw new IllegalArgumentException("Record ends early");
+            }
+            return bytes[position++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        String readString() {
+            long length = readVarLong();
+            if (length < 0 || length > limit - position) {
+                throw new IllegalArgumentException("Invalid string length in record");
+            }
+            String text = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return text;
+        }
+    }
+}
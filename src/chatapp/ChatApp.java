@@ -2,8 +2,13 @@ package chatapp;
 
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
 
 public class ChatApp {
     
@@ -23,6 +28,21 @@ public class ChatApp {
     private final Color BORDER_COLOR = new Color(70, 130, 180);
 
     public static void main(String[] args) {
+        if (args.length > 0 && (args[0].equals("--server") || args[0].equals("--nio-server"))) {
+            // Headless: serve the messaging core over TCP instead of showing the dialogs
+            try {
+                String[] serverArgs = Arrays.copyOfRange(args, 1, args.length);
+                if (args[0].equals("--nio-server")) {
+                    NioChatServer.main(serverArgs);
+                } else {
+                    ChatServer.main(serverArgs);
+                }
+            } catch (java.io.IOException e) {
+                System.err.println("Error starting server: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             ChatApp app = new ChatApp();
             app.showWelcomeScreen();
@@ -412,7 +432,7 @@ public class ChatApp {
             
             switch (actionChoice) {
                 case "1":
-                    result = message.sentMessage(1);
+                    result = awaitStored(message.sentMessageAsync(1));
                     addToSentMessages(message);
                     messagesSent++;
                     break;
@@ -421,7 +441,7 @@ public class ChatApp {
                     addToDisregardedMessages(message);
                     break;
                 case "3":
-                    result = message.sentMessage(3);
+                    result = awaitStored(message.sentMessageAsync(3));
                     addToStoredMessages(message);
                     break;
                 default:
@@ -443,28 +463,144 @@ public class ChatApp {
         }
     }
 
+    // Only reports success once the message is on disk, otherwise says why it is not
+    private static String awaitStored(CompletableFuture<String> sent) {
+        try {
+            return sent.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error saving message: interrupted";
+        } catch (ExecutionException e) {
+            return "Error saving message: " + e.getCause().getMessage();
+        }
+    }
+
     private void viewStoredMessages() {
-        String messagesText = JSONHandler.getAllMessagesFormatted();
-        JTextArea textArea = createStyledTextArea();
-        textArea.setText(messagesText);
-        textArea.setEditable(false);
-        
-        JScrollPane scrollPane = new JScrollPane(textArea);
-        scrollPane.setPreferredSize(new Dimension(600, 400));
+        MessageTableModel model;
+        MappedMessageStore store = null;
+        try {
+            if (JSONHandler.isMappedReads()) {
+                // Rows are decoded straight from the mapped file as they scroll into view
+                store = runInBackground("Stored Messages", "Opening stored messages",
+                    progress -> JSONHandler.openMappedStore());
+                model = MessageTableModel.forStore(store);
+            } else {
+                model = MessageTableModel.forMessages(runInBackground("Stored Messages", "Reading stored messages",
+                    this::readStoredMessages));
+            }
+        } catch (Exception e) {
+            showStyledMessage("Error reading messages: " + e.getMessage());
+            return;
+        }
+
+        try {
+            if (model.getRowCount() == 0) {
+                showStyledMessage("No stored messages found.");
+            } else {
+                showMessageTable("Stored Messages", model);
+            }
+        } finally {
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (java.io.IOException e) {
+                    System.err.println("Error closing message store: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Shows messages in a table that only renders the visible rows, with sorting and status/recipient filters
+    private void showMessageTable(String title, MessageTableModel model) {
+        showMessageTable(title, model, null);
+    }
+
+    // Same as above, with summary text shown above the filters
+    private void showMessageTable(String title, MessageTableModel model, String summary) {
+        JTable table = new JTable(model);
+        table.setBackground(INPUT_BACKGROUND);
+        table.setForeground(TEXT_COLOR);
+        table.setGridColor(BORDER_COLOR);
+        table.setSelectionBackground(ACCENT_COLOR);
+        table.setSelectionForeground(TEXT_COLOR);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(MessageTableModel.COLUMN_NUMBER).setMaxWidth(60);
+        table.getColumnModel().getColumn(MessageTableModel.COLUMN_MESSAGE).setPreferredWidth(250);
+
+        TableRowSorter<MessageTableModel> sorter = new TableRowSorter<>(model);
+        table.setRowSorter(sorter);
+
+        JComboBox<String> statusFilter = new JComboBox<>(new String[] {"All",
+            ColumnarMessageStore.statusName(ColumnarMessageStore.STATUS_SENT),
+            ColumnarMessageStore.statusName(ColumnarMessageStore.STATUS_DELIVERED),
+            ColumnarMessageStore.statusName(ColumnarMessageStore.STATUS_READ),
+            ColumnarMessageStore.statusName(ColumnarMessageStore.STATUS_STORED),
+            ColumnarMessageStore.statusName(ColumnarMessageStore.STATUS_DISCARDED)});
+        JTextField recipientFilter = createStyledTextField();
+        recipientFilter.setColumns(14);
+        Runnable applyFilter = () -> {
+            String status = (String) statusFilter.getSelectedItem();
+            sorter.setRowFilter(MessageTableModel.filterFor("All".equals(status) ? null : status,
+                recipientFilter.getText()));
+        };
+        statusFilter.addActionListener(e -> applyFilter.run());
+        recipientFilter.addActionListener(e -> applyFilter.run());
+
+        JLabel statusLabel = new JLabel("Status:");
+        statusLabel.setForeground(TEXT_COLOR);
+        JLabel recipientLabel = new JLabel("Recipient:");
+        recipientLabel.setForeground(TEXT_COLOR);
+        JButton filterButton = new JButton("Filter");
+        filterButton.addActionListener(e -> applyFilter.run());
+
+        JPanel filters = createStyledPanel();
+        filters.setLayout(new FlowLayout(FlowLayout.LEFT));
+        filters.add(statusLabel);
+        filters.add(statusFilter);
+        filters.add(recipientLabel);
+        filters.add(recipientFilter);
+        filters.add(filterButton);
+
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setPreferredSize(new Dimension(700, 400));
         scrollPane.setBorder(BorderFactory.createLineBorder(BORDER_COLOR));
         scrollPane.getViewport().setBackground(INPUT_BACKGROUND);
-        
-        JOptionPane.showMessageDialog(null, scrollPane, "Stored Messages", JOptionPane.PLAIN_MESSAGE);
+
+        JPanel top = createStyledPanel();
+        top.setLayout(new BorderLayout(5, 5));
+        if (summary != null) {
+            JTextArea summaryArea = createStyledTextArea();
+            summaryArea.setText(summary);
+            summaryArea.setEditable(false);
+            top.add(summaryArea, BorderLayout.NORTH);
+        }
+        top.add(filters, BorderLayout.SOUTH);
+
+        JPanel panel = createStyledPanel();
+        panel.setLayout(new BorderLayout(5, 5));
+        panel.add(top, BorderLayout.NORTH);
+        panel.add(scrollPane, BorderLayout.CENTER);
+
+        // A mapped store is counted as it is scrolled, so its total is not known yet
+        String fullTitle = model.isComplete() ? title + " (" + model.getRowCount() + ")" : title;
+        JOptionPane.showMessageDialog(null, panel, fullTitle, JOptionPane.PLAIN_MESSAGE);
     }
 
     private void loadStoredMessagesFromJSON() {
-        arrayManager.storedMessages.clear();
-        // FIXED: Now using ArrayList instead of List
-        ArrayList<Message> messages = JSONHandler.readAllMessages();
+        ArrayList<Message> messages;
+        try {
+            // The store is read on a worker thread; only the array updates below run on the EDT
+            messages = runInBackground("Loading Messages", "Loading stored messages", this::readStoredMessages);
+        } catch (Exception e) {
+            showStyledMessage("Error loading stored messages: " + e.getMessage());
+            return;
+        }
+
+        arrayManager.clearStoredMessages();
         for (Message message : messages) {
             if ("stored".equals(message.getStatus())) {
                 arrayManager.addToStoredMessages(message);
-            } else if ("sent".equals(message.getStatus())) {
+            } else if (ChatService.isSent(message)) {
                 arrayManager.addToSentMessages(message);
             } else if ("discarded".equals(message.getStatus())) {
                 arrayManager.addToDisregardedMessages(message);
@@ -472,6 +608,77 @@ public class ChatApp {
         }
     }
 
+    // Reads every stored message; called on a worker thread
+    private ArrayList<Message> readStoredMessages(IntConsumer progress) throws java.io.IOException {
+        ArrayList<Message> loaded = new ArrayList<>();
+        try (Stream<Message> stream = JSONHandler.streamAllMessages()) {
+            Iterator<Message> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                loaded.add(iterator.next());
+                if (loaded.size() % JSONHandler.PROGRESS_INTERVAL == 0) {
+                    progress.accept(loaded.size());
+                }
+            }
+        }
+        return loaded;
+    }
+
+    // Work done off the EDT; progress takes the number of messages handled so far
+    private interface StorageTask<T> {
+        T run(IntConsumer progress) throws Exception;
+    }
+
+    // Runs a storage task on a SwingWorker while a modal progress dialog is shown.
+    // The dialog keeps the EDT pumping events, so the UI repaints while the file is read.
+    private <T> T runInBackground(String title, String activity, StorageTask<T> task) throws Exception {
+        JLabel label = new JLabel(activity + "...");
+        label.setForeground(TEXT_COLOR);
+        JProgressBar progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setBackground(INPUT_BACKGROUND);
+        progressBar.setForeground(BORDER_COLOR);
+
+        JPanel panel = createStyledPanel();
+        panel.setLayout(new BorderLayout(10, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        panel.add(label, BorderLayout.NORTH);
+        panel.add(progressBar, BorderLayout.CENTER);
+
+        JDialog dialog = new JDialog((Frame) null, title, true);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        dialog.setContentPane(panel);
+        dialog.setSize(350, 110);
+        dialog.setLocationRelativeTo(null);
+
+        SwingWorker<T, Integer> worker = new SwingWorker<T, Integer>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                return task.run(count -> publish(count));
+            }
+
+            @Override
+            protected void process(java.util.List<Integer> counts) {
+                label.setText(activity + ": " + counts.get(counts.size() - 1) + " messages...");
+            }
+
+            @Override
+            protected void done() {
+                dialog.dispose();
+            }
+        };
+
+        // done() is queued on the EDT, so it can only run once the dialog's event loop has started
+        worker.execute();
+        dialog.setVisible(true);
+
+        try {
+            return worker.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
     // Array management methods
     private void addToSentMessages(Message message) {
         arrayManager.addToSentMessages(message);
@@ -501,8 +708,9 @@ public class ChatApp {
                 "4. Search messages by recipient\n" +
                 "5. Delete message by hash\n" +
                 "6. Display full sent messages report\n" +
-                "7. Back to Main Menu\n\n" +
-                "Enter your choice (1-7):";
+                "7. Search messages by content\n" +
+                "8. Back to Main Menu\n\n" +
+                "Enter your choice (1-8):";
             
             String choice = showStyledInputDialog(menuText, "Array Operations");
             if (choice == null) continue;
@@ -529,9 +737,12 @@ public class ChatApp {
                     displayFullReport();
                     break;
                 case "7":
+                    searchMessagesByContent();
+                    break;
+                case "8":
                     return;
                 default:
-                    showStyledMessage("Invalid choice. Please enter 1-7.");
+                    showStyledMessage("Invalid choice. Please enter 1-8.");
             }
         }
     }
@@ -565,6 +776,17 @@ public class ChatApp {
         
         searchID = searchID.trim();
         Message foundMessage = arrayManager.searchMessageByID(searchID);
+        if (foundMessage == null && Message.isValidMessageID(searchID)) {
+            // Not loaded in this session; the store's index finds it without a full read
+            String messageID = searchID;
+            try {
+                foundMessage = runInBackground("Search by Message ID", "Searching stored messages",
+                    progress -> JSONHandler.findMessage(messageID));
+            } catch (Exception e) {
+                showStyledMessage("Error searching stored messages: " + e.getMessage());
+                return;
+            }
+        }
         
         StringBuilder sb = new StringBuilder();
         sb.append("Search Results for Message ID: ").append(searchID).append("\n");
@@ -611,27 +833,43 @@ public class ChatApp {
         showStyledMessage(sb.toString());
     }
 
+    private void searchMessagesByContent() {
+        String query = showStyledInputDialog("Enter words to search for:\n" +
+            "(all words must match; use OR for alternatives and * for prefixes, e.g. dinner OR cak*)",
+            "Search by Content");
+        if (query == null) return;
+        
+        query = query.trim();
+        ArrayList<Message> results = arrayManager.searchMessagesByContent(query);
+        if (results.isEmpty()) {
+            showStyledMessage("No messages found matching: " + query);
+            return;
+        }
+        showMessageTable("Messages matching: " + query, MessageTableModel.forMessages(results));
+    }
+
     private void deleteMessageByHash() {
         String hash = showStyledInputDialog("Enter Message Hash to delete:", "Delete by Hash");
         if (hash == null) return;
         
         hash = hash.trim();
+        // Look the message up first so its ID is still known after it leaves the arrays
+        Message message = arrayManager.searchMessageByHash(hash);
         boolean deleted = arrayManager.deleteMessageByHash(hash);
         
         if (deleted) {
-            // Also delete from JSON file
-            // We need to find the message ID to delete from JSON
-            for (Message msg : arrayManager.getSentMessages()) {
-                if (msg.getMessageHash().equals(hash)) {
-                    JSONHandler.deleteMessage(msg.getMessageID());
-                    break;
-                }
+            String messageID = message.getMessageID();
+            boolean removedFromFile;
+            try {
+                removedFromFile = runInBackground("Deleting Message", "Removing message from storage",
+                    progress -> JSONHandler.deleteMessage(messageID));
+            } catch (Exception e) {
+                showStyledMessage("Message removed from arrays, but the JSON file could not be updated: " + e.getMessage());
+                return;
             }
-            for (Message msg : arrayManager.getStoredMessages()) {
-                if (msg.getMessageHash().equals(hash)) {
-                    JSONHandler.deleteMessage(msg.getMessageID());
-                    break;
-                }
+            if (!removedFromFile) {
+                showStyledMessage("Message removed from arrays, but it could not be removed from the JSON file.");
+                return;
             }
             
             showStyledMessage("Message with hash '" + hash + "' has been successfully deleted from arrays and JSON file.");
@@ -641,18 +879,17 @@ public class ChatApp {
     }
 
     private void displayFullReport() {
-        String report = arrayManager.generateFullReport(currentUser.firstName + " " + currentUser.lastName);
-        
-        JTextArea textArea = createStyledTextArea();
-        textArea.setText(report);
-        textArea.setEditable(false);
-        
-        JScrollPane scrollPane = new JScrollPane(textArea);
-        scrollPane.setPreferredSize(new Dimension(700, 500));
-        scrollPane.setBorder(BorderFactory.createLineBorder(BORDER_COLOR));
-        scrollPane.getViewport().setBackground(INPUT_BACKGROUND);
-        
-        JOptionPane.showMessageDialog(null, scrollPane, "Full Sent Messages Report", JOptionPane.PLAIN_MESSAGE);
+        if (arrayManager.getSentMessages().isEmpty()) {
+            showStyledMessage(arrayManager.generateFullReport(currentUser.firstName + " " + currentUser.lastName));
+            return;
+        }
+        String sender = currentUser.firstName + " " + currentUser.lastName;
+        String summary = "Sender: " + sender + "\n" +
+            "Total Sent Messages: " + arrayManager.getSentMessages().size() + "\n" +
+            "Total Characters Sent: " + arrayManager.getTotalCharacters() + "\n" +
+            "Average Message Length: " + String.format("%.2f", arrayManager.getAverageLength()) + " characters";
+        showMessageTable("Full Sent Messages Report - " + sender,
+            MessageTableModel.forMessages(arrayManager.getSentMessages()), summary);
     }
 
     private JPanel createStyledPanel() {
@@ -1,20 +1,66 @@
 package chatapp;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 public class ChatAppArrayManager {
-    // Arrays for message management (made public for testing)
+    // Arrays for message management (made public for testing). A delete leaves a
+    // null in its place (0 in messageIDs) so everything else keeps its position;
+    // read them through the getters, which never show the gaps.
     public ArrayList<Message> sentMessages = new ArrayList<>();
     public ArrayList<Message> disregardedMessages = new ArrayList<>();
     public ArrayList<Message> storedMessages = new ArrayList<>();
     public ArrayList<String> messageHashes = new ArrayList<>();
-    public ArrayList<String> messageIDs = new ArrayList<>();
+    // IDs are kept as primitive longs; getMessageIDs() formats them on demand
+    public LongList messageIDs = new LongList();
+
+    // Lookup indexes by numeric message ID and by hash. They are kept in step by the
+    // add/delete methods below, so the lists should only be changed through them.
+    private final HashMap<Long, IndexEntry> idIndex = new HashMap<>();
+    private final HashMap<String, IndexEntry> hashIndex = new HashMap<>();
+    // Slot of each element, parallel to sentMessages, storedMessages and
+    // messageHashes/messageIDs, or null where a message was deleted. The gaps in
+    // a list are closed up, in order, once they outnumber its messages, so a
+    // delete is O(1) amortized and the lists keep insertion order.
+    private final ArrayList<Slot> sentSlots = new ArrayList<>();
+    private final ArrayList<Slot> storedSlots = new ArrayList<>();
+    private final ArrayList<Slot> keySlots = new ArrayList<>();
+    private int sentGaps = 0;
+    private int storedGaps = 0;
+    private int keyGaps = 0;
+
+    // Sent and stored messages per recipient (international +27 format), plus the
+    // recipients ordered by message count for top-N queries
+    private final HashMap<String, RecipientMessages> recipientIndex = new HashMap<>();
+    private final TreeSet<RecipientMessages> recipientsByCount = new TreeSet<>(
+        Comparator.comparingInt(RecipientMessages::size).reversed()
+            .thenComparing(bucket -> bucket.recipient));
+
+    // Running totals over sent messages for the report summary, and the sent
+    // messages grouped by length so the longest can be found without a scan
+    private long totalSentCharacters = 0;
+    private final TreeMap<Integer, LengthBucket> sentByLength = new TreeMap<>();
+
+    // Word index over sent and stored message text. Each indexed message gets
+    // the next ordinal, and byOrdinal maps ordinals back (null once deleted).
+    private final InvertedIndex textIndex = new InvertedIndex();
+    private final ArrayList<Message> byOrdinal = new ArrayList<>();
+
+    // Sent and stored messages ordered by timestamp for time-range queries
+    private final TimeIndex timeIndex = new TimeIndex();
 
     // Array management methods
     public void addToSentMessages(Message message) {
+        Slot slot = new Slot(message, sentMessages.size());
         sentMessages.add(message);
-        messageHashes.add(message.getMessageHash());
-        messageIDs.add(message.getMessageID());
+        sentSlots.add(slot);
+        addKeys(message, slot);
+        addToIndexes(message, true, slot);
+
+        int length = lengthOf(message);
+        totalSentCharacters += length;
+        sentByLength.computeIfAbsent(length, key -> new LengthBucket()).add(slot);
     }
 
     public void addToDisregardedMessages(Message message) {
@@ -22,167 +68,604 @@ public class ChatAppArrayManager {
     }
 
     public void addToStoredMessages(Message message) {
+        Slot slot = new Slot(message, storedMessages.size());
         storedMessages.add(message);
-        messageHashes.add(message.getMessageHash());
-        messageIDs.add(message.getMessageID());
+        storedSlots.add(slot);
+        addKeys(message, slot);
+        addToIndexes(message, false, slot);
+    }
+
+    // Removes all stored messages (and their hashes and IDs), keeping sent messages
+    public void clearStoredMessages() {
+        compact(sentMessages, sentSlots);
+        storedMessages.clear();
+        messageHashes.clear();
+        messageIDs.clear();
+        storedSlots.clear();
+        keySlots.clear();
+        sentGaps = 0;
+        storedGaps = 0;
+        keyGaps = 0;
+        idIndex.clear();
+        hashIndex.clear();
+        recipientIndex.clear();
+        recipientsByCount.clear();
+        textIndex.clear();
+        byOrdinal.clear();
+        timeIndex.clear();
+        // Sent messages keep their slots, so their places by length stay valid
+        for (Slot slot : sentSlots) {
+            addKeys(slot.message, slot);
+            addToIndexes(slot.message, true, slot);
+        }
     }
 
     // Array operation methods
     public String displaySendersAndRecipients(String senderName) {
-        if (sentMessages.isEmpty()) {
-            return "No sent messages found.";
-        }
-        
         StringBuilder sb = new StringBuilder();
-        sb.append("Senders and Recipients of Sent Messages:\n");
-        sb.append("=======================================\n\n");
-        
-        for (int i = 0; i < sentMessages.size(); i++) {
-            Message msg = sentMessages.get(i);
-            sb.append("Message ").append(i + 1).append(":\n");
-            sb.append("  Sender: ").append(senderName).append("\n");
-            sb.append("  Recipient: ").append(msg.getRecipient()).append("\n");
-            sb.append("  Message ID: ").append(msg.getMessageID()).append("\n");
-            sb.append("-----------------\n");
+        try {
+            writeSendersAndRecipients(senderName, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        
         return sb.toString();
     }
 
-    public Message findLongestMessage() {
-        if (sentMessages.isEmpty()) {
-            return null;
+    // Writes the senders and recipients list straight to out (a file, socket, ...)
+    public void writeSendersAndRecipients(String senderName, Appendable out) throws IOException {
+        if (sentCount() == 0) {
+            out.append("No sent messages found.");
+            return;
         }
         
-        Message longest = sentMessages.get(0);
+        out.append("Senders and Recipients of Sent Messages:\n");
+        out.append("=======================================\n\n");
+        
+        int number = 0;
         for (Message msg : sentMessages) {
-            if (msg.getMessage().length() > longest.getMessage().length()) {
-                longest = msg;
+            if (msg != null) {
+                appendSenderAndRecipient(out, ++number, msg, senderName);
             }
         }
-        return longest;
+    }
+
+    public Message findLongestMessage() {
+        if (sentByLength.isEmpty()) {
+            return null;
+        }
+        // Earliest sent message among those with the greatest length
+        return sentByLength.lastEntry().getValue().first();
     }
 
     public ArrayList<Message> searchMessagesByRecipient(String recipient) {
         ArrayList<Message> results = new ArrayList<>();
-        
-        // Search in sent messages
-        for (Message msg : sentMessages) {
-            if (recipient.equals(msg.getRecipient())) {
-                results.add(msg);
-            }
+        RecipientMessages bucket = recipientIndex.get(normalizeRecipient(recipient));
+        if (bucket != null) {
+            // Sent messages first, then stored, in the order they were added
+            bucket.addMessages(bucket.sent, results);
+            bucket.addMessages(bucket.stored, results);
         }
-        
-        // Search in stored messages
-        for (Message msg : storedMessages) {
-            if (recipient.equals(msg.getRecipient())) {
-                results.add(msg);
+        return results;
+    }
+
+    // Sent and stored messages whose text matches the query, in the order they were added.
+    // Words are ANDed, OR separates alternatives, and a trailing * matches a prefix,
+    // e.g. "dinner tonight OR cak*".
+    public ArrayList<Message> searchMessagesByContent(String query) {
+        ArrayList<Message> results = new ArrayList<>();
+        if (query == null || query.trim().isEmpty()) {
+            return results;
+        }
+        for (int ordinal : textIndex.search(query)) {
+            Message message = byOrdinal.get(ordinal);
+            if (message != null) {
+                results.add(message);
             }
         }
-        
         return results;
     }
 
-    public boolean deleteMessageByHash(String hash) {
-        boolean deleted = false;
-        
-        // Search and remove from sent messages
-        Iterator<Message> sentIterator = sentMessages.iterator();
-        while (sentIterator.hasNext()) {
-            Message msg = sentIterator.next();
-            if (msg.getMessageHash().equals(hash)) {
-                sentIterator.remove();
-                messageHashes.remove(hash);
-                messageIDs.remove(msg.getMessageID());
-                deleted = true;
+    // Sent and stored messages with from <= timestamp <= to (epoch milliseconds), oldest first
+    public ArrayList<Message> searchMessagesBetween(long from, long to) {
+        return timeIndex.between(from, to);
+    }
+
+    // Number of sent and stored messages for a recipient
+    public int countMessagesForRecipient(String recipient) {
+        RecipientMessages bucket = recipientIndex.get(normalizeRecipient(recipient));
+        return bucket != null ? bucket.size() : 0;
+    }
+
+    // The n recipients with the most sent and stored messages, busiest first
+    public LinkedHashMap<String, Integer> getTopRecipients(int n) {
+        LinkedHashMap<String, Integer> top = new LinkedHashMap<>();
+        for (RecipientMessages bucket : recipientsByCount) {
+            if (top.size() >= n) {
                 break;
             }
+            top.put(bucket.recipient, bucket.size());
         }
-        
-        // Search and remove from stored messages
-        if (!deleted) {
-            Iterator<Message> storedIterator = storedMessages.iterator();
-            while (storedIterator.hasNext()) {
-                Message msg = storedIterator.next();
-                if (msg.getMessageHash().equals(hash)) {
-                    storedIterator.remove();
-                    messageHashes.remove(hash);
-                    messageIDs.remove(msg.getMessageID());
-                    deleted = true;
-                    break;
-                }
-            }
+        return top;
+    }
+
+    public boolean deleteMessageByHash(String hash) {
+        IndexEntry entry = findEntry(hashIndex, hash);
+        if (entry == null) {
+            return false;
         }
-        
-        return deleted;
+
+        Message msg = entry.message;
+        if (entry.sent) {
+            sentMessages.set(entry.slot.position, null);
+            sentSlots.set(entry.slot.position, null);
+            sentGaps++;
+            removeFromSentTotals(entry.slot);
+        } else {
+            storedMessages.set(entry.slot.position, null);
+            storedSlots.set(entry.slot.position, null);
+            storedGaps++;
+        }
+        messageHashes.set(entry.slot.keyPosition, null);
+        messageIDs.set(entry.slot.keyPosition, 0);
+        keySlots.set(entry.slot.keyPosition, null);
+        keyGaps++;
+        closeGaps();
+        removeFromIndex(hashIndex, hash, msg);
+        removeFromIndex(idIndex, msg.getMessageIdValue(), msg);
+        removeFromRecipientIndex(entry.slot, entry.sent);
+        timeIndex.remove(msg, entry.slot.timeSequence);
+        textIndex.remove(entry.ordinal);
+        byOrdinal.set(entry.ordinal, null);
+        if (textIndex.getDeletedCount() > byOrdinal.size() / 2) {
+            textIndex.compact();
+        }
+        return true;
     }
 
     public Message searchMessageByID(String messageID) {
-        for (Message msg : sentMessages) {
-            if (msg.getMessageID().equals(messageID)) {
-                return msg;
-            }
-        }
-        
-        for (Message msg : storedMessages) {
-            if (msg.getMessageID().equals(messageID)) {
-                return msg;
-            }
+        if (!Message.isValidMessageID(messageID)) {
+            return null;
         }
-        
-        return null;
+        IndexEntry entry = findEntry(idIndex, Long.parseLong(messageID));
+        return entry != null ? entry.message : null;
+    }
+
+    public Message searchMessageByHash(String hash) {
+        IndexEntry entry = findEntry(hashIndex, hash);
+        return entry != null ? entry.message : null;
     }
 
     public String generateFullReport(String senderName) {
-        if (sentMessages.isEmpty()) {
-            return "No sent messages found for report.";
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeFullReport(senderName, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    // Writes the full report one message at a time, so memory use does not grow with the history
+    public void writeFullReport(String senderName, Appendable out) throws IOException {
+        if (sentCount() == 0) {
+            out.append("No sent messages found for report.");
+            return;
         }
         
-        StringBuilder sb = new StringBuilder();
-        sb.append("FULL SENT MESSAGES REPORT\n");
-        sb.append("=========================\n\n");
+        out.append("FULL SENT MESSAGES REPORT\n");
+        out.append("=========================\n\n");
         
-        for (int i = 0; i < sentMessages.size(); i++) {
-            Message msg = sentMessages.get(i);
-            sb.append("MESSAGE ").append(i + 1).append(":\n");
-            sb.append("  Message ID: ").append(msg.getMessageID()).append("\n");
-            sb.append("  Message Hash: ").append(msg.getMessageHash()).append("\n");
-            sb.append("  Sender: ").append(senderName).append("\n");
-            sb.append("  Recipient: ").append(msg.getRecipient()).append("\n");
-            sb.append("  Message: ").append(msg.getMessage()).append("\n");
-            sb.append("  Message Length: ").append(msg.getMessage().length()).append(" characters\n");
-            sb.append("  Status: ").append(msg.getStatus()).append("\n");
-            sb.append("  Message Count: ").append(msg.getMessageCount()).append("\n");
-            sb.append("====================================\n\n");
+        int number = 0;
+        for (Message msg : sentMessages) {
+            if (msg != null) {
+                appendReportEntry(out, ++number, msg, senderName);
+            }
         }
         
         // Add summary
-        sb.append("SUMMARY:\n");
-        sb.append("--------\n");
-        sb.append("Total Sent Messages: ").append(sentMessages.size()).append("\n");
-        sb.append("Total Characters Sent: ").append(calculateTotalCharacters()).append("\n");
-        sb.append("Average Message Length: ").append(String.format("%.2f", calculateAverageLength())).append(" characters\n");
-        
-        return sb.toString();
+        out.append("SUMMARY:\n");
+        out.append("--------\n");
+        out.append("Total Sent Messages: ").append(String.valueOf(sentCount())).append("\n");
+        out.append("Total Characters Sent: ").append(String.valueOf(getTotalCharacters())).append("\n");
+        out.append("Average Message Length: ").append(String.format("%.2f", getAverageLength())).append(" characters\n");
     }
 
-    private int calculateTotalCharacters() {
-        int total = 0;
-        for (Message msg : sentMessages) {
-            total += msg.getMessage().length();
+    // One report entry per sent message in [fromIndex, fromIndex + maxRows), numbered as in the full report
+    public ArrayList<String> getFullReportRows(String senderName, int fromIndex, int maxRows) {
+        ArrayList<String> rows = new ArrayList<>();
+        ArrayList<Message> sent = getSentMessages();
+        int end = (int) Math.min(sent.size(), Math.max(0, (long) fromIndex) + Math.max(0, maxRows));
+        for (int i = Math.max(0, fromIndex); i < end; i++) {
+            StringBuilder sb = new StringBuilder();
+            try {
+                appendReportEntry(sb, i + 1, sent.get(i), senderName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows.add(sb.toString());
+        }
+        return rows;
+    }
+
+    // One senders-and-recipients entry per sent message in [fromIndex, fromIndex + maxRows)
+    public ArrayList<String> getSendersAndRecipientsRows(String senderName, int fromIndex, int maxRows) {
+        ArrayList<String> rows = new ArrayList<>();
+        ArrayList<Message> sent = getSentMessages();
+        int end = (int) Math.min(sent.size(), Math.max(0, (long) fromIndex) + Math.max(0, maxRows));
+        for (int i = Math.max(0, fromIndex); i < end; i++) {
+            StringBuilder sb = new StringBuilder();
+            try {
+                appendSenderAndRecipient(sb, i + 1, sent.get(i), senderName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows.add(sb.toString());
+        }
+        return rows;
+    }
+
+    private static void appendSenderAndRecipient(Appendable out, int number, Message msg, String senderName) throws IOException {
+        out.append("Message ").append(String.valueOf(number)).append(":\n");
+        out.append("  Sender: ").append(senderName).append("\n");
+        out.append("  Recipient: ").append(msg.getRecipient()).append("\n");
+        out.append("  Message ID: ").append(msg.getMessageID()).append("\n");
+        out.append("-----------------\n");
+    }
+
+    private static void appendReportEntry(Appendable out, int number, Message msg, String senderName) throws IOException {
+        out.append("MESSAGE ").append(String.valueOf(number)).append(":\n");
+        out.append("  Message ID: ").append(msg.getMessageID()).append("\n");
+        out.append("  Message Hash: ").append(msg.getMessageHash()).append("\n");
+        out.append("  Sender: ").append(senderName).append("\n");
+        out.append("  Recipient: ").append(msg.getRecipient()).append("\n");
+        out.append("  Message: ").append(msg.getMessage()).append("\n");
+        out.append("  Message Length: ").append(String.valueOf(msg.getMessage().length())).append(" characters\n");
+        out.append("  Status: ").append(msg.getStatus()).append("\n");
+        out.append("  Message Count: ").append(String.valueOf(msg.getMessageCount())).append("\n");
+        out.append("====================================\n\n");
+    }
+
+    public long getTotalCharacters() {
+        return totalSentCharacters;
+    }
+
+    public double getAverageLength() {
+        if (sentCount() == 0) return 0;
+        return (double) totalSentCharacters / sentCount();
+    }
+
+    // Message counts for each status list
+    public LinkedHashMap<String, Integer> getStatusCounts() {
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("sent", sentCount());
+        counts.put("stored", storedMessages.size() - storedGaps);
+        counts.put("discarded", disregardedMessages.size());
+        return counts;
+    }
+
+    private void removeFromSentTotals(Slot slot) {
+        int length = lengthOf(slot.message);
+        totalSentCharacters -= length;
+        LengthBucket sameLength = sentByLength.get(length);
+        if (sameLength != null) {
+            sameLength.remove(slot);
+            if (sameLength.size() == 0) {
+                sentByLength.remove(length);
+            }
         }
-        return total;
     }
 
-    private double calculateAverageLength() {
-        if (sentMessages.isEmpty()) return 0;
-        return (double) calculateTotalCharacters() / sentMessages.size();
+    private static int lengthOf(Message message) {
+        return message.getMessage() != null ? message.getMessage().length() : 0;
+    }
+
+    private void addKeys(Message message, Slot slot) {
+        slot.keyPosition = messageHashes.size();
+        messageHashes.add(message.getMessageHash());
+        messageIDs.add(message.getMessageIdValue());
+        keySlots.add(slot);
     }
 
-    // Getters for testing
-    public ArrayList<Message> getSentMessages() { return sentMessages; }
-    public ArrayList<Message> getStoredMessages() { return storedMessages; }
-    public ArrayList<String> getMessageHashes() { return messageHashes; }
-    public ArrayList<String> getMessageIDs() { return messageIDs; }
+    private int sentCount() {
+        return sentMessages.size() - sentGaps;
+    }
+
+    // Closes up any list whose gaps outnumber its messages
+    private void closeGaps() {
+        if (sentGaps > sentCount()) {
+            compact(sentMessages, sentSlots);
+            sentGaps = 0;
+        }
+        if (storedGaps > storedMessages.size() - storedGaps) {
+            compact(storedMessages, storedSlots);
+            storedGaps = 0;
+        }
+        if (keyGaps > messageHashes.size() - keyGaps) {
+            compactKeys();
+            keyGaps = 0;
+        }
+    }
+
+    // Moves the remaining messages down over the gaps, keeping their order
+    private static void compact(ArrayList<Message> list, ArrayList<Slot> slots) {
+        int kept = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (slot != null) {
+                list.set(kept, list.get(i));
+                slots.set(kept, slot);
+                slot.position = kept++;
+            }
+        }
+        list.subList(kept, list.size()).clear();
+        slots.subList(kept, slots.size()).clear();
+    }
+
+    private void compactKeys() {
+        int kept = 0;
+        for (int i = 0; i < keySlots.size(); i++) {
+            Slot slot = keySlots.get(i);
+            if (slot != null) {
+                messageHashes.set(kept, messageHashes.get(i));
+                messageIDs.set(kept, messageIDs.get(i));
+                keySlots.set(kept, slot);
+                slot.keyPosition = kept++;
+            }
+        }
+        messageHashes.subList(kept, messageHashes.size()).clear();
+        messageIDs.truncate(kept);
+        keySlots.subList(kept, keySlots.size()).clear();
+    }
+
+    // The list itself when it has no gaps, otherwise a copy without them
+    private static <T> ArrayList<T> withoutGaps(ArrayList<T> list, ArrayList<Slot> slots, int gaps) {
+        if (gaps == 0) {
+            return list;
+        }
+        ArrayList<T> copy = new ArrayList<>(list.size() - gaps);
+        for (int i = 0; i < list.size(); i++) {
+            if (slots.get(i) != null) {
+                copy.add(list.get(i));
+            }
+        }
+        return copy;
+    }
+
+    private void addToIndexes(Message message, boolean sent, Slot slot) {
+        int ordinal = byOrdinal.size();
+        byOrdinal.add(message);
+        textIndex.add(ordinal, message.getMessage());
+        slot.timeSequence = timeIndex.add(message);
+        addToIndex(idIndex, message.getMessageIdValue(), new IndexEntry(message, sent, ordinal, slot));
+        addToIndex(hashIndex, message.getMessageHash(), new IndexEntry(message, sent, ordinal, slot));
+        if (message.getRecipient() == null) {
+            return;
+        }
+
+        String recipient = normalizeRecipient(message.getRecipient());
+        RecipientMessages bucket = recipientIndex.get(recipient);
+        if (bucket == null) {
+            bucket = new RecipientMessages(recipient);
+            recipientIndex.put(recipient, bucket);
+        } else {
+            recipientsByCount.remove(bucket);
+        }
+        ArrayList<Slot> slots = sent ? bucket.sent : bucket.stored;
+        slot.recipientPosition = slots.size();
+        slots.add(slot);
+        recipientsByCount.add(bucket);
+    }
+
+    private void removeFromRecipientIndex(Slot slot, boolean sent) {
+        if (slot.message.getRecipient() == null) {
+            return;
+        }
+        String recipient = normalizeRecipient(slot.message.getRecipient());
+        RecipientMessages bucket = recipientIndex.get(recipient);
+        if (bucket == null) {
+            return;
+        }
+        recipientsByCount.remove(bucket);
+        bucket.remove(slot, sent);
+        if (bucket.size() == 0) {
+            recipientIndex.remove(recipient);
+        } else {
+            recipientsByCount.add(bucket);
+        }
+    }
+
+    private static String normalizeRecipient(String recipient) {
+        if (recipient == null) {
+            return "";
+        }
+        return Message.toInternationalFormat(recipient.trim());
+    }
+
+    // Entries sharing a key are chained in the order they were added
+    private static <K> void addToIndex(HashMap<K, IndexEntry> index, K key, IndexEntry entry) {
+        IndexEntry head = index.get(key);
+        if (head == null) {
+            index.put(key, entry);
+            return;
+        }
+        while (head.next != null) {
+            head = head.next;
+        }
+        head.next = entry;
+    }
+
+    // Sent messages win over stored ones, the same order the lists used to be searched in
+    private static <K> IndexEntry findEntry(HashMap<K, IndexEntry> index, K key) {
+        IndexEntry firstStored = null;
+        for (IndexEntry entry = index.get(key); entry != null; entry = entry.next) {
+            if (entry.sent) {
+                return entry;
+            }
+            if (firstStored == null) {
+                firstStored = entry;
+            }
+        }
+        return firstStored;
+    }
+
+    private static <K> void removeFromIndex(HashMap<K, IndexEntry> index, K key, Message message) {
+        IndexEntry previous = null;
+        for (IndexEntry entry = index.get(key); entry != null; entry = entry.next) {
+            if (entry.message == message) {
+                if (previous == null) {
+                    if (entry.next == null) {
+                        index.remove(key);
+                    } else {
+                        index.put(key, entry.next);
+                    }
+                } else {
+                    previous.next = entry.next;
+                }
+                return;
+            }
+            previous = entry;
+        }
+    }
+
+    private static class IndexEntry {
+        final Message message;
+        final boolean sent;
+        final int ordinal;
+        // Shared by the ID and hash entries of the same message
+        final Slot slot;
+        IndexEntry next;
+
+        IndexEntry(Message message, boolean sent, int ordinal, Slot slot) {
+            this.message = message;
+            this.sent = sent;
+            this.ordinal = ordinal;
+            this.slot = slot;
+        }
+    }
+
+    // Positions of a message in its sent or stored list, in the hash/ID lists, in
+    // its recipient's and length's buckets, and in the time index
+    private static class Slot {
+        final Message message;
+        int position;
+        int keyPosition;
+        int recipientPosition;
+        int lengthPosition;
+        // Key of the message's entry in the time index
+        long timeSequence;
+
+        Slot(Message message, int position) {
+            this.message = message;
+            this.position = position;
+        }
+    }
+
+    // Sent messages of one length in the order they were sent. A delete leaves a
+    // null that is closed up later, and head skips past deleted ones at the front,
+    // so the earliest is always at head.
+    private static class LengthBucket {
+        final ArrayList<Slot> slots = new ArrayList<>(1);
+        int head = 0;
+        int gaps = 0;
+
+        int size() {
+            return slots.size() - gaps;
+        }
+
+        void add(Slot slot) {
+            slot.lengthPosition = slots.size();
+            slots.add(slot);
+        }
+
+        void remove(Slot slot) {
+            slots.set(slot.lengthPosition, null);
+            gaps++;
+            while (head < slots.size() && slots.get(head) == null) {
+                head++;
+            }
+            if (gaps > size()) {
+                int kept = 0;
+                for (int i = head; i < slots.size(); i++) {
+                    Slot live = slots.get(i);
+                    if (live != null) {
+                        slots.set(kept, live);
+                        live.lengthPosition = kept++;
+                    }
+                }
+                slots.subList(kept, slots.size()).clear();
+                head = 0;
+                gaps = 0;
+            }
+        }
+
+        Message first() {
+            return slots.get(head).message;
+        }
+    }
+
+    // A recipient's sent and stored messages in the order they were added. Like
+    // the main lists, a delete leaves a null that is closed up later.
+    private static class RecipientMessages {
+        final String recipient;
+        final ArrayList<Slot> sent = new ArrayList<>(2);
+        final ArrayList<Slot> stored = new ArrayList<>(2);
+        int gaps = 0;
+
+        RecipientMessages(String recipient) {
+            this.recipient = recipient;
+        }
+
+        int size() {
+            return sent.size() + stored.size() - gaps;
+        }
+
+        void remove(Slot slot, boolean fromSent) {
+            (fromSent ? sent : stored).set(slot.recipientPosition, null);
+            gaps++;
+            if (gaps > size()) {
+                compact(sent);
+                compact(stored);
+                gaps = 0;
+            }
+        }
+
+        void addMessages(ArrayList<Slot> slots, ArrayList<Message> results) {
+            for (Slot slot : slots) {
+                if (slot != null) {
+                    results.add(slot.message);
+                }
+            }
+        }
+
+        private static void compact(ArrayList<Slot> slots) {
+            int kept = 0;
+            for (int i = 0; i < slots.size(); i++) {
+                Slot slot = slots.get(i);
+                if (slot != null) {
+                    slots.set(kept, slot);
+                    slot.recipientPosition = kept++;
+                }
+            }
+            slots.subList(kept, slots.size()).clear();
+        }
+    }
+
+    // Getters for testing. Lists with gaps from deletes come back as copies without them.
+    public ArrayList<Message> getSentMessages() { return withoutGaps(sentMessages, sentSlots, sentGaps); }
+    public ArrayList<Message> getStoredMessages() { return withoutGaps(storedMessages, storedSlots, storedGaps); }
+    public ArrayList<String> getMessageHashes() { return withoutGaps(messageHashes, keySlots, keyGaps); }
+
+    public List<String> getMessageIDs() {
+        if (keyGaps == 0) {
+            return messageIDs.asStrings();
+        }
+        ArrayList<String> ids = new ArrayList<>(messageIDs.size() - keyGaps);
+        for (int i = 0; i < messageIDs.size(); i++) {
+            if (keySlots.get(i) != null) {
+                ids.add(String.valueOf(messageIDs.get(i)));
+            }
+        }
+        return ids;
+    }
     public ArrayList<Message> getDisregardedMessages() { return disregardedMessages; }
 }
\ No newline at end of file
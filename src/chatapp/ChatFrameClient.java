@@ -0,0 +1,178 @@
+package chatapp;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Blocking client for NioChatServer, used by ChatLoadGenerator and the tests.
+// call() sends one request and waits for its reply; send() and receive() can be
+// used separately to pipeline several requests. Messages delivered while call()
+// waits are kept for nextDelivery(), and receipts for nextReceipt().
+public class ChatFrameClient implements Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(ChatFrames.MAX_REQUEST_BYTES);
+    // Kept flipped: the bytes between position and limit have been read but not used
+    private ByteBuffer in = ByteBuffer.allocateDirect(NioChatServer.BUFFER_BYTES);
+    private int nextTag = 0;
+    private final ArrayDeque<Message> deliveries = new ArrayDeque<>();
+    private final ArrayDeque<ReceiptTracker.Receipt> receipts = new ArrayDeque<>();
+
+    public ChatFrameClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in.flip();
+    }
+
+    public Reply call(byte type, String... fields) throws IOException {
+        int tag = send(type, fields);
+        Reply reply = receive();
+        while (stashPushed(reply)) {
+            reply = receive();
+        }
+        if (reply.getTag() != tag) {
+            throw new IOException("Reply to request " + reply.getTag() + " arrived while waiting for " + tag);
+        }
+        return reply;
+    }
+
+    // The next message delivered to this client, waiting for one if need be.
+    // Replies read while waiting are dropped.
+    public Message nextDelivery() throws IOException {
+        while (deliveries.isEmpty()) {
+            stashPushed(receive());
+        }
+        return deliveries.poll();
+    }
+
+    // The next receipt for this client's messages, waiting for one if need be.
+    // Replies read while waiting are dropped.
+    public ReceiptTracker.Receipt nextReceipt() throws IOException {
+        while (receipts.isEmpty()) {
+            stashPushed(receive());
+        }
+        return receipts.poll();
+    }
+
+    // Keeps a frame the server pushed unasked; false if it is a reply
+    private boolean stashPushed(Reply reply) {
+        if (reply.getType() == ChatFrames.DELIVER) {
+            deliveries.add(reply.getMessage());
+        } else if (reply.getType() == ChatFrames.RECEIPT) {
+            receipts.add(reply.getReceipt());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // Writes one request and returns its tag
+    public int send(byte type, String... fields) throws IOException {
+        int tag = ++nextTag;
+        out.clear();
+        ChatFrames.putRequest(out, type, tag, fields);
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        return tag;
+    }
+
+    public Reply receive() throws IOException {
+        fill(4);
+        int length = ChatFrames.frameLength(in);
+        fill(length);
+        in.getInt();
+        ByteBuffer frame = ByteBuffer.allocate(length - 4);
+        ByteBuffer body = in.slice();
+        body.limit(length - 4);
+        frame.put(body).flip();
+        in.position(in.position() + length - 4);
+        return new Reply(frame);
+    }
+
+    // Reads until at least count unread bytes are buffered, growing the buffer for long replies
+    private void fill(int count) throws IOException {
+        if (in.capacity() < count) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(count, in.capacity() * 2));
+            larger.put(in).flip();
+            in = larger;
+        }
+        while (in.remaining() < count) {
+            in.compact();
+            int read = channel.read(in);
+            in.flip();
+            if (read < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static class Reply {
+        private final byte type;
+        private final int tag;
+        private final ByteBuffer payload;
+
+        Reply(ByteBuffer frame) {
+            this.type = frame.get();
+            this.tag = frame.getInt();
+            this.payload = frame.slice();
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public int getTag() {
+            return tag;
+        }
+
+        public boolean isError() {
+            return type == ChatFrames.ERROR;
+        }
+
+        // Text of an OK or ERROR reply
+        public String getText() {
+            return ChatFrames.getString(payload.duplicate());
+        }
+
+        public Message getMessage() {
+            return ChatFrames.getMessage(payload.duplicate());
+        }
+
+        public ReceiptTracker.Receipt getReceipt() {
+            return ChatFrames.getReceipt(payload.duplicate());
+        }
+
+        public List<Message> getMessages() {
+            ByteBuffer fields = payload.duplicate();
+            int count = fields.getInt();
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                messages.add(ChatFrames.getMessage(fields));
+            }
+            return messages;
+        }
+
+        public List<String> getLines() {
+            ByteBuffer fields = payload.duplicate();
+            int count = fields.getInt();
+            List<String> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                lines.add(ChatFrames.getString(fields));
+            }
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package chatapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Binary wire format of NioChatServer. Every frame is
+//
+//   int length (of what follows)   byte type   int tag   payload
+//
+// The tag is chosen by the client and copied into the reply, so requests can be
+// pipelined. Requests carry their ChatProtocol fields as strings, in the same
+// order. SEND, STORE, DISCARD and SEARCH are answered with the MESSAGE itself,
+// RECIPIENT with a MESSAGE_LIST, REPORT with TEXT_LINES and the rest with OK or
+// ERROR. A message is sent as long ID, long recipient (PhoneNumberCodec form),
+// then text, hash and status. Strings are an unsigned short byte count followed
+// by UTF-8.
+//
+// Once logged in, a client is also sent DELIVER frames, with tag 0, carrying
+// messages queued for its number. It answers each with an ACK request holding
+// the message ID; unacked messages are delivered again later. ACK_THROUGH acks
+// a message and every message delivered before it with one frame.
+//
+// READ (sender number, message ID) marks the sender's messages up to that one
+// as read. Senders are pushed RECEIPT frames, with tag 0, each a cumulative
+// receipt for a conversation: long recipient, status (delivered or read), long
+// ID of the last message it covers, and an int count of the messages it adds.
+//
+// Frames are written straight into the outgoing buffer: begin() leaves room for
+// the length and end() fills it in once the payload is there, so nothing is
+// assembled in a temporary array first.
+public final class ChatFrames {
+    // Requests
+    public static final byte REGISTER = 1;
+    public static final byte LOGIN = 2;
+    public static final byte SEND = 3;
+    public static final byte STORE = 4;
+    public static final byte DISCARD = 5;
+    public static final byte SEARCH = 6;
+    public static final byte RECIPIENT = 7;
+    public static final byte DELETE = 8;
+    public static final byte REPORT = 9;
+    public static final byte QUIT = 10;
+    public static final byte ACK = 11;
+    public static final byte ACK_THROUGH = 12;
+    public static final byte READ = 13;
+
+    // Replies: OK and ERROR carry one string, MESSAGE one message, MESSAGE_LIST
+    // and TEXT_LINES an int count and that many messages or strings
+    public static final byte OK = 64;
+    public static final byte ERROR = 65;
+    public static final byte MESSAGE = 66;
+    public static final byte MESSAGE_LIST = 67;
+    public static final byte TEXT_LINES = 68;
+    public static final byte DELIVER = 69;
+    public static final byte RECEIPT = 70;
+
+    public static final int HEADER_BYTES = 9;
+    // Largest request the server accepts, header included; replies may be longer
+    public static final int MAX_REQUEST_BYTES = 16 * 1024;
+
+    private ChatFrames() {
+    }
+
+    // Starts a frame at the buffer's position and returns that position for end()
+    public static int begin(ByteBuffer out, byte type, int tag) {
+        int start = out.position();
+        out.putInt(0).put(type).putInt(tag);
+        return start;
+    }
+
+    public static void end(ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start - 4);
+    }
+
+    // Length of the complete frame starting at in's position, or -1 if its
+    // length field has not fully arrived
+    public static int frameLength(ByteBuffer in) {
+        return in.remaining() < 4 ? -1 : in.getInt(in.position()) + 4;
+    }
+
+    public static void putString(ByteBuffer out, String text) {
+        byte[] bytes = (text != null ? text : "").getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Field is too long: " + bytes.length + " bytes");
+        }
+        out.putShort((short) bytes.length).put(bytes);
+    }
+
+    public static String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Field runs past the end of the frame");
+        }
+        ByteBuffer bytes = in.slice();
+        bytes.limit(length);
+        in.position(in.position() + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    public static void putMessage(ByteBuffer out, Message message) {
+        out.putLong(message.getMessageIdValue()).putLong(message.getRecipientCode());
+        putString(out, message.getMessage());
+        putString(out, message.getMessageHash());
+        putString(out, message.getStatus());
+    }
+
+    public static Message getMessage(ByteBuffer in) {
+        long messageID = in.getLong();
+        long recipient = in.getLong();
+        String text = getString(in);
+        String hash = getString(in);
+        String status = getString(in);
+        return Message.restore(messageID, recipient, text, 0, hash, status, 0);
+    }
+
+    public static void putReceipt(ByteBuffer out, ReceiptTracker.Receipt receipt) {
+        out.putLong(receipt.getRecipientCode());
+        putString(out, receipt.getStatus());
+        out.putLong(receipt.getThroughId()).putInt(receipt.getCount());
+    }
+
+    // The sender is not sent; it is the client the receipt arrives at
+    public static ReceiptTracker.Receipt getReceipt(ByteBuffer in) {
+        long recipient = in.getLong();
+        String status = getString(in);
+        long throughId = in.getLong();
+        return new ReceiptTracker.Receipt(PhoneNumberCodec.NONE, recipient, status, throughId, in.getInt());
+    }
+
+    // Writes a whole request frame whose fields are all strings
+    public static void putRequest(ByteBuffer out, byte type, int tag, String... fields) {
+        int start = begin(out, type, tag);
+        for (String field : fields) {
+            putString(out, field);
+        }
+        end(out, start);
+    }
+}
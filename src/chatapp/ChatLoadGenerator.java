@@ -0,0 +1,171 @@
+package chatapp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Load generator for NioChatServer. Opens a number of idle connections, then has
+// each client connection log in and send messages one after another, timing
+// every request, and reports throughput and p50/p99/p99.9 latency.
+//
+// Without an address it starts a server in this process on loopback; the
+// messages it sends are stored like any others, in the working directory.
+// Every connection needs a file descriptor (two when the server runs in the
+// same process), so raise "ulimit -n" for large idle counts.
+//
+// Usage:
+//   java -cp build/classes chatapp.ChatLoadGenerator [clients] [requests per client] [idle connections] [host:port]
+public class ChatLoadGenerator {
+    static final String USERNAME = "lod_1";
+    static final String PASSWORD = "Ch&&sec@ke99!";
+    static final String RECIPIENT = "+27718693002";
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int idle = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        NioChatServer server = null;
+        InetSocketAddress address;
+        if (args.length > 3) {
+            String[] hostPort = args[3].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            server = new NioChatServer(new ChatService(), 0);
+            server.start();
+            address = server.getAddress();
+        }
+        try {
+            System.out.println("Load test against " + address + ": " + clients + " clients x " + requests
+                + " requests, " + idle + " idle connections");
+            System.out.println(run(address, clients, requests, idle));
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    // Registers the load test user if needed, then runs the test
+    public static Result run(InetSocketAddress address, int clients, int requestsPerClient, int idleConnections)
+            throws IOException, InterruptedException {
+        try (ChatFrameClient client = new ChatFrameClient(address)) {
+            // Already registered on a server that has seen a load test before
+            client.call(ChatFrames.REGISTER, "Load", "Test", USERNAME, PASSWORD, "+27838968976");
+        }
+
+        List<SocketChannel> idle = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            for (int i = 0; i < idleConnections; i++) {
+                idle.add(SocketChannel.open(address));
+            }
+            CountDownLatch ready = new CountDownLatch(clients);
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger failures = new AtomicInteger();
+            List<Future<long[]>> timings = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                timings.add(pool.submit(() -> {
+                    boolean counted = false;
+                    try (ChatFrameClient client = new ChatFrameClient(address)) {
+                        ChatFrameClient.Reply login = client.call(ChatFrames.LOGIN, USERNAME, PASSWORD);
+                        ready.countDown();
+                        counted = true;
+                        if (login.isError()) {
+                            throw new IOException(login.getText());
+                        }
+                        start.await();
+                        long[] latencies = new long[requestsPerClient];
+                        for (int i = 0; i < requestsPerClient; i++) {
+                            long sent = System.nanoTime();
+                            ChatFrameClient.Reply reply = client.call(ChatFrames.SEND, RECIPIENT, "Load test message " + i);
+                            latencies[i] = System.nanoTime() - sent;
+                            if (reply.isError()) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                        return latencies;
+                    } finally {
+                        // A client that failed to connect must not hold up the others
+                        if (!counted) {
+                            ready.countDown();
+                        }
+                    }
+                }));
+            }
+            ready.await();
+            long began = System.nanoTime();
+            start.countDown();
+
+            long[] all = new long[clients * requestsPerClient];
+            int filled = 0;
+            for (Future<long[]> timing : timings) {
+                long[] latencies;
+                try {
+                    latencies = timing.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Load client failed: " + e.getCause().getMessage(), e.getCause());
+                }
+                System.arraycopy(latencies, 0, all, filled, latencies.length);
+                filled += latencies.length;
+            }
+            return new Result(all, failures.get(), System.nanoTime() - began);
+        } finally {
+            pool.shutdownNow();
+            for (SocketChannel channel : idle) {
+                channel.close();
+            }
+        }
+    }
+
+    public static class Result {
+        // Nanoseconds, sorted
+        private final long[] latencies;
+        private final int failures;
+        private final long elapsedNanos;
+
+        Result(long[] latencies, int failures, long elapsedNanos) {
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getRequests() {
+            return latencies.length;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        // Requests per second across all clients
+        public double getThroughput() {
+            return elapsedNanos > 0 ? latencies.length * 1e9 / elapsedNanos : 0;
+        }
+
+        // Latency below which the given fraction of requests finished, e.g. 0.99
+        public long getPercentileMicros(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests (%d failed) in %.2f s: %.0f requests/s, latency p50 %d us, p99 %d us, p99.9 %d us",
+                getRequests(), failures, elapsedNanos / 1e9, getThroughput(),
+                getPercentileMicros(0.50), getPercentileMicros(0.99), getPercentileMicros(0.999));
+        }
+    }
+}
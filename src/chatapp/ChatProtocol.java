@@ -0,0 +1,243 @@
+package chatapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+// Text protocol spoken by ChatServer, one instance per connection. Each request
+// is one line of tab-separated fields, the first being the command; each reply
+// starts with OK or ERR followed by tab-separated fields:
+//
+//   REGISTER first last username password cell   -> OK welcome
+//   LOGIN username password                      -> OK welcome
+//   SEND recipient text                          -> OK id hash   (also STORE, DISCARD)
+//   SEARCH id                                    -> OK message
+//   RECIPIENT number                             -> OK count, then count message lines
+//   DELETE hash                                  -> OK id
+//   REPORT                                       -> OK count, then count report lines
+//   INBOX                                        -> OK count, then count message lines
+//   ACK id                                       -> OK id
+//   ACKTO id                                     -> OK count acked
+//   READ sender id                               -> OK count marked read
+//   RECEIPTS                                     -> OK count, then count receipt lines
+//   QUIT                                         -> OK Bye
+//
+// A message is sent as "id recipient status hash text". Tabs, newlines and
+// backslashes inside fields are escaped as \t, \n and \\.
+//
+// Logging in starts a delivery session for the user's number. INBOX returns the
+// messages delivered to it since the last INBOX; each must be acked, or it is
+// delivered again later. ACKTO acks a message and everything delivered before it.
+//
+// READ tells the sender their messages up to id have been read. RECEIPTS returns
+// the receipts for the user's own messages since the last RECEIPTS, one line
+// "recipient status throughId count" for each, status being delivered or read.
+public class ChatProtocol {
+    private final ChatService service;
+    private final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ReceiptTracker.Receipt> receipts = new ConcurrentLinkedQueue<>();
+    private final Consumer<ReceiptTracker.Receipt> receiptSink = receipts::add;
+    private Registration user;
+    private DeliveryQueues.Session session;
+    private boolean closed = false;
+
+    public ChatProtocol(ChatService service) {
+        this.service = service;
+    }
+
+    // True once the client has asked to QUIT
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Ends the delivery session; call when the connection goes away
+    public void close() {
+        closed = true;
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (user != null) {
+            service.unsubscribeReceipts(user, receiptSink);
+        }
+    }
+
+    // Handles one request line and returns the reply, which may span several lines
+    public String handle(String line) {
+        String[] fields = line.split("\t", -1);
+        String command = fields[0].trim().toUpperCase();
+        try {
+            switch (command) {
+                case "REGISTER":
+                    require(fields, 6);
+                    service.register(fields[1], fields[2], fields[3], fields[4], fields[5]);
+                    return ok("Registration Successful! You can now login with your credentials.");
+                case "LOGIN":
+                    require(fields, 3);
+                    Registration found = service.login(fields[1], fields[2]);
+                    if (found == null) {
+                        return error(service.loginStatus(null));
+                    }
+                    if (session != null) {
+                        session.close();
+                        service.unsubscribeReceipts(user, receiptSink);
+                    }
+                    user = found;
+                    session = service.connect(user, inbox::add);
+                    service.subscribeReceipts(user, receiptSink);
+                    return ok(service.loginStatus(user));
+                case "QUIT":
+                    close();
+                    return ok("Bye");
+                default:
+                    break;
+            }
+
+            if (user == null) {
+                return error("Please login first.");
+            }
+            switch (command) {
+                case "SEND":
+                    return send(fields, ChatService.ACTION_SEND);
+                case "STORE":
+                    return send(fields, ChatService.ACTION_STORE);
+                case "DISCARD":
+                    return send(fields, ChatService.ACTION_DISCARD);
+                case "SEARCH": {
+                    require(fields, 2);
+                    Message message = service.findById(fields[1].trim());
+                    return message != null ? ok(formatMessage(message)) : error("No message found with ID: " + fields[1]);
+                }
+                case "RECIPIENT": {
+                    require(fields, 2);
+                    ArrayList<String> lines = new ArrayList<>();
+                    for (Message message : service.findByRecipient(fields[1].trim())) {
+                        lines.add(formatMessage(message));
+                    }
+                    return okLines(lines);
+                }
+                case "DELETE": {
+                    require(fields, 2);
+                    Message message = service.deleteByHash(fields[1].trim());
+                    return message != null ? ok(message.getMessageID()) : error("No message found with hash: " + fields[1]);
+                }
+                case "REPORT": {
+                    ArrayList<String> lines = new ArrayList<>();
+                    for (String reportLine : service.fullReport(user).split("\n")) {
+                        lines.add(escape(reportLine));
+                    }
+                    return okLines(lines);
+                }
+                case "INBOX": {
+                    ArrayList<String> lines = new ArrayList<>();
+                    Message message;
+                    while ((message = inbox.poll()) != null) {
+                        lines.add(formatMessage(message));
+                    }
+                    return okLines(lines);
+                }
+                case "ACK": {
+                    require(fields, 2);
+                    String messageID = fields[1].trim();
+                    if (!session.ack(parseId(messageID))) {
+                        return error("No delivery waiting for an ack with ID: " + fields[1]);
+                    }
+                    return ok(messageID);
+                }
+                case "ACKTO": {
+                    require(fields, 2);
+                    int acked = session.ackThrough(parseId(fields[1].trim()));
+                    if (acked == 0) {
+                        return error("No delivery waiting for an ack with ID: " + fields[1]);
+                    }
+                    return ok(String.valueOf(acked));
+                }
+                case "READ": {
+                    require(fields, 3);
+                    return ok(String.valueOf(service.read(user, fields[1], fields[2].trim())));
+                }
+                case "RECEIPTS": {
+                    ArrayList<String> lines = new ArrayList<>();
+                    ReceiptTracker.Receipt receipt;
+                    while ((receipt = receipts.poll()) != null) {
+                        lines.add(receipt.getRecipient() + "\t" + receipt.getStatus() + "\t"
+                            + receipt.getThroughId() + "\t" + receipt.getCount());
+                    }
+                    return okLines(lines);
+                }
+                default:
+                    return error("Unknown command: " + fields[0]);
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return error(e.getMessage());
+        }
+    }
+
+    private String send(String[] fields, int action) {
+        require(fields, 3);
+        // The text is everything after the recipient, tabs included
+        String text = String.join("\t", Arrays.copyOfRange(fields, 2, fields.length));
+        Message message = service.send(user, fields[1], unescape(text), action);
+        return ok(message.getMessageID() + "\t" + escape(message.getMessageHash()));
+    }
+
+    private static void require(String[] fields, int count) {
+        if (fields.length < count) {
+            throw new IllegalArgumentException(fields[0].trim().toUpperCase() + " needs " + (count - 1) + " fields");
+        }
+    }
+
+    // The message ID, or -1 if the text is not a number
+    static long parseId(String messageID) {
+        try {
+            return Long.parseLong(messageID);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static String formatMessage(Message message) {
+        return message.getMessageID() + "\t" + escape(message.getRecipient()) + "\t" + escape(message.getStatus())
+            + "\t" + escape(message.getMessageHash()) + "\t" + escape(message.getMessage());
+    }
+
+    private static String ok(String text) {
+        return "OK\t" + text;
+    }
+
+    // Lines must already be escaped
+    private static String okLines(List<String> lines) {
+        StringBuilder reply = new StringBuilder("OK\t").append(lines.size());
+        for (String line : lines) {
+            reply.append('\n').append(line);
+        }
+        return reply.toString();
+    }
+
+    private static String error(String text) {
+        return "ERR\t" + escape(text);
+    }
+
+    static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "");
+    }
+
+    static String unescape(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,193 @@
+package chatapp;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Headless QuickChat server: accepts TCP clients and serves ChatService over
+// ChatProtocol, one thread per connection. On Java 21 and later each connection
+// gets a virtual thread, so blocking reads cost no platform thread and many
+// thousands of clients can be connected at once; older runtimes fall back to a
+// pool of ordinary threads.
+//
+// Usage:
+//   java -cp build/classes chatapp.ChatServer [port]
+//   java -cp build/classes chatapp.ChatApp --server [port]
+public class ChatServer implements Closeable {
+    public static final int DEFAULT_PORT = 5190;
+
+    private final ChatService service;
+    private final InetSocketAddress address;
+    private final ExecutorService connections = newConnectionExecutor();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private volatile boolean closed = false;
+
+    // Listens on localhost only; port 0 picks a free port (see getPort)
+    public ChatServer(ChatService service, int port) {
+        this(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public ChatServer(ChatService service, InetSocketAddress address) {
+        this.service = service;
+        this.address = address;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        ChatService service = new ChatService();
+        int loaded = service.loadStoredMessages();
+        ChatServer server = new ChatServer(service, port);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "chat-server-shutdown"));
+        System.out.println("QuickChat server listening on " + server.getAddress()
+            + " (" + loaded + " stored messages, " + (usesVirtualThreads() ? "virtual" : "platform") + " threads)");
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address, 1024);
+        acceptThread = new Thread(this::acceptConnections, "chat-server-accept");
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    // Number of clients currently connected
+    public int getConnectionCount() {
+        return openSockets.size();
+    }
+
+    // Stops accepting, disconnects every client and waits for their threads to finish
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        for (Socket socket : openSockets) {
+            closeQuietly(socket);
+        }
+        connections.shutdown();
+        try {
+            if (acceptThread != null) {
+                acceptThread.join();
+            }
+            connections.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+                continue;
+            }
+            openSockets.add(socket);
+            if (closed) {
+                closeQuietly(socket);
+                return;
+            }
+            connections.execute(() -> serve(socket));
+        }
+    }
+
+    private void serve(Socket socket) {
+        ChatProtocol protocol = new ChatProtocol(service);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while (!protocol.isClosed() && (line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                out.write(protocol.handle(line));
+                out.write('\n');
+                // Replies to pipelined requests go out together
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (SocketException e) {
+            // Client went away, or the server is closing
+        } catch (IOException e) {
+            System.err.println("Error serving client: " + e.getMessage());
+        } finally {
+            protocol.close();
+            openSockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    // Virtual thread per task on Java 21+, looked up by reflection so the code
+    // still compiles and runs on older JDKs, where it uses a cached thread pool
+    static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = task -> {
+                Thread thread = new Thread(task, "chat-connection-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(factory);
+        }
+    }
+
+    static boolean usesVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package chatapp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// The messaging operations behind the Swing screens, without any UI, so that
+// network servers can offer them to many clients at once. Accounts live in
+// memory; messages go through Message.sentMessage and JSONHandler exactly as
+// they do in the desktop app, and are kept in a ConcurrentChatAppArrayManager.
+//
+// Invalid input is reported with IllegalArgumentException, using the same
+// wording as the desktop app's dialogs (on one line).
+//
+// Sent messages are also queued in DeliveryQueues for their recipient, who
+// receives them through a session started with connect() after logging in.
+// Messages sent by a logged-in user are tracked by a ReceiptTracker, which marks
+// them delivered when the recipient acks them and read when the recipient says
+// so, and reports both back to the sender as cumulative receipts.
+public class ChatService {
+    public static final int MAX_MESSAGE_LENGTH = 250;
+
+    public static final int ACTION_SEND = 1;
+    public static final int ACTION_DISCARD = 2;
+    public static final int ACTION_STORE = 3;
+
+    private static final String INVALID_NUMBER =
+        "Invalid South African cell number! Accepted formats: +27612345678 or 0712345678";
+
+    private final ConcurrentChatAppArrayManager messages = new ConcurrentChatAppArrayManager();
+    private final ConcurrentHashMap<String, Registration> users = new ConcurrentHashMap<>();
+    private final Login login = new Login();
+    private final DeliveryQueues deliveries;
+    private final ReceiptTracker receipts =
+        new ReceiptTracker(Long.getLong("chatapp.receipts.delayMillis", ReceiptTracker.DEFAULT_DELAY_MILLIS),
+            Integer.getInteger("chatapp.receipts.maxTracked", ReceiptTracker.DEFAULT_MAX_TRACKED));
+
+    // Delivers through the queues shared by the whole process
+    public ChatService() {
+        this(DeliveryQueues.getShared());
+    }
+
+    public ChatService(DeliveryQueues deliveries) {
+        this.deliveries = deliveries;
+    }
+
+    public ConcurrentChatAppArrayManager getMessages() {
+        return messages;
+    }
+
+    public ReceiptTracker getReceipts() {
+        return receipts;
+    }
+
+    // Loads the messages already in storage, as the desktop app does after login
+    public int loadStoredMessages() throws IOException {
+        int count = 0;
+        try (Stream<Message> stream = JSONHandler.streamAllMessages()) {
+            Iterator<Message> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                Message message = iterator.next();
+                if ("stored".equals(message.getStatus())) {
+                    messages.addToStoredMessages(message);
+                } else if (isSent(message)) {
+                    messages.addToSentMessages(message);
+                } else if ("discarded".equals(message.getStatus())) {
+                    messages.addToDisregardedMessages(message);
+                } else {
+                    continue;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Sent messages keep their place once they have been delivered or read
+    static boolean isSent(Message message) {
+        String status = message.getStatus();
+        return "sent".equals(status) || Message.DELIVERED_STATUS.equals(status) || Message.READ_STATUS.equals(status);
+    }
+
+    // Creates an account; throws if a field is invalid or the username is taken
+    public Registration register(String firstName, String lastName, String username,
+                                 String password, String cellNumber) {
+        Registration user = new Registration();
+        user.firstName = firstName;
+        user.lastName = lastName;
+        user.username = username;
+        user.password = password;
+        if (!user.checkFirstName()) {
+            throw new IllegalArgumentException(user.firstNameInstructions());
+        }
+        if (!user.checkLastName()) {
+            throw new IllegalArgumentException(user.lastNameInstructions());
+        }
+        if (!user.checkUserName()) {
+            throw new IllegalArgumentException("Invalid username! Must contain underscore (_) and be 5 characters or less.");
+        }
+        if (!user.checkPasswordComplexity()) {
+            throw new IllegalArgumentException("Password does not meet complexity requirements!");
+        }
+        if (!user.checkCellPhoneNumber(cellNumber)) {
+            throw new IllegalArgumentException(INVALID_NUMBER);
+        }
+        user.setCellNumber(cellNumber);
+        if (users.putIfAbsent(username, user) != null) {
+            throw new IllegalArgumentException("Username is already taken.");
+        }
+        return user;
+    }
+
+    // Returns the account if the username and password match, otherwise null
+    public Registration login(String username, String password) {
+        Registration user = username != null ? users.get(username) : null;
+        if (user == null || password == null || !login.checkLogin(user, username, password)) {
+            return null;
+        }
+        return user;
+    }
+
+    public String loginStatus(Registration user) {
+        return login.returnLoginStatus(user != null, user);
+    }
+
+    // Creates a message and sends, discards or stores it (ACTION_SEND, _DISCARD or _STORE)
+    public Message send(String recipient, String text, int action) {
+        return send(null, recipient, text, action);
+    }
+
+    // Same as above; a message sent by a known sender gets receipts
+    public Message send(Registration sender, String recipient, String text, int action) {
+        if (action != ACTION_SEND && action != ACTION_DISCARD && action != ACTION_STORE) {
+            throw new IllegalArgumentException("Invalid choice. Please enter 1, 2, or 3.");
+        }
+        Message message = new Message();
+        if (recipient == null || message.checkRecipientCell(recipient.trim()) == 0) {
+            throw new IllegalArgumentException(INVALID_NUMBER);
+        }
+        String body = text != null ? text.trim() : "";
+        if (body.isEmpty()) {
+            throw new IllegalArgumentException("Please enter a message");
+        }
+        if (body.length() > MAX_MESSAGE_LENGTH) {
+            throw new IllegalArgumentException("Please enter a message of less than 250 characters.");
+        }
+        message.setRecipient(recipient.trim());
+        message.setMessage(body);
+
+        switch (action) {
+            case ACTION_SEND:
+                message.sentMessage(1);
+                messages.addToSentMessages(message);
+                if (sender != null) {
+                    receipts.sent(PhoneNumberCodec.encode(sender.cellNumber), message);
+                }
+                deliveries.enqueue(message).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        System.err.println("Error queueing message for delivery: " + error.getMessage());
+                    }
+                });
+                break;
+            case ACTION_DISCARD:
+                message.sentMessage(2);
+                messages.addToDisregardedMessages(message);
+                break;
+            default:
+                message.sentMessage(3);
+                messages.addToStoredMessages(message);
+                break;
+        }
+        return message;
+    }
+
+    // Looks in memory first, then in storage for messages from earlier runs
+    public Message findById(String messageID) {
+        Message message = messages.searchMessageByID(messageID);
+        return message != null ? message : JSONHandler.findMessage(messageID);
+    }
+
+    public ArrayList<Message> findByRecipient(String recipient) {
+        return messages.searchMessagesByRecipient(recipient);
+    }
+
+    // Deletes from memory and storage, and stops its delivery and receipts; returns
+    // the deleted message, or null if there was none. Throws IllegalStateException
+    // if it could not be deleted from storage.
+    public Message deleteByHash(String hash) {
+        Message message = messages.removeMessageByHash(hash);
+        if (message == null) {
+            return null;
+        }
+        deliveries.remove(message);
+        receipts.forget(message.getMessageIdValue());
+        // Discarded messages were never stored
+        if (!"discarded".equals(message.getStatus()) && !JSONHandler.deleteMessage(message.getMessageID())) {
+            throw new IllegalStateException("Message " + message.getMessageID()
+                + " was removed but could not be deleted from storage");
+        }
+        return message;
+    }
+
+    // Starts delivering the messages queued for the user's number to sink; see
+    // DeliveryQueues.connect. Acked messages are marked delivered.
+    public DeliveryQueues.Session connect(Registration user, Consumer<Message> sink) {
+        return deliveries.connect(PhoneNumberCodec.encode(user.cellNumber), sink, receipts::delivered);
+    }
+
+    // Marks the messages from senderNumber to the user as read, up to and including
+    // messageID; returns how many were newly marked
+    public int read(Registration user, String senderNumber, String messageID) {
+        long sender = PhoneNumberCodec.encode(senderNumber != null ? senderNumber.trim() : null);
+        if (sender == PhoneNumberCodec.NONE) {
+            throw new IllegalArgumentException(INVALID_NUMBER);
+        }
+        int count = receipts.read(PhoneNumberCodec.encode(user.cellNumber), sender, ChatProtocol.parseId(messageID));
+        if (count < 0) {
+            throw new IllegalArgumentException("No unread message from " + senderNumber + " with ID: " + messageID);
+        }
+        return count;
+    }
+
+    // Receipts for messages the user sends go to sink; see ReceiptTracker.subscribe
+    public void subscribeReceipts(Registration user, Consumer<ReceiptTracker.Receipt> sink) {
+        receipts.subscribe(PhoneNumberCodec.encode(user.cellNumber), sink);
+    }
+
+    public void unsubscribeReceipts(Registration user, Consumer<ReceiptTracker.Receipt> sink) {
+        receipts.unsubscribe(PhoneNumberCodec.encode(user.cellNumber), sink);
+    }
+
+    public String fullReport(Registration user) {
+        return messages.generateFullReport(user.firstName + " " + user.lastName);
+    }
+}
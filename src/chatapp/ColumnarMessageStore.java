@@ -0,0 +1,303 @@
+package chatapp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+// Column-oriented copy of a set of messages for aggregate queries. Each field
+// lives in its own primitive array and message text is packed as UTF-8 into
+// one byte arena, so statistics over millions of rows are plain loops over
+// int/long/byte arrays with no per-message objects for the GC to trace.
+// JSONHandler.loadColumns() fills one from the whole store for batch statistics;
+// the in-memory manager keeps no copy of its own.
+//
+// A removed row is replaced by the last row, found through an ID-to-row map,
+// so a delete is O(1) and row order is append order only until the first
+// delete. The removed text stays in the arena until dead bytes outnumber live
+// ones, when compact() repacks it. Rows per status are counted as they change.
+public class ColumnarMessageStore {
+    public static final byte STATUS_PENDING = 0;
+    public static final byte STATUS_SENT = 1;
+    public static final byte STATUS_STORED = 2;
+    public static final byte STATUS_DISCARDED = 3;
+    public static final byte STATUS_OTHER = 4;
+    public static final byte STATUS_DELETED = 5;
+    public static final byte STATUS_DELIVERED = 6;
+    public static final byte STATUS_READ = 7;
+
+    private static final String[] STATUS_NAMES =
+        {"pending", "sent", "stored", "discarded", "other", "deleted", "delivered", "read"};
+
+    private long[] ids;
+    private long[] recipients;
+    private int[] lengths;
+    private byte[] statuses;
+    private int[] counts;
+    private long[] timestamps;
+    private int[] textStarts;
+    private int[] textBytes;
+    // Next older row with the same ID, or -1; rowById holds the newest
+    private int[] sameIdRows;
+    private byte[] textArena;
+    private final HashMap<Long, Integer> rowById = new HashMap<>();
+    private final int[] statusCounts = new int[STATUS_NAMES.length];
+
+    private int rowCount = 0;
+    private int arenaSize = 0;
+    private int deadTextBytes = 0;
+
+    public ColumnarMessageStore() {
+        this(1024);
+    }
+
+    public ColumnarMessageStore(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        ids = new long[capacity];
+        recipients = new long[capacity];
+        lengths = new int[capacity];
+        statuses = new byte[capacity];
+        counts = new int[capacity];
+        timestamps = new long[capacity];
+        textStarts = new int[capacity];
+        textBytes = new int[capacity];
+        sameIdRows = new int[capacity];
+        textArena = new byte[capacity * 32];
+    }
+
+    // Appends every message with its own status. Only the columns stay in memory,
+    // so messages can come straight from a stream over the store.
+    public static ColumnarMessageStore load(Iterator<Message> messages) {
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        while (messages.hasNext()) {
+            store.append(messages.next());
+        }
+        return store;
+    }
+
+    public static byte statusOf(String status) {
+        if (status == null) return STATUS_PENDING;
+        switch (status) {
+            case "pending": return STATUS_PENDING;
+            case "sent": return STATUS_SENT;
+            case "stored": return STATUS_STORED;
+            case "discarded": return STATUS_DISCARDED;
+            case "delivered": return STATUS_DELIVERED;
+            case "read": return STATUS_READ;
+            default: return STATUS_OTHER;
+        }
+    }
+
+    public static String statusName(byte status) {
+        return STATUS_NAMES[status];
+    }
+
+    // Appends a row using the message's own status
+    public int append(Message message) {
+        return append(message, statusOf(message.getStatus()));
+    }
+
+    // Appends a row with an explicit status, e.g. the list the message was added to
+    public int append(Message message, byte status) {
+        if (rowCount == ids.length) {
+            grow(rowCount * 2);
+        }
+
+        String text = message.getMessage() != null ? message.getMessage() : "";
+        byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+        if (arenaSize + encoded.length > textArena.length) {
+            textArena = Arrays.copyOf(textArena, Math.max(textArena.length * 2, arenaSize + encoded.length));
+        }
+        System.arraycopy(encoded, 0, textArena, arenaSize, encoded.length);
+
+        int row = rowCount++;
+        long id = message.getMessageIdValue();
+        ids[row] = id;
+        recipients[row] = message.getRecipientCode();
+        lengths[row] = text.length();
+        statuses[row] = status;
+        counts[row] = message.getMessageCount();
+        timestamps[row] = message.getTimestamp();
+        textStarts[row] = arenaSize;
+        textBytes[row] = encoded.length;
+        arenaSize += encoded.length;
+        Integer newest = rowById.put(id, row);
+        sameIdRows[row] = newest != null ? newest : -1;
+        statusCounts[status]++;
+        return row;
+    }
+
+    // Removes the newest row with this ID and status
+    public boolean remove(long messageID, byte status) {
+        Integer newest = rowById.get(messageID);
+        int previous = -1;
+        for (int row = newest != null ? newest : -1; row >= 0; previous = row, row = sameIdRows[row]) {
+            if (statuses[row] == status) {
+                if (previous >= 0) {
+                    sameIdRows[previous] = sameIdRows[row];
+                } else if (sameIdRows[row] >= 0) {
+                    rowById.put(messageID, sameIdRows[row]);
+                } else {
+                    rowById.remove(messageID);
+                }
+                removeRow(row);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Fills the row's place with the last row
+    private void removeRow(int row) {
+        statusCounts[statuses[row]]--;
+        deadTextBytes += textBytes[row];
+        int last = --rowCount;
+        if (row != last) {
+            moveRow(last, row);
+        }
+        if (deadTextBytes > arenaSize - deadTextBytes) {
+            compact();
+        }
+    }
+
+    private void moveRow(int from, int to) {
+        long id = ids[from];
+        ids[to] = id;
+        recipients[to] = recipients[from];
+        lengths[to] = lengths[from];
+        statuses[to] = statuses[from];
+        counts[to] = counts[from];
+        timestamps[to] = timestamps[from];
+        textStarts[to] = textStarts[from];
+        textBytes[to] = textBytes[from];
+        sameIdRows[to] = sameIdRows[from];
+
+        // Point whatever referred to the old row at the new one
+        int newest = rowById.get(id);
+        if (newest == from) {
+            rowById.put(id, to);
+        } else {
+            int row = newest;
+            while (sameIdRows[row] != from) {
+                row = sameIdRows[row];
+            }
+            sameIdRows[row] = to;
+        }
+    }
+
+    public void clear() {
+        rowCount = 0;
+        arenaSize = 0;
+        deadTextBytes = 0;
+        rowById.clear();
+        Arrays.fill(statusCounts, 0);
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    // Same as rowCount(), since removed rows are gone at once
+    public int liveCount() {
+        return rowCount;
+    }
+
+    public long getMessageID(int row) { checkRow(row); return ids[row]; }
+    public long getRecipientCode(int row) { checkRow(row); return recipients[row]; }
+    public int getLength(int row) { checkRow(row); return lengths[row]; }
+    public byte getStatus(int row) { checkRow(row); return statuses[row]; }
+    public int getMessageCount(int row) { checkRow(row); return counts[row]; }
+    public long getTimestamp(int row) { checkRow(row); return timestamps[row]; }
+
+    public String getText(int row) {
+        checkRow(row);
+        return new String(textArena, textStarts[row], textBytes[row], StandardCharsets.UTF_8);
+    }
+
+    // Total characters over rows with the given status
+    public long totalCharacters(byte status) {
+        long total = 0;
+        for (int row = 0; row < rowCount; row++) {
+            total += statuses[row] == status ? lengths[row] : 0;
+        }
+        return total;
+    }
+
+    public double averageLength(byte status) {
+        long total = 0;
+        int matched = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (statuses[row] == status) {
+                total += lengths[row];
+                matched++;
+            }
+        }
+        return matched == 0 ? 0 : (double) total / matched;
+    }
+
+    // Row of the longest message with the given status (first one on ties), or -1
+    public int longestRow(byte status) {
+        int best = -1;
+        int bestLength = -1;
+        for (int row = 0; row < rowCount; row++) {
+            if (statuses[row] == status && lengths[row] > bestLength) {
+                best = row;
+                bestLength = lengths[row];
+            }
+        }
+        return best;
+    }
+
+    // Rows per status, indexed by the STATUS_ constants
+    public int[] statusCounts() {
+        return statusCounts.clone();
+    }
+
+    public int statusCount(byte status) {
+        return statusCounts[status];
+    }
+
+    // Live rows sent or stored to the recipient with this PhoneNumberCodec code
+    public int countForRecipient(long recipientCode) {
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            byte status = statuses[row];
+            if (recipients[row] == recipientCode && (status == STATUS_SENT || status == STATUS_STORED)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Repacks the text arena without the text of removed rows
+    public void compact() {
+        byte[] packed = new byte[Math.max(textArena.length / 2, arenaSize - deadTextBytes)];
+        int packedSize = 0;
+        for (int row = 0; row < rowCount; row++) {
+            System.arraycopy(textArena, textStarts[row], packed, packedSize, textBytes[row]);
+            textStarts[row] = packedSize;
+            packedSize += textBytes[row];
+        }
+        textArena = packed;
+        arenaSize = packedSize;
+        deadTextBytes = 0;
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        recipients = Arrays.copyOf(recipients, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        textStarts = Arrays.copyOf(textStarts, capacity);
+        textBytes = Arrays.copyOf(textBytes, capacity);
+        sameIdRows = Arrays.copyOf(sameIdRows, capacity);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", rows: " + rowCount);
+        }
+    }
+}
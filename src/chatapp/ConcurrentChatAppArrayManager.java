@@ -0,0 +1,280 @@
+package chatapp;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// ChatAppArrayManager for many threads at once, e.g. one per connected sender.
+// The lists and the indexes derived from them (recipients, text, time)
+// must change together, so every change takes the write lock and is seen by
+// readers either completely or not at all. Searches and reports share the read
+// lock and run in parallel with each other. Lookups by ID and by hash, the most
+// frequent reads, go through concurrent maps and take no lock at all.
+//
+// Lists are returned as copies, so callers can iterate them while other threads
+// keep adding and deleting.
+public class ConcurrentChatAppArrayManager {
+    private final ChatAppArrayManager messages = new ChatAppArrayManager();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
+    private final ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
+
+    // What searchMessageByID/Hash of the inner manager return for each key,
+    // updated under the write lock whenever a message with that key changes
+    private final ConcurrentHashMap<Long, Message> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Message> byHash = new ConcurrentHashMap<>();
+
+    public void addToSentMessages(Message message) {
+        writeLock.lock();
+        try {
+            messages.addToSentMessages(message);
+            refreshLookups(message);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void addToDisregardedMessages(Message message) {
+        writeLock.lock();
+        try {
+            messages.addToDisregardedMessages(message);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void addToStoredMessages(Message message) {
+        writeLock.lock();
+        try {
+            messages.addToStoredMessages(message);
+            refreshLookups(message);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void clearStoredMessages() {
+        writeLock.lock();
+        try {
+            messages.clearStoredMessages();
+            byId.clear();
+            byHash.clear();
+            for (Message message : messages.getSentMessages()) {
+                refreshLookups(message);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean deleteMessageByHash(String hash) {
+        return removeMessageByHash(hash) != null;
+    }
+
+    // Deletes the message with this hash and returns it, or null if there was none.
+    // Finding and deleting happen under one lock, so when several threads delete
+    // the same hash exactly one of them gets the message back.
+    public Message removeMessageByHash(String hash) {
+        writeLock.lock();
+        try {
+            Message message = messages.searchMessageByHash(hash);
+            if (message == null || !messages.deleteMessageByHash(hash)) {
+                return null;
+            }
+            refreshLookups(message);
+            return message;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Message searchMessageByID(String messageID) {
+        if (!Message.isValidMessageID(messageID)) {
+            return null;
+        }
+        return byId.get(Long.parseLong(messageID));
+    }
+
+    public Message searchMessageByHash(String hash) {
+        return hash != null ? byHash.get(hash) : null;
+    }
+
+    public Message findLongestMessage() {
+        readLock.lock();
+        try {
+            return messages.findLongestMessage();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public ArrayList<Message> searchMessagesByRecipient(String recipient) {
+        readLock.lock();
+        try {
+            return messages.searchMessagesByRecipient(recipient);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public ArrayList<Message> searchMessagesByContent(String query) {
+        readLock.lock();
+        try {
+            return messages.searchMessagesByContent(query);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public ArrayList<Message> searchMessagesBetween(long from, long to) {
+        readLock.lock();
+        try {
+            return messages.searchMessagesBetween(from, to);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int countMessagesForRecipient(String recipient) {
+        readLock.lock();
+        try {
+            return messages.countMessagesForRecipient(recipient);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public LinkedHashMap<String, Integer> getTopRecipients(int n) {
+        readLock.lock();
+        try {
+            return messages.getTopRecipients(n);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public String displaySendersAndRecipients(String senderName) {
+        readLock.lock();
+        try {
+            return messages.displaySendersAndRecipients(senderName);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Writes under the read lock, so the list matches one moment in time;
+    // changes wait until it is written, so out should not be slow
+    public void writeSendersAndRecipients(String senderName, Appendable out) throws IOException {
+        readLock.lock();
+        try {
+            messages.writeSendersAndRecipients(senderName, out);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public String generateFullReport(String senderName) {
+        readLock.lock();
+        try {
+            return messages.generateFullReport(senderName);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Same as above: the entries and the summary describe the same set of messages
+    public void writeFullReport(String senderName, Appendable out) throws IOException {
+        readLock.lock();
+        try {
+            messages.writeFullReport(senderName, out);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public ArrayList<String> getFullReportRows(String senderName, int fromIndex, int maxRows) {
+        readLock.lock();
+        try {
+            return messages.getFullReportRows(senderName, fromIndex, maxRows);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public ArrayList<String> getSendersAndRecipientsRows(String senderName, int fromIndex, int maxRows) {
+        readLock.lock();
+        try {
+            return messages.getSendersAndRecipientsRows(senderName, fromIndex, maxRows);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public long getTotalCharacters() {
+        readLock.lock();
+        try {
+            return messages.getTotalCharacters();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public double getAverageLength() {
+        readLock.lock();
+        try {
+            return messages.getAverageLength();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public LinkedHashMap<String, Integer> getStatusCounts() {
+        readLock.lock();
+        try {
+            return messages.getStatusCounts();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Snapshots of the lists. The inner getters read the lists to skip deleted
+    // places, so they are called under the read lock too.
+    public ArrayList<Message> getSentMessages() { return copy(messages::getSentMessages); }
+    public ArrayList<Message> getStoredMessages() { return copy(messages::getStoredMessages); }
+    public ArrayList<Message> getDisregardedMessages() { return copy(messages::getDisregardedMessages); }
+    public ArrayList<String> getMessageHashes() { return copy(messages::getMessageHashes); }
+    public List<String> getMessageIDs() { return copy(messages::getMessageIDs); }
+
+    private <T> ArrayList<T> copy(Supplier<? extends List<T>> list) {
+        readLock.lock();
+        try {
+            return new ArrayList<>(list.get());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Re-reads the lookup results for the message's ID and hash; called with the write lock held
+    private void refreshLookups(Message message) {
+        String messageID = message.getMessageID();
+        Message sameId = messages.searchMessageByID(messageID);
+        if (sameId != null) {
+            byId.put(message.getMessageIdValue(), sameId);
+        } else {
+            byId.remove(message.getMessageIdValue());
+        }
+
+        String hash = message.getMessageHash();
+        if (hash == null) {
+            return;
+        }
+        Message sameHash = messages.searchMessageByHash(hash);
+        if (sameHash != null) {
+            byHash.put(hash, sameHash);
+        } else {
+            byHash.remove(hash);
+        }
+    }
+}
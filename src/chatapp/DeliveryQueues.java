@@ -0,0 +1,617 @@
+package chatapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Store-and-forward delivery: a first-in first-out queue of sent messages per
+// recipient, keyed by the recipient's canonical number (Message.getRecipientCode).
+// While the recipient has a session connected, up to maxInFlight messages at a
+// time are handed to it. Each stays in flight until it is acked, and is handed
+// over again if no ack comes, waiting twice as long each time up to maxBackoff.
+// When the session ends, its unacked messages go back to the head of the queue.
+// A session can also ack everything handed to it up to a message at once
+// (ackThrough), so a busy recipient need not answer every message separately.
+//
+// Every queued message is also appended to a journal (a binary MessageLog written
+// through a GroupCommitWriter), and an ack appends a tombstone, so recover()
+// rebuilds the undelivered queues after a restart. A LogCompactor drops acked
+// messages from the journal.
+//
+// Only the head of each queue is kept in memory: at most memoryPerRecipient
+// messages per recipient and maxInMemory in all. Later messages spill to chunk
+// files of memoryPerRecipient records each and are read back one chunk at a time
+// as the queue drains. Spill files only cache the journal; recover() clears them.
+public class DeliveryQueues implements Closeable {
+    static final int DEFAULT_MEMORY_PER_RECIPIENT = 256;
+    static final int DEFAULT_MAX_IN_MEMORY = 100000;
+    static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 2000;
+    static final long DEFAULT_MAX_BACKOFF_MILLIS = 60000;
+    static final int MAX_OPEN_SPILL_FILES = 64;
+
+    private static DeliveryQueues shared;
+
+    private final MessageLog journal;
+    private final GroupCommitWriter writer;
+    private final LogCompactor compactor;
+    private final Path spillDir;
+    private final MessageCodec spillCodec = new BinaryMessageCodec();
+    private final int memoryPerRecipient;
+    private final int maxInMemory;
+    private final int maxInFlight;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final ConcurrentHashMap<Long, RecipientQueue> queues = new ConcurrentHashMap<>();
+    private final Set<RecipientQueue> connected = ConcurrentHashMap.newKeySet();
+    // Messages waiting or in flight in memory, across all queues
+    private final AtomicInteger inMemory = new AtomicInteger();
+    private final ScheduledExecutorService retries;
+    // Open spill chunk writers, least recently used first
+    private final LinkedHashMap<Path, FileChannel> spillWriters = new LinkedHashMap<Path, FileChannel>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, FileChannel> eldest) {
+            if (size() > MAX_OPEN_SPILL_FILES) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    private volatile boolean closed = false;
+
+    public DeliveryQueues(Path journalPath, Path spillDir) {
+        this(journalPath, spillDir, DEFAULT_MEMORY_PER_RECIPIENT, DEFAULT_MAX_IN_MEMORY, DEFAULT_MAX_IN_FLIGHT,
+            DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    public DeliveryQueues(Path journalPath, Path spillDir, int memoryPerRecipient, int maxInMemory,
+                          int maxInFlight, long initialBackoffMillis, long maxBackoffMillis) {
+        if (memoryPerRecipient < 1 || maxInMemory < 0 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Queue limits must be positive");
+        }
+        if (initialBackoffMillis < 1 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Backoff must be positive and its maximum at least the initial wait");
+        }
+        this.journal = new MessageLog(journalPath, new BinaryMessageCodec());
+        this.writer = new GroupCommitWriter(journal, 256, 2);
+        this.compactor = new LogCompactor(journal, 0.5, 0);
+        this.spillDir = spillDir;
+        this.memoryPerRecipient = memoryPerRecipient;
+        this.maxInMemory = maxInMemory;
+        this.maxInFlight = maxInFlight;
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+
+        retries = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "delivery-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.max(10, initialBackoffMillis / 4);
+        retries.scheduleWithFixedDelay(this::retryDue, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    // Queues in the working directory (or as set by the chatapp.delivery.*
+    // properties), recovered on first use and shared by every ChatService
+    public static synchronized DeliveryQueues getShared() {
+        if (shared == null) {
+            shared = new DeliveryQueues(
+                Paths.get(System.getProperty("chatapp.delivery.journal", "deliveries.log")),
+                Paths.get(System.getProperty("chatapp.delivery.spillDir", "deliveries.spill")),
+                Integer.getInteger("chatapp.delivery.memoryPerRecipient", DEFAULT_MEMORY_PER_RECIPIENT),
+                Integer.getInteger("chatapp.delivery.maxInMemory", DEFAULT_MAX_IN_MEMORY),
+                Integer.getInteger("chatapp.delivery.maxInFlight", DEFAULT_MAX_IN_FLIGHT),
+                Long.getLong("chatapp.delivery.initialBackoffMillis", DEFAULT_INITIAL_BACKOFF_MILLIS),
+                Long.getLong("chatapp.delivery.maxBackoffMillis", DEFAULT_MAX_BACKOFF_MILLIS));
+            try {
+                shared.recover();
+            } catch (IOException e) {
+                System.err.println("Error recovering delivery queues: " + e.getMessage());
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::close, "delivery-queues-shutdown"));
+        }
+        return shared;
+    }
+
+    // Rebuilds the queues from the journal; call before first use. Returns how
+    // many undelivered messages were found.
+    public synchronized int recover() throws IOException {
+        clearSpillDir();
+        journal.recover();
+        int count = 0;
+        try (Stream<Message> stream = journal.stream()) {
+            Iterator<Message> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                add(iterator.next());
+                count++;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count;
+    }
+
+    // Queues a message for its recipient, delivering it at once if they are
+    // connected. The future completes when the message is in the journal.
+    // The queue keeps a copy, since the journal writer encodes it later and the
+    // sender's message changes status while receipts come in.
+    public CompletableFuture<Void> enqueue(Message message) {
+        if (message.getRecipientCode() == PhoneNumberCodec.NONE) {
+            throw new IllegalArgumentException("Message has no recipient");
+        }
+        Message queued = message.snapshot();
+        CompletableFuture<Void> journaled = writer.submit(queued);
+        add(queued);
+        return journaled;
+    }
+
+    // Takes a message out of its recipient's queue, wherever it is, so it is not
+    // delivered or retried; used when the message is deleted. False if it was not
+    // queued (for example it had been acked already).
+    public boolean remove(Message message) {
+        RecipientQueue queue = queues.get(message.getRecipientCode());
+        if (queue == null || !queue.remove(message.getMessageIdValue())) {
+            return false;
+        }
+        journalDone(message.getMessageIdValue());
+        return true;
+    }
+
+    private void add(Message message) {
+        while (!queueFor(message.getRecipientCode()).add(message)) {
+            // The queue was dropped as empty just now; a new one will be made
+        }
+    }
+
+    // Starts delivering the recipient's queue to sink, replacing any session they
+    // already had. The sink is called with the queue locked, so it must not block
+    // or call back into these queues; network servers hand the message to their
+    // own I/O thread.
+    public Session connect(long recipient, Consumer<Message> sink) {
+        return connect(recipient, sink, message -> { });
+    }
+
+    // Same as above, also passing each message to acked once the recipient has
+    // acked it. acked is called with the queue locked too.
+    public Session connect(long recipient, Consumer<Message> sink, Consumer<Message> acked) {
+        Session session = new Session(recipient, sink, acked);
+        while (!queueFor(recipient).connect(session)) {
+            // Dropped as empty just now; try a new one
+        }
+        return session;
+    }
+
+    // Messages queued for the recipient, in memory, in flight or spilled
+    public int getPendingCount(long recipient) {
+        RecipientQueue queue = queues.get(recipient);
+        return queue != null ? queue.pendingCount() : 0;
+    }
+
+    public int getInMemoryCount() {
+        return inMemory.get();
+    }
+
+    // Waits until everything queued or acked so far is in the journal
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        retries.shutdownNow();
+        compactor.close();
+        writer.close();
+        synchronized (spillWriters) {
+            for (FileChannel out : spillWriters.values()) {
+                closeQuietly(out);
+            }
+            spillWriters.clear();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing delivery journal: " + e.getMessage());
+        }
+    }
+
+    private RecipientQueue queueFor(long recipient) {
+        return queues.computeIfAbsent(recipient, RecipientQueue::new);
+    }
+
+    private void retryDue() {
+        long now = System.nanoTime();
+        for (RecipientQueue queue : connected) {
+            queue.retryDue(now);
+        }
+    }
+
+    private long backoff(int attempts) {
+        return Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempts, 20));
+    }
+
+    // Drops an acked or removed message from the journal
+    private void journalDone(long messageID) {
+        writer.submit(Message.tombstone(messageID)).whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Error saving delivery ack: " + error.getMessage());
+            }
+        });
+        compactor.requestCheck();
+    }
+
+    // Appends records to a spill chunk, starting it afresh if it is new. Writers
+    // stay open for the next message, but only for the most recently used chunks.
+    private void appendSpill(Path chunk, boolean newChunk, ByteBuffer records) throws IOException {
+        synchronized (spillWriters) {
+            FileChannel out = spillWriters.get(chunk);
+            if (out == null) {
+                Files.createDirectories(spillDir);
+                out = FileChannel.open(chunk, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                out.position(out.size());
+                spillWriters.put(chunk, out);
+            }
+            if (newChunk) {
+                out.truncate(0);
+                out.position(0);
+                writeFully(out, ByteBuffer.wrap(spillCodec.fileHeader()));
+            }
+            writeFully(out, records);
+        }
+    }
+
+    private void closeSpillWriter(Path chunk) {
+        synchronized (spillWriters) {
+            closeQuietly(spillWriters.remove(chunk));
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more was going to be written
+        }
+    }
+
+    private void clearSpillDir() throws IOException {
+        if (!Files.isDirectory(spillDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDir, "*.spill")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // A recipient's connection, as far as delivery is concerned
+    public class Session implements Closeable {
+        private final long recipient;
+        private final Consumer<Message> sink;
+        private final Consumer<Message> acked;
+        private RecipientQueue queue;
+
+        private Session(long recipient, Consumer<Message> sink, Consumer<Message> acked) {
+            this.recipient = recipient;
+            this.sink = sink;
+            this.acked = acked;
+        }
+
+        public long getRecipient() {
+            return recipient;
+        }
+
+        // Confirms a delivered message; false if it was not in flight to this session
+        public boolean ack(long messageID) {
+            return queue.ack(this, messageID);
+        }
+
+        // Confirms the message and every message handed over before it that is
+        // still in flight; returns how many were acked, 0 if it was not in flight
+        public int ackThrough(long messageID) {
+            return queue.ackThrough(this, messageID);
+        }
+
+        // Ends the session; its unacked messages are delivered again next time
+        @Override
+        public void close() {
+            queue.disconnect(this);
+        }
+    }
+
+    private static class InFlight {
+        final Message message;
+        int attempts = 0;
+        long dueNanos;
+
+        InFlight(Message message, long dueNanos) {
+            this.message = message;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private class RecipientQueue {
+        final long recipient;
+        // Head of the queue, then spilled chunks firstChunk..lastChunk; all but the
+        // last hold memoryPerRecipient messages
+        final ArrayDeque<Message> waiting = new ArrayDeque<>();
+        final LinkedHashMap<Long, InFlight> inFlight = new LinkedHashMap<>();
+        long firstChunk = 0;
+        long lastChunk = -1;
+        int lastChunkCount = 0;
+        int spilled = 0;
+        // Spilled messages removed since they were spilled; refill() skips them
+        final HashSet<Long> removedSpilled = new HashSet<>();
+        Session session;
+        boolean dropped = false;
+
+        RecipientQueue(long recipient) {
+            this.recipient = recipient;
+        }
+
+        // False if this queue has been dropped and the caller must look it up again
+        synchronized boolean add(Message message) {
+            if (dropped) {
+                return false;
+            }
+            if (spilled == 0 && waiting.isEmpty() && session != null && inFlight.size() < maxInFlight) {
+                inMemory.incrementAndGet();
+                send(message, System.nanoTime());
+            } else if (spilled > 0 || waiting.size() >= memoryPerRecipient || !reserveMemory()) {
+                spill(message);
+            } else {
+                waiting.add(message);
+            }
+            return true;
+        }
+
+        synchronized boolean connect(Session newSession) {
+            if (dropped) {
+                return false;
+            }
+            newSession.queue = this;
+            session = newSession;
+            connected.add(this);
+            // Whatever was in flight to an earlier session goes to this one first
+            long now = System.nanoTime();
+            for (InFlight entry : inFlight.values()) {
+                entry.attempts = 0;
+                entry.dueNanos = now + initialBackoffNanos;
+                session.sink.accept(entry.message);
+            }
+            pump(now);
+            return true;
+        }
+
+        synchronized void disconnect(Session oldSession) {
+            if (session != oldSession) {
+                return;
+            }
+            session = null;
+            connected.remove(this);
+            List<InFlight> unacked = new ArrayList<>(inFlight.values());
+            Collections.reverse(unacked);
+            for (InFlight entry : unacked) {
+                waiting.addFirst(entry.message);
+            }
+            inFlight.clear();
+            dropIfEmpty();
+        }
+
+        synchronized boolean ack(Session from, long messageID) {
+            InFlight entry = session == from ? inFlight.remove(messageID) : null;
+            if (entry == null) {
+                return false;
+            }
+            acked(from, entry);
+            pump(System.nanoTime());
+            return true;
+        }
+
+        // In flight is kept in the order messages were handed over
+        synchronized int ackThrough(Session from, long messageID) {
+            if (session != from || !inFlight.containsKey(messageID)) {
+                return 0;
+            }
+            int count = 0;
+            Iterator<InFlight> entries = inFlight.values().iterator();
+            while (entries.hasNext()) {
+                InFlight entry = entries.next();
+                entries.remove();
+                acked(from, entry);
+                count++;
+                if (entry.message.getMessageIdValue() == messageID) {
+                    break;
+                }
+            }
+            pump(System.nanoTime());
+            return count;
+        }
+
+        private void acked(Session from, InFlight entry) {
+            inMemory.decrementAndGet();
+            journalDone(entry.message.getMessageIdValue());
+            from.acked.accept(entry.message);
+        }
+
+        synchronized void retryDue(long now) {
+            if (session == null) {
+                return;
+            }
+            for (InFlight entry : inFlight.values()) {
+                if (entry.dueNanos - now <= 0) {
+                    entry.attempts++;
+                    entry.dueNanos = now + backoff(entry.attempts);
+                    session.sink.accept(entry.message);
+                }
+            }
+        }
+
+        synchronized int pendingCount() {
+            return waiting.size() + inFlight.size() + spilled - removedSpilled.size();
+        }
+
+        synchronized boolean remove(long messageID) {
+            if (inFlight.remove(messageID) != null || waiting.removeIf(m -> m.getMessageIdValue() == messageID)) {
+                inMemory.decrementAndGet();
+                pump(System.nanoTime());
+                dropIfEmpty();
+                return true;
+            }
+            if (spilled == 0 || removedSpilled.contains(messageID) || !isSpilled(messageID)) {
+                return false;
+            }
+            removedSpilled.add(messageID);
+            return true;
+        }
+
+        // Reads the spill chunks to find the message; deletes are rare, and the
+        // chunks are only rewritten as they drain
+        private boolean isSpilled(long messageID) {
+            for (long chunk = firstChunk; chunk <= lastChunk; chunk++) {
+                try (Stream<Message> stream = spillCodec.read(chunkPath(chunk))) {
+                    if (stream.anyMatch(m -> m.getMessageIdValue() == messageID)) {
+                        return true;
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    System.err.println("Error reading spilled deliveries: " + e.getMessage());
+                }
+            }
+            return false;
+        }
+
+        // Fills the session's window from the head of the queue
+        private void pump(long now) {
+            while (session != null && inFlight.size() < maxInFlight) {
+                if (waiting.isEmpty() && !refill()) {
+                    return;
+                }
+                send(waiting.poll(), now);
+            }
+        }
+
+        private void send(Message message, long now) {
+            inFlight.put(message.getMessageIdValue(), new InFlight(message, now + initialBackoffNanos));
+            session.sink.accept(message);
+        }
+
+        private boolean reserveMemory() {
+            if (inMemory.incrementAndGet() > maxInMemory) {
+                inMemory.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        private void spill(Message message) {
+            if (lastChunkCount == memoryPerRecipient || lastChunk < firstChunk) {
+                if (lastChunk >= firstChunk) {
+                    closeSpillWriter(chunkPath(lastChunk));
+                }
+                lastChunk++;
+                lastChunkCount = 0;
+            }
+            try {
+                appendSpill(chunkPath(lastChunk), lastChunkCount == 0,
+                    spillCodec.encode(Collections.singletonList(message)));
+                lastChunkCount++;
+                spilled++;
+            } catch (IOException e) {
+                // The journal still has it, so it is queued again by the next recover()
+                System.err.println("Error spilling delivery queue: " + e.getMessage());
+            }
+        }
+
+        // Moves spilled chunks into memory, oldest first, until a message comes
+        // back; false if nothing is left to read
+        private boolean refill() {
+            while (waiting.isEmpty() && spilled > 0) {
+                refillChunk();
+            }
+            return !waiting.isEmpty();
+        }
+
+        private void refillChunk() {
+            Path chunk = chunkPath(firstChunk);
+            closeSpillWriter(chunk);
+            int count = firstChunk == lastChunk ? lastChunkCount : memoryPerRecipient;
+            int read = 0;
+            try (Stream<Message> stream = spillCodec.read(chunk)) {
+                Iterator<Message> iterator = stream.iterator();
+                while (iterator.hasNext()) {
+                    Message message = iterator.next();
+                    if (!removedSpilled.remove(message.getMessageIdValue())) {
+                        waiting.add(message);
+                        read++;
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                // The journal still has them; they come back at the next recover()
+                System.err.println("Error reading spilled deliveries: " + e.getMessage());
+            }
+            inMemory.addAndGet(read);
+            try {
+                Files.deleteIfExists(chunk);
+            } catch (IOException e) {
+                // Overwritten when the chunk number comes round again
+            }
+            spilled -= count;
+            firstChunk++;
+            if (spilled == 0) {
+                lastChunkCount = 0;
+                // Anything left was in a chunk that could not be read
+                removedSpilled.clear();
+            }
+        }
+
+        private Path chunkPath(long chunk) {
+            return spillDir.resolve(Long.toHexString(recipient) + "-" + chunk + ".spill");
+        }
+
+        // Forgets a queue with nothing left in it, so idle recipients cost no memory
+        private void dropIfEmpty() {
+            if (session == null && waiting.isEmpty() && inFlight.isEmpty() && spilled == 0) {
+                dropped = true;
+                queues.remove(recipient, this);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package chatapp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+// Background writer for the message log. Callers enqueue messages and get a
+// future back; a single writer thread drains the queue and commits each batch
+// with one write and one force(), completing the futures once it is on disk.
+public class GroupCommitWriter {
+    private final MessageLog log;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private Thread writerThread;
+    private volatile boolean closed = false;
+
+    public GroupCommitWriter(MessageLog log, int maxBatchSize, long maxLingerMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        if (maxLingerMillis < 0) {
+            throw new IllegalArgumentException("Linger time cannot be negative");
+        }
+        this.log = log;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+    }
+
+    public int getMaxBatchSize() { return maxBatchSize; }
+    public long getMaxLingerMillis() { return TimeUnit.NANOSECONDS.toMillis(maxLingerNanos); }
+
+    // Queues a message; the future completes when the batch holding it is durable.
+    // The message should not be changed until the future completes.
+    public CompletableFuture<Void> submit(Message message) {
+        return enqueue(new PendingWrite(message, false));
+    }
+
+    // Waits until everything submitted before this call is on disk
+    public void flush() throws IOException {
+        await(enqueue(new PendingWrite(null, false)));
+    }
+
+    // Commits whatever is queued and stops the writer thread
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = writerThread;
+            queue.add(new PendingWrite(null, true));
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized CompletableFuture<Void> enqueue(PendingWrite write) {
+        if (closed) {
+            write.future.completeExceptionally(new IOException("Message writer has been closed"));
+            return write.future;
+        }
+        if (writerThread == null) {
+            writerThread = new Thread(this::runWriter, "message-log-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+        queue.add(write);
+        return write.future;
+    }
+
+    private void runWriter() {
+        ArrayList<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        boolean stop = false;
+
+        while (!stop) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxLingerNanos;
+
+                // Keep collecting until the batch is full, the linger time is up,
+                // or someone is waiting on a flush
+                while (batch.size() < maxBatchSize && !batch.get(batch.size() - 1).isBarrier()) {
+                    PendingWrite next = queue.poll();
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                stop = true;
+            }
+
+            for (PendingWrite write : batch) {
+                stop |= write.close;
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(ArrayList<PendingWrite> batch) {
+        ArrayList<Message> messages = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            if (write.message != null) {
+                messages.add(write.message);
+            }
+        }
+
+        try {
+            if (!messages.isEmpty()) {
+                log.appendAll(messages);
+                log.force();
+            }
+            for (PendingWrite write : batch) {
+                write.future.complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (PendingWrite write : batch) {
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for message log", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static class PendingWrite {
+        final Message message;
+        final boolean close;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingWrite(Message message, boolean close) {
+            this.message = message;
+            this.close = close;
+        }
+
+        // Flush and close markers carry no message and end the batch early
+        boolean isBarrier() {
+            return message == null;
+        }
+    }
+}
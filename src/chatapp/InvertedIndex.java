@@ -0,0 +1,241 @@
+package chatapp;
+
+import java.util.*;
+
+// Word index over message text. Each token maps to a posting list of message
+// ordinals, stored as varint-encoded gaps in a byte array since ordinals are
+// only ever added in increasing order. Removed ordinals are kept in a BitSet
+// and filtered out of results until compact() rewrites the lists.
+//
+// Tokens are runs of letters and digits, lower-cased. A query term ending in
+// '*' matches every token with that prefix.
+public class InvertedIndex {
+    private final TreeMap<String, PostingList> postings = new TreeMap<>();
+    private final BitSet deleted = new BitSet();
+    private int deletedCount = 0;
+    private int lastOrdinal = -1;
+
+    // Indexes text under ordinal; ordinals must be added in increasing order
+    public void add(int ordinal, String text) {
+        if (ordinal <= lastOrdinal) {
+            throw new IllegalArgumentException("Ordinals must increase: " + ordinal + " after " + lastOrdinal);
+        }
+        lastOrdinal = ordinal;
+        if (text == null) {
+            return;
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                String token = text.substring(start, i).toLowerCase(Locale.ROOT);
+                postings.computeIfAbsent(token, key -> new PostingList()).add(ordinal);
+            }
+        }
+    }
+
+    public void remove(int ordinal) {
+        if (ordinal >= 0 && !deleted.get(ordinal)) {
+            deleted.set(ordinal);
+            deletedCount++;
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+        deleted.clear();
+        deletedCount = 0;
+        lastOrdinal = -1;
+    }
+
+    public int getTokenCount() {
+        return postings.size();
+    }
+
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+
+    // Ordinals containing every term, in increasing order
+    public int[] searchAll(Collection<String> terms) {
+        int[] result = null;
+        for (String term : terms) {
+            int[] matches = lookup(term);
+            result = result == null ? matches : intersect(result, matches);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result == null ? new int[0] : result;
+    }
+
+    // Ordinals containing at least one term, in increasing order
+    public int[] searchAny(Collection<String> terms) {
+        int[] result = new int[0];
+        for (String term : terms) {
+            result = union(result, lookup(term));
+        }
+        return result;
+    }
+
+    // Runs a query of space-separated terms: terms are ANDed, and the word OR
+    // separates alternatives, so "cake dinner OR late" is (cake AND dinner) OR late
+    public int[] search(String query) {
+        int[] result = new int[0];
+        ArrayList<String> group = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals("OR")) {
+                result = union(result, searchAll(group));
+                group.clear();
+            } else if (!word.isEmpty()) {
+                group.add(word);
+            }
+        }
+        return union(result, searchAll(group));
+    }
+
+    // Rewrites the posting lists without removed ordinals
+    public void compact() {
+        Iterator<Map.Entry<String, PostingList>> iterator = postings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PostingList> entry = iterator.next();
+            PostingList rebuilt = new PostingList();
+            for (int ordinal : entry.getValue().decode()) {
+                if (!deleted.get(ordinal)) {
+                    rebuilt.add(ordinal);
+                }
+            }
+            if (rebuilt.count == 0) {
+                iterator.remove();
+            } else {
+                entry.setValue(rebuilt);
+            }
+        }
+        deleted.clear();
+        deletedCount = 0;
+    }
+
+    private int[] lookup(String term) {
+        String token = term.toLowerCase(Locale.ROOT);
+        if (token.endsWith("*")) {
+            String prefix = token.substring(0, token.length() - 1);
+            int[] result = new int[0];
+            for (PostingList list : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                result = union(result, live(list.decode()));
+            }
+            return result;
+        }
+        PostingList list = postings.get(stripPunctuation(token));
+        return list == null ? new int[0] : live(list.decode());
+    }
+
+    // Query terms are tokenised the same way as text, so "cake?" finds "cake"
+    private static String stripPunctuation(String term) {
+        int start = 0;
+        int end = term.length();
+        while (start < end && !Character.isLetterOrDigit(term.charAt(start))) start++;
+        while (end > start && !Character.isLetterOrDigit(term.charAt(end - 1))) end--;
+        return term.substring(start, end);
+    }
+
+    private int[] live(int[] ordinals) {
+        if (deletedCount == 0) {
+            return ordinals;
+        }
+        int kept = 0;
+        for (int ordinal : ordinals) {
+            if (!deleted.get(ordinal)) {
+                ordinals[kept++] = ordinal;
+            }
+        }
+        return Arrays.copyOf(ordinals, kept);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // Increasing ordinals stored as varint gaps from the previous one
+    private static class PostingList {
+        private byte[] data = new byte[4];
+        private int size = 0;
+        private int count = 0;
+        private int last = -1;
+
+        void add(int ordinal) {
+            if (ordinal == last) {
+                return; // the same word twice in one message
+            }
+            int gap = ordinal - last;
+            last = ordinal;
+            count++;
+            if (size + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((gap & ~0x7F) != 0) {
+                data[size++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            data[size++] = (byte) gap;
+        }
+
+        int[] decode() {
+            int[] ordinals = new int[count];
+            int value = -1;
+            int p = 0;
+            for (int n = 0; n < count; n++) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[p++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += gap;
+                ordinals[n] = value;
+            }
+            return ordinals;
+        }
+    }
+}
@@ -1,191 +1,326 @@
 package chatapp;
 
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 public class JSONHandler {
     private static final String FILE_NAME = "messages.json";
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final String LOG_FILE_NAME = "messages.log";
+    private static final String BINARY_LOG_FILE_NAME = "messages.bin";
 
-    // Saves a message object to the JSON file
-    public static synchronized void storeMessage(Message message) {
+    // "log" (default) appends one record per message to messages.log,
+    // "json" keeps the old behaviour of rewriting the messages.json array
+    private static final String STORE_MODE = System.getProperty("chatapp.store.mode", "log");
+    // Record format of the log: "json" (default) writes messages.log as JSON lines,
+    // "binary" writes messages.bin with BinaryMessageCodec
+    private static final String STORE_FORMAT = System.getProperty("chatapp.store.format", "json");
+    // The log is sealed into a new segment once it reaches segmentBytes or is segmentMillis old
+    private static final MessageLog LOG = isBinaryFormat()
+        ? new MessageLog(Paths.get(BINARY_LOG_FILE_NAME), new BinaryMessageCodec(), segmentBytes(), segmentMillis())
+        : new MessageLog(Paths.get(LOG_FILE_NAME), new JsonLineCodec(), segmentBytes(), segmentMillis());
+
+    // "stream" (default) parses the store in one pass with MessageJsonReader,
+    // "mapped" maps it into memory and decodes fields only when they are used
+    private static final String READ_MODE = System.getProperty("chatapp.store.read", "stream");
+
+    // Batches log writes: up to maxBatch messages, waiting at most lingerMillis for more
+    private static final GroupCommitWriter WRITER = new GroupCommitWriter(LOG,
+        Integer.getInteger("chatapp.store.maxBatch", 64),
+        Long.getLong("chatapp.store.lingerMillis", 2));
+    // Rewrites the log once deleted records pass compactRatio of it, reading and
+    // writing at most compactBytesPerSecond so it does not starve foreground I/O
+    private static final LogCompactor COMPACTOR = new LogCompactor(LOG,
+        Double.parseDouble(System.getProperty("chatapp.store.compactRatio", "0.5")),
+        Long.getLong("chatapp.store.compactBytesPerSecond", 4L * 1024 * 1024));
+    private static boolean logPrepared = false;
+    private static MessageLog.Recovery lastRecovery;
+
+    // How often long-running reads report how many messages they have handled
+    public static final int PROGRESS_INTERVAL = 100;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(JSONHandler::shutdown, "message-log-shutdown"));
+    }
+
+    // Commits queued writes and closes the log, which checkpoints it for a fast restart
+    private static void shutdown() {
+        COMPACTOR.close();
+        WRITER.close();
         try {
-            ArrayList<Message> existingMessages = readAllMessages();
-            existingMessages.add(message);
-            writeMessagesToFile(existingMessages);
-            
+            LOG.close();
+        } catch (IOException e) {
+            System.err.println("Error closing message log: " + e.getMessage());
+        }
+    }
+
+    // Saves a message object to the message store and waits until it is on disk
+    public static void storeMessage(Message message) {
+        try {
+            GroupCommitWriter.await(storeMessageAsync(message));
         } catch (IOException e) {
             System.err.println("Error saving message: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    // Queues a message for the background writer; the future completes once it is durable
+    public static CompletableFuture<Void> storeMessageAsync(Message message) {
+        if (!isLogMode()) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            try {
+                appendToJsonFile(message);
+                result.complete(null);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        try {
+            prepareLog();
+        } catch (IOException e) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return WRITER.submit(message);
+    }
+
+    // Changes the status of stored messages, e.g. to delivered or read. In log mode
+    // the batch is appended as small status records through the background writer,
+    // so it costs one group commit however long the log is, and the compactor
+    // later writes the statuses into the messages. messages.json is rewritten once.
+    public static CompletableFuture<Void> updateStatusesAsync(Map<Long, String> statuses) {
+        if (!isLogMode()) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            try {
+                updateJsonFileStatuses(statuses);
+                result.complete(null);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        try {
+            prepareLog();
+        } catch (IOException e) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        CompletableFuture<?>[] writes = new CompletableFuture<?>[statuses.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> update : statuses.entrySet()) {
+            writes[i++] = WRITER.submit(Message.statusRecord(update.getKey(), update.getValue()));
+        }
+        return CompletableFuture.allOf(writes).whenComplete((ignored, error) -> COMPACTOR.requestCheck());
+    }
+
+    private static synchronized void updateJsonFileStatuses(Map<Long, String> statuses) throws IOException {
+        ArrayList<Message> messages = readJsonFile();
+        boolean changed = false;
+        for (Message message : messages) {
+            String status = statuses.get(message.getMessageIdValue());
+            if (status != null && !status.equals(message.getStatus())) {
+                message.setStatus(status);
+                changed = true;
+            }
+        }
+        if (changed) {
+            writeMessagesToFile(messages);
+        }
+    }
+
+    private static synchronized void appendToJsonFile(Message message) throws IOException {
+        ArrayList<Message> existingMessages = readJsonFile();
+        existingMessages.add(message);
+        writeMessagesToFile(existingMessages);
+    }
+
     // ChatGPT: This method reads JSON file into arrays - using JSONHandler class
     // Updated to return ArrayList for easier use in ChatApp
     public static synchronized ArrayList<Message> readAllMessages() {
-        ArrayList<Message> messages = new ArrayList<>();
-        File file = new File(FILE_NAME);
-        
-        if (!file.exists()) {
-            return messages;
+        if (isMappedReads()) {
+            return readMappedStore();
         }
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            StringBuilder jsonContent = new StringBuilder();
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                jsonContent.append(line.trim());
-            }
-            
-            String fullJson = jsonContent.toString();
-            if (fullJson.isEmpty() || fullJson.equals("[]")) {
-                return messages;
-            }
-            
-            messages = parseMessagesFromJson(fullJson);
-            
+        if (!isLogMode()) {
+            return readJsonFile();
+        }
+
+        try {
+            prepareLog();
+            WRITER.flush();
+            return LOG.readAll();
         } catch (IOException e) {
             System.err.println("Error reading messages: " + e.getMessage());
             e.printStackTrace();
+            return new ArrayList<>();
         }
-        
-        return messages;
     }
 
-    // Parse JSON array into Message objects
-    private static ArrayList<Message> parseMessagesFromJson(String json) {
+    private static boolean isLogMode() {
+        return !"json".equalsIgnoreCase(STORE_MODE);
+    }
+
+    // Mapped reads parse JSON records, so they are not used with the binary format
+    static boolean isMappedReads() {
+        return "mapped".equalsIgnoreCase(READ_MODE) && !(isLogMode() && isBinaryFormat());
+    }
+
+    private static boolean isBinaryFormat() {
+        return "binary".equalsIgnoreCase(STORE_FORMAT);
+    }
+
+    private static long segmentBytes() {
+        return Long.getLong("chatapp.store.segmentBytes", 64L * 1024 * 1024);
+    }
+
+    private static long segmentMillis() {
+        return Long.getLong("chatapp.store.segmentMillis", 24L * 60 * 60 * 1000);
+    }
+
+    // Maps the current store file for lazy, read-only access. The caller must close it.
+    public static MappedMessageStore openMappedStore() throws IOException {
+        if (!isLogMode()) {
+            return MappedMessageStore.open(Paths.get(FILE_NAME));
+        }
+        prepareLog();
+        WRITER.flush();
+        return MappedMessageStore.open(LOG.getSegmentPaths(), LOG.getDeletedIds(), LOG.getStatusUpdates());
+    }
+
+    private static ArrayList<Message> readMappedStore() {
         ArrayList<Message> messages = new ArrayList<>();
-        
-        try {
-            String content = json.substring(1, json.length() - 1).trim();
-            if (content.isEmpty()) {
-                return messages;
-            }
-            
-            List<String> messageStrings = splitJsonObjects(content);
-            
-            for (String messageStr : messageStrings) {
-                Message message = parseSingleMessage(messageStr);
-                if (message != null) {
-                    messages.add(message);
+        try (MappedMessageStore store = openMappedStore()) {
+            for (MessageView view : store) {
+                try {
+                    messages.add(view.toMessage());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error parsing message: " + e.getMessage());
                 }
             }
-            
-        } catch (Exception e) {
-            System.err.println("Error parsing JSON: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error reading messages: " + e.getMessage());
+            e.printStackTrace();
         }
-        
         return messages;
     }
 
-    private static List<String> splitJsonObjects(String jsonArrayContent) {
-        List<String> objects = new ArrayList<>();
-        int braceCount = 0;
-        StringBuilder currentObject = new StringBuilder();
-        boolean inString = false;
-        char prevChar = 0;
+    // Runs once before the log is first used: cuts off any record torn by a crash,
+    // then copies an existing messages.json into the log if there is no log yet.
+    // The original messages.json is left untouched.
+    private static synchronized void prepareLog() throws IOException {
+        if (logPrepared) {
+            return;
+        }
+        lastRecovery = LOG.recover();
+        // Only a torn tail is worth reporting; the scan itself is available from getLastRecovery()
+        if (lastRecovery.getTruncatedBytes() > 0) {
+            System.err.println("Message log recovery: " + lastRecovery);
+        }
+        if (!LOG.exists() && new File(FILE_NAME).exists()) {
+            LOG.rewrite(readJsonFile());
+        }
+        logPrepared = true;
+    }
+
+    // Result of the startup recovery scan, or null if the log has not been used yet
+    public static synchronized MessageLog.Recovery getLastRecovery() {
+        return lastRecovery;
+    }
+
+    // Reads the messages.json array file
+    private static ArrayList<Message> readJsonFile() {
+        ArrayList<Message> messages = new ArrayList<>();
+        File file = new File(FILE_NAME);
         
-        for (int i = 0; i < jsonArrayContent.length(); i++) {
-            char c = jsonArrayContent.charAt(i);
-            
-            if (c == '"' && prevChar != '\\') {
-                inString = !inString;
-            }
-            
-            if (!inString) {
-                if (c == '{') {
-                    braceCount++;
-                    if (braceCount == 1) {
-                        currentObject = new StringBuilder();
-                    }
-                } else if (c == '}') {
-                    braceCount--;
-                }
-            }
-            
-            if (braceCount >= 1) {
-                currentObject.append(c);
-            }
-            
-            if (braceCount == 0 && currentObject.length() > 0) {
-                objects.add(currentObject.toString());
-                currentObject = new StringBuilder();
-                
-                while (i + 1 < jsonArrayContent.length() && 
-                       (jsonArrayContent.charAt(i + 1) == ',' || 
-                        Character.isWhitespace(jsonArrayContent.charAt(i + 1)))) {
-                    i++;
-                }
+        if (!file.exists()) {
+            return messages;
+        }
+        
+        try (MessageJsonReader reader = openReader(file.toPath())) {
+            while (reader.hasNext()) {
+                messages.add(reader.next());
             }
             
-            prevChar = c;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error reading messages: " + e.getMessage());
+            e.printStackTrace();
         }
         
-        return objects;
+        return messages;
     }
 
-    private static Message parseSingleMessage(String jsonObject) {
-        try {
-            String messageID = extractStringValue(jsonObject, "messageID");
-            String recipient = extractStringValue(jsonObject, "recipient");
-            String messageText = extractStringValue(jsonObject, "message");
-            String messageHash = extractStringValue(jsonObject, "messageHash");
-            String status = extractStringValue(jsonObject, "status");
-            
-            Message message = new Message();
-            message.setMessageID(messageID);
-            message.setRecipient(recipient);
-            message.setMessage(messageText);
-            message.setMessageHash(messageHash);
-            message.setStatus(status);
-            
-            return message;
-            
-        } catch (Exception e) {
-            System.err.println("Error parsing message: " + e.getMessage());
-            return null;
+    // Streams every stored message without loading the whole store into memory.
+    // The stream must be closed once the caller is done with it.
+    public static Stream<Message> streamAllMessages() throws IOException {
+        if (!isLogMode()) {
+            File file = new File(FILE_NAME);
+            return file.exists() ? openReader(file.toPath()).stream() : Stream.empty();
         }
+
+        prepareLog();
+        WRITER.flush();
+        return LOG.stream();
     }
 
-    private static String extractStringValue(String json, String key) {
-        try {
-            String searchKey = "\"" + key + "\":";
-            int keyIndex = json.indexOf(searchKey);
-            if (keyIndex == -1) return "";
-            
-            int valueStart = keyIndex + searchKey.length();
-            int quoteStart = json.indexOf('"', valueStart);
-            if (quoteStart == -1) return "";
-            
-            int quoteEnd = json.indexOf('"', quoteStart + 1);
-            if (quoteEnd == -1) return "";
-            
-            String value = json.substring(quoteStart + 1, quoteEnd);
-            return unescapeJSON(value);
-            
-        } catch (Exception e) {
-            return "";
+    // Column copy of every stored message for batch statistics, e.g. nightly totals
+    // over the whole history. Messages are streamed in, so only the columns are held.
+    public static ColumnarMessageStore loadColumns() throws IOException {
+        try (Stream<Message> messages = streamAllMessages()) {
+            return ColumnarMessageStore.load(messages.iterator());
+        }
+    }
+
+    // IDs a new message must not take: every stored message and, in log mode,
+    // every deleted one. The stream must be closed once the caller is done with it.
+    static LongStream usedMessageIds() throws IOException {
+        if (!isLogMode()) {
+            return streamAllMessages().mapToLong(Message::getMessageIdValue);
         }
+        prepareLog();
+        WRITER.flush();
+        return LOG.recordedIds();
     }
 
+    static MessageJsonReader openReader(Path path) throws IOException {
+        return new MessageJsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+    }
+
+    // Writes a new messages.json beside the old one and renames it into place,
+    // so a crash part-way through never leaves a truncated file
     private static synchronized void writeMessagesToFile(ArrayList<Message> messages) throws IOException {
-        try (FileWriter file = new FileWriter(FILE_NAME)) {
-            file.write("[\n");
+        AtomicFiles.write(Paths.get(FILE_NAME), out -> {
+            Writer file = new BufferedWriter(Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), 8192));
+            writeJsonArray(file, messages.iterator());
+            file.flush();
+        });
+    }
+
+    // Writes messages in the messages.json array layout
+    static void writeJsonArray(Writer out, Iterator<Message> messages) throws IOException {
+        out.write("[\n");
+        
+        while (messages.hasNext()) {
+            out.write(createMessageJSON(messages.next()));
             
-            for (int i = 0; i < messages.size(); i++) {
-                Message message = messages.get(i);
-                file.write(createMessageJSON(message));
-                
-                if (i < messages.size() - 1) {
-                    file.write(",");
-                }
-                file.write("\n");
+            if (messages.hasNext()) {
+                out.write(",");
             }
-            
-            file.write("]");
+            out.write("\n");
         }
+        
+        out.write("]");
     }
 
     private static String createMessageJSON(Message message) {
@@ -197,14 +332,70 @@ public class JSONHandler {
         json.append("    \"message\": \"").append(escapeJSON(message.getMessage())).append("\",\n");
         json.append("    \"messageHash\": \"").append(escapeJSON(message.getMessageHash())).append("\",\n");
         json.append("    \"status\": \"").append(escapeJSON(message.getStatus())).append("\",\n");
-        json.append("    \"timestamp\": \"").append(DATE_FORMAT.format(new Date())).append("\"\n");
+        json.append("    \"timestamp\": \"").append(TimestampFormat.format(message.getTimestamp())).append("\"\n");
         json.append("  }");
         return json.toString();
     }
 
+    // Creates the single-line form of a message used by the append-only log
+    static String createMessageRecord(Message message) {
+        StringBuilder json = new StringBuilder();
+        if (message.isTombstone() || message.isStatusRecord()) {
+            json.append("{\"messageID\":\"").append(message.getMessageID()).append("\",");
+            json.append("\"status\":\"").append(message.getStatus()).append("\",");
+            json.append("\"timestamp\":\"").append(TimestampFormat.format(message.getTimestamp())).append("\"}");
+            return json.toString();
+        }
+        json.append("{\"messageID\":\"").append(escapeJSON(message.getMessageID())).append("\",");
+        json.append("\"messageCount\":").append(message.getMessageCount()).append(",");
+        json.append("\"recipient\":\"").append(escapeJSON(message.getRecipient())).append("\",");
+        json.append("\"message\":\"").append(escapeJSON(message.getMessage())).append("\",");
+        json.append("\"messageHash\":\"").append(escapeJSON(message.getMessageHash())).append("\",");
+        json.append("\"status\":\"").append(escapeJSON(message.getStatus())).append("\",");
+        json.append("\"timestamp\":\"").append(TimestampFormat.format(message.getTimestamp())).append("\"}");
+        return json.toString();
+    }
+
+    // Looks one stored message up by ID; in log mode only the index blocks that
+    // can hold the ID are read. Returns null if there is no such message.
+    public static synchronized Message findMessage(String messageID) {
+        if (!Message.isValidMessageID(messageID)) {
+            return null;
+        }
+        try {
+            if (isLogMode()) {
+                prepareLog();
+                WRITER.flush();
+                return LOG.find(Long.parseLong(messageID));
+            }
+            try (Stream<Message> messages = streamAllMessages()) {
+                return messages.filter(message -> message.getMessageID().equals(messageID))
+                    .reduce((first, second) -> second).orElse(null);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error reading messages: " + e.getMessage());
+            return null;
+        }
+    }
+
     public static synchronized boolean deleteMessage(String messageID) {
         try {
-            ArrayList<Message> messages = readAllMessages();
+            if (isLogMode()) {
+                // One small append instead of a rewrite; the compactor reclaims the space later
+                prepareLog();
+                if (!Message.isValidMessageID(messageID)) {
+                    return false;
+                }
+                WRITER.flush();
+                if (LOG.find(Long.parseLong(messageID)) == null) {
+                    return false;
+                }
+                GroupCommitWriter.await(WRITER.submit(Message.tombstone(Long.parseLong(messageID))));
+                COMPACTOR.requestCheck();
+                return true;
+            }
+
+            ArrayList<Message> messages = readJsonFile();
             boolean removed = messages.removeIf(msg -> msg.getMessageID().equals(messageID));
             
             if (removed) {
@@ -220,33 +411,57 @@ public class JSONHandler {
     }
 
     public static String getAllMessagesFormatted() {
-        try {
-            ArrayList<Message> messages = readAllMessages();
-            if (messages.isEmpty()) {
-                return "No stored messages found.";
+        return getAllMessagesFormatted(count -> { });
+    }
+
+    // Same as above, reporting the number of messages formatted so far every PROGRESS_INTERVAL records
+    public static String getAllMessagesFormatted(IntConsumer progress) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Stored Messages:\n");
+        sb.append("================\n\n");
+        int count = 0;
+
+        if (isMappedReads()) {
+            // Only the displayed fields are decoded; the timestamp is never touched
+            try (MappedMessageStore store = openMappedStore()) {
+                for (MessageView view : store) {
+                    appendFormatted(sb, ++count, view.getMessageID(), view.getRecipient(), view.getMessage(),
+                        view.getStatus(), view.getMessageHash(), view.getMessageCount());
+                    if (count % PROGRESS_INTERVAL == 0) progress.accept(count);
+                }
+            } catch (Exception e) {
+                return "Error reading messages: " + e.getMessage();
             }
-            
-            StringBuilder sb = new StringBuilder();
-            sb.append("Stored Messages:\n");
-            sb.append("================\n\n");
-            
-            for (int i = 0; i < messages.size(); i++) {
-                Message message = messages.get(i);
-                sb.append("Message ").append(i + 1).append(":\n");
-                sb.append("  ID: ").append(message.getMessageID()).append("\n");
-                sb.append("  To: ").append(message.getRecipient()).append("\n");
-                sb.append("  Message: ").append(message.getMessage()).append("\n");
-                sb.append("  Status: ").append(message.getStatus()).append("\n");
-                sb.append("  Hash: ").append(message.getMessageHash()).append("\n");
-                sb.append("  Count: ").append(message.getMessageCount()).append("\n");
-                sb.append("-----------------\n");
+        } else {
+            try (Stream<Message> messages = streamAllMessages()) {
+                Iterator<Message> iterator = messages.iterator();
+                while (iterator.hasNext()) {
+                    Message message = iterator.next();
+                    appendFormatted(sb, ++count, message.getMessageID(), message.getRecipient(), message.getMessage(),
+                        message.getStatus(), message.getMessageHash(), message.getMessageCount());
+                    if (count % PROGRESS_INTERVAL == 0) progress.accept(count);
+                }
+            } catch (Exception e) {
+                return "Error reading messages: " + e.getMessage();
             }
-            
-            return sb.toString();
-            
-        } catch (Exception e) {
-            return "Error reading messages: " + e.getMessage();
         }
+
+        if (count == 0) {
+            return "No stored messages found.";
+        }
+        return sb.toString();
+    }
+
+    private static void appendFormatted(StringBuilder sb, int number, String id, String to, String text,
+                                        String status, String hash, int messageCount) {
+        sb.append("Message ").append(number).append(":\n");
+        sb.append("  ID: ").append(id).append("\n");
+        sb.append("  To: ").append(to).append("\n");
+        sb.append("  Message: ").append(text).append("\n");
+        sb.append("  Status: ").append(status).append("\n");
+        sb.append("  Hash: ").append(hash).append("\n");
+        sb.append("  Count: ").append(messageCount).append("\n");
+        sb.append("-----------------\n");
     }
 
     private static String escapeJSON(String text) {
@@ -259,15 +474,4 @@ public class JSONHandler {
                   .replace("\r", "\\r")
                   .replace("\t", "\\t");
     }
-
-    private static String unescapeJSON(String text) {
-        if (text == null) return "";
-        return text.replace("\\\"", "\"")
-                  .replace("\\\\", "\\")
-                  .replace("\\n", "\n")
-                  .replace("\\r", "\r")
-                  .replace("\\t", "\t")
-                  .replace("\\b", "\b")
-                  .replace("\\f", "\f");
-    }
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+package chatapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// One JSON object per line, as written by JSONHandler.createMessageRecord, with a
+// last "crc" field holding the CRC32 of the line before it. Readers skip the field
+// like any unknown one; validLength() checks it, so a record damaged before its
+// newline is cut off at recovery instead of failing later when it is parsed.
+//
+// Lines without the field were written before it was added and are taken as
+// they are, as long as no line with one has come before them.
+public class JsonLineCodec implements MessageCodec {
+    private static final byte[] CRC_FIELD = ",\"crc\":\"".getBytes(StandardCharsets.US_ASCII);
+    // ,"crc":"xxxxxxxx"}
+    private static final int CRC_SUFFIX_LENGTH = CRC_FIELD.length + 8 + 2;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int LINE_CHECKED = 0;
+    private static final int LINE_UNCHECKED = 1;
+    private static final int LINE_DAMAGED = 2;
+
+    @Override
+    public byte[] fileHeader() {
+        return new byte[0];
+    }
+
+    @Override
+    public ByteBuffer encode(List<Message> messages) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(messages.size() * 200);
+        CRC32 crc = new CRC32();
+        for (Message message : messages) {
+            String record = JSONHandler.createMessageRecord(message);
+            // Everything but the closing brace, which comes after the checksum
+            byte[] body = record.substring(0, record.length() - 1).getBytes(StandardCharsets.UTF_8);
+            crc.reset();
+            crc.update(body, 0, body.length);
+            out.write(body, 0, body.length);
+            out.write(CRC_FIELD, 0, CRC_FIELD.length);
+            int value = (int) crc.getValue();
+            for (int shift = 28; shift >= 0; shift -= 4) {
+                out.write(HEX[(value >>> shift) & 0xF]);
+            }
+            out.write('"');
+            out.write('}');
+            out.write('\n');
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    @Override
+    public Stream<Message> read(InputStream in) throws IOException {
+        return new MessageJsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)).stream();
+    }
+
+    // Every record ends with a newline, so whatever follows the last one is torn.
+    // A complete line whose checksum does not match is cut off with everything
+    // after it, unless an intact line follows, which would be lost.
+    @Override
+    public long validLength(FileChannel in, long start, LongConsumer recordEnds) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        byte[] line = new byte[512];
+        int length = 0;
+        long lineStart = start;
+        long damagedAt = -1;
+        boolean checked = false;
+        long position = start;
+        while (true) {
+            buffer.clear();
+            int n = in.read(buffer, position);
+            if (n < 0) {
+                return damagedAt >= 0 ? damagedAt : lineStart;
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = buffer.get(i);
+                if (b != '\n') {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = b;
+                    continue;
+                }
+                long end = position + i + 1;
+                int state = checkLine(line, length);
+                if (state == LINE_UNCHECKED && checked) {
+                    state = LINE_DAMAGED;
+                }
+                if (damagedAt >= 0) {
+                    if (state == LINE_CHECKED) {
+                        throw new IOException("Damaged JSON record at offset " + damagedAt
+                            + "; later records would be lost by truncating it");
+                    }
+                } else if (state == LINE_DAMAGED) {
+                    damagedAt = lineStart;
+                } else {
+                    checked |= state == LINE_CHECKED;
+                    recordEnds.accept(end);
+                }
+                lineStart = end;
+                length = 0;
+            }
+            position += n;
+        }
+    }
+
+    private static int checkLine(byte[] line, int length) {
+        int body = length - CRC_SUFFIX_LENGTH;
+        if (body < 1 || !hasCrcField(line, body)) {
+            // Written before checksums, if it still looks like a whole object
+            return length > 1 && line[0] == '{' && line[length - 1] == '}' ? LINE_UNCHECKED : LINE_DAMAGED;
+        }
+        long stored = 0;
+        for (int i = body + CRC_FIELD.length; i < length - 2; i++) {
+            int digit = Character.digit(line[i], 16);
+            if (digit < 0) {
+                return LINE_DAMAGED;
+            }
+            stored = (stored << 4) | digit;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(line, 0, body);
+        return crc.getValue() == stored ? LINE_CHECKED : LINE_DAMAGED;
+    }
+
+    private static boolean hasCrcField(byte[] line, int body) {
+        for (int i = 0; i < CRC_FIELD.length; i++) {
+            if (line[body + i] != CRC_FIELD[i]) {
+                return false;
+            }
+        }
+        int length = body + CRC_SUFFIX_LENGTH;
+        return line[length - 2] == '"' && line[length - 1] == '}';
+    }
+}
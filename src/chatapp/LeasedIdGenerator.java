@@ -0,0 +1,184 @@
+package chatapp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+// Leased block allocator for 10-digit message IDs.
+//
+// Each ID is 1000000000 + sequence * NODES + node, so every node owns
+// MAX_SEQUENCE IDs. The sequence is an AtomicLong taken with getAndIncrement,
+// so handing out an ID takes no lock. Sequences are only used once they are
+// leased: the lease file holds the high-water mark, the first sequence not
+// handed out yet, and is moved leaseSize ahead and forced to disk before any
+// ID of the new block is returned. After a restart the generator starts at the
+// saved mark, skipping at most one block of unused IDs but never repeating one.
+//
+// Stores written before leasing hold IDs anywhere in the 10-digit range. When
+// the lease file is first created, the IDs already in the store that fall in
+// this node's range are read once and their sequences saved beside it in a
+// ".used" file, and nextId() skips them from then on, restarts included.
+//
+// The sequence never wraps. Once a node has used all MAX_SEQUENCE IDs, nextId()
+// throws instead of reusing old ones, since deletes, statuses and acks are all
+// keyed by ID alone.
+public class LeasedIdGenerator implements MessageIdGenerator {
+    public static final int NODES = 10;
+    public static final long MAX_SEQUENCE = 9000000000L / NODES;
+    static final int DEFAULT_LEASE_SIZE = 10000;
+
+    private static final long MIN_ID = 1000000000L;
+    private static final long MAX_ID = 9999999999L;
+
+    private final int node;
+    private final Path leaseFile;
+    private final int leaseSize;
+    private final AtomicLong nextSequence;
+    // Sequences below this are covered by the saved mark
+    private volatile long leasedUntil;
+    // Sequences taken by messages stored before the lease was created, ascending
+    private final long[] used;
+
+    public LeasedIdGenerator(int node, Path leaseFile) {
+        this(node, leaseFile, DEFAULT_LEASE_SIZE, LongStream::empty);
+    }
+
+    // storedIds is only called if the lease file does not exist yet
+    public LeasedIdGenerator(int node, Path leaseFile, Supplier<LongStream> storedIds) {
+        this(node, leaseFile, DEFAULT_LEASE_SIZE, storedIds);
+    }
+
+    LeasedIdGenerator(int node, Path leaseFile, int leaseSize) {
+        this(node, leaseFile, leaseSize, LongStream::empty);
+    }
+
+    LeasedIdGenerator(int node, Path leaseFile, int leaseSize, Supplier<LongStream> storedIds) {
+        if (node < 0 || node >= NODES) {
+            throw new IllegalArgumentException("Node must be between 0 and " + (NODES - 1) + ": " + node);
+        }
+        if (leaseSize <= 0) {
+            throw new IllegalArgumentException("Lease size must be positive: " + leaseSize);
+        }
+        this.node = node;
+        this.leaseFile = leaseFile;
+        this.leaseSize = leaseSize;
+        Path usedFile = usedFileFor(leaseFile);
+        if (!Files.exists(leaseFile)) {
+            saveUsed(usedFile, storedSequences(node, storedIds));
+        }
+        this.used = readUsed(usedFile);
+        this.leasedUntil = readMark(leaseFile);
+        this.nextSequence = new AtomicLong(leasedUntil);
+    }
+
+    public int getNode() {
+        return node;
+    }
+
+    @Override
+    public long nextId() {
+        long sequence;
+        do {
+            sequence = nextSequence.getAndIncrement();
+            if (sequence >= leasedUntil) {
+                lease(sequence);
+            }
+        } while (used.length > 0 && Arrays.binarySearch(used, sequence) >= 0);
+        return MIN_ID + sequence * NODES + node;
+    }
+
+    // File listing the sequences of stored IDs that nextId() skips
+    static Path usedFileFor(Path leaseFile) {
+        return leaseFile.resolveSibling(leaseFile.getFileName() + ".used");
+    }
+
+    // Moves the saved mark past sequence, a block at a time
+    private synchronized void lease(long sequence) {
+        while (sequence >= leasedUntil) {
+            if (leasedUntil >= MAX_SEQUENCE) {
+                throw new IllegalStateException("All message IDs for node " + node + " have been used");
+            }
+            long until = Math.min(leasedUntil + leaseSize, MAX_SEQUENCE);
+            try {
+                byte[] mark = Long.toString(until).getBytes(StandardCharsets.US_ASCII);
+                AtomicFiles.write(leaseFile, out -> out.write(ByteBuffer.wrap(mark)));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not lease message IDs: " + e.getMessage(), e);
+            }
+            leasedUntil = until;
+        }
+    }
+
+    // Sequences of this node's range among the stored IDs, ascending and without repeats
+    private static long[] storedSequences(int node, Supplier<LongStream> storedIds) {
+        try (LongStream ids = storedIds.get()) {
+            return ids.filter(id -> id >= MIN_ID && id <= MAX_ID && (id - MIN_ID) % NODES == node)
+                .map(id -> (id - MIN_ID) / NODES)
+                .sorted()
+                .distinct()
+                .toArray();
+        } catch (UncheckedIOException e) {
+            throw new IllegalStateException("Could not read stored message IDs: " + e.getCause().getMessage(), e);
+        }
+    }
+
+    // Written before the lease file, so a crash in between just reads the store again
+    private static void saveUsed(Path usedFile, long[] sequences) {
+        try {
+            if (sequences.length == 0) {
+                Files.deleteIfExists(usedFile);
+                return;
+            }
+            StringBuilder text = new StringBuilder(sequences.length * 11);
+            for (long sequence : sequences) {
+                text.append(sequence).append('\n');
+            }
+            byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+            AtomicFiles.write(usedFile, out -> out.write(ByteBuffer.wrap(bytes)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not save used message IDs: " + e.getMessage(), e);
+        }
+    }
+
+    private static long[] readUsed(Path usedFile) {
+        if (!Files.exists(usedFile)) {
+            return new long[0];
+        }
+        try {
+            List<String> lines = Files.readAllLines(usedFile, StandardCharsets.US_ASCII);
+            long[] sequences = new long[lines.size()];
+            for (int i = 0; i < sequences.length; i++) {
+                sequences[i] = Long.parseLong(lines.get(i).trim());
+            }
+            Arrays.sort(sequences);
+            return sequences;
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Could not read used message IDs " + usedFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    // High-water mark saved by an earlier run, or 0 for a new node
+    private static long readMark(Path leaseFile) {
+        if (!Files.exists(leaseFile)) {
+            return 0;
+        }
+        try {
+            String mark = new String(Files.readAllBytes(leaseFile), StandardCharsets.US_ASCII).trim();
+            long value = Long.parseLong(mark);
+            if (value < 0 || value > MAX_SEQUENCE) {
+                throw new IllegalStateException("Invalid message ID lease in " + leaseFile + ": " + mark);
+            }
+            return value;
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Could not read message ID lease " + leaseFile + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package chatapp;
+
+import java.io.IOException;
+
+// Background compaction for the message log. Deletes only append tombstones;
+// after each one the compactor is nudged, and once tombstones and the records
+// they delete make up more than deadRatio of the log, a single daemon thread
+// rewrites it at a throttled rate, away from the threads that store and delete.
+public class LogCompactor {
+    // Logs with fewer dead records than this are not worth rewriting yet
+    static final int MIN_DEAD_RECORDS = 64;
+
+    private final MessageLog log;
+    private final double deadRatio;
+    private final long bytesPerSecond;
+    private Thread compactorThread;
+    private boolean checkRequested = false;
+    private boolean closed = false;
+
+    public LogCompactor(MessageLog log, double deadRatio, long bytesPerSecond) {
+        if (deadRatio <= 0 || deadRatio > 1) {
+            throw new IllegalArgumentException("Dead record ratio must be above 0 and at most 1");
+        }
+        this.log = log;
+        this.deadRatio = deadRatio;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public double getDeadRatio() { return deadRatio; }
+    public long getBytesPerSecond() { return bytesPerSecond; }
+
+    // Asks the compactor to check the log; returns immediately
+    public synchronized void requestCheck() {
+        if (closed) {
+            return;
+        }
+        if (compactorThread == null) {
+            compactorThread = new Thread(this::runCompactor, "message-log-compactor");
+            compactorThread.setDaemon(true);
+            compactorThread.setPriority(Thread.MIN_PRIORITY);
+            compactorThread.start();
+        }
+        checkRequested = true;
+        notifyAll();
+    }
+
+    // True when the log has enough dead records to be rewritten
+    public boolean needsCompaction() throws IOException {
+        return log.getDeadRecords() >= MIN_DEAD_RECORDS && log.getDeadRatio() >= deadRatio;
+    }
+
+    // Stops the compactor thread, abandoning a compaction in progress
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = compactorThread;
+            notifyAll();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runCompactor() {
+        while (true) {
+            synchronized (this) {
+                while (!checkRequested && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                checkRequested = false;
+            }
+
+            try {
+                if (needsCompaction()) {
+                    log.compact(bytesPerSecond);
+                }
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                System.err.println("Error compacting message log: " + e.getMessage());
+            }
+        }
+    }
+}
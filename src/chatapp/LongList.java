@@ -0,0 +1,127 @@
+package chatapp;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+// Growable list of primitive longs, used where an ArrayList<String> would
+// keep a boxed or string copy of every value.
+public class LongList {
+    private long[] values;
+    private int size = 0;
+
+    public LongList() {
+        this(16);
+    }
+
+    public LongList(int initialCapacity) {
+        values = new long[Math.max(1, initialCapacity)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return values[index];
+    }
+
+    public void set(int index, long value) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        values[index] = value;
+    }
+
+    public int indexOf(long value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(long value) {
+        return indexOf(value) >= 0;
+    }
+
+    public long removeAt(int index) {
+        long removed = get(index);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return removed;
+    }
+
+    // Removes the first occurrence of value
+    public boolean remove(long value) {
+        int index = indexOf(value);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Drops every value from newSize on
+    public void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Size: " + newSize + ", size: " + size);
+        }
+        size = newSize;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    // Read-only view that formats each value as a string when it is read
+    public List<String> asStrings() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return String.valueOf(LongList.this.get(index));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return indexOf(o) >= 0;
+            }
+
+            @Override
+            public int indexOf(Object o) {
+                if (!(o instanceof String)) {
+                    return -1;
+                }
+                try {
+                    return LongList.this.indexOf(Long.parseLong((String) o));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,258 @@
+package chatapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Read-only view of a message store file mapped into memory. Records are
+// located by scanning bytes for object boundaries, and nothing is decoded
+// to a String until a MessageView field is asked for, so the cost follows
+// the records that are touched rather than the size of the file.
+// A segmented log maps each segment separately and reads them in order, and
+// its status records are skipped, their status shown on the message instead.
+public class MappedMessageStore implements Iterable<MessageView>, Closeable {
+    private final List<FileChannel> channels;
+    private final List<ByteBuffer> buffers;
+    // Records with these IDs (deleted messages and their tombstones) are skipped
+    private final Set<Long> deletedIds;
+    // Latest status of messages changed by a status record
+    private final Map<Long, String> statuses;
+    private int[] starts = new int[1024];
+    private int[] ends = new int[1024];
+    // Which of the buffers each record is in
+    private int[] recordBuffers = new int[1024];
+    private int recordCount = 0;
+    private ByteBuffer buffer;
+    private int bufferNumber = 0;
+    private int scanPosition = 0;
+    private boolean fullyIndexed;
+
+    private MappedMessageStore(List<FileChannel> channels, List<ByteBuffer> buffers, Set<Long> deletedIds,
+                               Map<Long, String> statuses) {
+        this.channels = channels;
+        this.buffers = buffers;
+        this.deletedIds = deletedIds;
+        this.statuses = statuses;
+        this.buffer = buffers.isEmpty() ? ByteBuffer.allocate(0) : buffers.get(0);
+        this.fullyIndexed = buffers.isEmpty();
+    }
+
+    // Maps the file read-only; a missing file opens as an empty store
+    public static MappedMessageStore open(Path path) throws IOException {
+        return open(path, Collections.emptySet());
+    }
+
+    // Same as above, leaving out every record whose ID is in deletedIds
+    public static MappedMessageStore open(Path path, Set<Long> deletedIds) throws IOException {
+        return open(Collections.singletonList(path), deletedIds);
+    }
+
+    // Maps several files that are read one after another, e.g. the segments of a log
+    public static MappedMessageStore open(List<Path> paths, Set<Long> deletedIds) throws IOException {
+        return open(paths, deletedIds, Collections.emptyMap());
+    }
+
+    // Same as above, with the statuses set by the log's status records
+    public static MappedMessageStore open(List<Path> paths, Set<Long> deletedIds, Map<Long, String> statuses)
+            throws IOException {
+        ArrayList<FileChannel> channels = new ArrayList<>();
+        ArrayList<ByteBuffer> buffers = new ArrayList<>();
+        try {
+            for (Path path : paths) {
+                if (!Files.exists(path)) {
+                    continue;
+                }
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                channels.add(channel);
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Message store is too large to map: " + size + " bytes");
+                }
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+            throw e;
+        }
+        return new MappedMessageStore(channels, buffers, deletedIds, statuses);
+    }
+
+    // Number of records; this indexes the rest of the file if it has not been scanned yet
+    public synchronized int size() {
+        while (!fullyIndexed) {
+            indexNext();
+        }
+        return recordCount;
+    }
+
+    // Indexes records until count are known or the end is reached, without
+    // scanning further; returns how many are known
+    public synchronized int indexThrough(int count) {
+        while (recordCount < count && !fullyIndexed) {
+            indexNext();
+        }
+        return recordCount;
+    }
+
+    public synchronized boolean isFullyIndexed() {
+        return fullyIndexed;
+    }
+
+    public synchronized MessageView get(int index) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Record index: " + index);
+        }
+        while (index >= recordCount && !fullyIndexed) {
+            indexNext();
+        }
+        if (index >= recordCount) {
+            throw new IndexOutOfBoundsException("Record index: " + index + ", records: " + recordCount);
+        }
+        MessageView view = new MessageView(buffers.get(recordBuffers[index]), starts[index], ends[index]);
+        if (!statuses.isEmpty()) {
+            String id = view.getMessageID();
+            String status = Message.isValidMessageID(id) ? statuses.get(Long.parseLong(id)) : null;
+            if (status != null) {
+                view.setStatus(status);
+            }
+        }
+        return view;
+    }
+
+    @Override
+    public Iterator<MessageView> iterator() {
+        return new Iterator<MessageView>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                synchronized (MappedMessageStore.this) {
+                    while (next >= recordCount && !fullyIndexed) {
+                        indexNext();
+                    }
+                    return next < recordCount;
+                }
+            }
+
+            @Override
+            public MessageView next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    // Finds the next top-level {...} object after the current scan position,
+    // moving on to the next file when one is used up
+    private void indexNext() {
+        while (!indexNextInBuffer() && bufferNumber + 1 < buffers.size()) {
+            buffer = buffers.get(++bufferNumber);
+            scanPosition = 0;
+            fullyIndexed = false;
+        }
+    }
+
+    private boolean indexNextInBuffer() {
+        int limit = buffer.limit();
+        int p = scanPosition;
+        int end;
+        while (true) {
+            while (p < limit) {
+                byte b = buffer.get(p);
+                if (b == '[' || b == ']' || b == ',' || b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                    p++;
+                } else {
+                    break;
+                }
+            }
+            if (p >= limit || buffer.get(p) != '{') {
+                // End of file, or bytes that are not a record: stop indexing here
+                fullyIndexed = true;
+                scanPosition = p;
+                return false;
+            }
+
+            end = findObjectEnd(p);
+            if (end < 0) {
+                // Incomplete record at the tail of the file
+                fullyIndexed = true;
+                scanPosition = p;
+                return false;
+            }
+            if (!isDeleted(p, end)) {
+                break;
+            }
+            p = end;
+        }
+
+        if (recordCount == starts.length) {
+            starts = Arrays.copyOf(starts, recordCount * 2);
+            ends = Arrays.copyOf(ends, recordCount * 2);
+            recordBuffers = Arrays.copyOf(recordBuffers, recordCount * 2);
+        }
+        starts[recordCount] = p;
+        ends[recordCount] = end;
+        recordBuffers[recordCount] = bufferNumber;
+        recordCount++;
+        scanPosition = end;
+        return true;
+    }
+
+    // True for deleted messages, tombstones and status records
+    private boolean isDeleted(int start, int end) {
+        if (deletedIds.isEmpty() && statuses.isEmpty()) {
+            return false;
+        }
+        MessageView view = new MessageView(buffer, start, end);
+        String id = view.getMessageID();
+        if (!Message.isValidMessageID(id)) {
+            return false;
+        }
+        long messageID = Long.parseLong(id);
+        if (deletedIds.contains(messageID)) {
+            return true;
+        }
+        // Only a status record lacks a recipient
+        return statuses.containsKey(messageID) && view.getRecipient().isEmpty();
+    }
+
+    // Returns the offset just past the brace closing the object that starts at start
+    private int findObjectEnd(int start) {
+        int limit = buffer.limit();
+        int depth = 0;
+        boolean inString = false;
+        for (int p = start; p < limit; p++) {
+            byte b = buffer.get(p);
+            if (inString) {
+                if (b == '\\') {
+                    p++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+                if (depth == 0) {
+                    return p + 1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,83 @@
+package chatapp;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compares the heap used by N messages in the old layout (String ID and
+// recipient per message, plus an ArrayList<String> of IDs) with the current
+// one (long ID and recipient, IDs in a LongList).
+//
+// Run with: java -Xmx2g -cp build/classes chatapp.MemoryFootprint [count]
+public class MemoryFootprint {
+
+    // The fields Message used to have
+    private static class LegacyMessage {
+        String messageID;
+        int messageCount;
+        String recipient;
+        String message;
+        String messageHash;
+        String status;
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String[] texts = {"Hi Mike, can you join us for dinner tonight?", "Where are you? You are late!", "Ok, I am leaving without you."};
+        String[] recipients = {"+27834557896", "0838884567", "27718693002", "0712345678"};
+
+        long baseline = usedMemory();
+        ArrayList<LegacyMessage> legacy = new ArrayList<>(count);
+        ArrayList<String> legacyIDs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            LegacyMessage m = new LegacyMessage();
+            m.messageID = String.valueOf(1000000000L + i);
+            m.messageCount = i;
+            m.recipient = PhoneNumberCodec.canonicalize(recipients[i % recipients.length]);
+            m.message = texts[i % texts.length];
+            m.messageHash = "10:" + i + ":HASH";
+            m.status = new String("sent");
+            legacy.add(m);
+            legacyIDs.add(m.messageID);
+        }
+        long legacyBytes = usedMemory() - baseline;
+        System.out.println("Old layout:     " + legacy.size() + " messages, " + format(legacyBytes, count));
+        legacy = null;
+        legacyIDs = null;
+
+        // Every ID is replaced below, so count in memory instead of taking IDs
+        // from the real lease in the working directory
+        AtomicLong ids = new AtomicLong(1000000000L);
+        Message.setIdGenerator(ids::getAndIncrement);
+
+        baseline = usedMemory();
+        ArrayList<Message> current = new ArrayList<>(count);
+        LongList currentIDs = new LongList(count);
+        for (int i = 0; i < count; i++) {
+            Message m = new Message();
+            m.setMessageID(String.valueOf(1000000000L + i));
+            m.setMessageCount(i);
+            m.setRecipient(recipients[i % recipients.length]);
+            m.setMessage(texts[i % texts.length]);
+            m.setMessageHash("10:" + i + ":HASH");
+            m.setStatus(new String("sent"));
+            current.add(m);
+            currentIDs.add(m.getMessageIdValue());
+        }
+        long currentBytes = usedMemory() - baseline;
+        System.out.println("Current layout: " + current.size() + " messages, " + format(currentBytes, count));
+        System.out.println("Saved:          " + format(legacyBytes - currentBytes, count)
+            + " (" + currentIDs.size() + " IDs as longs)");
+    }
+
+    private static String format(long bytes, int count) {
+        return String.format("%.1f MB, %d bytes per message", bytes / (1024.0 * 1024.0), bytes / count);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,59 +1,134 @@
 package chatapp;
 
-import java.util.Random;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
 
 public class Message {
-    private String messageID;
+    // ID and recipient are held as numbers; the String getters format them on demand
+    private long messageID;
     private int messageCount;
-    private String recipient;
+    private long recipient = PhoneNumberCodec.NONE;
     private String message;
     private String messageHash;
     private String status;
-    private static int totalMessagesSent = 0;
-    private static int messageCounter = 0;
-    private static final AtomicInteger SEQUENCE = new AtomicInteger(1000);
+    // Creation time in epoch milliseconds; kept when the message is saved and reloaded
+    private long timestamp;
+    // Status of a log record that deletes the earlier record with the same ID
+    static final String TOMBSTONE_STATUS = "deleted";
+    // Statuses a sent message moves on to once the recipient has it and has read it
+    public static final String DELIVERED_STATUS = "delivered";
+    public static final String READ_STATUS = "read";
+    // Messages are created and sent from several threads (e.g. server connections)
+    private static final AtomicInteger totalMessagesSent = new AtomicInteger();
+    private static final AtomicInteger messageCounter = new AtomicInteger();
+    // Created on first use so a bad lease file fails the send, not the class;
+    // node number comes from -Dchatapp.node=0..9 so several instances can share a store
+    private static volatile MessageIdGenerator idGenerator;
 
     public Message() {
         this.messageID = generateMessageID();
-        this.messageCount = ++messageCounter;
+        this.messageCount = messageCounter.incrementAndGet();
         this.status = "pending";
+        this.timestamp = System.currentTimeMillis();
         
         if (!checkMessageID()) {
             throw new IllegalStateException("Failed to generate valid message ID");
         }
     }
 
-    private String generateMessageID() {
-        long timestamp = System.currentTimeMillis() % 10000000000L;
-        int sequence = SEQUENCE.getAndIncrement() % 10000;
-        long id = (timestamp * 10000 + sequence) % 10000000000L;
-        
-        String idStr = String.valueOf(id);
-        while (idStr.length() < 10) {
-            idStr = "0" + idStr;
+    // Rebuilds a saved message without generating a new ID or recomputing the
+    // hash, both of which would be overwritten by the stored values anyway
+    static Message restore(long messageID, long recipientCode, String text, int messageCount,
+                           String messageHash, String status, long timestamp) {
+        Message message = new Message(messageID);
+        messageCounter.incrementAndGet();
+        if (recipientCode != PhoneNumberCodec.NONE) {
+            message.setRecipientCode(recipientCode);
         }
-        
-        if (!isValidMessageID(idStr)) {
-            return generateRandomMessageID();
+        message.message = text;
+        message.messageCount = messageCount;
+        message.messageHash = messageHash;
+        message.setStatus(status);
+        message.timestamp = timestamp;
+        return message;
+    }
+
+    // Same for records read as text, such as JSON; throws IllegalArgumentException
+    // if the ID or recipient is not valid
+    static Message restore(String messageID, String recipient, String text, int messageCount,
+                           String messageHash, String status, long timestamp) {
+        if (!isValidMessageID(messageID)) {
+            throw new IllegalArgumentException("Invalid message ID: must be exactly 10 digits, cannot start with 0, and contain only numbers");
         }
-        
-        return idStr;
+        // Stored records may still hold the legacy form of an 07 number
+        long recipientCode = PhoneNumberCodec.encodeStored(recipient);
+        if (recipientCode == PhoneNumberCodec.NONE) {
+            throw new IllegalArgumentException("Invalid South African cell number: " + recipient);
+        }
+        return restore(Long.parseLong(messageID), recipientCode, text, messageCount, messageHash, status, timestamp);
     }
 
-    private String generateRandomMessageID() {
-        Random rand = new Random();
-        String idStr;
-        do {
-            long id = 1000000000L + (long)(rand.nextDouble() * 9000000000L);
-            idStr = String.valueOf(id);
-        } while (!isValidMessageID(idStr));
-        
-        return idStr;
+    // Log record deleting the message with this ID; it has no recipient or text
+    static Message tombstone(long messageID) {
+        Message message = new Message(messageID);
+        message.message = "";
+        message.messageHash = "";
+        message.status = TOMBSTONE_STATUS;
+        message.timestamp = System.currentTimeMillis();
+        return message;
+    }
+
+    // Log record changing the status of the message with this ID to delivered
+    // or read; like a tombstone it has no recipient or text
+    static Message statusRecord(long messageID, String status) {
+        Message message = new Message(messageID);
+        message.message = "";
+        message.messageHash = "";
+        message.status = internStatus(status);
+        message.timestamp = System.currentTimeMillis();
+        return message;
+    }
+
+    private Message(long messageID) {
+        setMessageIdValue(messageID);
+    }
+
+    private long generateMessageID() {
+        MessageIdGenerator generator = idGenerator;
+        return (generator != null ? generator : defaultIdGenerator()).nextId();
+    }
+
+    private static synchronized MessageIdGenerator defaultIdGenerator() {
+        if (idGenerator == null) {
+            int node = Integer.getInteger("chatapp.node", 0);
+            idGenerator = new LeasedIdGenerator(node, Paths.get("message-ids-" + node + ".lease"), Message::storedIds);
+        }
+        return idGenerator;
+    }
+
+    // IDs already in the store, read once when the node's lease is first created
+    private static LongStream storedIds() {
+        try {
+            return JSONHandler.usedMessageIds();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Replaces the generator used for new messages
+    public static void setIdGenerator(MessageIdGenerator generator) {
+        if (generator == null) {
+            throw new IllegalArgumentException("ID generator cannot be null");
+        }
+        idGenerator = generator;
     }
 
     public boolean checkMessageID() {
-        return isValidMessageID(this.messageID);
+        return messageID >= 1000000000L && messageID <= 9999999999L;
     }
 
     public static boolean isValidMessageID(String messageID) {
@@ -61,16 +136,15 @@ public class Message {
             return false;
         }
         
-        if (messageID.length() != 10) {
-            return false;
-        }
-        
-        if (!messageID.matches("\\d{10}")) {
+        if (messageID.length() != 10 || messageID.charAt(0) == '0') {
             return false;
         }
         
-        if (messageID.startsWith("0")) {
-            return false;
+        for (int i = 0; i < 10; i++) {
+            char c = messageID.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
         }
         
         return true;
@@ -78,84 +152,27 @@ public class Message {
 
     // South African phone number validation
     public int checkRecipientCell(String recipient) {
-        if (recipient == null || recipient.isEmpty()) {
-            return 0;
-        }
-        
-        // Format 1: +27XXXXXXXXX (12 characters total)
-        if (recipient.startsWith("+27") && recipient.length() == 12) {
-            String numberPart = recipient.substring(3);
-            if (numberPart.matches("\\d{9}")) {
-                char firstDigit = numberPart.charAt(0);
-                if (firstDigit == '6' || firstDigit == '7' || firstDigit == '8') {
-                    return 1;
-                }
-            }
-        }
-        
-        // Format 2: 07XXXXXXXX (10 characters - local format)
-        if (recipient.startsWith("07") && recipient.length() == 10) {
-            String numberPart = recipient.substring(2);
-            if (numberPart.matches("\\d{8}")) {
-                return 1;
-            }
-        }
-        
-        // Format 3: 27XXXXXXXXX (11 characters - without +)
-        if (recipient.startsWith("27") && recipient.length() == 11) {
-            String numberPart = recipient.substring(2);
-            if (numberPart.matches("\\d{9}")) {
-                char firstDigit = numberPart.charAt(0);
-                if (firstDigit == '6' || firstDigit == '7' || firstDigit == '8') {
-                    return 1;
-                }
-            }
-        }
-        
-        // Format 4: 0XXXXXXXXX (10 characters - other local formats)
-        if (recipient.startsWith("0") && recipient.length() == 10) {
-            String numberPart = recipient.substring(1);
-            if (numberPart.matches("\\d{9}")) {
-                return 1;
-            }
-        }
-        
-        return 0;
+        return PhoneNumberCodec.isValid(recipient) ? 1 : 0;
     }
 
     // Automatically formats phone numbers to international format
     public String formatSouthAfricanNumber(String number) {
-        if (number == null) return number;
-        
-        // If it's in 07 format, convert to +27
-        if (number.startsWith("07") && number.length() == 10) {
-            return "+27" + number.substring(2);
-        }
-        
-        // If it's in 0 format (other local), convert to +27
-        if (number.startsWith("0") && number.length() == 10 && !number.startsWith("07")) {
-            return "+27" + number.substring(1);
-        }
-        
-        // If it's in 27 format (without +), add the +
-        if (number.startsWith("27") && number.length() == 11 && !number.startsWith("+")) {
-            return "+" + number;
-        }
-        
-        // If it's already in +27 format, return as is
-        if (number.startsWith("+27") && number.length() == 12) {
-            return number;
-        }
-        
-        return number;
+        return toInternationalFormat(number);
+    }
+
+    // Static form of formatSouthAfricanNumber for callers without a Message;
+    // anything that is not a valid number is returned unchanged
+    static String toInternationalFormat(String number) {
+        String canonical = PhoneNumberCodec.canonicalize(number);
+        return canonical != null ? canonical : number;
     }
 
     public String createMessageHash() {
-        if (messageID == null || !checkMessageID()) {
+        if (!checkMessageID()) {
             throw new IllegalStateException("Cannot create hash without valid message ID");
         }
         
-        String firstTwo = messageID.substring(0, 2);
+        long firstTwo = messageID / 100000000L;
         
         String[] words = message != null ? message.split(" ") : new String[0];
         String firstWord = words.length > 0 ? words[0].toUpperCase() : "";
@@ -164,59 +181,122 @@ public class Message {
         return firstTwo + ":" + messageCount + ":" + firstWord + lastWord;
     }
 
+    // Returns as soon as the message is queued for storage; a failed write is
+    // only logged. Use sentMessageAsync to find out whether it was stored.
     public String sentMessage(int choice) {
+        String result = applyChoice(choice);
+        if (isKept(choice)) {
+            store().whenComplete((ignored, error) -> {
+                if (error != null) {
+                    System.err.println("Error saving message: " + error.getMessage());
+                }
+            });
+        }
+        return result;
+    }
+
+    // Same as sentMessage, but the result only completes once a sent or stored
+    // message is on disk, and completes exceptionally if it could not be written
+    public CompletableFuture<String> sentMessageAsync(int choice) {
+        String result = applyChoice(choice);
+        if (!isKept(choice)) {
+            return CompletableFuture.completedFuture(result);
+        }
+        return store().thenApply(ignored -> result);
+    }
+
+    private String applyChoice(int choice) {
         if (!checkMessageID()) {
             return "Error: Invalid message ID";
         }
         
         switch (choice) {
             case 1:
-                totalMessagesSent++;
+                totalMessagesSent.incrementAndGet();
                 this.status = "sent";
-                JSONHandler.storeMessage(this);
                 return "Message sent successfully!";
             case 2:
                 this.status = "discarded";
                 return "Message discarded";
             case 3:
                 this.status = "stored";
-                JSONHandler.storeMessage(this);
                 return "Message stored successfully!";
             default:
                 return "Invalid option";
         }
     }
 
+    private boolean isKept(int choice) {
+        return checkMessageID() && (choice == 1 || choice == 3);
+    }
+
+    // Hands a snapshot to the background log writer instead of blocking on disk
+    // I/O; the writer needs its message unchanged until the write completes, and
+    // this one may be marked delivered or read by other threads meanwhile
+    private CompletableFuture<Void> store() {
+        return JSONHandler.storeMessageAsync(snapshot());
+    }
+
+    // Copy with the same ID and fields, for handing to writers that encode it later
+    Message snapshot() {
+        Message copy = new Message(messageID);
+        copy.messageCount = messageCount;
+        copy.recipient = recipient;
+        copy.message = message;
+        copy.messageHash = messageHash;
+        copy.status = status;
+        copy.timestamp = timestamp;
+        return copy;
+    }
+
     public String printMessages() {
         String idStatus = checkMessageID() ? "VALID" : "INVALID";
         return "MessageID: " + messageID + " [" + idStatus + "]" +
                "\nMessage Hash: " + messageHash + 
-               "\nRecipient: " + recipient + 
+               "\nRecipient: " + getRecipient() + 
                "\nMessage: " + message +
                "\nStatus: " + status;
     }
 
-    public String getMessageID() { return messageID; }
+    public String getMessageID() { return String.valueOf(messageID); }
+    public long getMessageIdValue() { return messageID; }
     public void setMessageID(String messageID) {
         if (!isValidMessageID(messageID)) {
             throw new IllegalArgumentException("Invalid message ID: must be exactly 10 digits, cannot start with 0, and contain only numbers");
         }
+        this.messageID = Long.parseLong(messageID);
+    }
+    public void setMessageIdValue(long messageID) {
+        if (messageID < 1000000000L || messageID > 9999999999L) {
+            throw new IllegalArgumentException("Invalid message ID: must be exactly 10 digits, cannot start with 0, and contain only numbers");
+        }
         this.messageID = messageID;
     }
     
     public int getMessageCount() { return messageCount; }
     public void setMessageCount(int messageCount) { this.messageCount = messageCount; }
     
-    public String getRecipient() { return recipient; }
+    public String getRecipient() {
+        return recipient == PhoneNumberCodec.NONE ? null : PhoneNumberCodec.decode(recipient);
+    }
+    
+    // Recipient as encoded by PhoneNumberCodec, or PhoneNumberCodec.NONE if not set
+    public long getRecipientCode() { return recipient; }
+    public void setRecipientCode(long recipientCode) {
+        // normalize rejects anything that is not a valid encoding and maps
+        // legacy 07 codes from older stores onto the canonical one
+        this.recipient = PhoneNumberCodec.normalize(recipientCode);
+    }
     
     // CHANGED: Now automatically formats the recipient when setting
     public void setRecipient(String recipient) { 
         // Validate first
-        if (checkRecipientCell(recipient) == 0) {
+        long encoded = PhoneNumberCodec.encode(recipient);
+        if (encoded == PhoneNumberCodec.NONE) {
             throw new IllegalArgumentException("Invalid South African cell number: " + recipient);
         }
-        // Then format and store
-        this.recipient = formatSouthAfricanNumber(recipient);
+        // Then store the formatted number
+        this.recipient = encoded;
     }
     
     public String getMessage() { return message; }
@@ -229,7 +309,28 @@ public class Message {
     public void setMessageHash(String messageHash) { this.messageHash = messageHash; }
     
     public String getStatus() { return status; }
-    public void setStatus(String status) { this.status = status; }
+    public boolean isTombstone() { return TOMBSTONE_STATUS.equals(status); }
+    public boolean isStatusRecord() {
+        return recipient == PhoneNumberCodec.NONE && (DELIVERED_STATUS.equals(status) || READ_STATUS.equals(status));
+    }
+    public void setStatus(String status) { this.status = internStatus(status); }
+    
+    // Known statuses share one String instance instead of a copy per loaded message
+    private static String internStatus(String status) {
+        if (status == null) return null;
+        switch (status) {
+            case "pending": return "pending";
+            case "sent": return "sent";
+            case "stored": return "stored";
+            case "discarded": return "discarded";
+            case DELIVERED_STATUS: return DELIVERED_STATUS;
+            case READ_STATUS: return READ_STATUS;
+            default: return status;
+        }
+    }
+    
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
     
-    public static int returnTotalMessages() { return totalMessagesSent; }
+    public static int returnTotalMessages() { return totalMessagesSent.get(); }
 }
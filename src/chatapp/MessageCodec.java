@@ -0,0 +1,36 @@
+package chatapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+// On-disk record format used by a MessageLog
+public interface MessageCodec {
+
+    // Bytes written once at the start of a new file (may be empty)
+    byte[] fileHeader();
+
+    // Encodes messages as consecutive records, ready to append
+    ByteBuffer encode(List<Message> messages);
+
+    // Reads every record in order from input positioned at the start of a file;
+    // closing the stream closes the input. Read errors surface as UncheckedIOException.
+    Stream<Message> read(InputStream in) throws IOException;
+
+    default Stream<Message> read(Path path) throws IOException {
+        return read(Files.newInputStream(path));
+    }
+
+    // Returns the offset just past the last complete, intact record, scanning
+    // from start (0, or the end of a record already known to be good). Anything
+    // after it is the tail of an interrupted write. Throws if damaged data is
+    // followed by records that would be lost by cutting it off. recordEnds is
+    // given the end offset of each intact record on the way.
+    long validLength(FileChannel in, long start, LongConsumer recordEnds) throws IOException;
+}
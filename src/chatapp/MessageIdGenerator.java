@@ -0,0 +1,7 @@
+package chatapp;
+
+// Source of message IDs. Implementations must return 10-digit numbers that do
+// not start with 0, and must never hand out the same ID twice.
+public interface MessageIdGenerator {
+    long nextId();
+}
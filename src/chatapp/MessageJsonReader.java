@@ -0,0 +1,351 @@
+package chatapp;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Single-pass JSON reader that turns a stream of message objects into Message
+// instances as it goes. It accepts both the messages.json array and the
+// one-record-per-line log, and never holds more than one record in memory.
+public class MessageJsonReader implements Iterator<Message>, Closeable {
+    private static final int FIELD_UNKNOWN = 0;
+    private static final int FIELD_ID = 1;
+    private static final int FIELD_COUNT = 2;
+    private static final int FIELD_RECIPIENT = 3;
+    private static final int FIELD_MESSAGE = 4;
+    private static final int FIELD_HASH = 5;
+    private static final int FIELD_STATUS = 6;
+    private static final int FIELD_TIMESTAMP = 7;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+    private final StringBuilder token = new StringBuilder(256);
+
+    private Message next;
+    private boolean finished = false;
+    private int skippedRecords = 0;
+
+    public MessageJsonReader(Reader in) {
+        this.in = in;
+    }
+
+    // Streams messages lazily; closing the stream closes the underlying reader
+    public Stream<Message> stream() {
+        Spliterator<Message> spliterator = Spliterators.spliteratorUnknownSize(this,
+            Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Number of records that were well-formed JSON but not valid messages
+    public int getSkippedRecords() {
+        return skippedRecords;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Message next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Message message = next;
+        next = null;
+        return message;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        in.close();
+    }
+
+    private Message readNext() {
+        try {
+            while (true) {
+                int c = skipSeparators();
+                if (c == -1) {
+                    finished = true;
+                    return null;
+                }
+                if (c != '{') {
+                    throw syntaxError("Expected '{' but found '" + (char) c + "'");
+                }
+                position++;
+                Message message = readObject();
+                if (message != null) {
+                    return message;
+                }
+            }
+        } catch (IOException e) {
+            finished = true;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Message readObject() throws IOException {
+        String messageID = null;
+        String recipient = null;
+        String text = null;
+        String messageHash = null;
+        String status = null;
+        int messageCount = -1;
+        long timestamp = -1;
+
+        int c = skipWhitespace();
+        if (c == '}') {
+            position++;
+            return null;
+        }
+
+        while (true) {
+            expect('"');
+            readString();
+            int field = fieldOf(token);
+            skipWhitespace();
+            expect(':');
+            c = skipWhitespace();
+
+            if (c == '"') {
+                position++;
+                readString();
+                switch (field) {
+                    case FIELD_ID: messageID = token.toString(); break;
+                    case FIELD_RECIPIENT: recipient = token.toString(); break;
+                    case FIELD_MESSAGE: text = token.toString(); break;
+                    case FIELD_HASH: messageHash = token.toString(); break;
+                    case FIELD_STATUS: status = token.toString(); break;
+                    case FIELD_TIMESTAMP: timestamp = TimestampFormat.parse(token); break;
+                    default: break;
+                }
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                long number = readNumber();
+                if (field == FIELD_COUNT) {
+                    messageCount = (int) number;
+                }
+            } else {
+                skipValue();
+            }
+
+            c = skipWhitespace();
+            if (c == -1) {
+                throw syntaxError("Unexpected end of input");
+            }
+            position++;
+            if (c == '}') {
+                break;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or '}' in message object");
+            }
+            skipWhitespace();
+        }
+
+        try {
+            if (Message.TOMBSTONE_STATUS.equals(status)) {
+                if (!Message.isValidMessageID(messageID)) {
+                    throw new IllegalArgumentException("Invalid message ID in deletion record: " + messageID);
+                }
+                Message tombstone = Message.tombstone(Long.parseLong(messageID));
+                if (timestamp >= 0) {
+                    tombstone.setTimestamp(timestamp);
+                }
+                return tombstone;
+            }
+            if (recipient == null && (Message.DELIVERED_STATUS.equals(status) || Message.READ_STATUS.equals(status))) {
+                if (!Message.isValidMessageID(messageID)) {
+                    throw new IllegalArgumentException("Invalid message ID in status record: " + messageID);
+                }
+                Message update = Message.statusRecord(Long.parseLong(messageID), status);
+                if (timestamp >= 0) {
+                    update.setTimestamp(timestamp);
+                }
+                return update;
+            }
+
+            return Message.restore(messageID, recipient, text != null ? text : "", Math.max(messageCount, 0),
+                messageHash != null ? messageHash : "", status != null ? status : "",
+                timestamp >= 0 ? timestamp : System.currentTimeMillis());
+
+        } catch (RuntimeException e) {
+            System.err.println("Error parsing message: " + e.getMessage());
+            skippedRecords++;
+            return null;
+        }
+    }
+
+    // Reads the body of a string (opening quote already consumed) into token, unescaping as it goes
+    private void readString() throws IOException {
+        token.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            if (c == '"') {
+                return;
+            }
+            if (c != '\\') {
+                token.append((char) c);
+                continue;
+            }
+
+            int escaped = read();
+            switch (escaped) {
+                case '"': token.append('"'); break;
+                case '\\': token.append('\\'); break;
+                case '/': token.append('/'); break;
+                case 'b': token.append('\b'); break;
+                case 'f': token.append('\f'); break;
+                case 'n': token.append('\n'); break;
+                case 'r': token.append('\r'); break;
+                case 't': token.append('\t'); break;
+                case 'u': token.append(readUnicodeEscape()); break;
+                default: throw syntaxError("Invalid escape sequence");
+            }
+        }
+    }
+
+    private char readUnicodeEscape() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw syntaxError("Invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    private long readNumber() throws IOException {
+        boolean negative = false;
+        long value = 0;
+        int c = peek();
+        if (c == '-') {
+            negative = true;
+            position++;
+        }
+        while ((c = peek()) != -1 && c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            position++;
+        }
+        // Fractions and exponents are not used by the message format; skip them
+        while ((c = peek()) != -1 && (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-'
+                || (c >= '0' && c <= '9'))) {
+            position++;
+        }
+        return negative ? -value : value;
+    }
+
+    // Skips a literal, object or array value without keeping it
+    private void skipValue() throws IOException {
+        int depth = 0;
+        while (true) {
+            int c = peek();
+            if (c == -1) {
+                throw syntaxError("Unexpected end of input");
+            }
+            if (depth == 0 && (c == ',' || c == '}')) {
+                return;
+            }
+            position++;
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+    }
+
+    private static int fieldOf(StringBuilder key) {
+        if (matches(key, "messageID")) return FIELD_ID;
+        if (matches(key, "messageCount")) return FIELD_COUNT;
+        if (matches(key, "recipient")) return FIELD_RECIPIENT;
+        if (matches(key, "message")) return FIELD_MESSAGE;
+        if (matches(key, "messageHash")) return FIELD_HASH;
+        if (matches(key, "status")) return FIELD_STATUS;
+        if (matches(key, "timestamp")) return FIELD_TIMESTAMP;
+        return FIELD_UNKNOWN;
+    }
+
+    private static boolean matches(StringBuilder key, String name) {
+        if (key.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (key.charAt(i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = read();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    // Skips whitespace and the array brackets/commas that sit between records
+    private int skipSeparators() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && (c == '[' || c == ']' || c == ',' || Character.isWhitespace(c))) {
+            position++;
+        }
+        return c;
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && Character.isWhitespace(c)) {
+            position++;
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Invalid message JSON: " + message);
+    }
+}
@@ -0,0 +1,998 @@
+package chatapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only message store: one record per message, so saving a message
+// is a single small write no matter how much history is already on disk.
+// Records are JSON lines unless another MessageCodec is given.
+//
+// Rewrites replace the file atomically. After recover() has run, the log also
+// keeps a checkpoint file recording how much of it is known to be intact, so
+// the next recovery only has to scan what was appended since.
+//
+// Deleting a message appends a tombstone: a record with the same ID and
+// status "deleted". Reads skip every record whose ID has a tombstone, and
+// compact() later rewrites the log without them.
+//
+// A status change (delivered, read) is appended the same way, as a small
+// status record with the message's ID, so marking a batch of messages is one
+// write rather than a rewrite. Reads fold the latest status into the message
+// and skip the status records; compact() writes the status into the message
+// itself and drops them.
+//
+// A log given a segment size or age rolls over: once the active file reaches
+// either limit it is sealed as messages.log.000001, .000002 and so on, and a new
+// active file is started. Sealed segments are never appended to again. Each has
+// a sparse index beside it (.idx) mapping message ID ranges to byte ranges, so
+// find() reads only the few records that can hold an ID.
+public class MessageLog {
+    // Appended bytes between checkpoints, which bounds the scan after a crash
+    static final long CHECKPOINT_INTERVAL = 4L * 1024 * 1024;
+    // Bytes before the checkpointed length whose CRC must still match
+    private static final int CHECKPOINT_TAIL = 64;
+
+    private final Path path;
+    private final MessageCodec codec;
+    private final long segmentBytes;
+    private final long segmentMillis;
+    private FileChannel channel;
+    private Path checkpointPath;
+    private long checkpointLength = 0;
+
+    // Records in the file and IDs that have a tombstone; null until the first full read
+    private HashSet<Long> tombstoned;
+    // Latest status of each ID with a status record; loaded along with tombstoned
+    private HashMap<Long, String> statusUpdates;
+    // Status records in the file; after a restart from a checkpoint, one per ID is assumed
+    private long statusRecords;
+    // IDs given a status record while a compaction is copying the file
+    private final HashSet<Long> statusesDuringCompaction = new HashSet<>();
+    private long recordCount;
+    // Changes whenever the file is replaced, so a compaction can tell it raced a rewrite
+    private long generation = 0;
+    private boolean compacting = false;
+
+    // Sealed segments by number, oldest first; null until the directory is listed
+    private TreeMap<Long, Path> sealed;
+    private final HashMap<Path, SegmentIndex> sealedIndexes = new HashMap<>();
+    // Index of the active file, kept up to date by appends; null until first needed
+    private SegmentIndex activeIndex;
+    // When the active file was started, for rolling by age; 0 if not known yet
+    private long activeStarted = 0;
+
+    public MessageLog(Path path) {
+        this(path, new JsonLineCodec());
+    }
+
+    public MessageLog(Path path, MessageCodec codec) {
+        this(path, codec, 0, 0);
+    }
+
+    // Rolls the active file over to a new segment once it holds segmentBytes
+    // or was started segmentMillis ago; 0 turns either limit off
+    public MessageLog(Path path, MessageCodec codec, long segmentBytes, long segmentMillis) {
+        if (segmentBytes < 0 || segmentMillis < 0) {
+            throw new IllegalArgumentException("Segment limits cannot be negative");
+        }
+        this.path = path;
+        this.codec = codec;
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    // Every file holding records, sealed segments oldest first and the active file last
+    public synchronized List<Path> getSegmentPaths() throws IOException {
+        ArrayList<Path> paths = new ArrayList<>(sealed().values());
+        if (exists()) {
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    // Appends one record to the end of the log
+    public synchronized void append(Message message) throws IOException {
+        appendAll(Collections.singletonList(message));
+    }
+
+    // Appends several records with a single write
+    public synchronized void appendAll(List<Message> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer buffer = codec.encode(messages);
+        FileChannel out = openChannel();
+        if (out.size() == 0) {
+            writeHeader(out);
+            activeIndex = new SegmentIndex();
+            activeStarted = System.currentTimeMillis();
+        }
+        long start = out.size();
+        long end = start + buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+
+        if (activeIndex != null) {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (Message message : messages) {
+                min = Math.min(min, message.getMessageIdValue());
+                max = Math.max(max, message.getMessageIdValue());
+            }
+            activeIndex.add(start, end, min, max, messages.size());
+        }
+
+        if (tombstoned != null) {
+            recordCount += messages.size();
+            for (Message message : messages) {
+                count(message);
+                if (compacting && message.isStatusRecord()) {
+                    statusesDuringCompaction.add(message.getMessageIdValue());
+                }
+            }
+        }
+        if (isDueToRoll(end)) {
+            roll();
+        }
+    }
+
+    // Looks a message up through the segment indexes, newest segment first,
+    // decoding only the blocks whose ID range covers it. Returns the latest
+    // record with the ID, or null if there is none or it was deleted.
+    public synchronized Message find(long messageID) throws IOException {
+        loadStats();
+        if (tombstoned.contains(messageID)) {
+            return null;
+        }
+        Message found = exists() ? find(path, activeIndex(), messageID) : null;
+        Iterator<Path> segments = sealed().descendingMap().values().iterator();
+        while (found == null && segments.hasNext()) {
+            Path segment = segments.next();
+            found = find(segment, sealedIndex(segment), messageID);
+        }
+        if (found != null) {
+            applyStatus(found, statusUpdates);
+        }
+        return found;
+    }
+
+    private Message find(Path segment, SegmentIndex index, long messageID) throws IOException {
+        long[] ranges = index.find(messageID);
+        if (ranges.length == 0) {
+            return null;
+        }
+        Message found = null;
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                try (Stream<Message> records = SegmentIndex.readRange(in, codec, ranges[i], ranges[i + 1])) {
+                    Iterator<Message> iterator = records.iterator();
+                    while (iterator.hasNext()) {
+                        Message message = iterator.next();
+                        if (message.getMessageIdValue() == messageID && !message.isStatusRecord()) {
+                            found = message;
+                        }
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return found;
+    }
+
+    // Appends a tombstone for the message. Returns false, appending nothing, if it
+    // was already deleted or was never stored.
+    public synchronized boolean delete(long messageID) throws IOException {
+        if (find(messageID) == null) {
+            return false;
+        }
+        append(Message.tombstone(messageID));
+        return true;
+    }
+
+    public synchronized boolean isDeleted(long messageID) throws IOException {
+        loadStats();
+        return tombstoned.contains(messageID);
+    }
+
+    // IDs with a tombstone in the log; records with these IDs are not live
+    public synchronized Set<Long> getDeletedIds() throws IOException {
+        loadStats();
+        return new HashSet<>(tombstoned);
+    }
+
+    // IDs of every message in the log, deleted ones included. A tombstone hides any
+    // record with its ID, so none of these can be given to a new message.
+    public LongStream recordedIds() throws IOException {
+        Set<Long> deleted = getDeletedIds();
+        return LongStream.concat(stream().mapToLong(Message::getMessageIdValue),
+            deleted.stream().mapToLong(Long::longValue));
+    }
+
+    // Latest status of every message whose status has been changed by a status record
+    public synchronized Map<Long, String> getStatusUpdates() throws IOException {
+        loadStats();
+        return new HashMap<>(statusUpdates);
+    }
+
+    // Tombstones plus the records they delete, and status records waiting to be
+    // folded into their messages, as a fraction of all records
+    public synchronized double getDeadRatio() throws IOException {
+        loadStats();
+        return recordCount == 0 ? 0 : Math.min(1.0, getDeadRecords() / (double) recordCount);
+    }
+
+    public synchronized long getDeadRecords() throws IOException {
+        loadStats();
+        return Math.min(recordCount, 2L * tombstoned.size() + statusRecords);
+    }
+
+    // Forces appended records to the storage device
+    public synchronized void force() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+            if (checkpointPath != null && channel.size() - checkpointLength >= CHECKPOINT_INTERVAL) {
+                writeCheckpoint(channel.size());
+            }
+        }
+    }
+
+    // Cuts off a torn record left at the end of the log by a crash, scanning
+    // only what was appended after the last checkpoint. Call before first use.
+    // The checkpoint also carries the record counts used by compaction, so
+    // they are brought up to date by the same bounded scan. Sealed segments
+    // were forced before they were sealed, so only the active file is checked.
+    public synchronized Recovery recover() throws IOException {
+        long started = System.nanoTime();
+        close();
+        tombstoned = null;
+        statusUpdates = null;
+        sealed = null;
+        sealedIndexes.clear();
+        activeIndex = null;
+        activeStarted = 0;
+        checkpointPath = checkpointPathFor(path);
+        deleteStaleFiles();
+        Collection<Path> segments = sealed().values();
+        if (!exists() && segments.isEmpty()) {
+            Files.deleteIfExists(checkpointPath);
+            checkpointLength = 0;
+            return new Recovery(0, 0, 0, System.nanoTime() - started);
+        }
+
+        long start;
+        long scanned;
+        long truncated;
+        // A crash just after a roll can leave sealed segments and no active file yet
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = file.size();
+            long checkpoint = readCheckpoint(file, size);
+            start = Math.max(checkpoint, 0);
+            long valid = codec.validLength(file, start, end -> { });
+            scanned = size - start;
+            truncated = size - valid;
+            if (truncated > 0) {
+                file.truncate(valid);
+                file.force(false);
+            }
+            if (checkpoint < 0) {
+                tombstoned = new HashSet<>();
+                statusUpdates = new HashMap<>();
+                statusRecords = 0;
+                recordCount = 0;
+                for (Path segment : segments) {
+                    try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                        countRecords(in, 0, in.size());
+                    }
+                }
+            }
+            if (tombstoned != null) {
+                countRecords(file, start, valid);
+            }
+            if (valid != start || (checkpoint < 0 && !segments.isEmpty())) {
+                writeCheckpoint(file, valid);
+            }
+            checkpointLength = valid;
+        }
+        return new Recovery(start, scanned, truncated, System.nanoTime() - started);
+    }
+
+    // Replays the log from the start and returns every live message in it,
+    // with its latest status
+    public synchronized ArrayList<Message> readAll() throws IOException {
+        ArrayList<Message> messages = new ArrayList<>();
+        // The full read doubles as the scan that counts records for compaction
+        tombstoned = new HashSet<>();
+        statusUpdates = new HashMap<>();
+        statusRecords = 0;
+        recordCount = 0;
+        try (Stream<Message> records = readSegments()) {
+            Iterator<Message> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                Message message = iterator.next();
+                recordCount++;
+                count(message);
+                if (!message.isStatusRecord()) {
+                    messages.add(message);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            tombstoned = null;
+            statusUpdates = null;
+            throw e.getCause();
+        }
+
+        if (!tombstoned.isEmpty()) {
+            messages.removeIf(message -> tombstoned.contains(message.getMessageIdValue()));
+        }
+        if (!statusUpdates.isEmpty()) {
+            for (Message message : messages) {
+                applyStatus(message, statusUpdates);
+            }
+        }
+        return messages;
+    }
+
+    // Replays the live messages lazily. Records appended while the stream is open
+    // may or may not be seen; the stream must be closed by the caller.
+    public Stream<Message> stream() throws IOException {
+        Set<Long> deleted;
+        Map<Long, String> statuses;
+        Stream<Message> records;
+        synchronized (this) {
+            deleted = getDeletedIds();
+            statuses = getStatusUpdates();
+            records = readSegments();
+        }
+        Stream<Message> live = records.filter(message -> !message.isStatusRecord()
+            && (deleted.isEmpty() || !deleted.contains(message.getMessageIdValue())));
+        return statuses.isEmpty() ? live : live.peek(message -> applyStatus(message, statuses));
+    }
+
+    private static void applyStatus(Message message, Map<Long, String> statuses) {
+        String status = statuses.get(message.getMessageIdValue());
+        if (status != null) {
+            message.setStatus(status);
+        }
+    }
+
+    // Opens every segment, oldest first, so a roll or compaction that renames files
+    // after this returns does not change what the stream reads
+    private Stream<Message> readSegments() throws IOException {
+        ArrayList<InputStream> inputs = new ArrayList<>();
+        try {
+            for (Path segment : getSegmentPaths()) {
+                inputs.add(Files.newInputStream(segment));
+            }
+        } catch (IOException e) {
+            closeAll(inputs);
+            throw e;
+        }
+        return inputs.stream().flatMap(in -> {
+            try {
+                return codec.read(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).onClose(() -> closeAll(inputs));
+    }
+
+    private static void closeAll(List<InputStream> inputs) {
+        for (InputStream in : inputs) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Already read or abandoned
+            }
+        }
+    }
+
+    // Replaces the whole log with the given messages (used for deletes and imports).
+    // The new log is written beside the old one and renamed over it. Sealed
+    // segments are deleted only after that, so a crash in between can leave
+    // their records duplicated but never lost.
+    public synchronized void rewrite(List<Message> messages) throws IOException {
+        close();
+        generation++;
+        AtomicFiles.write(path, out -> {
+            writeHeader(out);
+            if (!messages.isEmpty()) {
+                ByteBuffer buffer = codec.encode(messages);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        });
+        for (Path segment : sealed().values()) {
+            Files.deleteIfExists(segment);
+            Files.deleteIfExists(indexPathFor(segment));
+        }
+        sealed.clear();
+        sealedIndexes.clear();
+        activeIndex = null;
+        activeStarted = System.currentTimeMillis();
+        recordCount = messages.size();
+        tombstoned = new HashSet<>();
+        statusUpdates = new HashMap<>();
+        statusRecords = 0;
+        for (Message message : messages) {
+            count(message);
+        }
+        if (checkpointPath != null) {
+            writeCheckpoint(Files.size(path));
+        }
+    }
+
+    // Rewrites the log without deleted messages and their tombstones, and with
+    // status records folded into their messages. Records are
+    // copied without holding the log lock, at about bytesPerSecond (0 for no limit),
+    // so appends carry on meanwhile. Only what was appended during the copy is
+    // moved under the lock, just before the new file is renamed into place.
+    // Sealed segments go first, oldest first, and only those whose index says
+    // they may hold a dropped ID are rewritten; ones left empty are deleted.
+    // Returns false if there was nothing to drop or the log was rewritten meanwhile.
+    public boolean compact(long bytesPerSecond) throws IOException {
+        long snapshot;
+        long startGeneration;
+        HashSet<Long> dropped;
+        HashMap<Long, String> statuses;
+        ArrayList<Path> segments;
+        synchronized (this) {
+            loadStats();
+            if (compacting || (tombstoned.isEmpty() && statusUpdates.isEmpty())) {
+                return false;
+            }
+            snapshot = Files.size(path);
+            startGeneration = generation;
+            dropped = new HashSet<>(tombstoned);
+            statuses = new HashMap<>(statusUpdates);
+            segments = new ArrayList<>(sealed().values());
+            statusesDuringCompaction.clear();
+            compacting = true;
+        }
+
+        try {
+            long[] touchedIds = Stream.concat(dropped.stream(), statuses.keySet().stream())
+                .mapToLong(Long::longValue).sorted().toArray();
+            for (Path segment : segments) {
+                SegmentIndex index;
+                synchronized (this) {
+                    index = sealedIndex(segment);
+                }
+                // A message always comes before its tombstone and status records, so
+                // going oldest first never drops a record whose effect is not yet kept
+                if (index.mayContainAny(touchedIds)
+                        && !compactSegment(segment, dropped, statuses, bytesPerSecond, startGeneration)) {
+                    return false;
+                }
+            }
+            return compactActive(snapshot, dropped, statuses, bytesPerSecond, startGeneration);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    // Rewrites a sealed segment without the dropped records; false if the log was rewritten meanwhile
+    private boolean compactSegment(Path segment, Set<Long> dropped, Map<Long, String> statuses,
+                                   long bytesPerSecond, long startGeneration) throws IOException {
+        Path temp = compactFileFor(segment);
+        SegmentIndex index = new SegmentIndex();
+        try {
+            Copy copy;
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeHeader(out);
+                copy = copyLive(in, in.size(), out, dropped, statuses, bytesPerSecond, index);
+                out.force(true);
+            }
+            index.closeBlock();
+
+            synchronized (this) {
+                if (generation != startGeneration) {
+                    return false;
+                }
+                if (copy.removed == 0 && copy.updated == 0) {
+                    return true;
+                }
+                if (index.recordCount() == 0) {
+                    Files.delete(segment);
+                    Files.deleteIfExists(indexPathFor(segment));
+                    sealed().values().remove(segment);
+                    sealedIndexes.remove(segment);
+                } else {
+                    AtomicFiles.replace(temp, segment);
+                    index.write(indexPathFor(segment), Files.size(segment));
+                    sealedIndexes.put(segment, index);
+                }
+                recordCount -= copy.removed;
+                statusRecords = Math.max(0, statusRecords - copy.statusRecords);
+                if (checkpointPath != null) {
+                    writeCheckpoint(checkpointLength);
+                }
+                return true;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private boolean compactActive(long snapshot, Set<Long> dropped, Map<Long, String> statuses,
+                                  long bytesPerSecond, long startGeneration) throws IOException {
+        Path temp = compactFileFor(path);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                writeHeader(out);
+                Copy copy = copyLive(in, snapshot, out, dropped, statuses, bytesPerSecond, null);
+
+                synchronized (this) {
+                    if (generation != startGeneration) {
+                        return false;
+                    }
+                    long end = in.size();
+                    for (long position = snapshot; position < end; ) {
+                        position += in.transferTo(position, end - position, out);
+                    }
+                    out.force(true);
+                    out.close();
+                    if (channel != null) {
+                        channel.close();
+                        channel = null;
+                    }
+                    AtomicFiles.replace(temp, path);
+
+                    generation++;
+                    activeIndex = null;
+                    recordCount -= copy.removed;
+                    statusRecords = Math.max(0, statusRecords - copy.statusRecords);
+                    tombstoned.removeAll(dropped);
+                    // Folded now, unless another status record came in during the copy
+                    for (Map.Entry<Long, String> folded : statuses.entrySet()) {
+                        if (!statusesDuringCompaction.contains(folded.getKey())) {
+                            statusUpdates.remove(folded.getKey(), folded.getValue());
+                        }
+                    }
+                    if (checkpointPath != null) {
+                        writeCheckpoint(Files.size(path));
+                    }
+                    return true;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Copies records before snapshot whose IDs are not dropped, with status records
+    // written into their messages, adding them to index if one is given
+    private Copy copyLive(FileChannel in, long snapshot, FileChannel out, Set<Long> dropped,
+                          Map<Long, String> statuses, long bytesPerSecond, SegmentIndex index) throws IOException {
+        long started = System.nanoTime();
+        long written = 0;
+        Copy copy = new Copy();
+        RangeInputStream source = new RangeInputStream(in, 0, snapshot);
+        ArrayList<Message> batch = new ArrayList<>(SegmentIndex.BLOCK_RECORDS);
+        try (Stream<Message> records = codec.read(source)) {
+            Iterator<Message> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                Message message = iterator.next();
+                String status = statuses.get(message.getMessageIdValue());
+                if (dropped.contains(message.getMessageIdValue())
+                        || (message.isStatusRecord() && status != null)) {
+                    copy.removed++;
+                    if (message.isStatusRecord()) {
+                        copy.statusRecords++;
+                    }
+                } else {
+                    if (status != null && !message.isTombstone() && !status.equals(message.getStatus())) {
+                        message.setStatus(status);
+                        copy.updated++;
+                    }
+                    batch.add(message);
+                }
+                if (batch.size() == SegmentIndex.BLOCK_RECORDS || (!iterator.hasNext() && !batch.isEmpty())) {
+                    ByteBuffer buffer = codec.encode(batch);
+                    long start = out.position();
+                    written += buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    if (index != null) {
+                        long min = Long.MAX_VALUE;
+                        long max = Long.MIN_VALUE;
+                        for (Message kept : batch) {
+                            min = Math.min(min, kept.getMessageIdValue());
+                            max = Math.max(max, kept.getMessageIdValue());
+                        }
+                        index.add(start, out.position(), min, max, batch.size());
+                    }
+                    batch.clear();
+                }
+                pace(started, source.position + written, bytesPerSecond);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return copy;
+    }
+
+    // What copyLive did: records left out (statusRecords of them status records),
+    // and records kept with a new status
+    private static class Copy {
+        long removed;
+        long statusRecords;
+        long updated;
+    }
+
+    // Sleeps as needed to keep the copy to about bytesPerSecond
+    private static void pace(long started, long bytes, long bytesPerSecond) throws IOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long due = started + (long) (bytes * 1e9 / bytesPerSecond);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Compaction interrupted");
+            }
+        }
+    }
+
+    // Removes matching records; runs under the log lock so concurrent appends are not lost
+    public synchronized boolean removeIf(Predicate<Message> filter) throws IOException {
+        ArrayList<Message> messages = readAll();
+        if (!messages.removeIf(filter)) {
+            return false;
+        }
+        rewrite(messages);
+        return true;
+    }
+
+    // Closes the file; a log that has been recovered is checkpointed first
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            try {
+                if (checkpointPath != null && channel.isOpen()) {
+                    channel.force(false);
+                    writeCheckpoint(channel.size());
+                }
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    static Path checkpointPathFor(Path path) {
+        return path.resolveSibling(path.getFileName() + ".checkpoint");
+    }
+
+    private static Path compactFileFor(Path path) {
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    static Path indexPathFor(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".idx");
+    }
+
+    // Sealed segment files are named after the active file plus a sequence number
+    private Pattern segmentName() {
+        return Pattern.compile(Pattern.quote(path.getFileName().toString()) + "\\.(\\d{6,})");
+    }
+
+    private TreeMap<Long, Path> sealed() throws IOException {
+        if (sealed == null) {
+            sealed = new TreeMap<>();
+            Pattern name = segmentName();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path.toAbsolutePath().getParent())) {
+                for (Path file : files) {
+                    Matcher matcher = name.matcher(file.getFileName().toString());
+                    if (matcher.matches()) {
+                        sealed.put(Long.parseLong(matcher.group(1)), path.resolveSibling(file.getFileName()));
+                    }
+                }
+            }
+        }
+        return sealed;
+    }
+
+    // Removes temp files a crash left behind and indexes whose segment is gone
+    private void deleteStaleFiles() throws IOException {
+        String prefix = path.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path.toAbsolutePath().getParent(), prefix + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp") || name.endsWith(".compact")) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(".idx")
+                        && !Files.exists(file.resolveSibling(name.substring(0, name.length() - 4)))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private boolean isDueToRoll(long size) throws IOException {
+        if (compacting || size <= codec.fileHeader().length) {
+            return false;
+        }
+        if (segmentBytes > 0 && size >= segmentBytes) {
+            return true;
+        }
+        if (segmentMillis > 0) {
+            if (activeStarted == 0) {
+                activeStarted = Files.readAttributes(path, BasicFileAttributes.class).creationTime().toMillis();
+            }
+            return System.currentTimeMillis() - activeStarted >= segmentMillis;
+        }
+        return false;
+    }
+
+    // Seals the active file as the next segment, with its index written first so
+    // a sealed segment is never without one, and starts a new active file
+    private void roll() throws IOException {
+        channel.force(true);
+        long length = channel.size();
+        SegmentIndex index = activeIndex();
+        index.closeBlock();
+        long number = sealed().isEmpty() ? 1 : sealed.lastKey() + 1;
+        Path segment = path.resolveSibling(String.format("%s.%06d", path.getFileName(), number));
+        index.write(indexPathFor(segment), length);
+        channel.close();
+        channel = null;
+        AtomicFiles.replace(path, segment);
+        sealed.put(number, segment);
+        sealedIndexes.put(segment, index);
+
+        writeHeader(openChannel());
+        activeIndex = new SegmentIndex();
+        activeStarted = System.currentTimeMillis();
+        if (checkpointPath != null) {
+            channel.force(false);
+            writeCheckpoint(channel.size());
+        }
+    }
+
+    private SegmentIndex activeIndex() throws IOException {
+        if (activeIndex == null) {
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                activeIndex = SegmentIndex.build(in, codec);
+            }
+        }
+        return activeIndex;
+    }
+
+    // Loads a sealed segment's index, rebuilding it if it is missing or out of date
+    private SegmentIndex sealedIndex(Path segment) throws IOException {
+        SegmentIndex index = sealedIndexes.get(segment);
+        if (index == null) {
+            long length = Files.size(segment);
+            index = SegmentIndex.read(indexPathFor(segment), length);
+            if (index == null) {
+                try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    index = SegmentIndex.build(in, codec);
+                }
+                index.write(indexPathFor(segment), length);
+            }
+            sealedIndexes.put(segment, index);
+        }
+        return index;
+    }
+
+    // Counts records and collects tombstones with one pass over the file
+    private void loadStats() throws IOException {
+        if (tombstoned == null) {
+            readAll();
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    private void writeHeader(FileChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(codec.fileHeader());
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+    }
+
+    // Adds the records between two record boundaries to the counts
+    private void countRecords(FileChannel file, long from, long to) throws IOException {
+        // Codecs read from the start of a file, so the header is put back in front
+        byte[] header = from == 0 ? new byte[0] : codec.fileHeader();
+        InputStream in = new SequenceInputStream(new ByteArrayInputStream(header),
+            new RangeInputStream(file, from, to));
+        try (Stream<Message> records = codec.read(in)) {
+            Iterator<Message> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                recordCount++;
+                count(iterator.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Notes a tombstone or status record in the counts
+    private void count(Message message) {
+        if (message.isTombstone()) {
+            tombstoned.add(message.getMessageIdValue());
+        } else if (message.isStatusRecord()) {
+            statusUpdates.put(message.getMessageIdValue(), message.getStatus());
+            statusRecords++;
+        }
+    }
+
+    // Checkpoint file: "<length> <CRC32 of the bytes just before length>" for the
+    // active file, then, when the counts are known, the record count, the IDs
+    // with tombstones across all segments and "<ID>=<status>" per status update.
+    // Returns the checkpointed length, or -1 if it is missing or no longer matches.
+    private long readCheckpoint(FileChannel file, long size) throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return -1;
+        }
+        try {
+            String[] fields = new String(Files.readAllBytes(checkpointPath), StandardCharsets.US_ASCII).trim().split(" ");
+            long length = Long.parseLong(fields[0]);
+            long checksum = Long.parseLong(fields[1]);
+            // A length of 0 is an active file that was empty when the last segment was sealed
+            if (length >= 0 && length <= size && tailChecksum(file, length) == checksum) {
+                if (fields.length > 2) {
+                    HashSet<Long> ids = new HashSet<>();
+                    HashMap<Long, String> statuses = new HashMap<>();
+                    for (int i = 3; i < fields.length; i++) {
+                        int equals = fields[i].indexOf('=');
+                        if (equals < 0) {
+                            ids.add(Long.parseLong(fields[i]));
+                        } else {
+                            Message update = Message.statusRecord(Long.parseLong(fields[i].substring(0, equals)),
+                                fields[i].substring(equals + 1));
+                            statuses.put(update.getMessageIdValue(), update.getStatus());
+                        }
+                    }
+                    recordCount = Long.parseLong(fields[2]);
+                    tombstoned = ids;
+                    statusUpdates = statuses;
+                    statusRecords = statuses.size();
+                }
+                return length;
+            }
+        } catch (RuntimeException e) {
+            // Unreadable checkpoint: fall back to a full scan
+        }
+        return -1;
+    }
+
+    private void writeCheckpoint(long length) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            writeCheckpoint(file, length);
+        }
+    }
+
+    private void writeCheckpoint(FileChannel file, long length) throws IOException {
+        StringBuilder line = new StringBuilder().append(length).append(' ').append(tailChecksum(file, length));
+        if (tombstoned != null) {
+            line.append(' ').append(recordCount);
+            for (long id : tombstoned) {
+                line.append(' ').append(id);
+            }
+            for (Map.Entry<Long, String> update : statusUpdates.entrySet()) {
+                line.append(' ').append(update.getKey()).append('=').append(update.getValue());
+            }
+        }
+        ByteBuffer text = StandardCharsets.US_ASCII.encode(line.append('\n').toString());
+        AtomicFiles.write(checkpointPath, out -> {
+            while (text.hasRemaining()) {
+                out.write(text);
+            }
+        });
+        checkpointLength = length;
+    }
+
+    private static long tailChecksum(FileChannel file, long length) throws IOException {
+        int count = (int) Math.min(CHECKPOINT_TAIL, length);
+        ByteBuffer tail = ByteBuffer.allocate(count);
+        while (tail.hasRemaining()) {
+            if (file.read(tail, length - count + tail.position()) < 0) {
+                return -1;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(tail.array(), 0, count);
+        return crc.getValue();
+    }
+
+    // Reads the bytes of a channel from start up to limit without moving or closing it
+    private static class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long limit;
+        long position;
+
+        RangeInputStream(FileChannel channel, long start, long limit) {
+            this.channel = channel;
+            this.position = start;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= limit) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, limit - position)), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+
+    // What recover() found: where the scan started, how much it read and cut off
+    public static final class Recovery {
+        private final long checkpoint;
+        private final long scannedBytes;
+        private final long truncatedBytes;
+        private final long nanos;
+
+        Recovery(long checkpoint, long scannedBytes, long truncatedBytes, long nanos) {
+            this.checkpoint = checkpoint;
+            this.scannedBytes = scannedBytes;
+            this.truncatedBytes = truncatedBytes;
+            this.nanos = nanos;
+        }
+
+        public long getCheckpoint() { return checkpoint; }
+        public long getScannedBytes() { return scannedBytes; }
+        public long getTruncatedBytes() { return truncatedBytes; }
+        public long getMillis() { return nanos / 1_000_000; }
+
+        @Override
+        public String toString() {
+            return String.format("scanned %,d bytes from offset %,d in %d ms, truncated %,d bytes",
+                getScannedBytes(), checkpoint, getMillis(), truncatedBytes);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package chatapp;
+
+import java.util.List;
+import javax.swing.RowFilter;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+// Table model that reads rows on demand, so a JTable only asks for the cells
+// of the rows it is painting. Rows come either from an in-memory list of
+// messages or straight from a MappedMessageStore without decoding the file.
+// A store is not scanned to the end up front: the model starts with the first
+// PAGE_ROWS records and indexes another page whenever a row near the end of
+// those is read, so rows are counted as they are reached.
+public class MessageTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    static final int PAGE_ROWS = 500;
+
+    public static final int COLUMN_NUMBER = 0;
+    public static final int COLUMN_ID = 1;
+    public static final int COLUMN_RECIPIENT = 2;
+    public static final int COLUMN_MESSAGE = 3;
+    public static final int COLUMN_STATUS = 4;
+    public static final int COLUMN_HASH = 5;
+    public static final int COLUMN_COUNT = 6;
+
+    private static final String[] COLUMN_NAMES = {
+        "#", "Message ID", "Recipient", "Message", "Status", "Hash", "Count"
+    };
+
+    // The rows are only shown, never serialized with the model
+    private final transient List<Message> messages;
+    private final transient MappedMessageStore store;
+    private int rowCount;
+    private boolean moreRowsRequested = false;
+
+    // The last view handed out, since a row's cells are asked for one after another
+    private int cachedRow = -1;
+    private transient MessageView cachedView;
+
+    private MessageTableModel(List<Message> messages, MappedMessageStore store) {
+        this.messages = messages;
+        this.store = store;
+        this.rowCount = messages != null ? messages.size() : store.indexThrough(PAGE_ROWS);
+    }
+
+    public static MessageTableModel forMessages(List<Message> messages) {
+        return new MessageTableModel(messages, null);
+    }
+
+    // The store must stay open for as long as the model is displayed
+    public static MessageTableModel forStore(MappedMessageStore store) {
+        return new MessageTableModel(null, store);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    // False while a store has records that are not counted yet
+    public boolean isComplete() {
+        return store == null || store.isFullyIndexed();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == COLUMN_NUMBER || column == COLUMN_COUNT ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == COLUMN_NUMBER) {
+            return row + 1;
+        }
+        if (messages != null) {
+            Message message = messages.get(row);
+            switch (column) {
+                case COLUMN_ID: return message.getMessageID();
+                case COLUMN_RECIPIENT: return message.getRecipient();
+                case COLUMN_MESSAGE: return message.getMessage();
+                case COLUMN_STATUS: return message.getStatus();
+                case COLUMN_HASH: return message.getMessageHash();
+                case COLUMN_COUNT: return message.getMessageCount();
+                default: return null;
+            }
+        }
+
+        if (row >= rowCount - PAGE_ROWS / 2) {
+            requestMoreRows();
+        }
+        MessageView view = viewAt(row);
+        switch (column) {
+            case COLUMN_ID: return view.getMessageID();
+            case COLUMN_RECIPIENT: return view.getRecipient();
+            case COLUMN_MESSAGE: return view.getMessage();
+            case COLUMN_STATUS: return view.getStatus();
+            case COLUMN_HASH: return view.getMessageHash();
+            case COLUMN_COUNT: return view.getMessageCount();
+            default: return null;
+        }
+    }
+
+    // Cells are read while the table paints, so the new rows are added afterwards
+    private void requestMoreRows() {
+        if (!moreRowsRequested && !store.isFullyIndexed()) {
+            moreRowsRequested = true;
+            SwingUtilities.invokeLater(this::indexMoreRows);
+        }
+    }
+
+    // Counts the next page of store records and tells the table about them
+    void indexMoreRows() {
+        moreRowsRequested = false;
+        int before = rowCount;
+        rowCount = store.indexThrough(rowCount + PAGE_ROWS);
+        if (rowCount > before) {
+            fireTableRowsInserted(before, rowCount - 1);
+        }
+    }
+
+    private MessageView viewAt(int row) {
+        if (row != cachedRow) {
+            cachedView = store.get(row);
+            cachedRow = row;
+        }
+        return cachedView;
+    }
+
+    // Keeps rows whose status equals status and whose recipient contains recipient;
+    // a null or empty argument matches every row
+    public static RowFilter<MessageTableModel, Integer> filterFor(String status, String recipient) {
+        final String wantedStatus = status == null ? "" : status.trim();
+        final String wantedRecipient = recipient == null ? "" : recipient.trim();
+        if (wantedStatus.isEmpty() && wantedRecipient.isEmpty()) {
+            return null;
+        }
+
+        return new RowFilter<MessageTableModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends MessageTableModel, ? extends Integer> entry) {
+                MessageTableModel model = entry.getModel();
+                int row = entry.getIdentifier();
+                if (!wantedStatus.isEmpty()
+                        && !wantedStatus.equalsIgnoreCase((String) model.getValueAt(row, COLUMN_STATUS))) {
+                    return false;
+                }
+                if (!wantedRecipient.isEmpty()) {
+                    String value = (String) model.getValueAt(row, COLUMN_RECIPIENT);
+                    return value != null && value.contains(wantedRecipient);
+                }
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,240 @@
+package chatapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Lazy view of one record in a MappedMessageStore. Each field is located and
+// decoded from the UTF-8 bytes only the first time it is requested.
+public class MessageView {
+    private static final byte[] KEY_ID = ascii("messageID");
+    private static final byte[] KEY_COUNT = ascii("messageCount");
+    private static final byte[] KEY_RECIPIENT = ascii("recipient");
+    private static final byte[] KEY_MESSAGE = ascii("message");
+    private static final byte[] KEY_HASH = ascii("messageHash");
+    private static final byte[] KEY_STATUS = ascii("status");
+    private static final byte[] KEY_TIMESTAMP = ascii("timestamp");
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+
+    private String messageID;
+    private String recipient;
+    private String message;
+    private String messageHash;
+    private String status;
+    private int messageCount = -1;
+    private long timestamp = Long.MIN_VALUE;
+
+    MessageView(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+    }
+
+    // Size of the raw record in bytes
+    public int getRecordLength() {
+        return end - start;
+    }
+
+    public String getMessageID() {
+        if (messageID == null) messageID = stringField(KEY_ID);
+        return messageID;
+    }
+
+    public String getRecipient() {
+        if (recipient == null) recipient = stringField(KEY_RECIPIENT);
+        return recipient;
+    }
+
+    public String getMessage() {
+        if (message == null) message = stringField(KEY_MESSAGE);
+        return message;
+    }
+
+    public String getMessageHash() {
+        if (messageHash == null) messageHash = stringField(KEY_HASH);
+        return messageHash;
+    }
+
+    public String getStatus() {
+        if (status == null) status = stringField(KEY_STATUS);
+        return status;
+    }
+
+    // Shows a status changed by a later status record instead of the stored one
+    void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getMessageCount() {
+        if (messageCount < 0) {
+            int p = findValue(KEY_COUNT);
+            int count = 0;
+            while (p >= 0 && p < end && buffer.get(p) >= '0' && buffer.get(p) <= '9') {
+                count = count * 10 + (buffer.get(p++) - '0');
+            }
+            messageCount = count;
+        }
+        return messageCount;
+    }
+
+    // Epoch milliseconds, or -1 if the record has no valid timestamp
+    public long getTimestamp() {
+        if (timestamp == Long.MIN_VALUE) {
+            timestamp = TimestampFormat.parse(stringField(KEY_TIMESTAMP));
+        }
+        return timestamp;
+    }
+
+    // Builds a full Message; throws IllegalArgumentException if the record is not a valid message
+    public Message toMessage() {
+        return Message.restore(getMessageID(), getRecipient(), getMessage(),
+            findValue(KEY_COUNT) >= 0 ? getMessageCount() : 0, getMessageHash(), getStatus(),
+            getTimestamp() >= 0 ? getTimestamp() : System.currentTimeMillis());
+    }
+
+    private String stringField(byte[] key) {
+        int p = findValue(key);
+        if (p < 0 || buffer.get(p) != '"') {
+            return "";
+        }
+        int valueStart = p + 1;
+        int valueEnd = skipString(valueStart);
+
+        boolean escaped = false;
+        for (int i = valueStart; i < valueEnd; i++) {
+            if (buffer.get(i) == '\\') {
+                escaped = true;
+                break;
+            }
+        }
+
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(valueStart).limit(valueEnd);
+        String raw = StandardCharsets.UTF_8.decode(slice).toString();
+        return escaped ? unescape(raw) : raw;
+    }
+
+    // Returns the offset of the value stored under key at the top level of the record, or -1
+    private int findValue(byte[] key) {
+        int p = start + 1;
+        while (true) {
+            p = skipWhitespace(p);
+            if (p >= end || buffer.get(p) != '"') {
+                return -1;
+            }
+            int keyStart = p + 1;
+            int keyEnd = skipString(keyStart);
+            p = skipWhitespace(keyEnd + 1);
+            if (p >= end || buffer.get(p) != ':') {
+                return -1;
+            }
+            p = skipWhitespace(p + 1);
+            if (keyMatches(keyStart, keyEnd, key)) {
+                return p;
+            }
+
+            p = skipWhitespace(skipValue(p));
+            if (p >= end || buffer.get(p) != ',') {
+                return -1;
+            }
+            p++;
+        }
+    }
+
+    private boolean keyMatches(int keyStart, int keyEnd, byte[] key) {
+        if (keyEnd - keyStart != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(keyStart + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the offset of the closing quote of a string whose body starts at p
+    private int skipString(int p) {
+        while (p < end) {
+            byte b = buffer.get(p);
+            if (b == '\\') {
+                p += 2;
+            } else if (b == '"') {
+                return p;
+            } else {
+                p++;
+            }
+        }
+        return end;
+    }
+
+    private int skipValue(int p) {
+        if (p < end && buffer.get(p) == '"') {
+            return skipString(p + 1) + 1;
+        }
+        int depth = 0;
+        while (p < end) {
+            byte b = buffer.get(p);
+            if (b == '"') {
+                p = skipString(p + 1) + 1;
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (depth == 0) {
+                    return p;
+                }
+                depth--;
+            } else if (b == ',' && depth == 0) {
+                return p;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    private int skipWhitespace(int p) {
+        while (p < end) {
+            byte b = buffer.get(p);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    private static String unescape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 >= text.length()) {
+                sb.append(c);
+                continue;
+            }
+            char escaped = text.charAt(++i);
+            switch (escaped) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 < text.length()) {
+                        sb.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    break;
+                default: sb.append(escaped); break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,601 @@
+package chatapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Non-blocking QuickChat server speaking the binary ChatFrames protocol. A few
+// event loop threads, each with its own Selector, share all the connections, so
+// tens of thousands of mostly idle clients cost a socket and a small Connection
+// each rather than a thread. Read and write buffers come from a BufferPool only
+// while bytes are in flight.
+//
+// Requests are handled on the event loop that read them. Everything ChatService
+// does for them is in memory apart from DELETE and a SEARCH that misses memory,
+// which wait on storage and hold up the other clients of that loop meanwhile.
+// Messages delivered to a logged-in client from other threads are passed to its
+// event loop as tasks and written from there, and so are its receipts.
+//
+// Usage:
+//   java -cp build/classes chatapp.NioChatServer [port] [event loops]
+public class NioChatServer implements Closeable {
+    public static final int DEFAULT_PORT = 5191;
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    private final ChatService service;
+    private final InetSocketAddress address;
+    private final EventLoop[] loops;
+    private final BufferPool buffers;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private int nextLoop = 0;
+    private volatile boolean closed = false;
+
+    // Listens on localhost only; port 0 picks a free port (see getPort)
+    public NioChatServer(ChatService service, int port) {
+        this(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), defaultLoopCount());
+    }
+
+    public NioChatServer(ChatService service, InetSocketAddress address, int loopCount) {
+        if (loopCount < 1) {
+            throw new IllegalArgumentException("At least one event loop is needed");
+        }
+        this.service = service;
+        this.address = address;
+        this.loops = new EventLoop[loopCount];
+        this.buffers = new BufferPool(BUFFER_BYTES, loopCount * 16);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int loopCount = args.length > 1 ? Integer.parseInt(args[1]) : defaultLoopCount();
+        ChatService service = new ChatService();
+        int loaded = service.loadStoredMessages();
+        NioChatServer server = new NioChatServer(service,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port), loopCount);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "nio-chat-server-shutdown"));
+        System.out.println("QuickChat binary server listening on " + server.getAddress()
+            + " (" + loaded + " stored messages, " + loopCount + " event loops)");
+    }
+
+    static int defaultLoopCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverChannel != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 4096);
+        serverChannel.configureBlocking(false);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+        }
+        // The first loop also accepts, then deals connections out round robin
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].thread = new Thread(loops[i], "nio-chat-loop-" + (i + 1));
+            loops[i].thread.start();
+        }
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+    }
+
+    // Number of clients currently connected
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    BufferPool getBufferPool() {
+        return buffers;
+    }
+
+    // Stops accepting, disconnects every client and waits for the event loops to finish
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        try {
+            for (EventLoop loop : loops) {
+                if (loop != null && loop.thread != null) {
+                    loop.thread.join();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connectionCount.incrementAndGet();
+            loops[nextLoop].adopt(channel);
+            nextLoop = (nextLoop + 1) % loops.length;
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        final Selector selector;
+        final Queue<SocketChannel> adopted = new ConcurrentLinkedQueue<>();
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        Thread thread;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        // Called by the accepting loop; the channel is registered on this loop's own thread
+        void adopt(SocketChannel channel) {
+            adopted.add(channel);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        // Runs a task on this loop's thread, for work on its connections from elsewhere
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handleKey(key);
+                    }
+                    // After the keys, so connections the first loop just accepted for itself are included
+                    registerAdopted();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (!closed) {
+                    System.err.println("Event loop stopped: " + e.getMessage());
+                }
+            } finally {
+                shutDown();
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                try {
+                    accept();
+                } catch (IOException e) {
+                    if (!closed) {
+                        System.err.println("Error accepting connection: " + e.getMessage());
+                    }
+                }
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                // Client went away
+                connection.close();
+            }
+        }
+
+        private void registerAdopted() {
+            SocketChannel channel;
+            while ((channel = adopted.poll()) != null) {
+                try {
+                    Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    connectionCount.decrementAndGet();
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void shutDown() {
+            SocketChannel channel;
+            while ((channel = adopted.poll()) != null) {
+                connectionCount.decrementAndGet();
+                closeQuietly(channel);
+            }
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                selector.close();
+            } catch (IOException | ClosedSelectorException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    // One client. Only its event loop thread touches it.
+    private class Connection {
+        final SocketChannel channel;
+        final EventLoop loop;
+        SelectionKey key;
+        Registration user;
+        DeliveryQueues.Session session;
+        final Consumer<ReceiptTracker.Receipt> receiptSink;
+        // Partial request waiting for the rest of its bytes; null when there is none
+        ByteBuffer in;
+        // Reply being written into, and filled buffers waiting for the socket
+        ByteBuffer out;
+        final ArrayDeque<ByteBuffer> unsent = new ArrayDeque<>();
+        boolean quitting = false;
+        boolean closed = false;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.receiptSink = receipt -> loop.execute(() -> pushReceipt(receipt));
+        }
+
+        void read() throws IOException {
+            if (in == null) {
+                in = buffers.acquire();
+            }
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (!quitting) {
+                int length = ChatFrames.frameLength(in);
+                if (length < 0) {
+                    break;
+                }
+                if (length < ChatFrames.HEADER_BYTES || length > ChatFrames.MAX_REQUEST_BYTES) {
+                    // Not our protocol, or out of step with it
+                    close();
+                    return;
+                }
+                if (in.remaining() < length) {
+                    break;
+                }
+                // Decode straight from the read buffer through a view of this frame
+                int end = in.position() + length;
+                ByteBuffer frame = in.duplicate();
+                frame.position(in.position() + 4).limit(end);
+                in.position(end);
+                handle(frame);
+            }
+            in.compact();
+            if (in.position() == 0) {
+                buffers.release(in);
+                in = null;
+            }
+            flush();
+        }
+
+        void flush() throws IOException {
+            queueOut();
+            while (!unsent.isEmpty()) {
+                ByteBuffer buffer = unsent.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    // Socket is full; stop reading from a client that is not reading its replies
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                buffers.release(unsent.poll());
+            }
+            if (quitting) {
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            connectionCount.decrementAndGet();
+            if (session != null) {
+                session.close();
+                session = null;
+                service.unsubscribeReceipts(user, receiptSink);
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            buffers.release(in);
+            buffers.release(out);
+            for (ByteBuffer buffer : unsent) {
+                buffers.release(buffer);
+            }
+            in = null;
+            out = null;
+            unsent.clear();
+        }
+
+        private void handle(ByteBuffer frame) {
+            byte type = frame.get();
+            int tag = frame.getInt();
+            try {
+                switch (type) {
+                    case ChatFrames.REGISTER:
+                        service.register(ChatFrames.getString(frame), ChatFrames.getString(frame),
+                            ChatFrames.getString(frame), ChatFrames.getString(frame), ChatFrames.getString(frame));
+                        text(ChatFrames.OK, tag, "Registration Successful! You can now login with your credentials.");
+                        return;
+                    case ChatFrames.LOGIN: {
+                        Registration found = service.login(ChatFrames.getString(frame), ChatFrames.getString(frame));
+                        if (found == null) {
+                            text(ChatFrames.ERROR, tag, service.loginStatus(null));
+                        } else {
+                            if (session != null) {
+                                session.close();
+                                service.unsubscribeReceipts(user, receiptSink);
+                            }
+                            user = found;
+                            session = service.connect(user, message -> loop.execute(() -> deliver(message)));
+                            service.subscribeReceipts(user, receiptSink);
+                            text(ChatFrames.OK, tag, service.loginStatus(user));
+                        }
+                        return;
+                    }
+                    case ChatFrames.QUIT:
+                        quitting = true;
+                        text(ChatFrames.OK, tag, "Bye");
+                        return;
+                    default:
+                        break;
+                }
+
+                if (user == null) {
+                    text(ChatFrames.ERROR, tag, "Please login first.");
+                    return;
+                }
+                switch (type) {
+                    case ChatFrames.SEND:
+                        send(frame, tag, ChatService.ACTION_SEND);
+                        return;
+                    case ChatFrames.STORE:
+                        send(frame, tag, ChatService.ACTION_STORE);
+                        return;
+                    case ChatFrames.DISCARD:
+                        send(frame, tag, ChatService.ACTION_DISCARD);
+                        return;
+                    case ChatFrames.SEARCH: {
+                        String messageID = ChatFrames.getString(frame).trim();
+                        Message message = service.findById(messageID);
+                        if (message != null) {
+                            reply(ChatFrames.MESSAGE, tag, out -> ChatFrames.putMessage(out, message));
+                        } else {
+                            text(ChatFrames.ERROR, tag, "No message found with ID: " + messageID);
+                        }
+                        return;
+                    }
+                    case ChatFrames.RECIPIENT: {
+                        List<Message> found = service.findByRecipient(ChatFrames.getString(frame).trim());
+                        reply(ChatFrames.MESSAGE_LIST, tag, out -> {
+                            out.putInt(found.size());
+                            for (Message message : found) {
+                                ChatFrames.putMessage(out, message);
+                            }
+                        });
+                        return;
+                    }
+                    case ChatFrames.DELETE: {
+                        String hash = ChatFrames.getString(frame).trim();
+                        Message message = service.deleteByHash(hash);
+                        if (message != null) {
+                            text(ChatFrames.OK, tag, message.getMessageID());
+                        } else {
+                            text(ChatFrames.ERROR, tag, "No message found with hash: " + hash);
+                        }
+                        return;
+                    }
+                    case ChatFrames.ACK: {
+                        String messageID = ChatFrames.getString(frame).trim();
+                        if (session.ack(ChatProtocol.parseId(messageID))) {
+                            text(ChatFrames.OK, tag, messageID);
+                        } else {
+                            text(ChatFrames.ERROR, tag, "No delivery waiting for an ack with ID: " + messageID);
+                        }
+                        return;
+                    }
+                    case ChatFrames.ACK_THROUGH: {
+                        String messageID = ChatFrames.getString(frame).trim();
+                        int acked = session.ackThrough(ChatProtocol.parseId(messageID));
+                        if (acked > 0) {
+                            text(ChatFrames.OK, tag, String.valueOf(acked));
+                        } else {
+                            text(ChatFrames.ERROR, tag, "No delivery waiting for an ack with ID: " + messageID);
+                        }
+                        return;
+                    }
+                    case ChatFrames.READ: {
+                        String sender = ChatFrames.getString(frame);
+                        int read = service.read(user, sender, ChatFrames.getString(frame).trim());
+                        text(ChatFrames.OK, tag, String.valueOf(read));
+                        return;
+                    }
+                    case ChatFrames.REPORT: {
+                        String[] lines = service.fullReport(user).split("\n");
+                        reply(ChatFrames.TEXT_LINES, tag, out -> {
+                            out.putInt(lines.length);
+                            for (String line : lines) {
+                                ChatFrames.putString(out, line);
+                            }
+                        });
+                        return;
+                    }
+                    default:
+                        text(ChatFrames.ERROR, tag, "Unknown request type: " + type);
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                text(ChatFrames.ERROR, tag, e.getMessage());
+            } catch (BufferUnderflowException e) {
+                text(ChatFrames.ERROR, tag, "Request is missing fields");
+            }
+        }
+
+        // Pushes a message queued for this client; runs on the event loop
+        private void deliver(Message message) {
+            if (closed) {
+                return;
+            }
+            reply(ChatFrames.DELIVER, 0, out -> ChatFrames.putMessage(out, message));
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // Pushes a receipt for this client's messages; runs on the event loop
+        private void pushReceipt(ReceiptTracker.Receipt receipt) {
+            if (closed) {
+                return;
+            }
+            reply(ChatFrames.RECEIPT, 0, out -> ChatFrames.putReceipt(out, receipt));
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void send(ByteBuffer frame, int tag, int action) {
+            String recipient = ChatFrames.getString(frame);
+            Message message = service.send(user, recipient, ChatFrames.getString(frame), action);
+            reply(ChatFrames.MESSAGE, tag, out -> ChatFrames.putMessage(out, message));
+        }
+
+        private void text(byte type, int tag, String text) {
+            reply(type, tag, out -> ChatFrames.putString(out, text));
+        }
+
+        // Writes a reply frame into the outgoing buffer; a reply too big for the
+        // space left starts a new pooled buffer, and one too big for any pooled
+        // buffer gets a heap buffer of its own
+        private void reply(byte type, int tag, Consumer<ByteBuffer> payload) {
+            if (out == null) {
+                out = buffers.acquire();
+            }
+            if (encode(out, type, tag, payload)) {
+                return;
+            }
+            if (out.position() > 0) {
+                queueOut();
+                out = buffers.acquire();
+                if (encode(out, type, tag, payload)) {
+                    return;
+                }
+            }
+            for (int size = buffers.getBufferSize() * 2; ; size *= 2) {
+                ByteBuffer large = ByteBuffer.allocate(size);
+                if (encode(large, type, tag, payload)) {
+                    large.flip();
+                    unsent.add(large);
+                    return;
+                }
+            }
+        }
+
+        private boolean encode(ByteBuffer buffer, byte type, int tag, Consumer<ByteBuffer> payload) {
+            int start = buffer.position();
+            try {
+                int frame = ChatFrames.begin(buffer, type, tag);
+                payload.accept(buffer);
+                ChatFrames.end(buffer, frame);
+                return true;
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                return false;
+            } catch (IllegalArgumentException e) {
+                buffer.position(start);
+                throw e;
+            }
+        }
+
+        // Moves the buffer being written into onto the unsent queue
+        private void queueOut() {
+            if (out == null) {
+                return;
+            }
+            if (out.position() == 0) {
+                buffers.release(out);
+            } else {
+                out.flip();
+                unsent.add(out);
+            }
+            out = null;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package chatapp;
+
+// Shared validation and normalisation of South African cell numbers.
+//
+// Accepted inputs:
+//   +27XXXXXXXXX  9 digits, first digit 6, 7 or 8
+//   27XXXXXXXXX   same, without the +
+//   0XXXXXXXXX    local format, any 9 digits
+//
+// Every spelling of a number has one canonical form, +27 and the 9 digits, so
+// 0712345678 and +27712345678 are the same subscriber and get the same code.
+//
+// Older versions stored local 07 numbers as "+27" followed by only the 8 digits
+// after the 07, and encoded them as SHORT_FORM_BASE plus those digits. That form
+// is no longer valid input, but encodeStored() and normalize() map stored
+// copies of it onto the canonical number.
+//
+// Every check is one pass over the characters with no substrings or regular
+// expressions, so rejecting a number allocates nothing. A valid number can be
+// encoded as a long for compact storage and cheap comparison.
+public final class PhoneNumberCodec {
+    // Returned by encode for anything that is not a valid number
+    public static final long NONE = -1L;
+
+    // Codes of the legacy 8-digit form of 07 numbers, no longer produced
+    private static final long SHORT_FORM_BASE = 1000000000L;
+    private static final long SHORT_FORM_LIMIT = 100000000L;
+    private static final long CANONICAL_LIMIT = 1000000000L;
+    // Canonical code of +277 followed by eight zeros
+    private static final long SEVEN_PREFIX = 700000000L;
+
+    private PhoneNumberCodec() {
+    }
+
+    public static boolean isValid(CharSequence number) {
+        return encode(number) != NONE;
+    }
+
+    // Encodes the canonical +27 form of number, or returns NONE if it is not valid
+    public static long encode(CharSequence number) {
+        return encode(number, false);
+    }
+
+    // Like encode, but also accepts the legacy "+27" plus 8 digits form of an 07
+    // number found in stored records, and maps it onto the canonical code
+    public static long encodeStored(CharSequence number) {
+        return encode(number, true);
+    }
+
+    private static long encode(CharSequence number, boolean allowShortForm) {
+        if (number == null) {
+            return NONE;
+        }
+
+        int length = number.length();
+        int start;
+        boolean mobilePrefix = false;
+        boolean shortForm = false;
+
+        if (length == 12 && number.charAt(0) == '+' && number.charAt(1) == '2' && number.charAt(2) == '7') {
+            start = 3;
+            mobilePrefix = true;
+        } else if (allowShortForm && length == 11 && number.charAt(0) == '+' && number.charAt(1) == '2'
+                && number.charAt(2) == '7') {
+            start = 3;
+            shortForm = true;
+        } else if (length == 11 && number.charAt(0) == '2' && number.charAt(1) == '7') {
+            start = 2;
+            mobilePrefix = true;
+        } else if (length == 10 && number.charAt(0) == '0') {
+            start = 1;
+        } else {
+            return NONE;
+        }
+
+        if (mobilePrefix) {
+            char first = number.charAt(start);
+            if (first != '6' && first != '7' && first != '8') {
+                return NONE;
+            }
+        }
+
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return NONE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return shortForm ? SEVEN_PREFIX + value : value;
+    }
+
+    // Maps a stored code onto the canonical one: legacy 07 codes become the
+    // code of the full number, and canonical codes are returned unchanged.
+    // Throws IllegalArgumentException for anything that is not a code.
+    public static long normalize(long encoded) {
+        if (encoded >= SHORT_FORM_BASE && encoded < SHORT_FORM_BASE + SHORT_FORM_LIMIT) {
+            return SEVEN_PREFIX + (encoded - SHORT_FORM_BASE);
+        }
+        if (encoded < 0 || encoded >= CANONICAL_LIMIT) {
+            throw new IllegalArgumentException("Not an encoded cell number: " + encoded);
+        }
+        return encoded;
+    }
+
+    // Converts an encoded number back to its canonical string
+    public static String decode(long encoded) {
+        long value = normalize(encoded);
+        char[] digits = new char[12];
+        digits[0] = '+';
+        digits[1] = '2';
+        digits[2] = '7';
+        for (int i = digits.length - 1; i >= 3; i--) {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
+    }
+
+    // Canonical +27 form of number, or null if it is not valid
+    public static String canonicalize(CharSequence number) {
+        long encoded = encode(number);
+        return encoded == NONE ? null : decode(encoded);
+    }
+}
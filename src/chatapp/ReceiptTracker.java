@@ -0,0 +1,374 @@
+package chatapp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Delivered and read receipts for sent messages, reported back to their senders.
+//
+// Messages are tracked per conversation (sender number to recipient number) in
+// the order they were sent, and receipts are cumulative, like the acks of a
+// sliding window: "delivered through X" covers every message of the
+// conversation up to X, so one receipt stands for any number of messages.
+// A delivered receipt only moves past messages that have all been delivered;
+// "read through X" comes from the recipient and covers everything before X.
+//
+// Changes are not passed on one by one. flush(), run delayMillis after the
+// first change, sends each changed conversation at most one receipt per status
+// to the sender's subscriber and hands all the new statuses to JSONHandler as
+// one batch, so a busy chat costs one receipt per flush, not one per message.
+//
+// Which sender sent a message is only kept in memory, so messages sent before
+// a restart get no receipts. Receipts for a sender with no subscriber are dropped;
+// the stored statuses are still updated. At most maxTracked unread messages are
+// kept; past that the oldest is forgotten, gets no more receipts and is no longer
+// waited for by delivered receipts. A conversation with nothing left unread is
+// dropped.
+public class ReceiptTracker {
+    static final long DEFAULT_DELAY_MILLIS = 100;
+    static final int DEFAULT_MAX_TRACKED = 100000;
+    // Read messages are cut from the front of a conversation's list once this many pile up
+    private static final int TRIM_THRESHOLD = 1024;
+
+    // One daemon thread runs the flushes of every tracker in the process
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "receipt-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long delayMillis;
+    private final int maxTracked;
+    // Conversations by recipient, then sender
+    private final HashMap<Long, HashMap<Long, Conversation>> conversations = new HashMap<>();
+    // Each sent message that has not been read yet, oldest first. Receipts look the
+    // message up here by ID, since the queues may hand back a copy read from disk.
+    private final LinkedHashMap<Long, Tracked> unread = new LinkedHashMap<>();
+    private final ConcurrentHashMap<Long, Consumer<Receipt>> subscribers = new ConcurrentHashMap<>();
+    private final LinkedHashSet<Conversation> changed = new LinkedHashSet<>();
+    // Statuses to store at the next flush; a later status replaces an earlier one
+    private LinkedHashMap<Long, String> statusChanges = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+    // Held for a whole flush, so flushes do not overlap and receipts stay in order
+    private final Object flushLock = new Object();
+
+    public ReceiptTracker(long delayMillis) {
+        this(delayMillis, DEFAULT_MAX_TRACKED);
+    }
+
+    ReceiptTracker(long delayMillis, int maxTracked) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("Receipt delay cannot be negative");
+        }
+        if (maxTracked <= 0) {
+            throw new IllegalArgumentException("At least one message must be tracked");
+        }
+        this.delayMillis = delayMillis;
+        this.maxTracked = maxTracked;
+    }
+
+    // Receipts for messages sent from this number go to sink, replacing any
+    // earlier subscriber. The sink is called on the flush thread and must not block.
+    public void subscribe(long sender, Consumer<Receipt> sink) {
+        subscribers.put(sender, sink);
+    }
+
+    public void unsubscribe(long sender, Consumer<Receipt> sink) {
+        subscribers.remove(sender, sink);
+    }
+
+    // Starts tracking a message that was just sent
+    public synchronized void sent(long sender, Message message) {
+        Conversation conversation = conversations
+            .computeIfAbsent(message.getRecipientCode(), recipient -> new HashMap<>())
+            .computeIfAbsent(sender, from -> new Conversation(from, message.getRecipientCode()));
+        unread.put(message.getMessageIdValue(), new Tracked(conversation, message, conversation.nextIndex()));
+        conversation.messages.add(message);
+        if (unread.size() > maxTracked) {
+            forgetOldest();
+        }
+    }
+
+    // The recipient has acked the message, which may be a copy of the one sent
+    public synchronized void delivered(Message message) {
+        Tracked tracked = unread.get(message.getMessageIdValue());
+        if (tracked == null || !"sent".equals(tracked.message.getStatus())) {
+            return;
+        }
+        tracked.message.setStatus(Message.DELIVERED_STATUS);
+        statusChanges.put(message.getMessageIdValue(), Message.DELIVERED_STATUS);
+        if (tracked.conversation.advanceDelivered()) {
+            changed.add(tracked.conversation);
+        }
+        scheduleFlush();
+    }
+
+    // The recipient has read the sender's messages up to and including messageID.
+    // Returns how many were newly marked read, or -1 if messageID is not an unread
+    // message of that conversation.
+    public synchronized int read(long recipient, long sender, long messageID) {
+        Conversation conversation = conversations.getOrDefault(recipient, new HashMap<>()).get(sender);
+        Tracked tracked = unread.get(messageID);
+        if (conversation == null || tracked == null || tracked.conversation != conversation) {
+            return -1;
+        }
+        List<Message> messages = conversation.messages;
+        int count = 0;
+        long id;
+        do {
+            Message message = messages.get(conversation.firstUnread);
+            messages.set(conversation.firstUnread++, null);
+            if (message == null) {
+                // Forgotten since it was sent
+                id = 0;
+                continue;
+            }
+            id = message.getMessageIdValue();
+            unread.remove(id);
+            message.setStatus(Message.READ_STATUS);
+            statusChanges.put(id, Message.READ_STATUS);
+            count++;
+        } while (id != messageID);
+
+        conversation.skipForgotten();
+        conversation.readThrough = messageID;
+        conversation.readCount += count;
+        conversation.firstUndelivered = Math.max(conversation.firstUndelivered, conversation.firstUnread);
+        conversation.advanceDelivered();
+        conversation.trim();
+        dropIfDone(conversation);
+        changed.add(conversation);
+        scheduleFlush();
+        return count;
+    }
+
+    // Stops tracking a message, e.g. one that was deleted, so it gets no more
+    // receipts and delivered receipts no longer wait for it; false if it was not
+    // tracked
+    public synchronized boolean forget(long messageID) {
+        Tracked tracked = unread.remove(messageID);
+        if (tracked == null) {
+            return false;
+        }
+        forget(tracked);
+        return true;
+    }
+
+    // Stops tracking the oldest unread message, which is always the first unread
+    // message of its conversation
+    private void forgetOldest() {
+        Iterator<Tracked> oldest = unread.values().iterator();
+        Tracked tracked = oldest.next();
+        oldest.remove();
+        forget(tracked);
+    }
+
+    private void forget(Tracked tracked) {
+        Conversation conversation = tracked.conversation;
+        conversation.messages.set((int) (tracked.index - conversation.trimmed), null);
+        conversation.skipForgotten();
+        if (conversation.advanceDelivered()) {
+            changed.add(conversation);
+            scheduleFlush();
+        }
+        conversation.trim();
+        dropIfDone(conversation);
+    }
+
+    // Removes a conversation with nothing left unread. Receipts still waiting for a
+    // flush are kept, since changed holds the conversation itself.
+    private void dropIfDone(Conversation conversation) {
+        if (conversation.firstUnread < conversation.messages.size()) {
+            return;
+        }
+        HashMap<Long, Conversation> senders = conversations.get(conversation.recipient);
+        if (senders != null && senders.get(conversation.sender) == conversation) {
+            senders.remove(conversation.sender);
+            if (senders.isEmpty()) {
+                conversations.remove(conversation.recipient);
+            }
+        }
+    }
+
+    // Sent messages still waiting to be read
+    public synchronized int getTrackedCount() {
+        return unread.size();
+    }
+
+    // Sender and recipient pairs with unread messages
+    public synchronized int getConversationCount() {
+        int count = 0;
+        for (HashMap<Long, Conversation> senders : conversations.values()) {
+            count += senders.size();
+        }
+        return count;
+    }
+
+    // Sends the receipts and stores the statuses gathered since the last flush,
+    // returning once the statuses are on disk
+    public void flush() {
+        synchronized (flushLock) {
+            flushReceipts();
+        }
+    }
+
+    private void flushReceipts() {
+        List<Receipt> receipts = new ArrayList<>();
+        Map<Long, String> updates;
+        synchronized (this) {
+            flushScheduled = false;
+            for (Conversation conversation : changed) {
+                if (conversation.deliveredCount > 0) {
+                    receipts.add(new Receipt(conversation.sender, conversation.recipient, Message.DELIVERED_STATUS,
+                        conversation.deliveredThrough, conversation.deliveredCount));
+                    conversation.deliveredCount = 0;
+                }
+                if (conversation.readCount > 0) {
+                    receipts.add(new Receipt(conversation.sender, conversation.recipient, Message.READ_STATUS,
+                        conversation.readThrough, conversation.readCount));
+                    conversation.readCount = 0;
+                }
+            }
+            changed.clear();
+            updates = statusChanges;
+            statusChanges = new LinkedHashMap<>();
+        }
+
+        for (Receipt receipt : receipts) {
+            Consumer<Receipt> sink = subscribers.get(receipt.sender);
+            if (sink != null) {
+                sink.accept(receipt);
+            }
+        }
+        if (!updates.isEmpty()) {
+            try {
+                GroupCommitWriter.await(JSONHandler.updateStatusesAsync(updates));
+            } catch (IOException e) {
+                System.err.println("Error saving message statuses: " + e.getMessage());
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            FLUSHER.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static class Tracked {
+        final Conversation conversation;
+        // The instance that was sent; its status is the one receipts go by
+        final Message message;
+        // Position in the conversation's messages, counting those trimmed away
+        final long index;
+
+        Tracked(Conversation conversation, Message message, long index) {
+            this.conversation = conversation;
+            this.message = message;
+            this.index = index;
+        }
+    }
+
+    private static class Conversation {
+        final long sender;
+        final long recipient;
+        // Sent messages in order; those before firstUnread have been read and are
+        // null, and those from there up to firstUndelivered have been delivered.
+        // Forgotten messages are null too, wherever they are.
+        final ArrayList<Message> messages = new ArrayList<>();
+        int firstUnread = 0;
+        int firstUndelivered = 0;
+        // Messages cut from the front by trim()
+        long trimmed = 0;
+        // Receipts waiting for the next flush: the last message each covers and how many it adds
+        long deliveredThrough;
+        int deliveredCount = 0;
+        long readThrough;
+        int readCount = 0;
+
+        Conversation(long sender, long recipient) {
+            this.sender = sender;
+            this.recipient = recipient;
+        }
+
+        long nextIndex() {
+            return trimmed + messages.size();
+        }
+
+        // Moves past messages delivered in order, and forgotten ones; true if a
+        // delivered one was passed
+        boolean advanceDelivered() {
+            int count = 0;
+            while (firstUndelivered < messages.size()) {
+                Message message = messages.get(firstUndelivered);
+                if (message != null) {
+                    if (!Message.DELIVERED_STATUS.equals(message.getStatus())) {
+                        break;
+                    }
+                    deliveredThrough = message.getMessageIdValue();
+                    count++;
+                }
+                firstUndelivered++;
+            }
+            deliveredCount += count;
+            return count > 0;
+        }
+
+        // Moves firstUnread past forgotten messages
+        void skipForgotten() {
+            while (firstUnread < messages.size() && messages.get(firstUnread) == null) {
+                firstUnread++;
+            }
+            firstUndelivered = Math.max(firstUndelivered, firstUnread);
+        }
+
+        void trim() {
+            if (firstUnread >= TRIM_THRESHOLD && firstUnread * 2 >= messages.size()) {
+                messages.subList(0, firstUnread).clear();
+                firstUndelivered -= firstUnread;
+                trimmed += firstUnread;
+                firstUnread = 0;
+            }
+        }
+    }
+
+    // One cumulative receipt: count more of the sender's messages to recipient,
+    // up to and including throughId, have reached status
+    public static final class Receipt {
+        private final long sender;
+        private final long recipient;
+        private final String status;
+        private final long throughId;
+        private final int count;
+
+        Receipt(long sender, long recipient, String status, long throughId, int count) {
+            this.sender = sender;
+            this.recipient = recipient;
+            this.status = status;
+            this.throughId = throughId;
+            this.count = count;
+        }
+
+        public String getRecipient() { return PhoneNumberCodec.decode(recipient); }
+        public long getRecipientCode() { return recipient; }
+        public String getStatus() { return status; }
+        public long getThroughId() { return throughId; }
+        public int getCount() { return count; }
+
+        @Override
+        public String toString() {
+            return getRecipient() + " " + status + " through " + throughId + " (" + count + ")";
+        }
+    }
+}
@@ -53,76 +53,26 @@ public class Registration {
 
     // South African cell phone number validation
     public boolean checkCellPhoneNumber() {
-        if (cellNumber == null || cellNumber.isEmpty()) {
-            return false;
-        }
-        
-        // Format 1: +27XXXXXXXXX (12 characters total)
-        if (cellNumber.startsWith("+27") && cellNumber.length() == 12) {
-            String numberPart = cellNumber.substring(3);
-            if (numberPart.matches("\\d{9}")) {
-                char firstDigit = numberPart.charAt(0);
-                return firstDigit == '6' || firstDigit == '7' || firstDigit == '8';
-            }
-        }
-        
-        // Format 2: 07XXXXXXXX (10 characters - local format)
-        if (cellNumber.startsWith("07") && cellNumber.length() == 10) {
-            String numberPart = cellNumber.substring(2);
-            return numberPart.matches("\\d{8}");
-        }
-        
-        // Format 3: 27XXXXXXXXX (11 characters - without +)
-        if (cellNumber.startsWith("27") && cellNumber.length() == 11) {
-            String numberPart = cellNumber.substring(2);
-            if (numberPart.matches("\\d{9}")) {
-                char firstDigit = numberPart.charAt(0);
-                return firstDigit == '6' || firstDigit == '7' || firstDigit == '8';
-            }
-        }
-        
-        // Format 4: 0XXXXXXXXX (10 characters - other local formats)
-        if (cellNumber.startsWith("0") && cellNumber.length() == 10 && !cellNumber.startsWith("07")) {
-            String numberPart = cellNumber.substring(1);
-            return numberPart.matches("\\d{9}");
-        }
-        
-        return false;
+        return checkCellPhoneNumber(cellNumber);
+    }
+
+    public boolean checkCellPhoneNumber(String number) {
+        return PhoneNumberCodec.isValid(number);
     }
 
     // NEW: Method to format cell number to international format
     public String formatCellNumber(String number) {
-        if (number == null) return number;
-        
-        // If it's in 07 format, convert to +27
-        if (number.startsWith("07") && number.length() == 10) {
-            return "+27" + number.substring(2);
-        }
-        
-        // If it's in 0 format (other local), convert to +27
-        if (number.startsWith("0") && number.length() == 10 && !number.startsWith("07")) {
-            return "+27" + number.substring(1);
-        }
-        
-        // If it's in 27 format (without +), add the +
-        if (number.startsWith("27") && number.length() == 11 && !number.startsWith("+")) {
-            return "+" + number;
-        }
-        
-        // If it's already in +27 format, return as is
-        if (number.startsWith("+27") && number.length() == 12) {
-            return number;
-        }
-        
-        return number;
+        String canonical = PhoneNumberCodec.canonicalize(number);
+        return canonical != null ? canonical : number;
     }
 
     // NEW: Setter that automatically formats the cell number
     public void setCellNumber(String cellNumber) {
-        if (!checkCellPhoneNumber(cellNumber)) {
+        String canonical = PhoneNumberCodec.canonicalize(cellNumber);
+        if (canonical == null) {
             throw new IllegalArgumentException("Invalid South African cell number: " + cellNumber);
         }
-        this.cellNumber = formatCellNumber(cellNumber);
+        this.cellNumber = canonical;
     }
 
     // CHANGED: Getter for cellNumber
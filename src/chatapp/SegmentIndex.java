@@ -0,0 +1,226 @@
+package chatapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+// Sparse index of one log segment. Records are grouped into blocks of about
+// BLOCK_RECORDS, and each block keeps only its byte range and the smallest and
+// largest message ID in it, so a lookup reads just the blocks whose range
+// covers the ID. Generated IDs grow over time, so blocks rarely overlap and a
+// lookup reads a single block; imported random IDs only make more blocks match.
+public class SegmentIndex {
+    static final int BLOCK_RECORDS = 64;
+    // start, end, min ID, max ID (longs) and record count (int)
+    private static final int ENTRY_BYTES = 36;
+
+    private long[] starts = new long[16];
+    private long[] ends = new long[16];
+    private long[] minIds = new long[16];
+    private long[] maxIds = new long[16];
+    private int[] counts = new int[16];
+    private int size = 0;
+    private int recordCount = 0;
+    // True while every block's IDs are above the previous block's, allowing a binary search
+    private boolean sorted = true;
+
+    // Block still being filled by appends
+    private long openStart;
+    private long openEnd;
+    private long openMin;
+    private long openMax;
+    private int openCount = 0;
+
+    // Adds records that occupy [start, end) of the segment to the open block
+    public void add(long start, long end, long minId, long maxId, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (openCount == 0) {
+            openStart = start;
+            openMin = minId;
+            openMax = maxId;
+        } else {
+            openMin = Math.min(openMin, minId);
+            openMax = Math.max(openMax, maxId);
+        }
+        openEnd = end;
+        openCount += count;
+        recordCount += count;
+        if (openCount >= BLOCK_RECORDS) {
+            closeBlock();
+        }
+    }
+
+    // Ends the open block early, e.g. when the segment is sealed
+    public void closeBlock() {
+        if (openCount == 0) {
+            return;
+        }
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            minIds = Arrays.copyOf(minIds, capacity);
+            maxIds = Arrays.copyOf(maxIds, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        if (size > 0 && openMin <= maxIds[size - 1]) {
+            sorted = false;
+        }
+        starts[size] = openStart;
+        ends[size] = openEnd;
+        minIds[size] = openMin;
+        maxIds[size] = openMax;
+        counts[size] = openCount;
+        size++;
+        openCount = 0;
+    }
+
+    public int blockCount() {
+        return size + (openCount > 0 ? 1 : 0);
+    }
+
+    public int recordCount() {
+        return recordCount;
+    }
+
+    // Byte ranges that may hold messageID, as start/end pairs: {start0, end0, start1, end1, ...}
+    public long[] find(long messageID) {
+        LongList ranges = new LongList();
+        if (sorted) {
+            // First block whose largest ID is not below messageID
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (maxIds[mid] < messageID) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low < size && minIds[low] <= messageID) {
+                ranges.add(starts[low]);
+                ranges.add(ends[low]);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (minIds[i] <= messageID && messageID <= maxIds[i]) {
+                    ranges.add(starts[i]);
+                    ranges.add(ends[i]);
+                }
+            }
+        }
+        if (openCount > 0 && openMin <= messageID && messageID <= openMax) {
+            ranges.add(openStart);
+            ranges.add(openEnd);
+        }
+        return ranges.toArray();
+    }
+
+    // True if any of the IDs may be in the segment; sortedIds must be in increasing order
+    public boolean mayContainAny(long[] sortedIds) {
+        for (int i = 0; i < blockCount(); i++) {
+            long min = i < size ? minIds[i] : openMin;
+            long max = i < size ? maxIds[i] : openMax;
+            int at = Arrays.binarySearch(sortedIds, min);
+            if (at >= 0 || (-at - 1 < sortedIds.length && sortedIds[-at - 1] <= max)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Saves the closed blocks, tagged with the segment length they describe
+    public void write(Path path, long segmentLength) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + size * ENTRY_BYTES);
+        buffer.putLong(segmentLength).putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(starts[i]).putLong(ends[i]).putLong(minIds[i]).putLong(maxIds[i]).putInt(counts[i]);
+        }
+        buffer.flip();
+        AtomicFiles.write(path, out -> {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        });
+    }
+
+    // Loads an index file; returns null if it is missing, damaged or for a different segment length
+    public static SegmentIndex read(Path path, long segmentLength) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < 12 || buffer.getLong() != segmentLength) {
+            return null;
+        }
+        int blocks = buffer.getInt();
+        if (blocks < 0 || buffer.remaining() != (long) blocks * ENTRY_BYTES) {
+            return null;
+        }
+        SegmentIndex index = new SegmentIndex();
+        for (int i = 0; i < blocks; i++) {
+            long start = buffer.getLong();
+            long end = buffer.getLong();
+            long min = buffer.getLong();
+            long max = buffer.getLong();
+            int count = buffer.getInt();
+            if (start < 0 || end < start || end > segmentLength || count <= 0) {
+                return null;
+            }
+            index.add(start, end, min, max, count);
+            index.closeBlock();
+        }
+        return index;
+    }
+
+    // Rebuilds the index by scanning a segment, e.g. one written before indexes existed
+    public static SegmentIndex build(FileChannel segment, MessageCodec codec) throws IOException {
+        LongList recordEnds = new LongList();
+        codec.validLength(segment, 0, recordEnds::add);
+
+        SegmentIndex index = new SegmentIndex();
+        long blockStart = codec.fileHeader().length;
+        for (int first = 0; first < recordEnds.size(); first += BLOCK_RECORDS) {
+            int last = Math.min(first + BLOCK_RECORDS, recordEnds.size()) - 1;
+            long blockEnd = recordEnds.get(last);
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            int count = 0;
+            try (Stream<Message> records = readRange(segment, codec, blockStart, blockEnd)) {
+                Iterator<Message> iterator = records.iterator();
+                while (iterator.hasNext()) {
+                    long id = iterator.next().getMessageIdValue();
+                    min = Math.min(min, id);
+                    max = Math.max(max, id);
+                    count++;
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            index.add(blockStart, blockEnd, min, max, count);
+            index.closeBlock();
+            blockStart = blockEnd;
+        }
+        return index;
+    }
+
+    // Decodes the records in [start, end) of a segment; codecs read from the
+    // start of a file, so the file header is put back in front
+    static Stream<Message> readRange(FileChannel segment, MessageCodec codec, long start, long end) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        while (bytes.hasRemaining()) {
+            if (segment.read(bytes, start + bytes.position()) < 0) {
+                throw new EOFException("Segment ends before offset " + end);
+            }
+        }
+        return codec.read(new SequenceInputStream(new ByteArrayInputStream(codec.fileHeader()),
+            new ByteArrayInputStream(bytes.array())));
+    }
+}
@@ -0,0 +1,141 @@
+package chatapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+// Converts message stores between the JSON layouts (messages.json array or
+// JSON-lines log) and the binary format, and compares the two on real data.
+//
+// Usage:
+//   java -cp build/classes chatapp.StoreConverter to-binary messages.json messages.bin
+//   java -cp build/classes chatapp.StoreConverter to-json messages.bin messages.json
+//   java -cp build/classes chatapp.StoreConverter compare messages.json
+public class StoreConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("to-binary")) {
+            int count = toBinary(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.println("Wrote " + count + " messages to " + args[2]);
+        } else if (args.length == 3 && args[0].equals("to-json")) {
+            int count = toJson(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.println("Wrote " + count + " messages to " + args[2]);
+        } else if (args.length == 2 && args[0].equals("compare")) {
+            compare(Paths.get(args[1]));
+        } else {
+            System.err.println("Usage: StoreConverter to-binary <json> <bin> | to-json <bin> <json> | compare <json>");
+            System.exit(2);
+        }
+    }
+
+    // Reads a JSON array or JSON-lines file and writes its live messages in the binary format
+    public static int toBinary(Path jsonFile, Path binaryFile) throws IOException {
+        return copy(new MessageLog(jsonFile).stream(), new BinaryMessageCodec(), binaryFile);
+    }
+
+    // Reads a binary store and writes its live messages as a messages.json style array
+    public static int toJson(Path binaryFile, Path jsonFile) throws IOException {
+        int count = 0;
+        try (Stream<Message> messages = new MessageLog(binaryFile, new BinaryMessageCodec()).stream();
+             Writer out = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
+            CountingIterator iterator = new CountingIterator(messages.iterator());
+            JSONHandler.writeJsonArray(out, iterator);
+            count = iterator.count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count;
+    }
+
+    private static int copy(Stream<Message> source, MessageCodec codec, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        MessageLog log = new MessageLog(target, codec);
+        int count = 0;
+        try (Stream<Message> messages = source) {
+            ArrayList<Message> batch = new ArrayList<>(1024);
+            Iterator<Message> iterator = messages.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == 1024 || !iterator.hasNext()) {
+                    log.appendAll(batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+            if (count == 0) {
+                log.rewrite(batch);
+            }
+            log.force();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            log.close();
+        }
+        return count;
+    }
+
+    // Prints file sizes and load times of a JSON store and its binary conversion
+    private static void compare(Path jsonFile) throws IOException {
+        Path binaryFile = Files.createTempFile("messages", ".bin");
+        try {
+            int count = toBinary(jsonFile, binaryFile);
+            long jsonSize = Files.size(jsonFile);
+            long binarySize = Files.size(binaryFile);
+
+            // Warm up both readers before timing them
+            for (int i = 0; i < 3; i++) {
+                load(new JsonLineCodec(), jsonFile);
+                load(new BinaryMessageCodec(), binaryFile);
+            }
+            long jsonNanos = time(new JsonLineCodec(), jsonFile);
+            long binaryNanos = time(new BinaryMessageCodec(), binaryFile);
+
+            System.out.println("Messages:  " + count);
+            System.out.printf("JSON:      %,d bytes, load %.1f ms%n", jsonSize, jsonNanos / 1e6);
+            System.out.printf("Binary:    %,d bytes, load %.1f ms%n", binarySize, binaryNanos / 1e6);
+            System.out.printf("Binary is %.1fx smaller and loads %.1fx faster%n",
+                (double) jsonSize / Math.max(1, binarySize), (double) jsonNanos / Math.max(1, binaryNanos));
+        } finally {
+            Files.deleteIfExists(binaryFile);
+        }
+    }
+
+    private static long time(MessageCodec codec, Path file) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            load(codec, file);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static int load(MessageCodec codec, Path file) throws IOException {
+        try (Stream<Message> messages = codec.read(file)) {
+            return (int) messages.count();
+        }
+    }
+
+    private static class CountingIterator implements Iterator<Message> {
+        private final Iterator<Message> source;
+        int count = 0;
+
+        CountingIterator(Iterator<Message> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public Message next() {
+            count++;
+            return source.next();
+        }
+    }
+}
@@ -75,7 +75,7 @@ public class TestRunner {
         Registration user2 = new Registration();
         user2.setCellNumber("0712345678");
         assertTrue(user2.checkCellPhoneNumber(), "Valid SA cell number '0712345678' should be accepted");
-        assertEquals("+2712345678", user2.getCellNumber(), "Local 07 number should be formatted to international");
+        assertEquals("+27712345678", user2.getCellNumber(), "Local 07 number should be formatted to international");
         
         // Test 11: Valid SA cell number (local - other 0 format)
         Registration user3 = new Registration();
@@ -190,7 +190,7 @@ public class TestRunner {
         // Test 12: Message formatting - local to international (07 format)
         Message formatMsg1 = new Message();
         formatMsg1.setRecipient("0712345678");
-        assertEquals("+2712345678", formatMsg1.getRecipient(), "Local 07 number should be automatically formatted to international");
+        assertEquals("+27712345678", formatMsg1.getRecipient(), "Local 07 number should be automatically formatted to international");
         
         // Test 13: Message formatting - local to international (other 0 format)
         Message formatMsg2 = new Message();
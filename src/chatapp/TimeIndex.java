@@ -0,0 +1,141 @@
+package chatapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Messages ordered by timestamp, so a time-range query is two binary searches
+// plus a copy of the matches. Messages normally arrive in time order and are
+// appended; anything older is inserted at its sorted position.
+//
+// Each entry also gets a sequence number, increasing with every add, and
+// entries are sorted by (timestamp, sequence), so equal times keep insertion
+// order. add() returns the sequence, and remove() uses it to find the entry
+// with one binary search. A removed entry is only cleared; the gaps are closed
+// up once they outnumber the live entries.
+public class TimeIndex {
+    private long[] times = new long[64];
+    private long[] sequences = new long[64];
+    private Message[] messages = new Message[64];
+    private int size = 0;
+    private int removed = 0;
+    private long nextSequence = 0;
+
+    // Messages in the index, not counting removed ones
+    public int size() {
+        return size - removed;
+    }
+
+    // Adds the message and returns the sequence to remove it with
+    public long add(Message message) {
+        long time = message.getTimestamp();
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            sequences = Arrays.copyOf(sequences, size * 2);
+            messages = Arrays.copyOf(messages, size * 2);
+        }
+
+        // After any existing entries with the same time, so equal times keep insertion order
+        int position = size == 0 || time >= times[size - 1] ? size : upperBound(time);
+        System.arraycopy(times, position, times, position + 1, size - position);
+        System.arraycopy(sequences, position, sequences, position + 1, size - position);
+        System.arraycopy(messages, position, messages, position + 1, size - position);
+        long sequence = nextSequence++;
+        times[position] = time;
+        sequences[position] = sequence;
+        messages[position] = message;
+        size++;
+        return sequence;
+    }
+
+    // Removes the message added with this sequence; false if it is not in the index
+    public boolean remove(Message message, long sequence) {
+        int position = find(message.getTimestamp(), sequence);
+        if (position < 0 || messages[position] != message) {
+            return false;
+        }
+        messages[position] = null;
+        removed++;
+        if (removed > size - removed) {
+            compact();
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(messages, 0, size, null);
+        size = 0;
+        removed = 0;
+    }
+
+    // Messages with from <= timestamp <= to (epoch milliseconds), oldest first
+    public ArrayList<Message> between(long from, long to) {
+        int start = lowerBound(from);
+        int end = to == Long.MAX_VALUE ? size : lowerBound(to + 1);
+        ArrayList<Message> result = new ArrayList<>(Math.max(0, Math.min(end - start, size())));
+        for (int i = start; i < end; i++) {
+            if (messages[i] != null) {
+                result.add(messages[i]);
+            }
+        }
+        return result;
+    }
+
+    private void compact() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (messages[i] != null) {
+                times[kept] = times[i];
+                sequences[kept] = sequences[i];
+                messages[kept++] = messages[i];
+            }
+        }
+        Arrays.fill(messages, kept, size, null);
+        size = kept;
+        removed = 0;
+    }
+
+    // Position of the entry with this time and sequence, or -1
+    private int find(long time, long sequence) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time || (times[mid] == time && sequences[mid] < sequence)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < size && times[low] == time && sequences[low] == sequence ? low : -1;
+    }
+
+    // First position whose time is >= time
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First position whose time is > time
+    private int upperBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
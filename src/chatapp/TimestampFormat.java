@@ -0,0 +1,106 @@
+package chatapp;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+// Formats and parses the "yyyy-MM-dd HH:mm:ss" local-time timestamps stored
+// with each message. Replaces a shared SimpleDateFormat, which is not safe to
+// use from several threads. Fields are read and written digit by digit, and
+// the text for the most recent second is cached because a batch of messages is
+// usually written within the same second.
+public final class TimestampFormat {
+    public static final int LENGTH = 19;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // Last second formatted and its text; replaced as a whole so readers never see a mix
+    private static volatile Cached lastFormatted = new Cached(Long.MIN_VALUE, "");
+
+    private TimestampFormat() {
+    }
+
+    public static String format(long epochMillis) {
+        long seconds = Math.floorDiv(epochMillis, 1000L);
+        Cached cached = lastFormatted;
+        if (cached.seconds == seconds) {
+            return cached.text;
+        }
+
+        ZoneOffset offset = ZONE.getRules().getOffset(Instant.ofEpochSecond(seconds));
+        LocalDateTime time = LocalDateTime.ofEpochSecond(seconds, 0, offset);
+        char[] chars = new char[LENGTH];
+        put(chars, 0, time.getYear(), 4);
+        chars[4] = '-';
+        put(chars, 5, time.getMonthValue(), 2);
+        chars[7] = '-';
+        put(chars, 8, time.getDayOfMonth(), 2);
+        chars[10] = ' ';
+        put(chars, 11, time.getHour(), 2);
+        chars[13] = ':';
+        put(chars, 14, time.getMinute(), 2);
+        chars[16] = ':';
+        put(chars, 17, time.getSecond(), 2);
+
+        String text = new String(chars);
+        lastFormatted = new Cached(seconds, text);
+        return text;
+    }
+
+    // Returns epoch milliseconds, or -1 if text is not a valid timestamp
+    public static long parse(CharSequence text) {
+        if (text == null || text.length() != LENGTH
+                || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return -1;
+        }
+
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return -1;
+        }
+
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second)
+                .atZone(ZONE).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    private static void put(char[] chars, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int digits(CharSequence text, int offset, int width) {
+        int value = 0;
+        for (int i = offset; i < offset + width; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static final class Cached {
+        final long seconds;
+        final String text;
+
+        Cached(long seconds, String text) {
+            this.seconds = seconds;
+            this.text = text;
+        }
+    }
+}
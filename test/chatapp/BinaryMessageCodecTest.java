@@ -0,0 +1,158 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryMessageCodecTest {
+
+    private Path storeFile;
+    private MessageLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        storeFile = Files.createTempFile("messages", ".bin");
+        Files.delete(storeFile);
+        log = new MessageLog(storeFile, new BinaryMessageCodec());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.close();
+        Files.deleteIfExists(storeFile);
+        Files.deleteIfExists(MessageLog.checkpointPathFor(storeFile));
+    }
+
+    private Message message(String recipient, String text, String status) {
+        Message message = new Message();
+        message.setRecipient(recipient);
+        message.setMessage(text);
+        message.setStatus(status);
+        return message;
+    }
+
+    // Test 1: Every field survives a write and read
+    @Test
+    public void testRoundTrip() throws IOException {
+        Message original = message("0712345678", "Café at 5? \"Quotes\" and \\ backslash\nnew line", "stored");
+        original.setTimestamp(1732194519000L);
+        original.setMessageCount(42);
+        original.setMessageHash("12:42:CAFÉLINE");
+        log.append(original);
+
+        Message copy = log.readAll().get(0);
+        assertEquals("ID should match", original.getMessageID(), copy.getMessageID());
+        assertEquals("Recipient should match", "+27712345678", copy.getRecipient());
+        assertEquals("Text should match without escaping", original.getMessage(), copy.getMessage());
+        assertEquals("Hash should be the stored one", "12:42:CAFÉLINE", copy.getMessageHash());
+        assertEquals("Count should match", 42, copy.getMessageCount());
+        assertEquals("Status should match", "stored", copy.getStatus());
+        assertEquals("Timestamp should match", 1732194519000L, copy.getTimestamp());
+    }
+
+    // Test 2: Header is written once, and unusual statuses are kept
+    @Test
+    public void testAppendsAndCustomStatus() throws IOException {
+        log.append(message("+27834557896", "First", "sent"));
+        log.appendAll(Arrays.asList(message("+27834557896", "Second", "archived"), message("+27834557896", "Third", "sent")));
+
+        ArrayList<Message> messages = log.readAll();
+        assertEquals("All appends should be read", 3, messages.size());
+        assertEquals("Custom status should be stored as text", "archived", messages.get(1).getStatus());
+        byte[] bytes = Files.readAllBytes(storeFile);
+        assertEquals("File should start with the magic", "QCMB", new String(bytes, 0, 4, StandardCharsets.US_ASCII));
+    }
+
+    // Test 3: A record cut short at the end of the file is ignored
+    @Test
+    public void testTornTail() throws IOException {
+        log.append(message("+27834557896", "Kept", "sent"));
+        log.append(message("+27834557896", "Cut short", "sent"));
+        log.close();
+        byte[] bytes = Files.readAllBytes(storeFile);
+        Files.write(storeFile, Arrays.copyOf(bytes, bytes.length - 3));
+
+        List<Message> messages = log.readAll();
+        assertEquals("Only the complete record should be read", 1, messages.size());
+        assertEquals("Complete record should be intact", "Kept", messages.get(0).getMessage());
+    }
+
+    // Test 4: A damaged record fails its checksum
+    @Test(expected = IOException.class)
+    public void testChecksumMismatch() throws IOException {
+        log.append(message("+27834557896", "Damaged", "sent"));
+        log.close();
+        byte[] bytes = Files.readAllBytes(storeFile);
+        bytes[bytes.length - 8] ^= 0x20;
+        Files.write(storeFile, bytes);
+
+        log.readAll();
+    }
+
+    // Test 5: JSON files are rejected by the binary reader
+    @Test(expected = UncheckedIOException.class)
+    public void testNotBinary() throws IOException {
+        Files.write(storeFile, "[]".getBytes(StandardCharsets.UTF_8));
+        new BinaryMessageCodec().read(storeFile).count();
+    }
+
+    // Test 6: Recovery cuts off a damaged last record but not damage in the middle
+    @Test
+    public void testRecovery() throws IOException {
+        log.append(message("+27834557896", "Kept", "sent"));
+        long intact = Files.size(storeFile);
+        log.append(message("+27834557896", "Damaged", "sent"));
+        log.close();
+        byte[] bytes = Files.readAllBytes(storeFile);
+        bytes[bytes.length - 8] ^= 0x20;
+        Files.write(storeFile, bytes);
+
+        assertEquals("Damaged tail should be cut off", bytes.length - intact, log.recover().getTruncatedBytes());
+        assertEquals("Intact record should remain", 1, log.readAll().size());
+
+        log.append(message("+27834557896", "Follows", "sent"));
+        log.close();
+        bytes = Files.readAllBytes(storeFile);
+        bytes[(int) intact - 8] ^= 0x20;
+        Files.write(storeFile, bytes);
+        Files.deleteIfExists(MessageLog.checkpointPathFor(storeFile));
+        try {
+            log.recover();
+            fail("Damage followed by a good record should not be truncated");
+        } catch (IOException e) {
+            assertEquals("File should be left as it was", bytes.length, Files.size(storeFile));
+        }
+    }
+
+    // Test 7: Converter round trip through messages.json layout
+    @Test
+    public void testConverterRoundTrip() throws IOException {
+        Path json = Files.createTempFile("messages", ".json");
+        Path back = Files.createTempFile("messages", ".json");
+        try {
+            Message original = message("0838884567", "Converted", "sent");
+            try (java.io.Writer out = Files.newBufferedWriter(json, StandardCharsets.UTF_8)) {
+                JSONHandler.writeJsonArray(out, Arrays.asList(original, message("0838884567", "Second", "stored")).iterator());
+            }
+
+            assertEquals("Both messages should convert", 2, StoreConverter.toBinary(json, storeFile));
+            assertEquals("Both messages should convert back", 2, StoreConverter.toJson(storeFile, back));
+
+            Message copy = new JsonLineCodec().read(back).findFirst().get();
+            assertEquals("ID should survive both conversions", original.getMessageID(), copy.getMessageID());
+            assertEquals("Text should survive both conversions", "Converted", copy.getMessage());
+        } finally {
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(back);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Test;
 import org.junit.Before;
 import static org.junit.Assert.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class ChatAppArrayManagerTest {
     
@@ -250,4 +251,298 @@ public class ChatAppArrayManagerTest {
         testManager.addToDisregardedMessages(disregardedMessage);
         assertEquals("Disregarded messages should have 1 message", 1, testManager.getDisregardedMessages().size());
     }
-}
\ No newline at end of file
+    
+    // Test 12: Search by hash uses the index
+    @Test
+    public void testSearchMessageByHash() {
+        Message stored = arrayManager.getStoredMessages().get(0);
+        assertSame("Should find the stored message by hash", stored, arrayManager.searchMessageByHash(stored.getMessageHash()));
+        assertNull("Unknown hash should not be found", arrayManager.searchMessageByHash("00:0:NOTHING"));
+    }
+    
+    // Test 13: Deleted messages are no longer found by ID or hash
+    @Test
+    public void testDeleteRemovesFromIndexes() {
+        Message sent = arrayManager.getSentMessages().get(0);
+        assertTrue("Message should be deleted", arrayManager.deleteMessageByHash(sent.getMessageHash()));
+        
+        assertNull("Deleted message should not be found by ID", arrayManager.searchMessageByID(sent.getMessageID()));
+        assertNull("Deleted message should not be found by hash", arrayManager.searchMessageByHash(sent.getMessageHash()));
+        assertFalse("Deleting again should fail", arrayManager.deleteMessageByHash(sent.getMessageHash()));
+        assertFalse("Message ID should be removed from IDs array", arrayManager.getMessageIDs().contains(sent.getMessageID()));
+    }
+    
+    // Test 14: Sent messages are found before stored messages with the same ID
+    @Test
+    public void testDuplicateIDsPreferSentMessages() {
+        ChatAppArrayManager testManager = new ChatAppArrayManager();
+        
+        Message stored = new Message();
+        stored.setMessageID("5555555555");
+        stored.setRecipient("+27834557896");
+        stored.setMessage("Stored copy");
+        testManager.addToStoredMessages(stored);
+        
+        Message sent = new Message();
+        sent.setMessageID("5555555555");
+        sent.setRecipient("+27834557896");
+        sent.setMessage("Sent copy");
+        testManager.addToSentMessages(sent);
+        
+        assertSame("Sent message should be found first", sent, testManager.searchMessageByID("5555555555"));
+        testManager.deleteMessageByHash(sent.getMessageHash());
+        assertSame("Stored message should be found once the sent one is deleted", stored, testManager.searchMessageByID("5555555555"));
+    }
+    
+    // Test 15: Clearing stored messages keeps sent messages searchable
+    @Test
+    public void testClearStoredMessages() {
+        Message stored = arrayManager.getStoredMessages().get(0);
+        Message sent = arrayManager.getSentMessages().get(0);
+        arrayManager.clearStoredMessages();
+        
+        assertEquals("Stored messages should be empty", 0, arrayManager.getStoredMessages().size());
+        assertEquals("Sent messages should be kept", 2, arrayManager.getSentMessages().size());
+        assertEquals("Hashes should only cover sent messages", 2, arrayManager.getMessageHashes().size());
+        assertNull("Cleared message should not be found", arrayManager.searchMessageByID(stored.getMessageID()));
+        assertSame("Sent message should still be found", sent, arrayManager.searchMessageByID(sent.getMessageID()));
+    }
+    
+    // Test 16: Recipient search accepts local number formats
+    @Test
+    public void testSearchMessagesByRecipientLocalFormat() {
+        ArrayList<Message> international = arrayManager.searchMessagesByRecipient("+27834557896");
+        ArrayList<Message> local = arrayManager.searchMessagesByRecipient("0834557896");
+        
+        assertEquals("Should find 1 message for +27834557896", 1, international.size());
+        assertEquals("Local format should find the same messages", international, local);
+    }
+    
+    // Test 17: Recipient search returns sent messages before stored ones and follows deletes
+    @Test
+    public void testRecipientIndexAfterDelete() {
+        ArrayList<Message> results = arrayManager.searchMessagesByRecipient("+27838884567");
+        assertEquals("Sent message should come first", "sent", results.get(0).getStatus());
+        
+        arrayManager.deleteMessageByHash(results.get(1).getMessageHash());
+        ArrayList<Message> afterDelete = arrayManager.searchMessagesByRecipient("+27838884567");
+        assertEquals("Deleted message should no longer be found", results.size() - 1, afterDelete.size());
+        assertFalse("Deleted message should not be in the results", afterDelete.contains(results.get(1)));
+    }
+    
+    // Test 18: Top recipients by message count
+    @Test
+    public void testTopRecipients() {
+        java.util.LinkedHashMap<String, Integer> top = arrayManager.getTopRecipients(2);
+        
+        assertEquals("Should return 2 recipients", 2, top.size());
+        String busiest = top.keySet().iterator().next();
+        assertEquals("Busiest recipient should be first", "+27838884567", busiest);
+        assertEquals("Busiest recipient count should match", Integer.valueOf(3), top.get(busiest));
+        assertEquals("Count lookup should match", 3, arrayManager.countMessagesForRecipient("0838884567"));
+        assertTrue("Asking for more recipients than exist should return them all", arrayManager.getTopRecipients(10).size() == 2);
+    }
+    
+    // Test 19: Report totals are kept up to date
+    @Test
+    public void testRunningTotals() {
+        int expectedTotal = "Did you get the cake?".length() + "It is dinner time !".length();
+        assertEquals("Total characters should cover sent messages", expectedTotal, arrayManager.getTotalCharacters());
+        assertEquals("Average length should match", expectedTotal / 2.0, arrayManager.getAverageLength(), 0.001);
+        assertTrue("Report should contain the total", arrayManager.generateFullReport("Test User").contains("Total Characters Sent: " + expectedTotal));
+        
+        Message first = arrayManager.getSentMessages().get(0);
+        arrayManager.deleteMessageByHash(first.getMessageHash());
+        assertEquals("Total should drop after a delete", expectedTotal - first.getMessage().length(), arrayManager.getTotalCharacters());
+    }
+    
+    // Test 20: Longest message follows deletes without a rescan
+    @Test
+    public void testLongestMessageAfterDelete() {
+        ChatAppArrayManager testManager = new ChatAppArrayManager();
+        String[] texts = {"Short", "The longest message", "Medium text", "Equally long message"};
+        Message[] messages = new Message[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            messages[i] = new Message();
+            messages[i].setRecipient("+27834557896");
+            messages[i].setMessage(texts[i]);
+            testManager.addToSentMessages(messages[i]);
+        }
+        
+        assertSame("Longest should be found", messages[3], testManager.findLongestMessage());
+        testManager.deleteMessageByHash(messages[3].getMessageHash());
+        assertSame("Next longest should be found after delete", messages[1], testManager.findLongestMessage());
+        testManager.deleteMessageByHash(messages[1].getMessageHash());
+        assertSame("Next longest should be found after second delete", messages[2], testManager.findLongestMessage());
+    }
+    
+    // Test 21: Status counts
+    @Test
+    public void testStatusCounts() {
+        java.util.LinkedHashMap<String, Integer> counts = arrayManager.getStatusCounts();
+        assertEquals("Sent count should match", Integer.valueOf(2), counts.get("sent"));
+        assertEquals("Stored count should match", Integer.valueOf(2), counts.get("stored"));
+        assertEquals("Discarded count should match", Integer.valueOf(1), counts.get("discarded"));
+    }
+    
+    // Test 22: Reports can be written to any Appendable
+    @Test
+    public void testWriteReportsToWriter() throws java.io.IOException {
+        java.io.StringWriter report = new java.io.StringWriter();
+        arrayManager.writeFullReport("Test User", report);
+        assertEquals("Written report should match the generated one", arrayManager.generateFullReport("Test User"), report.toString());
+        
+        java.io.StringWriter senders = new java.io.StringWriter();
+        arrayManager.writeSendersAndRecipients("Test User", senders);
+        assertEquals("Written list should match the generated one", arrayManager.displaySendersAndRecipients("Test User"), senders.toString());
+    }
+    
+    // Test 23: Report rows can be read a page at a time
+    @Test
+    public void testReportRowsPaging() {
+        ArrayList<String> firstPage = arrayManager.getFullReportRows("Test User", 0, 1);
+        ArrayList<String> secondPage = arrayManager.getFullReportRows("Test User", 1, 1);
+        
+        assertEquals("First page should have 1 row", 1, firstPage.size());
+        assertTrue("First row should be message 1", firstPage.get(0).startsWith("MESSAGE 1:"));
+        assertTrue("Second row should be message 2", secondPage.get(0).startsWith("MESSAGE 2:"));
+        assertTrue("Page past the end should be empty", arrayManager.getFullReportRows("Test User", 5, 10).isEmpty());
+        assertEquals("Large page size should be clipped", 2, arrayManager.getSendersAndRecipientsRows("Test User", 0, 100).size());
+    }
+    
+    // Test 24: Deleting from the middle keeps the lists and indexes in step
+    @Test
+    public void testDeletesKeepListsInStep() {
+        ChatAppArrayManager testManager = new ChatAppArrayManager();
+        Message[] messages = new Message[10];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new Message();
+            messages[i].setRecipient("+27834557896");
+            messages[i].setMessage("Message number " + i);
+            if (i % 2 == 0) {
+                testManager.addToSentMessages(messages[i]);
+            } else {
+                testManager.addToStoredMessages(messages[i]);
+            }
+        }
+        
+        for (int i : new int[] {0, 3, 4, 9}) {
+            assertTrue("Message should be deleted", testManager.deleteMessageByHash(messages[i].getMessageHash()));
+        }
+        assertEquals("Three sent messages should be left", 3, testManager.getSentMessages().size());
+        assertEquals("Three stored messages should be left", 3, testManager.getStoredMessages().size());
+        assertEquals("Sent messages should keep their order",
+                     Arrays.asList(messages[2], messages[6], messages[8]), testManager.getSentMessages());
+        assertEquals("Stored messages should keep their order",
+                     Arrays.asList(messages[1], messages[5], messages[7]), testManager.getStoredMessages());
+        assertTrue("Report should number the kept messages in order",
+                   testManager.getFullReportRows("Test User", 1, 1).get(0).contains(messages[6].getMessageID()));
+        assertEquals("Hashes should match the kept messages", 6, testManager.getMessageHashes().size());
+        for (int i = 0; i < testManager.getMessageHashes().size(); i++) {
+            Message byHash = testManager.searchMessageByHash(testManager.getMessageHashes().get(i));
+            assertEquals("Hash and ID at the same position should be one message",
+                         byHash.getMessageID(), testManager.getMessageIDs().get(i));
+        }
+        for (int i : new int[] {1, 2, 5, 6, 7, 8}) {
+            assertSame("Kept message should still be found", messages[i], testManager.searchMessageByID(messages[i].getMessageID()));
+            assertTrue("Kept message should be deleted once", testManager.deleteMessageByHash(messages[i].getMessageHash()));
+        }
+        assertTrue("Everything should be gone", testManager.getSentMessages().isEmpty() && testManager.getStoredMessages().isEmpty()
+                   && testManager.getMessageHashes().isEmpty() && testManager.getMessageIDs().isEmpty());
+    }
+    
+    // Test 25: Deleting most messages keeps the rest in insertion order
+    @Test
+    public void testDeletesKeepInsertionOrder() {
+        ChatAppArrayManager testManager = new ChatAppArrayManager();
+        ArrayList<Message> kept = new ArrayList<>();
+        ArrayList<Message> deleted = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Message message = new Message();
+            message.setRecipient("+27834557896");
+            message.setMessage("Message number " + i);
+            testManager.addToSentMessages(message);
+            (i % 3 == 0 ? kept : deleted).add(message);
+        }
+        for (Message message : deleted) {
+            assertTrue("Message should be deleted", testManager.deleteMessageByHash(message.getMessageHash()));
+        }
+        
+        assertEquals("Kept messages should stay in the order they were added", kept, testManager.getSentMessages());
+        for (int i = 0; i < kept.size(); i++) {
+            assertEquals("Hashes should keep the same order", kept.get(i).getMessageHash(), testManager.getMessageHashes().get(i));
+            assertEquals("IDs should keep the same order", kept.get(i).getMessageID(), testManager.getMessageIDs().get(i));
+        }
+        String report = testManager.generateFullReport("Test User");
+        assertTrue("Last kept message should be numbered after the others",
+                   report.contains("MESSAGE " + kept.size() + ":\n  Message ID: " + kept.get(kept.size() - 1).getMessageID()));
+        assertTrue("Summary should count the kept messages", report.contains("Total Sent Messages: " + kept.size()));
+        
+        Message added = new Message();
+        added.setRecipient("+27834557896");
+        added.setMessage("Added after the deletes");
+        testManager.addToSentMessages(added);
+        assertSame("New messages should go at the end", added,
+                   testManager.getSentMessages().get(testManager.getSentMessages().size() - 1));
+    }
+    
+    // Test 26: Deletes from a busy recipient keep its search results in order
+    @Test
+    public void testRecipientDeletesKeepOrder() {
+        ChatAppArrayManager testManager = new ChatAppArrayManager();
+        ArrayList<Message> kept = new ArrayList<>();
+        ArrayList<Message> deleted = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Message message = new Message();
+            message.setRecipient("+27834557896");
+            message.setMessage("Message number " + i);
+            if (i < 30) {
+                testManager.addToSentMessages(message);
+            } else {
+                testManager.addToStoredMessages(message);
+            }
+            (i % 4 == 1 ? kept : deleted).add(message);
+        }
+        for (Message message : deleted) {
+            testManager.deleteMessageByHash(message.getMessageHash());
+        }
+        
+        assertEquals("Recipient search should keep the order messages were added", kept,
+                     testManager.searchMessagesByRecipient("0834557896"));
+        assertEquals("Recipient count should match", kept.size(), testManager.countMessagesForRecipient("+27834557896"));
+        assertEquals("Top recipients should use the new count", Integer.valueOf(kept.size()),
+                     testManager.getTopRecipients(1).get("+27834557896"));
+        for (Message message : kept) {
+            testManager.deleteMessageByHash(message.getMessageHash());
+        }
+        assertTrue("Recipient should be gone", testManager.getTopRecipients(1).isEmpty());
+    }
+    
+    // Test 27: Longest message among many of the same length follows deletes
+    @Test
+    public void testLongestAmongEqualLengths() {
+        ChatAppArrayManager testManager = new ChatAppArrayManager();
+        Message[] messages = new Message[20];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new Message();
+            messages[i].setRecipient("+27834557896");
+            messages[i].setMessage(String.format("Same length %02d", i));
+            testManager.addToSentMessages(messages[i]);
+        }
+        Message stored = new Message();
+        stored.setRecipient("+27834557896");
+        stored.setMessage("A stored message");
+        testManager.addToStoredMessages(stored);
+        
+        for (int i = 0; i < 12; i++) {
+            assertSame("Earliest remaining should be the longest", messages[i], testManager.findLongestMessage());
+            testManager.deleteMessageByHash(messages[i].getMessageHash());
+        }
+        testManager.clearStoredMessages();
+        testManager.deleteMessageByHash(messages[13].getMessageHash());
+        assertSame("Deleting a later one should not change it", messages[12], testManager.findLongestMessage());
+        testManager.deleteMessageByHash(messages[12].getMessageHash());
+        assertSame("Gaps should be skipped", messages[14], testManager.findLongestMessage());
+        assertEquals("Total should follow the deletes", 6 * messages[0].getMessage().length(), testManager.getTotalCharacters());
+    }
+}
@@ -0,0 +1,261 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ChatServerTest {
+
+    private Path deliveryDir;
+    private DeliveryQueues deliveries;
+    private ChatService service;
+    private ChatServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        deliveryDir = Files.createTempDirectory("deliveries");
+        deliveries = new DeliveryQueues(deliveryDir.resolve("deliveries.log"), deliveryDir.resolve("spill"),
+            16, 1000, 8, 1000, 8000);
+        deliveries.recover();
+        service = new ChatService(deliveries);
+        server = new ChatServer(service, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        deliveries.close();
+        try (Stream<Path> files = Files.walk(deliveryDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    // Blocking line client over loopback
+    private class Client implements Closeable {
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+
+        Client() throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+            socket.setSoTimeout(10000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        String call(String... fields) throws IOException {
+            out.write(String.join("\t", fields));
+            out.write('\n');
+            out.flush();
+            return in.readLine();
+        }
+
+        List<String> readLines(String reply) throws IOException {
+            List<String> lines = new ArrayList<>();
+            int count = Integer.parseInt(reply.split("\t")[1]);
+            for (int i = 0; i < count; i++) {
+                lines.add(in.readLine());
+            }
+            return lines;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    // Test 1: Register, login, send, search and delete over one connection
+    @Test
+    public void testSessionOverLoopback() throws IOException {
+        try (Client client = new Client()) {
+            assertTrue("Registration should succeed",
+                client.call("REGISTER", "Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976").startsWith("OK"));
+            assertTrue("Wrong password should be refused", client.call("LOGIN", "kyl_1", "wrong").startsWith("ERR"));
+            assertEquals("Login should greet the user",
+                "OK\tWelcome Kyle Smith, it is great to see you again.", client.call("LOGIN", "kyl_1", "Ch&&sec@ke99!"));
+
+            String[] sent = client.call("SEND", "+27718693002", "Hi Mike, can you join us for dinner tonight").split("\t");
+            assertEquals("Send should succeed", "OK", sent[0]);
+            String[] found = client.call("SEARCH", sent[1]).split("\t");
+            assertEquals("Search should find the message", sent[1], found[1]);
+            assertEquals("Recipient should be returned", "+27718693002", found[2]);
+            assertEquals("Status should be sent", "sent", found[3]);
+            assertEquals("Text should be returned", "Hi Mike, can you join us for dinner tonight", found[5]);
+
+            List<String> byRecipient = client.readLines(client.call("RECIPIENT", "+27718693002"));
+            assertEquals("Recipient search should find one message", 1, byRecipient.size());
+
+            assertEquals("Delete should return the ID", "OK\t" + sent[1], client.call("DELETE", sent[2]));
+            assertTrue("Deleted hash should be gone", client.call("DELETE", sent[2]).startsWith("ERR"));
+            assertEquals("Quit should be acknowledged", "OK\tBye", client.call("QUIT"));
+            assertNull("Server should close the connection", client.in.readLine());
+        }
+    }
+
+    // Test 2: Commands other than REGISTER, LOGIN and QUIT need a login
+    @Test
+    public void testLoginRequired() throws IOException {
+        try (Client client = new Client()) {
+            assertEquals("Send before login should be refused", "ERR\tPlease login first.",
+                client.call("SEND", "+27718693002", "Hello"));
+            assertTrue("Unknown commands should be reported", client.call("REGISTER", "x").startsWith("ERR"));
+        }
+    }
+
+    // Test 3: Invalid input is reported without dropping the connection
+    @Test
+    public void testValidationErrors() throws IOException {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        try (Client client = new Client()) {
+            client.call("LOGIN", "kyl_1", "Ch&&sec@ke99!");
+            assertTrue("Bad number should be refused", client.call("SEND", "12345", "Hello").startsWith("ERR"));
+            assertTrue("Long text should be refused", client.call("SEND", "+27718693002", new String(new char[251]).replace('\0', 'a')).startsWith("ERR"));
+            assertTrue("Taken username should be refused",
+                client.call("REGISTER", "Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976").startsWith("ERR"));
+            assertTrue("Connection should still work", client.call("STORE", "+27718693002", "Later").startsWith("OK"));
+        }
+    }
+
+    // Test 4: Many clients send at once, each on its own connection
+    @Test
+    public void testConcurrentClients() throws Exception {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        int clients = 40;
+        int perClient = 25;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                results.add(pool.submit(() -> {
+                    int ok = 0;
+                    try (Client client = new Client()) {
+                        client.call("LOGIN", "kyl_1", "Ch&&sec@ke99!");
+                        for (int i = 0; i < perClient; i++) {
+                            if (client.call("SEND", "+27718693002", "Load message " + i).startsWith("OK")) {
+                                ok++;
+                            }
+                        }
+                    }
+                    return ok;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals("Every send should succeed", clients * perClient, total);
+            assertEquals("Every message should be recorded", clients * perClient,
+                service.getMessages().getSentMessages().size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Test 5: Messages wait for their recipient, who fetches them with INBOX and acks them
+    @Test
+    public void testDeliveryToRecipient() throws IOException {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        service.register("Mike", "Jones", "mik_1", "Ch&&sec@ke99!", "+27718693002");
+        try (Client sender = new Client()) {
+            sender.call("LOGIN", "kyl_1", "Ch&&sec@ke99!");
+            String[] sent = sender.call("SEND", "+27718693002", "Dinner at eight").split("\t");
+
+            try (Client recipient = new Client()) {
+                recipient.call("LOGIN", "mik_1", "Ch&&sec@ke99!");
+                List<String> inbox = recipient.readLines(recipient.call("INBOX"));
+                assertEquals("The waiting message should be delivered", 1, inbox.size());
+                String[] delivered = inbox.get(0).split("\t");
+                assertEquals("Delivered ID should match", sent[1], delivered[0]);
+                assertEquals("Delivered text should match", "Dinner at eight", delivered[4]);
+                assertEquals("Ack should be accepted", "OK\t" + sent[1], recipient.call("ACK", sent[1]));
+                assertTrue("A second ack should be refused", recipient.call("ACK", sent[1]).startsWith("ERR"));
+                assertTrue("Inbox should now be empty", recipient.readLines(recipient.call("INBOX")).isEmpty());
+                assertTrue("The sender has nothing waiting", sender.readLines(sender.call("INBOX")).isEmpty());
+            }
+        }
+    }
+
+    // Test 6: A cumulative ack and a READ reach the sender as one receipt each
+    @Test
+    public void testReceiptsToSender() throws Exception {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        service.register("Mike", "Jones", "mik_1", "Ch&&sec@ke99!", "+27718693002");
+        try (Client sender = new Client(); Client recipient = new Client()) {
+            sender.call("LOGIN", "kyl_1", "Ch&&sec@ke99!");
+            recipient.call("LOGIN", "mik_1", "Ch&&sec@ke99!");
+            String[] ids = new String[3];
+            for (int i = 0; i < 3; i++) {
+                ids[i] = sender.call("SEND", "+27718693002", "Message " + i).split("\t")[1];
+            }
+            assertEquals("All three should be delivered", 3, recipient.readLines(recipient.call("INBOX")).size());
+            assertEquals("One ack should cover all three", "OK\t3", recipient.call("ACKTO", ids[2]));
+            assertEquals("Two should be marked read", "OK\t2", recipient.call("READ", "+27838968976", ids[1]));
+            assertTrue("Unknown messages cannot be read", recipient.call("READ", "+27838968976", ids[1]).startsWith("ERR"));
+            service.getReceipts().flush();
+
+            List<String> receipts = sender.readLines(sender.call("RECEIPTS"));
+            assertEquals("One delivered and one read receipt", 2, receipts.size());
+            assertEquals("Delivered receipt should cover all three",
+                "+27718693002\tdelivered\t" + ids[2] + "\t3", receipts.get(0));
+            assertEquals("Read receipt should cover two", "+27718693002\tread\t" + ids[1] + "\t2", receipts.get(1));
+            assertEquals("Search should show the new status", "read",
+                sender.call("SEARCH", ids[0]).split("\t")[3]);
+        }
+    }
+
+    // Test 7: A recipient registered with the local 07 spelling gets messages sent to +277
+    @Test
+    public void testDeliveryAcrossNumberSpellings() throws IOException {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        service.register("Mike", "Jones", "mik_1", "Ch&&sec@ke99!", "0718693002");
+        try (Client sender = new Client(); Client recipient = new Client()) {
+            sender.call("LOGIN", "kyl_1", "Ch&&sec@ke99!");
+            String[] sent = sender.call("SEND", "+27718693002", "Dinner at eight").split("\t");
+            recipient.call("LOGIN", "mik_1", "Ch&&sec@ke99!");
+            List<String> inbox = recipient.readLines(recipient.call("INBOX"));
+            assertEquals("The message should reach the recipient", 1, inbox.size());
+            assertEquals("Delivered ID should match", sent[1], inbox.get(0).split("\t")[0]);
+            assertEquals("Recipient should be shown in the canonical form", "+27718693002", inbox.get(0).split("\t")[1]);
+        }
+    }
+
+    // Test 8: A deleted message is no longer delivered or tracked for receipts
+    @Test
+    public void testDeletedMessageIsNotDelivered() throws IOException {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        service.register("Mike", "Jones", "mik_1", "Ch&&sec@ke99!", "+27718693002");
+        try (Client sender = new Client()) {
+            sender.call("LOGIN", "kyl_1", "Ch&&sec@ke99!");
+            String[] sent = sender.call("SEND", "+27718693002", "Never mind").split("\t");
+            assertEquals("Delete should return the ID", "OK\t" + sent[1], sender.call("DELETE", sent[2]));
+            assertEquals("Nothing should wait for the recipient", 0,
+                deliveries.getPendingCount(PhoneNumberCodec.encode("+27718693002")));
+            assertEquals("Nothing should wait for receipts", 0, service.getReceipts().getTrackedCount());
+
+            try (Client recipient = new Client()) {
+                recipient.call("LOGIN", "mik_1", "Ch&&sec@ke99!");
+                assertTrue("Deleted message should not be delivered", recipient.readLines(recipient.call("INBOX")).isEmpty());
+            }
+        }
+    }
+}
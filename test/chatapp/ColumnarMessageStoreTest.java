@@ -0,0 +1,126 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import java.util.Arrays;
+
+public class ColumnarMessageStoreTest {
+
+    private ColumnarMessageStore store;
+
+    @Before
+    public void setUp() {
+        store = new ColumnarMessageStore(2);
+        store.append(message("1000000001", "+27834557896", "Did you get the cake?", "sent"));
+        store.append(message("1000000002", "0838884567", "Where are you? You are late! I have asked you to be on time.", "stored"));
+        store.append(message("1000000003", "+27834557896", "Café at 5?", "sent"));
+        store.append(message("1000000004", "0838884567", "Ok, I am leaving without you.", "discarded"));
+    }
+
+    private Message message(String id, String recipient, String text, String status) {
+        Message message = new Message();
+        message.setMessageID(id);
+        message.setRecipient(recipient);
+        message.setMessage(text);
+        message.setStatus(status);
+        return message;
+    }
+
+    // Test 1: Columns hold each field, and text survives the UTF-8 arena
+    @Test
+    public void testColumns() {
+        assertEquals("Store should have 4 rows", 4, store.rowCount());
+        assertEquals("ID column should match", 1000000003L, store.getMessageID(2));
+        assertEquals("Text should be decoded from the arena", "Café at 5?", store.getText(2));
+        assertEquals("Length should count characters", 10, store.getLength(2));
+        assertEquals("Status column should match", ColumnarMessageStore.STATUS_STORED, store.getStatus(1));
+        assertEquals("Recipient should be encoded", PhoneNumberCodec.encode("+27838884567"), store.getRecipientCode(1));
+    }
+
+    // Test 2: Aggregates over one status
+    @Test
+    public void testAggregates() {
+        assertEquals("Total sent characters", 31, store.totalCharacters(ColumnarMessageStore.STATUS_SENT));
+        assertEquals("Average sent length", 15.5, store.averageLength(ColumnarMessageStore.STATUS_SENT), 0.001);
+        assertEquals("Longest sent row", 0, store.longestRow(ColumnarMessageStore.STATUS_SENT));
+        assertEquals("Two sent rows", 2, store.statusCounts()[ColumnarMessageStore.STATUS_SENT]);
+        assertEquals("Discarded rows are not counted for recipients", 1,
+            store.countForRecipient(PhoneNumberCodec.encode("0838884567")));
+    }
+
+    // Test 3: Deleted rows drop out of aggregates and are compacted away
+    @Test
+    public void testRemoveAndCompact() {
+        assertTrue("Row should be removed", store.remove(1000000001L, ColumnarMessageStore.STATUS_SENT));
+        assertFalse("Wrong status should not match", store.remove(1000000002L, ColumnarMessageStore.STATUS_SENT));
+        assertEquals("Sent total should drop", 10, store.totalCharacters(ColumnarMessageStore.STATUS_SENT));
+        assertEquals("Live count should drop", 3, store.liveCount());
+
+        store.remove(1000000002L, ColumnarMessageStore.STATUS_STORED);
+        store.remove(1000000004L, ColumnarMessageStore.STATUS_DISCARDED);
+        assertEquals("Compaction should leave one row", 1, store.rowCount());
+        assertEquals("Remaining text should be intact", "Café at 5?", store.getText(0));
+    }
+
+    // Test 4: Columns load from a stream of messages with their own statuses
+    @Test
+    public void testLoadFromMessages() {
+        ColumnarMessageStore loaded = ColumnarMessageStore.load(Arrays.asList(
+            message("1000000011", "+27834557896", "Hello there", "sent"),
+            message("1000000012", "+27834557896", "Later", "delivered"),
+            message("1000000013", "+27834557896", "Never", "discarded")).iterator());
+
+        assertEquals("Every message should have a row", 3, loaded.rowCount());
+        assertEquals("Statuses should come from the messages", 1, loaded.statusCount(ColumnarMessageStore.STATUS_DELIVERED));
+        assertEquals("Text should be loaded", "Later", loaded.getText(1));
+        assertEquals("Recipient counts cover sent and stored rows only", 1,
+            loaded.countForRecipient(PhoneNumberCodec.encode("+27834557896")));
+    }
+
+    // Test 5: Removing moves the last row into the gap and keeps lookups and counters right
+    @Test
+    public void testRemoveMovesLastRow() {
+        store.append(message("1000000001", "+27834557896", "Same ID, stored", "stored"));
+        assertTrue("First row should be removed", store.remove(1000000001L, ColumnarMessageStore.STATUS_SENT));
+        assertEquals("Last row should take its place", "Same ID, stored", store.getText(0));
+        assertEquals("Row with the same ID should stay", 1000000001L, store.getMessageID(0));
+
+        assertTrue("Moved row should still be found", store.remove(1000000001L, ColumnarMessageStore.STATUS_STORED));
+        assertFalse("Nothing left with that ID", store.remove(1000000001L, ColumnarMessageStore.STATUS_STORED));
+        assertTrue("Other rows should still be found", store.remove(1000000003L, ColumnarMessageStore.STATUS_SENT));
+        assertEquals("Two rows should be left", 2, store.rowCount());
+        assertEquals("Sent counter should follow removes", 0, store.statusCount(ColumnarMessageStore.STATUS_SENT));
+        assertEquals("Stored counter should follow removes", 1, store.statusCount(ColumnarMessageStore.STATUS_STORED));
+
+        store.append(message("1000000005", "+27834557896", "After the removes", "sent"));
+        assertEquals("New text should be intact after compaction", "After the removes", store.getText(2));
+        assertEquals("Kept text should be intact after compaction",
+            "Where are you? You are late! I have asked you to be on time.",
+            store.getText(store.getStatus(0) == ColumnarMessageStore.STATUS_STORED ? 0 : 1));
+    }
+
+    // Test 6: Out of range row
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRowOutOfRange() {
+        store.getText(4);
+    }
+
+    // Test 7: The stored history loads into columns for batch statistics
+    @Test
+    public void testLoadStoredMessages() throws java.io.IOException {
+        Message stored = message("1000000021", "+27834557896", "Kept for the nightly stats", "sent");
+        JSONHandler.storeMessage(stored);
+        ColumnarMessageStore loaded = JSONHandler.loadColumns();
+
+        int found = -1;
+        for (int row = 0; row < loaded.rowCount(); row++) {
+            if (loaded.getMessageID(row) == 1000000021L) {
+                found = row;
+            }
+        }
+        assertTrue("Stored message should have a row", found >= 0);
+        assertEquals("Stored text should be loaded", "Kept for the nightly stats", loaded.getText(found));
+        JSONHandler.deleteMessage("1000000021");
+    }
+}
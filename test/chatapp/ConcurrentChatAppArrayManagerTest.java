@@ -0,0 +1,180 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentChatAppArrayManagerTest {
+
+    private static final int THREADS = 32;
+    private static final int MESSAGES_PER_THREAD = 200;
+
+    private ConcurrentChatAppArrayManager manager;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        manager = new ConcurrentChatAppArrayManager();
+    }
+
+    private static Message createMessage(int thread, int i) {
+        Message msg = new Message();
+        msg.setRecipient(String.format("+278%08d", thread));
+        msg.setMessage("Thread " + thread + " message " + i);
+        msg.setStatus(i % 2 == 0 ? "sent" : "stored");
+        return msg;
+    }
+
+    // Runs task on every thread at once and rethrows the first failure
+    private void runConcurrently(TaskBody task) throws Exception {
+        pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                task.run(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private interface TaskBody {
+        void run(int thread) throws Exception;
+    }
+
+    // Test 1: Many threads adding, searching and deleting leave every list and index consistent
+    @Test
+    public void testConcurrentAddSearchDelete() throws Exception {
+        Set<String> kept = ConcurrentHashMap.newKeySet();
+        Set<String> deleted = ConcurrentHashMap.newKeySet();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                Message msg = createMessage(thread, i);
+                if (i % 2 == 0) {
+                    manager.addToSentMessages(msg);
+                } else {
+                    manager.addToStoredMessages(msg);
+                }
+                assertSame("Own message should be found by ID", msg, manager.searchMessageByID(msg.getMessageID()));
+                assertSame("Own message should be found by hash", msg, manager.searchMessageByHash(msg.getMessageHash()));
+
+                if (i % 3 == 0) {
+                    assertTrue("Own message should be deleted", manager.deleteMessageByHash(msg.getMessageHash()));
+                    assertNull("Deleted message should not be found", manager.searchMessageByID(msg.getMessageID()));
+                    deleted.add(msg.getMessageID());
+                } else {
+                    kept.add(msg.getMessageID());
+                }
+                if (i % 50 == 0) {
+                    manager.generateFullReport("Stress");
+                    manager.searchMessagesByContent("message");
+                }
+            }
+        });
+
+        int live = kept.size();
+        assertEquals("Sent and stored lists should hold every kept message", live,
+            manager.getSentMessages().size() + manager.getStoredMessages().size());
+        assertEquals("Every kept message should have one hash", live, manager.getMessageHashes().size());
+        assertEquals("Every kept message should have one ID", live, manager.getMessageIDs().size());
+        assertEquals("IDs should match the kept messages", kept, new HashSet<>(manager.getMessageIDs()));
+        for (String id : deleted) {
+            assertNull("Deleted message should stay deleted", manager.searchMessageByID(id));
+        }
+        assertEquals("Each recipient should keep its messages", MESSAGES_PER_THREAD - (MESSAGES_PER_THREAD + 2) / 3,
+            manager.countMessagesForRecipient(String.format("+278%08d", 5)));
+        assertEquals("Content search should see every kept message", live,
+            manager.searchMessagesByContent("message").size());
+    }
+
+    // Test 2: When several threads delete the same hash only one succeeds
+    @Test
+    public void testDeleteIsLinearizable() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Message msg = createMessage(0, i);
+            messages.add(msg);
+            manager.addToSentMessages(msg);
+        }
+        AtomicInteger wins = new AtomicInteger();
+        Set<Message> removed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        runConcurrently(thread -> {
+            for (Message msg : messages) {
+                Message gone = manager.removeMessageByHash(msg.getMessageHash());
+                if (gone != null) {
+                    wins.incrementAndGet();
+                    assertTrue("A message should only be removed once", removed.add(gone));
+                }
+            }
+        });
+
+        assertEquals("Each message should be deleted exactly once", messages.size(), wins.get());
+        assertTrue("Nothing should be left", manager.getSentMessages().isEmpty());
+        assertEquals("Totals should be back to zero", 0, manager.getTotalCharacters());
+    }
+
+    // Test 3: Reports written during concurrent adds describe one consistent set of messages
+    @Test
+    public void testReportsAreSnapshots() throws Exception {
+        runConcurrently(thread -> {
+            for (int i = 0; i < MESSAGES_PER_THREAD / 4; i++) {
+                if (thread % 4 == 0) {
+                    String report = manager.generateFullReport("Stress");
+                    if (report.startsWith("No sent messages")) {
+                        continue;
+                    }
+                    int entries = report.split("\nMESSAGE ", -1).length - 1;
+                    String total = report.substring(report.indexOf("Total Sent Messages: ") + 21);
+                    total = total.substring(0, total.indexOf('\n'));
+                    assertEquals("Summary should count the entries in the same report",
+                        entries, Integer.parseInt(total));
+                } else {
+                    manager.addToSentMessages(createMessage(thread, i * 2));
+                }
+            }
+        });
+
+        assertEquals("Every added message should be listed", THREADS / 4 * 3 * (MESSAGES_PER_THREAD / 4),
+            manager.getSentMessages().size());
+    }
+
+    // Test 4: Message counters stay exact when messages are created on many threads
+    @Test
+    public void testMessageCountsAreUnique() throws Exception {
+        Set<Integer> counts = ConcurrentHashMap.newKeySet();
+        AtomicInteger created = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                counts.add(new Message().getMessageCount());
+                created.incrementAndGet();
+            }
+        });
+
+        assertEquals("Every message should get its own count", created.get(), counts.size());
+    }
+}
@@ -0,0 +1,276 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class DeliveryQueuesTest {
+
+    private static final long RECIPIENT = PhoneNumberCodec.encode("+27718693002");
+
+    private Path dir;
+    private Path journal;
+    private Path spillDir;
+    private DeliveryQueues queues;
+    private final LinkedBlockingQueue<Message> delivered = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("deliveries");
+        journal = dir.resolve("deliveries.log");
+        spillDir = dir.resolve("spill");
+        queues = open(4, 1000, 8, 1000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queues.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private DeliveryQueues open(int memoryPerRecipient, int maxInMemory, int maxInFlight, long backoffMillis)
+            throws IOException {
+        DeliveryQueues opened = new DeliveryQueues(journal, spillDir, memoryPerRecipient, maxInMemory,
+            maxInFlight, backoffMillis, backoffMillis * 8);
+        opened.recover();
+        return opened;
+    }
+
+    private Message createMessage(String recipient, String text) {
+        Message message = new Message();
+        message.setRecipient(recipient);
+        message.setMessage(text);
+        message.setStatus("sent");
+        return message;
+    }
+
+    private Message next() throws InterruptedException {
+        Message message = delivered.poll(5, TimeUnit.SECONDS);
+        assertNotNull("A message should be delivered", message);
+        return message;
+    }
+
+    private long spillFiles() throws IOException {
+        if (!Files.isDirectory(spillDir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.list(spillDir)) {
+            return files.count();
+        }
+    }
+
+    // Test 1: Messages queued while offline are delivered in order on connect
+    @Test
+    public void testDeliversQueuedMessagesInOrder() throws Exception {
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sent.add(createMessage("+27718693002", "Message " + i));
+            queues.enqueue(sent.get(i));
+        }
+        assertEquals("Messages should wait for the recipient", 3, queues.getPendingCount(RECIPIENT));
+
+        DeliveryQueues.Session session = queues.connect(RECIPIENT, delivered::add);
+        for (Message message : sent) {
+            Message received = next();
+            assertEquals("Messages should arrive in order", message.getMessageIdValue(), received.getMessageIdValue());
+            assertTrue("Ack should be accepted", session.ack(received.getMessageIdValue()));
+        }
+        assertFalse("A second ack should be refused", session.ack(sent.get(0).getMessageIdValue()));
+        assertEquals("Nothing should be left", 0, queues.getPendingCount(RECIPIENT));
+
+        Message live = createMessage("+27718693002", "While connected");
+        queues.enqueue(live);
+        assertEquals("A connected recipient should get it at once", live.getMessageIdValue(), next().getMessageIdValue());
+        session.close();
+    }
+
+    // Test 2: An unacked message is delivered again after a backoff
+    @Test
+    public void testRetriesUnackedMessages() throws Exception {
+        queues.close();
+        queues = open(4, 1000, 8, 50);
+        queues.connect(RECIPIENT, delivered::add);
+        Message message = createMessage("+27718693002", "Are you there?");
+        queues.enqueue(message);
+        long first = System.nanoTime();
+        assertEquals("First delivery", message.getMessageIdValue(), next().getMessageIdValue());
+        assertEquals("Second delivery", message.getMessageIdValue(), next().getMessageIdValue());
+        long second = System.nanoTime();
+        assertEquals("Third delivery", message.getMessageIdValue(), next().getMessageIdValue());
+        long third = System.nanoTime();
+        assertTrue("Retry should wait for the backoff", second - first >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertTrue("The wait should grow", third - second >= TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    // Test 3: Unacked messages go back to the head of the queue when the session ends
+    @Test
+    public void testDisconnectRequeuesUnacked() throws Exception {
+        DeliveryQueues.Session first = queues.connect(RECIPIENT, delivered::add);
+        Message one = createMessage("+27718693002", "One");
+        Message two = createMessage("+27718693002", "Two");
+        queues.enqueue(one);
+        queues.enqueue(two);
+        next();
+        next();
+        first.close();
+        assertFalse("A closed session cannot ack", first.ack(one.getMessageIdValue()));
+        assertEquals("Both should be pending again", 2, queues.getPendingCount(RECIPIENT));
+
+        delivered.clear();
+        DeliveryQueues.Session second = queues.connect(RECIPIENT, delivered::add);
+        assertEquals("First should come first again", one.getMessageIdValue(), next().getMessageIdValue());
+        assertEquals("Then second", two.getMessageIdValue(), next().getMessageIdValue());
+        second.close();
+    }
+
+    // Test 4: Undelivered messages survive a restart; acked ones do not come back
+    @Test
+    public void testRecoversUndeliveredAfterRestart() throws Exception {
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sent.add(createMessage("+27718693002", "Message " + i));
+            queues.enqueue(sent.get(i));
+        }
+        queues.enqueue(createMessage("+27838968976", "For someone else"));
+        DeliveryQueues.Session session = queues.connect(RECIPIENT, delivered::add);
+        assertTrue("Ack should be accepted", session.ack(next().getMessageIdValue()));
+        queues.flush();
+        queues.close();
+
+        queues = open(4, 1000, 8, 1000);
+        assertEquals("Two should still be waiting", 2, queues.getPendingCount(RECIPIENT));
+        assertEquals("Other recipients should keep theirs", 1,
+            queues.getPendingCount(PhoneNumberCodec.encode("+27838968976")));
+        delivered.clear();
+        queues.connect(RECIPIENT, delivered::add);
+        assertEquals("Order should be kept", sent.get(1).getMessageIdValue(), next().getMessageIdValue());
+        assertEquals("Order should be kept", sent.get(2).getMessageIdValue(), next().getMessageIdValue());
+    }
+
+    // Test 5: A large backlog spills to disk and drains back in order
+    @Test
+    public void testLargeBacklogSpillsToDisk() throws Exception {
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sent.add(createMessage("+27718693002", "Backlog " + i));
+            queues.enqueue(sent.get(i));
+        }
+        assertEquals("All should be pending", 50, queues.getPendingCount(RECIPIENT));
+        assertEquals("Only the head should be in memory", 4, queues.getInMemoryCount());
+        assertTrue("The rest should be on disk", spillFiles() > 0);
+
+        DeliveryQueues.Session session = queues.connect(RECIPIENT, delivered::add);
+        for (Message message : sent) {
+            Message received = next();
+            assertEquals("Spilled messages should keep their order", message.getMessageIdValue(), received.getMessageIdValue());
+            assertEquals("Text should survive the spill", message.getMessage(), received.getMessage());
+            session.ack(received.getMessageIdValue());
+        }
+        assertEquals("Nothing should be left", 0, queues.getPendingCount(RECIPIENT));
+        assertEquals("Spill files should be removed", 0, spillFiles());
+        assertEquals("Nothing should be held in memory", 0, queues.getInMemoryCount());
+    }
+
+    // Test 6: The memory limit holds across many recipients
+    @Test
+    public void testMemoryLimitAcrossRecipients() throws Exception {
+        queues.close();
+        queues = open(4, 10, 8, 1000);
+        String[] recipients = {"+27718693002", "+27838968976", "+27612345678", "+27823456789", "+27734567890"};
+        for (String recipient : recipients) {
+            for (int i = 0; i < 6; i++) {
+                queues.enqueue(createMessage(recipient, "Message " + i));
+            }
+        }
+        assertEquals("No more than the limit should be in memory", 10, queues.getInMemoryCount());
+        for (String recipient : recipients) {
+            assertEquals("Every message should be pending", 6, queues.getPendingCount(PhoneNumberCodec.encode(recipient)));
+        }
+    }
+
+    // Test 7: One cumulative ack confirms everything delivered up to a message
+    @Test
+    public void testAckThroughIsCumulative() throws Exception {
+        List<Message> acked = new ArrayList<>();
+        DeliveryQueues.Session session = queues.connect(RECIPIENT, delivered::add, acked::add);
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            sent.add(createMessage("+27718693002", "Message " + i));
+            queues.enqueue(sent.get(i));
+        }
+        for (int i = 0; i < 5; i++) {
+            next();
+        }
+        assertEquals("Three should be acked at once", 3, session.ackThrough(sent.get(2).getMessageIdValue()));
+        assertEquals("Ack listener should see them in order",
+            Arrays.asList(sent.get(0).getMessageIdValue(), sent.get(1).getMessageIdValue(), sent.get(2).getMessageIdValue()),
+            acked.stream().map(Message::getMessageIdValue).collect(Collectors.toList()));
+        assertEquals("An acked message cannot be acked again", 0, session.ackThrough(sent.get(1).getMessageIdValue()));
+        assertEquals("Two should still be in flight", 2, queues.getPendingCount(RECIPIENT));
+        assertTrue("Single acks still work", session.ack(sent.get(4).getMessageIdValue()));
+        assertEquals("Only the one before it is left", 1, session.ackThrough(sent.get(3).getMessageIdValue()));
+        assertEquals("Nothing should be left", 0, queues.getPendingCount(RECIPIENT));
+        session.close();
+    }
+
+    // Test 8: The queue keeps its own copy, so later status changes do not reach the journal
+    @Test
+    public void testQueuedCopyKeepsStatus() throws Exception {
+        Message message = createMessage("+27718693002", "Sent, then delivered");
+        CompletableFuture<Void> journaled = queues.enqueue(message);
+        message.setStatus(Message.DELIVERED_STATUS);
+        journaled.get();
+        queues.close();
+
+        queues = open(4, 1000, 8, 1000);
+        queues.connect(RECIPIENT, delivered::add);
+        Message received = next();
+        assertEquals("Same message should be recovered", message.getMessageIdValue(), received.getMessageIdValue());
+        assertEquals("Journal should hold the status it was queued with", "sent", received.getStatus());
+    }
+
+    // Test 9: Removed messages are not delivered, whether waiting, spilled or in flight
+    @Test
+    public void testRemoveQueuedMessages() throws Exception {
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sent.add(createMessage("+27718693002", "Message " + i));
+            queues.enqueue(sent.get(i));
+        }
+        assertTrue("Waiting message should be removed", queues.remove(sent.get(1)));
+        assertTrue("Spilled message should be removed", queues.remove(sent.get(6)));
+        assertFalse("It cannot be removed twice", queues.remove(sent.get(6)));
+        assertEquals("Eight should be pending", 8, queues.getPendingCount(RECIPIENT));
+
+        DeliveryQueues.Session session = queues.connect(RECIPIENT, delivered::add);
+        for (int i = 0; i < 10; i++) {
+            if (i != 1 && i != 6) {
+                assertEquals("Others should arrive in order", sent.get(i).getMessageIdValue(), next().getMessageIdValue());
+            }
+        }
+        assertTrue("In-flight message should be removed", queues.remove(sent.get(0)));
+        assertFalse("A removed message cannot be acked", session.ack(sent.get(0).getMessageIdValue()));
+        queues.flush();
+        queues.close();
+
+        queues = open(4, 1000, 8, 1000);
+        assertEquals("Removed messages should not come back", 7, queues.getPendingCount(RECIPIENT));
+    }
+}
@@ -0,0 +1,142 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GroupCommitWriterTest {
+
+    private Path logFile;
+    private CountingLog log;
+
+    // Counts how many batches reach the log
+    private static class CountingLog extends MessageLog {
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicInteger forces = new AtomicInteger();
+        int largestBatch = 0;
+
+        CountingLog(Path path) {
+            super(path);
+        }
+
+        @Override
+        public synchronized void appendAll(List<Message> messages) throws IOException {
+            writes.incrementAndGet();
+            largestBatch = Math.max(largestBatch, messages.size());
+            super.appendAll(messages);
+        }
+
+        @Override
+        public synchronized void force() throws IOException {
+            forces.incrementAndGet();
+            super.force();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("messages", ".log");
+        Files.delete(logFile);
+        log = new CountingLog(logFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.close();
+        Files.deleteIfExists(logFile);
+    }
+
+    private Message createMessage(int i) {
+        Message msg = new Message();
+        msg.setRecipient("+27834557896");
+        msg.setMessage("Message number " + i);
+        msg.setStatus("sent");
+        return msg;
+    }
+
+    // Test 1: Future completes once the message is in the log
+    @Test
+    public void testSubmitCompletesWhenDurable() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(log, 16, 1);
+        Message msg = createMessage(1);
+        writer.submit(msg).get();
+
+        assertEquals("Message should be in the log", 1, log.readAll().size());
+        assertEquals("Batch should have been forced", 1, log.forces.get());
+        writer.close();
+    }
+
+    // Test 2: Concurrent submits are grouped into fewer writes
+    @Test
+    public void testConcurrentSubmitsAreBatched() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(log, 50, 20);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            final int offset = t * 100;
+            Thread thread = new Thread(() -> {
+                List<CompletableFuture<Void>> local = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    local.add(writer.submit(createMessage(offset + i)));
+                }
+                synchronized (futures) {
+                    futures.addAll(local);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get();
+        }
+
+        assertEquals("All messages should be written", 800, log.readAll().size());
+        assertTrue("Writes should be batched", log.writes.get() < 800);
+        assertTrue("Batches should not exceed the maximum size", log.largestBatch <= 50);
+        assertEquals("Each batch should be forced once", log.writes.get(), log.forces.get());
+        writer.close();
+    }
+
+    // Test 3: Flush waits for earlier submits
+    @Test
+    public void testFlush() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(log, 1000, 10000);
+        for (int i = 0; i < 5; i++) {
+            writer.submit(createMessage(i));
+        }
+        writer.flush();
+
+        assertEquals("Flush should commit queued messages without waiting for the linger time", 5, log.readAll().size());
+        writer.close();
+    }
+
+    // Test 4: Close drains the queue and rejects new messages
+    @Test
+    public void testClose() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(log, 1000, 10000);
+        CompletableFuture<Void> pending = writer.submit(createMessage(1));
+        writer.close();
+
+        assertTrue("Pending message should be committed on close", pending.isDone() && !pending.isCompletedExceptionally());
+        assertEquals("Pending message should be in the log", 1, log.readAll().size());
+        assertTrue("Submits after close should fail", writer.submit(createMessage(2)).isCompletedExceptionally());
+    }
+
+    // Test 5: Invalid settings are rejected
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        new GroupCommitWriter(log, 0, 1);
+    }
+}
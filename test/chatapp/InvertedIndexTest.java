@@ -0,0 +1,92 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import java.util.Arrays;
+
+public class InvertedIndexTest {
+
+    private InvertedIndex index;
+
+    @Before
+    public void setUp() {
+        index = new InvertedIndex();
+        index.add(0, "Did you get the cake?");
+        index.add(1, "Where are you? You are late! I have asked you to be on time.");
+        index.add(2, "Yohoooo, I am at your gate.");
+        index.add(3, "It is dinner time!");
+        index.add(200, "Cake for dinner");
+    }
+
+    // Test 1: Single words, ignoring case and punctuation
+    @Test
+    public void testSingleWord() {
+        assertArrayEquals("cake appears in two messages", new int[] {0, 200}, index.search("Cake"));
+        assertArrayEquals("Punctuation in the query is ignored", new int[] {0, 200}, index.search("cake?"));
+        assertArrayEquals("Unknown word finds nothing", new int[0], index.search("pizza"));
+    }
+
+    // Test 2: AND and OR
+    @Test
+    public void testAndOr() {
+        assertArrayEquals("Both words must match", new int[] {200}, index.search("cake dinner"));
+        assertArrayEquals("Either group may match", new int[] {1, 3, 200}, index.search("late OR dinner"));
+        assertArrayEquals("AND binds tighter than OR", new int[] {2, 200}, index.search("cake dinner OR gate"));
+    }
+
+    // Test 3: Prefix queries
+    @Test
+    public void testPrefix() {
+        assertArrayEquals("you* covers you and your", new int[] {0, 1, 2}, index.search("you*"));
+        assertArrayEquals("Prefix can be combined with words", new int[] {3}, index.search("tim* dinner is"));
+    }
+
+    // Test 4: Removed ordinals disappear, before and after compaction
+    @Test
+    public void testRemoveAndCompact() {
+        index.remove(0);
+        assertArrayEquals("Removed message should not match", new int[] {200}, index.search("cake"));
+        int tokens = index.getTokenCount();
+        index.compact();
+        assertArrayEquals("Compaction keeps live matches", new int[] {200}, index.search("cake"));
+        assertTrue("Tokens only in removed messages should go", index.getTokenCount() < tokens);
+        assertEquals("Nothing should be pending removal", 0, index.getDeletedCount());
+    }
+
+    // Test 5: Large gaps between ordinals survive varint encoding
+    @Test
+    public void testLargeGaps() {
+        InvertedIndex sparse = new InvertedIndex();
+        sparse.add(5, "hello");
+        sparse.add(300000, "hello");
+        sparse.add(Integer.MAX_VALUE - 1, "hello world");
+        assertEquals("All three should decode", "[5, 300000, 2147483646]", Arrays.toString(sparse.search("hello")));
+    }
+
+    // Test 6: Ordinals must increase
+    @Test(expected = IllegalArgumentException.class)
+    public void testOrdinalsMustIncrease() {
+        index.add(1, "again");
+    }
+
+    // Test 7: Manager content search follows adds and deletes
+    @Test
+    public void testManagerContentSearch() {
+        ChatAppArrayManager manager = new ChatAppArrayManager();
+        Message first = new Message();
+        first.setRecipient("+27834557896");
+        first.setMessage("Did you get the cake?");
+        Message second = new Message();
+        second.setRecipient("0838884567");
+        second.setMessage("Cake for dinner");
+        manager.addToSentMessages(first);
+        manager.addToStoredMessages(second);
+
+        assertEquals("Both messages mention cake", 2, manager.searchMessagesByContent("cake").size());
+        manager.deleteMessageByHash(first.getMessageHash());
+        assertEquals("Deleted message should not be found", 1, manager.searchMessagesByContent("cake").size());
+        assertSame("Remaining match is the stored message", second, manager.searchMessagesByContent("cak*").get(0));
+        assertTrue("Blank query finds nothing", manager.searchMessagesByContent("  ").isEmpty());
+    }
+}
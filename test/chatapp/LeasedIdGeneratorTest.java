@@ -0,0 +1,209 @@
+package chatapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+public class LeasedIdGeneratorTest {
+
+    private Path leaseFile;
+
+    @Before
+    public void setUp() throws IOException {
+        leaseFile = Files.createTempFile("message-ids", ".lease");
+        Files.delete(leaseFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(leaseFile);
+        Files.deleteIfExists(LeasedIdGenerator.usedFileFor(leaseFile));
+    }
+
+    // Test 1: IDs are valid 10-digit message IDs carrying the node digit
+    @Test
+    public void testIdFormat() {
+        LeasedIdGenerator generator = new LeasedIdGenerator(7, leaseFile);
+        for (int i = 0; i < 1000; i++) {
+            String id = String.valueOf(generator.nextId());
+            assertTrue("Generated ID should be valid: " + id, Message.isValidMessageID(id));
+            assertEquals("Last digit should be the node", '7', id.charAt(9));
+        }
+    }
+
+    // Test 2: IDs keep increasing across many leases
+    @Test
+    public void testIdsIncreaseAcrossLeases() {
+        LeasedIdGenerator generator = new LeasedIdGenerator(0, leaseFile, 10);
+        long previous = 0;
+        for (int i = 0; i < 500; i++) {
+            long id = generator.nextId();
+            assertTrue("IDs should keep increasing", id > previous);
+            previous = id;
+        }
+    }
+
+    // Test 3: After a restart no ID handed out by the previous run is repeated
+    @Test
+    public void testRestartDoesNotRepeatIds() {
+        LeasedIdGenerator first = new LeasedIdGenerator(0, leaseFile, 100);
+        long last = 0;
+        for (int i = 0; i < 150; i++) {
+            last = first.nextId();
+        }
+        LeasedIdGenerator second = new LeasedIdGenerator(0, leaseFile, 100);
+        assertTrue("ID after a restart should be newer than any earlier one", second.nextId() > last);
+    }
+
+    // Test 4: Different nodes never produce the same ID
+    @Test
+    public void testNodesDoNotCollide() throws IOException {
+        Path otherLease = Files.createTempFile("message-ids", ".lease");
+        Files.delete(otherLease);
+        try {
+            LeasedIdGenerator first = new LeasedIdGenerator(1, leaseFile);
+            LeasedIdGenerator second = new LeasedIdGenerator(2, otherLease);
+            for (int i = 0; i < 500; i++) {
+                assertTrue("Nodes should not share IDs", first.nextId() != second.nextId());
+            }
+        } finally {
+            Files.deleteIfExists(otherLease);
+        }
+    }
+
+    // Test 5: Many threads sharing one generator never see a duplicate
+    @Test
+    public void testConcurrentUniqueness() throws InterruptedException {
+        final LeasedIdGenerator generator = new LeasedIdGenerator(3, leaseFile);
+        final int threads = 8;
+        final int perThread = 50000;
+        final long[][] results = new long[threads][perThread];
+
+        Thread[] workers = new Thread[threads];
+        long started = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final long[] out = results[t];
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    out[i] = generator.nextId();
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsedNanos = System.nanoTime() - started;
+
+        long[] all = new long[threads * perThread];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(results[t], 0, all, t * perThread, perThread);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertTrue("Duplicate ID generated: " + all[i], all[i] != all[i - 1]);
+        }
+        double perSecond = all.length / (elapsedNanos / 1e9);
+        assertTrue("Generator should manage at least 100k IDs per second, got " + (long) perSecond, perSecond > 100000);
+    }
+
+    // Test 6: Node number is checked
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNode() {
+        new LeasedIdGenerator(LeasedIdGenerator.NODES, leaseFile);
+    }
+
+    // Test 7: Running out of IDs fails instead of wrapping around to used ones
+    @Test
+    public void testExhaustedNodeDoesNotWrap() throws IOException {
+        long start = LeasedIdGenerator.MAX_SEQUENCE - 25;
+        Files.write(leaseFile, Long.toString(start).getBytes(StandardCharsets.US_ASCII));
+        LeasedIdGenerator generator = new LeasedIdGenerator(9, leaseFile, 10);
+
+        long previous = 0;
+        for (int i = 0; i < 25; i++) {
+            long id = generator.nextId();
+            assertTrue("IDs should keep increasing up to the end", id > previous);
+            previous = id;
+        }
+        assertEquals("Last ID should be the largest 10-digit ID", 9999999999L, previous);
+        for (int i = 0; i < 2; i++) {
+            try {
+                generator.nextId();
+                fail("Generator should refuse to wrap around");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+        try {
+            new LeasedIdGenerator(9, leaseFile, 10).nextId();
+            fail("A restarted generator should still refuse");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    // Test 8: IDs already in a store, deleted ones included, are never handed out, also after a restart
+    @Test
+    public void testSkipsIdsInStore() throws IOException {
+        Path logFile = Files.createTempFile("messages", ".log");
+        Files.delete(logFile);
+        MessageLog log = new MessageLog(logFile);
+        long recipient = PhoneNumberCodec.encode("+27834557896");
+        long[] stored = {1000000003L, 1000000013L, 1000000053L, 1000000203L, 1000000004L, 1000000033L};
+        try {
+            for (long id : stored) {
+                log.append(Message.restore(id, recipient, "Stored " + id, 1, "00:0:STORED", "sent", 0));
+            }
+            assertTrue("Message should be deleted", log.delete(1000000033L));
+
+            Set<Long> used = new HashSet<>();
+            for (long id : stored) {
+                used.add(id);
+            }
+            LeasedIdGenerator generator = new LeasedIdGenerator(3, leaseFile, 10, () -> {
+                try {
+                    return log.recordedIds();
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+            assertEquals("First free ID should be taken", 1000000023L, generator.nextId());
+            for (int i = 0; i < 10; i++) {
+                long id = generator.nextId();
+                assertFalse("Stored ID should be skipped: " + id, used.contains(id));
+            }
+
+            LeasedIdGenerator restarted = new LeasedIdGenerator(3, leaseFile, 10, () -> {
+                throw new AssertionError("The store should only be read when the lease is created");
+            });
+            for (int i = 0; i < 30; i++) {
+                long id = restarted.nextId();
+                assertFalse("Stored ID should be skipped after a restart: " + id, used.contains(id));
+            }
+        } finally {
+            log.close();
+            Files.deleteIfExists(logFile);
+            Files.deleteIfExists(MessageLog.checkpointPathFor(logFile));
+        }
+    }
+
+    // Test 9: IDs of other nodes and outside the range do not affect a node
+    @Test
+    public void testOtherNodesIdsIgnored() {
+        LeasedIdGenerator generator = new LeasedIdGenerator(0, leaseFile, 10,
+            () -> LongStream.of(1000000001L, 1000000019L, 42L, 99999999999L));
+        assertEquals("Nothing should be skipped", 1000000000L, generator.nextId());
+        assertEquals("Nothing should be skipped", 1000000010L, generator.nextId());
+        assertFalse("No used file should be written", Files.exists(LeasedIdGenerator.usedFileFor(leaseFile)));
+    }
+}
@@ -0,0 +1,79 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+public class LogCompactorTest {
+
+    private Path logFile;
+    private MessageLog log;
+    private LogCompactor compactor;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("messages", ".log");
+        Files.delete(logFile);
+        log = new MessageLog(logFile);
+        compactor = new LogCompactor(log, 0.5, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        compactor.close();
+        log.close();
+        Files.deleteIfExists(logFile);
+    }
+
+    private ArrayList<Message> appendMessages(int count) throws IOException {
+        ArrayList<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message msg = new Message();
+            msg.setRecipient("+27834557896");
+            msg.setMessage("Message " + i);
+            msg.setStatus("sent");
+            messages.add(msg);
+        }
+        log.appendAll(messages);
+        return messages;
+    }
+
+    // Test 1: A few deletes are left for later
+    @Test
+    public void testSmallLogNotCompacted() throws IOException {
+        ArrayList<Message> messages = appendMessages(4);
+        log.delete(messages.get(0).getMessageIdValue());
+        log.delete(messages.get(1).getMessageIdValue());
+        assertFalse("Too few dead records to be worth a rewrite", compactor.needsCompaction());
+    }
+
+    // Test 2: Passing the dead ratio triggers a background compaction
+    @Test
+    public void testCompactsInBackground() throws Exception {
+        ArrayList<Message> messages = appendMessages(100);
+        for (int i = 0; i < 40; i++) {
+            log.delete(messages.get(i).getMessageIdValue());
+        }
+        assertTrue("80 of 140 records are dead", compactor.needsCompaction());
+
+        compactor.requestCheck();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (log.getDeadRecords() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Compactor should have removed dead records", 0, log.getDeadRecords());
+        assertEquals("Live messages should remain", 60, log.readAll().size());
+        assertEquals("Only live records should be in the file", 60, Files.readAllLines(logFile).size());
+    }
+
+    // Test 3: Ratios outside (0, 1] are rejected
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRatio() {
+        new LogCompactor(log, 0, 0);
+    }
+}
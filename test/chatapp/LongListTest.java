@@ -0,0 +1,68 @@
+package chatapp;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.List;
+
+public class LongListTest {
+
+    // Test 1: Adding past the initial capacity keeps every value in order
+    @Test
+    public void testAddAndGrow() {
+        LongList list = new LongList(2);
+        for (long i = 0; i < 100; i++) {
+            list.add(1000000000L + i);
+        }
+        assertEquals("List should hold 100 values", 100, list.size());
+        assertEquals("Values should keep their order", 1000000042L, list.get(42));
+    }
+
+    // Test 2: Removing by value and by index
+    @Test
+    public void testRemove() {
+        LongList list = new LongList();
+        list.add(5);
+        list.add(7);
+        list.add(9);
+
+        assertTrue("Existing value should be removed", list.remove(7));
+        assertFalse("Missing value should not be removed", list.remove(8));
+        assertEquals("Removed value should be returned", 5, list.removeAt(0));
+        assertEquals("Only one value should remain", 1, list.size());
+        assertEquals("Remaining value should be 9", 9, list.get(0));
+    }
+
+    // Test 3: String view formats values on demand
+    @Test
+    public void testStringView() {
+        LongList list = new LongList();
+        list.add(8054271000L);
+        List<String> strings = list.asStrings();
+
+        assertEquals("View should format the value", "8054271000", strings.get(0));
+        assertTrue("View should find formatted values", strings.contains("8054271000"));
+        assertFalse("View should not match other text", strings.contains("not a number"));
+        list.add(8054271001L);
+        assertEquals("View should follow the list", 2, strings.size());
+    }
+
+    // Test 4: Truncating keeps the values before the new size
+    @Test
+    public void testTruncate() {
+        LongList list = new LongList();
+        list.add(5);
+        list.add(7);
+        list.add(9);
+        list.truncate(1);
+        assertEquals("One value should remain", 1, list.size());
+        assertEquals("First value should be kept", 5, list.get(0));
+        list.add(11);
+        assertEquals("Adding should continue after the kept values", 11, list.get(1));
+    }
+
+    // Test 5: Out of range index
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfRange() {
+        new LongList().get(0);
+    }
+}
@@ -0,0 +1,158 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class MappedMessageStoreTest {
+
+    private Path storeFile;
+
+    @Before
+    public void setUp() throws IOException {
+        storeFile = Files.createTempFile("messages", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(storeFile);
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(storeFile, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Test 1: Records in the log format are found and decoded on request
+    @Test
+    public void testReadLogRecords() throws IOException {
+        write("{\"messageID\":\"8054271000\",\"messageCount\":12,\"recipient\":\"+27733330029\",\"message\":\"Caf\u00e9 at 5?\",\"messageHash\":\"80:12:CAF\u00c9AT5?\",\"status\":\"sent\"}\n"
+            + "{\"messageID\":\"8054271001\",\"messageCount\":13,\"recipient\":\"+27733330029\",\"message\":\"Second\",\"messageHash\":\"80:13:SECONDSECOND\",\"status\":\"stored\"}\n");
+
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile)) {
+            assertEquals("Store should have 2 records", 2, store.size());
+            MessageView first = store.get(0);
+            assertEquals("ID should be decoded", "8054271000", first.getMessageID());
+            assertEquals("UTF-8 text should be decoded", "Caf\u00e9 at 5?", first.getMessage());
+            assertEquals("Count should be parsed", 12, first.getMessageCount());
+            assertEquals("Status should be decoded", "stored", store.get(1).getStatus());
+        }
+    }
+
+    // Test 2: Pretty-printed array files are also supported
+    @Test
+    public void testReadArrayFile() throws IOException {
+        write("[\n  {\n    \"messageID\": \"8054271000\",\n    \"recipient\": \"+27733330029\",\n"
+            + "    \"message\": \"Hey there\",\n    \"status\": \"sent\"\n  },\n"
+            + "  {\n    \"messageID\": \"8054271001\",\n    \"recipient\": \"+27733330029\",\n"
+            + "    \"message\": \"With } brace\",\n    \"status\": \"sent\"\n  }\n]");
+
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile)) {
+            assertEquals("Array should have 2 records", 2, store.size());
+            assertEquals("Braces inside strings should not end the record", "With } brace", store.get(1).getMessage());
+        }
+    }
+
+    // Test 3: Escaped values and unknown fields
+    @Test
+    public void testEscapesAndUnknownFields() throws IOException {
+        write("{\"extra\":{\"message\":\"nested\"},\"messageID\":\"8054271000\",\"recipient\":\"+27733330029\","
+            + "\"message\":\"Say \\\"hi\\\"\\nplease\",\"status\":\"sent\"}\n");
+
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile)) {
+            MessageView view = store.get(0);
+            assertEquals("Top-level field should be used, escapes decoded", "Say \"hi\"\nplease", view.getMessage());
+            assertEquals("Missing field should read as empty", "", view.getMessageHash());
+        }
+    }
+
+    // Test 4: Views convert to full messages
+    @Test
+    public void testToMessage() throws IOException {
+        write("{\"messageID\":\"8054271000\",\"messageCount\":3,\"recipient\":\"+27733330029\",\"message\":\"Hello\",\"messageHash\":\"80:3:HELLOHELLO\",\"status\":\"sent\"}\n");
+
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile)) {
+            Message message = store.get(0).toMessage();
+            assertEquals("Message ID should match", "8054271000", message.getMessageID());
+            assertEquals("Hash should match", "80:3:HELLOHELLO", message.getMessageHash());
+            assertEquals("Count should match", 3, message.getMessageCount());
+        }
+    }
+
+    // Test 5: Incomplete tail records are ignored and iteration is lazy
+    @Test
+    public void testTornTailAndIteration() throws IOException {
+        write("{\"messageID\":\"8054271000\",\"message\":\"One\"}\n{\"messageID\":\"8054271001\",\"message\":\"Two\"}\n{\"messageID\":\"805");
+
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile)) {
+            ArrayList<String> texts = new ArrayList<>();
+            for (MessageView view : store) {
+                texts.add(view.getMessage());
+            }
+            assertEquals("Only complete records should be returned", 2, texts.size());
+            assertEquals("Order should be preserved", "Two", texts.get(1));
+        }
+    }
+
+    // Test 6: Missing and empty files
+    @Test
+    public void testEmptyStores() throws IOException {
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile)) {
+            assertEquals("Empty file should have no records", 0, store.size());
+        }
+        Files.delete(storeFile);
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile)) {
+            assertEquals("Missing file should have no records", 0, store.size());
+        }
+    }
+
+    // Test 7: Out of range index
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfRange() throws IOException {
+        write("{\"messageID\":\"8054271000\"}\n");
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile)) {
+            store.get(1);
+        }
+    }
+
+    // Test 8: Deleted messages and their tombstones are left out
+    @Test
+    public void testDeletedIdsSkipped() throws IOException {
+        write("{\"messageID\":\"8054271000\",\"recipient\":\"+27733330029\",\"message\":\"Gone\",\"status\":\"sent\"}\n"
+            + "{\"messageID\":\"8054271001\",\"recipient\":\"+27733330029\",\"message\":\"Kept\",\"status\":\"sent\"}\n"
+            + "{\"messageID\":\"8054271000\",\"status\":\"deleted\"}\n");
+
+        try (MappedMessageStore store = MappedMessageStore.open(storeFile, Collections.singleton(8054271000L))) {
+            assertEquals("Only the live record should be indexed", 1, store.size());
+            assertEquals("Live record should be kept", "Kept", store.get(0).getMessage());
+        }
+    }
+
+    // Test 9: Several segment files read as one store, in order
+    @Test
+    public void testSegmentsReadInOrder() throws IOException {
+        write("{\"messageID\":\"8054271000\",\"recipient\":\"+27733330029\",\"message\":\"First\",\"status\":\"sent\"}\n");
+        Path empty = Files.createTempFile("messages", ".log");
+        Path second = Files.createTempFile("messages", ".log");
+        try {
+            Files.write(second, ("{\"messageID\":\"8054271001\",\"recipient\":\"+27733330029\",\"message\":\"Second\",\"status\":\"sent\"}\n")
+                .getBytes(StandardCharsets.UTF_8));
+            try (MappedMessageStore store = MappedMessageStore.open(Arrays.asList(storeFile, empty, second),
+                    Collections.emptySet())) {
+                assertEquals("Records from every segment should be indexed", 2, store.size());
+                assertEquals("First segment should come first", "First", store.get(0).getMessage());
+                assertEquals("Empty segment should be passed over", "Second", store.get(1).getMessage());
+            }
+        } finally {
+            Files.deleteIfExists(empty);
+            Files.deleteIfExists(second);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package chatapp;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class MessageJsonReaderTest {
+
+    private static final String ARRAY_JSON =
+        "[\n" +
+        "  {\n" +
+        "    \"messageID\": \"8054271000\",\n" +
+        "    \"messageCount\": 5,\n" +
+        "    \"recipient\": \"+27733330029\",\n" +
+        "    \"message\": \"Hey there\",\n" +
+        "    \"messageHash\": \"80:5:HEYTHERE\",\n" +
+        "    \"status\": \"sent\",\n" +
+        "    \"timestamp\": \"2025-11-21 15:08:39\"\n" +
+        "  },\n" +
+        "  {\n" +
+        "    \"messageID\": \"4207507670\",\n" +
+        "    \"messageCount\": 7,\n" +
+        "    \"recipient\": \"+27733330029\",\n" +
+        "    \"message\": \"Stored for later\",\n" +
+        "    \"messageHash\": \"42:7:STOREDLATER\",\n" +
+        "    \"status\": \"stored\",\n" +
+        "    \"timestamp\": \"2025-11-21 15:08:39\"\n" +
+        "  }\n" +
+        "]";
+
+    private List<Message> readAll(String json) {
+        MessageJsonReader reader = new MessageJsonReader(new StringReader(json));
+        List<Message> messages = new ArrayList<>();
+        while (reader.hasNext()) {
+            messages.add(reader.next());
+        }
+        return messages;
+    }
+
+    // Test 1: Reads the pretty-printed messages.json array
+    @Test
+    public void testReadArray() {
+        List<Message> messages = readAll(ARRAY_JSON);
+
+        assertEquals("Should read 2 messages", 2, messages.size());
+        Message first = messages.get(0);
+        assertEquals("Message ID should match", "8054271000", first.getMessageID());
+        assertEquals("Message count should match", 5, first.getMessageCount());
+        assertEquals("Recipient should match", "+27733330029", first.getRecipient());
+        assertEquals("Message text should match", "Hey there", first.getMessage());
+        assertEquals("Hash should be the stored one", "80:5:HEYTHERE", first.getMessageHash());
+        assertEquals("Status should match", "stored", messages.get(1).getStatus());
+    }
+
+    // Test 2: Reads one record per line
+    @Test
+    public void testReadLines() {
+        String lines =
+            "{\"messageID\":\"8054271000\",\"messageCount\":1,\"recipient\":\"+27733330029\",\"message\":\"One\",\"messageHash\":\"80:1:ONEONE\",\"status\":\"sent\"}\n" +
+            "{\"messageID\":\"8054271001\",\"messageCount\":2,\"recipient\":\"+27733330029\",\"message\":\"Two\",\"messageHash\":\"80:2:TWOTWO\",\"status\":\"sent\"}\n";
+        List<Message> messages = readAll(lines);
+
+        assertEquals("Should read 2 messages", 2, messages.size());
+        assertEquals("Second message should be read", "Two", messages.get(1).getMessage());
+    }
+
+    // Test 3: Escape sequences are decoded
+    @Test
+    public void testEscapes() {
+        String json = "{\"messageID\":\"8054271000\",\"recipient\":\"+27733330029\","
+            + "\"message\":\"Say \\\"hi\\\"\\n\\tto \\\\ everyone \\u00e9\",\"status\":\"sent\"}";
+        List<Message> messages = readAll(json);
+
+        assertEquals("Escaped text should be decoded", "Say \"hi\"\n\tto \\ everyone \u00e9", messages.get(0).getMessage());
+    }
+
+    // Test 4: Unknown fields, nested values and literals are skipped
+    @Test
+    public void testUnknownFieldsSkipped() {
+        String json = "{\"extra\":{\"nested\":[1,2,{\"a\":\"}\"}]},\"flag\":true,\"none\":null,"
+            + "\"messageID\":\"8054271000\",\"recipient\":\"+27733330029\",\"message\":\"Hello\",\"status\":\"sent\"}";
+        List<Message> messages = readAll(json);
+
+        assertEquals("Message should still be read", 1, messages.size());
+        assertEquals("Fields after unknown values should be read", "Hello", messages.get(0).getMessage());
+    }
+
+    // Test 5: Records that are not valid messages are skipped
+    @Test
+    public void testInvalidRecordsSkipped() {
+        String json = "[{\"messageID\":\"8054271000\",\"recipient\":\"+277333330039\",\"message\":\"Bad number\"},"
+            + "{\"messageID\":\"123\",\"recipient\":\"+27733330029\",\"message\":\"Bad ID\"},"
+            + "{\"messageID\":\"8054271002\",\"recipient\":\"+27733330029\",\"message\":\"Good\"}]";
+        MessageJsonReader reader = new MessageJsonReader(new StringReader(json));
+        List<Message> messages = new ArrayList<>();
+        reader.forEachRemaining(messages::add);
+
+        assertEquals("Only the valid message should be read", 1, messages.size());
+        assertEquals("Skipped records should be counted", 2, reader.getSkippedRecords());
+    }
+
+    // Test 6: Stream API
+    @Test
+    public void testStream() {
+        List<String> ids = new MessageJsonReader(new StringReader(ARRAY_JSON)).stream()
+            .map(Message::getMessageID)
+            .collect(Collectors.toList());
+
+        assertEquals("Stream should return both IDs in order", "8054271000", ids.get(0));
+        assertEquals("Stream should return both IDs in order", "4207507670", ids.get(1));
+    }
+
+    // Test 7: Empty input
+    @Test
+    public void testEmptyInput() {
+        assertTrue("Empty array should have no messages", readAll("[]").isEmpty());
+        assertTrue("Empty input should have no messages", readAll("").isEmpty());
+    }
+
+    // Test 8: Malformed input is reported
+    @Test(expected = UncheckedIOException.class)
+    public void testMalformedInput() {
+        readAll("[{\"messageID\":\"8054271000\",\"message\":\"never closed");
+    }
+}
@@ -0,0 +1,526 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.DirectoryStream;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class MessageLogTest {
+
+    private Path logFile;
+    private MessageLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("messages", ".log");
+        Files.delete(logFile);
+        log = new MessageLog(logFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.close();
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(MessageLog.checkpointPathFor(logFile));
+    }
+
+    private Message createMessage(String text, String status) {
+        Message msg = new Message();
+        msg.setRecipient("+27834557896");
+        msg.setMessage(text);
+        msg.setStatus(status);
+        return msg;
+    }
+
+    // Test 1: Empty log reads as no messages
+    @Test
+    public void testReadMissingLog() throws IOException {
+        assertFalse("Log file should not exist yet", log.exists());
+        assertTrue("Missing log should read as empty", log.readAll().isEmpty());
+    }
+
+    // Test 2: Appended messages are replayed in order
+    @Test
+    public void testAppendAndReplay() throws IOException {
+        Message first = createMessage("Did you get the cake?", "sent");
+        Message second = createMessage("It is dinner time !", "stored");
+        log.append(first);
+        log.append(second);
+
+        ArrayList<Message> messages = log.readAll();
+        assertEquals("Log should contain 2 messages", 2, messages.size());
+        assertEquals("First message ID should match", first.getMessageID(), messages.get(0).getMessageID());
+        assertEquals("Second message text should match", "It is dinner time !", messages.get(1).getMessage());
+        assertEquals("Status should be preserved", "stored", messages.get(1).getStatus());
+        assertEquals("Hash should be preserved", second.getMessageHash(), messages.get(1).getMessageHash());
+    }
+
+    // Test 3: Each append only adds one line to the file
+    @Test
+    public void testAppendDoesNotRewrite() throws IOException {
+        log.append(createMessage("Did you get the cake?", "sent"));
+        String firstRecord = Files.readAllLines(logFile).get(0);
+        log.append(createMessage("Did you get the cake?", "sent"));
+
+        assertEquals("First record should be left as written", firstRecord, Files.readAllLines(logFile).get(0));
+        assertEquals("Log should have one line per message", 2, Files.readAllLines(logFile).size());
+    }
+
+    // Test 4: Special characters survive the round trip
+    @Test
+    public void testEscapedCharacters() throws IOException {
+        log.append(createMessage("Line one\nLine \"two\"\tend\\", "sent"));
+
+        ArrayList<Message> messages = log.readAll();
+        assertEquals("Log should keep one line per record", 1, Files.readAllLines(logFile).size());
+        assertEquals("Escaped text should round trip", "Line one\nLine \"two\"\tend\\", messages.get(0).getMessage());
+    }
+
+    // Test 5: Rewrite replaces the log contents
+    @Test
+    public void testRewrite() throws IOException {
+        Message keep = createMessage("Keep me", "sent");
+        log.appendAll(Arrays.asList(createMessage("Delete me", "sent"), keep));
+        log.rewrite(Arrays.asList(keep));
+
+        ArrayList<Message> messages = log.readAll();
+        assertEquals("Only the kept message should remain", 1, messages.size());
+        assertEquals("Kept message should be intact", "Keep me", messages.get(0).getMessage());
+
+        log.append(createMessage("After rewrite", "stored"));
+        assertEquals("Appends should continue after a rewrite", 2, log.readAll().size());
+    }
+
+    // Test 6: Recovery cuts off a record torn by a crash
+    @Test
+    public void testRecoverTornTail() throws IOException {
+        log.append(createMessage("Complete", "sent"));
+        long intact = Files.size(logFile);
+        byte[] torn = "{\"messageID\":\"12".getBytes(StandardCharsets.UTF_8);
+        Files.write(logFile, torn, StandardOpenOption.APPEND);
+
+        MessageLog.Recovery recovery = log.recover();
+        assertEquals("Torn bytes should be reported", torn.length, recovery.getTruncatedBytes());
+        assertEquals("Log should be cut back to the last full record", intact, Files.size(logFile));
+        assertEquals("Complete record should still be readable", "Complete", log.readAll().get(0).getMessage());
+    }
+
+    // Test 7: After a clean close the next recovery has nothing to scan
+    @Test
+    public void testCheckpointBoundsRecovery() throws IOException {
+        log.recover();
+        log.appendAll(Arrays.asList(createMessage("One", "sent"), createMessage("Two", "sent")));
+        log.close();
+        assertEquals("Clean close should leave nothing to scan", 0, log.recover().getScannedBytes());
+
+        long checkpointed = Files.size(logFile);
+        log.append(createMessage("Three", "sent"));
+        log.force();
+
+        // Restart without closing, as after a crash
+        MessageLog restarted = new MessageLog(logFile);
+        MessageLog.Recovery recovery = restarted.recover();
+        restarted.close();
+        assertEquals("Recovery should start at the checkpoint", checkpointed, recovery.getCheckpoint());
+        assertEquals("Only the record after the checkpoint is scanned",
+            Files.size(logFile) - checkpointed, recovery.getScannedBytes());
+        assertEquals("Nothing should be truncated", 0, recovery.getTruncatedBytes());
+    }
+
+    // Test 8: Rewrites go through a temp file that does not outlive them
+    @Test
+    public void testRewriteIsAtomic() throws IOException {
+        log.append(createMessage("Old", "sent"));
+        log.rewrite(Arrays.asList(createMessage("New", "sent")));
+
+        assertFalse("Temp file should be renamed away", Files.exists(AtomicFiles.tempFileFor(logFile)));
+        assertEquals("Log should hold the new contents", "New", log.readAll().get(0).getMessage());
+    }
+
+    // Test 9: Deleting appends a tombstone instead of rewriting the log
+    @Test
+    public void testDeleteAppendsTombstone() throws IOException {
+        Message gone = createMessage("Delete me", "sent");
+        log.appendAll(Arrays.asList(createMessage("Keep me", "sent"), gone));
+        long before = Files.size(logFile);
+
+        assertTrue("Delete should succeed", log.delete(gone.getMessageIdValue()));
+        assertFalse("Second delete should report nothing to do", log.delete(gone.getMessageIdValue()));
+        assertEquals("Tombstone should be one more line", 3, Files.readAllLines(logFile).size());
+        assertTrue("Log should only grow", Files.size(logFile) > before);
+
+        assertEquals("Deleted message should not be read", 1, log.readAll().size());
+        try (Stream<Message> messages = log.stream()) {
+            List<String> texts = messages.map(Message::getMessage).collect(Collectors.toList());
+            assertEquals("Stream should skip the deleted message", Arrays.asList("Keep me"), texts);
+        }
+    }
+
+    // Test 10: Compaction drops deleted records and their tombstones
+    @Test
+    public void testCompact() throws IOException {
+        ArrayList<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(createMessage("Message " + i, "sent"));
+        }
+        log.appendAll(messages);
+        for (int i = 0; i < 10; i += 2) {
+            log.delete(messages.get(i).getMessageIdValue());
+        }
+        assertEquals("Tombstones and deleted records are dead", 10, log.getDeadRecords());
+
+        assertTrue("Compaction should run", log.compact(0));
+        assertEquals("Only live records should remain", 5, Files.readAllLines(logFile).size());
+        assertEquals("Nothing should be dead after compaction", 0.0, log.getDeadRatio(), 0.0);
+        ArrayList<Message> live = log.readAll();
+        assertEquals("Order should be kept", "Message 1", live.get(0).getMessage());
+        assertEquals("Order should be kept", "Message 9", live.get(4).getMessage());
+        assertFalse("Nothing left to compact", log.compact(0));
+    }
+
+    // Test 11: Appends made while a throttled compaction runs are kept
+    @Test
+    public void testAppendDuringCompaction() throws Exception {
+        ArrayList<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            messages.add(createMessage("Message " + i, "sent"));
+        }
+        log.appendAll(messages);
+        log.delete(messages.get(0).getMessageIdValue());
+
+        // About 40 KB at 100 KB/s keeps the copy busy for a few hundred milliseconds
+        Thread compactor = new Thread(() -> {
+            try {
+                log.compact(100 * 1024);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        compactor.start();
+        Thread.sleep(50);
+        Message late = createMessage("Arrived during compaction", "stored");
+        log.append(late);
+        log.delete(messages.get(1).getMessageIdValue());
+        compactor.join();
+
+        ArrayList<Message> live = log.readAll();
+        assertEquals("Late append should survive", 199, live.size());
+        assertEquals("Late append should be last", late.getMessageID(), live.get(198).getMessageID());
+        assertTrue("Delete made during compaction should still apply", log.isDeleted(messages.get(1).getMessageIdValue()));
+    }
+
+    // Test 12: Tombstones are remembered across a restart through the checkpoint
+    @Test
+    public void testTombstonesSurviveRestart() throws IOException {
+        log.recover();
+        Message gone = createMessage("Delete me", "sent");
+        log.appendAll(Arrays.asList(gone, createMessage("Keep me", "sent")));
+        log.delete(gone.getMessageIdValue());
+        log.close();
+
+        MessageLog restarted = new MessageLog(logFile);
+        assertEquals("Clean restart should scan nothing", 0, restarted.recover().getScannedBytes());
+        assertTrue("Tombstone should be known without a full read", restarted.isDeleted(gone.getMessageIdValue()));
+        assertEquals("Dead records should be restored", 2, restarted.getDeadRecords());
+        restarted.close();
+    }
+
+    private MessageLog openSegmented(Path directory, long segmentBytes) {
+        return new MessageLog(directory.resolve("messages.log"), new JsonLineCodec(), segmentBytes, 0);
+    }
+
+    private static List<Message> createMessages(int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message msg = new Message();
+            msg.setRecipient("+27834557896");
+            msg.setMessage("Segment message " + i);
+            msg.setStatus("sent");
+            messages.add(msg);
+        }
+        return messages;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    // Test 13: A full log rolls over into indexed segments and still reads in order
+    @Test
+    public void testRollIntoSegments() throws IOException {
+        Path directory = Files.createTempDirectory("segments");
+        MessageLog segmented = openSegmented(directory, 2000);
+        try {
+            List<Message> messages = createMessages(60);
+            for (Message message : messages) {
+                segmented.append(message);
+            }
+
+            List<Path> segments = segmented.getSegmentPaths();
+            assertTrue("Log should have rolled more than once", segments.size() > 2);
+            for (Path segment : segments.subList(0, segments.size() - 1)) {
+                assertTrue("Sealed segment should have an index", Files.exists(MessageLog.indexPathFor(segment)));
+            }
+            List<String> ids = segmented.readAll().stream().map(Message::getMessageID).collect(Collectors.toList());
+            assertEquals("Every message should be read, oldest first",
+                messages.stream().map(Message::getMessageID).collect(Collectors.toList()), ids);
+        } finally {
+            segmented.close();
+            deleteDirectory(directory);
+        }
+    }
+
+    // Test 14: Lookups by ID go through the segment indexes and respect deletes
+    @Test
+    public void testFindAcrossSegments() throws IOException {
+        Path directory = Files.createTempDirectory("segments");
+        MessageLog segmented = openSegmented(directory, 4000);
+        try {
+            List<Message> messages = createMessages(200);
+            for (int i = 0; i < messages.size(); i += 20) {
+                segmented.appendAll(messages.subList(i, i + 20));
+            }
+            segmented.delete(messages.get(150).getMessageIdValue());
+
+            assertEquals("Message in the oldest segment", "Segment message 3",
+                segmented.find(messages.get(3).getMessageIdValue()).getMessage());
+            assertEquals("Message in the active file", "Segment message 199",
+                segmented.find(messages.get(199).getMessageIdValue()).getMessage());
+            assertNull("Deleted message should not be found", segmented.find(messages.get(150).getMessageIdValue()));
+            assertNull("Unknown ID should not be found", segmented.find(1000000000L));
+        } finally {
+            segmented.close();
+            deleteDirectory(directory);
+        }
+    }
+
+    // Test 15: Recovery counts every segment, and a lost index is rebuilt
+    @Test
+    public void testRecoverSegments() throws IOException {
+        Path directory = Files.createTempDirectory("segments");
+        MessageLog segmented = openSegmented(directory, 2000);
+        List<Message> messages = createMessages(40);
+        try {
+            segmented.recover();
+            segmented.appendAll(messages.subList(0, 20));
+            segmented.appendAll(messages.subList(20, 40));
+            segmented.delete(messages.get(0).getMessageIdValue());
+        } finally {
+            segmented.close();
+        }
+
+        Path first = openSegmented(directory, 2000).getSegmentPaths().get(0);
+        Files.delete(MessageLog.indexPathFor(first));
+        Files.delete(MessageLog.checkpointPathFor(directory.resolve("messages.log")));
+
+        MessageLog restarted = openSegmented(directory, 2000);
+        try {
+            restarted.recover();
+            assertEquals("Dead records should be counted across segments", 2, restarted.getDeadRecords());
+            assertEquals("Message in the segment that lost its index", "Segment message 5",
+                restarted.find(messages.get(5).getMessageIdValue()).getMessage());
+            assertTrue("Index should be written again", Files.exists(MessageLog.indexPathFor(first)));
+            assertEquals("Every live message should be read", 39, restarted.readAll().size());
+        } finally {
+            restarted.close();
+            deleteDirectory(directory);
+        }
+    }
+
+    // Test 16: Compaction rewrites only the segments holding deleted records
+    @Test
+    public void testCompactSegments() throws IOException {
+        Path directory = Files.createTempDirectory("segments");
+        MessageLog segmented = openSegmented(directory, 2000);
+        try {
+            List<Message> messages = createMessages(60);
+            for (Message message : messages) {
+                segmented.append(message);
+            }
+            List<Path> before = segmented.getSegmentPaths();
+            long untouchedSize = Files.size(before.get(1));
+            List<Message> oldest;
+            try (Stream<Message> records = new JsonLineCodec().read(before.get(0))) {
+                oldest = records.collect(Collectors.toList());
+            }
+            for (Message message : oldest) {
+                segmented.delete(message.getMessageIdValue());
+            }
+
+            assertTrue("Compaction should run", segmented.compact(0));
+            assertFalse("Emptied segment should be removed", Files.exists(before.get(0)));
+            assertFalse("Index of the emptied segment should be removed", Files.exists(MessageLog.indexPathFor(before.get(0))));
+            assertEquals("Segments without deletes should be left alone", untouchedSize, Files.size(before.get(1)));
+            assertEquals("Tombstones should be dropped", 0, segmented.getDeadRecords());
+            assertEquals("Live messages should remain", 60 - oldest.size(), segmented.readAll().size());
+        } finally {
+            segmented.close();
+            deleteDirectory(directory);
+        }
+    }
+
+    // Test 17: Status records change the status seen by every read, also after a restart
+    @Test
+    public void testStatusRecordsFoldIntoMessages() throws IOException {
+        log.recover();
+        Message first = createMessage("Did you get the cake?", "sent");
+        Message second = createMessage("It is dinner time !", "sent");
+        log.appendAll(Arrays.asList(first, second));
+        log.appendAll(Arrays.asList(Message.statusRecord(first.getMessageIdValue(), Message.DELIVERED_STATUS),
+            Message.statusRecord(second.getMessageIdValue(), Message.DELIVERED_STATUS),
+            Message.statusRecord(first.getMessageIdValue(), Message.READ_STATUS)));
+        assertEquals("Status records are small appends", 5, Files.readAllLines(logFile).size());
+
+        ArrayList<Message> messages = log.readAll();
+        assertEquals("Status records should not read as messages", 2, messages.size());
+        assertEquals("Latest status should win", "read", messages.get(0).getStatus());
+        assertEquals("Delivered should be applied", "delivered", messages.get(1).getStatus());
+        assertEquals("Text should be kept", "Did you get the cake?", messages.get(0).getMessage());
+        assertEquals("Lookup should apply the status", "read", log.find(first.getMessageIdValue()).getStatus());
+        try (Stream<Message> stream = log.stream()) {
+            assertEquals("Stream should apply statuses", Arrays.asList("read", "delivered"),
+                stream.map(Message::getStatus).collect(Collectors.toList()));
+        }
+        try (MappedMessageStore mapped = MappedMessageStore.open(log.getSegmentPaths(), log.getDeletedIds(),
+                log.getStatusUpdates())) {
+            assertEquals("Mapped reads should skip status records", 2, mapped.size());
+            assertEquals("Mapped reads should apply statuses", "read", mapped.get(0).getStatus());
+        }
+        log.close();
+
+        MessageLog restarted = new MessageLog(logFile);
+        assertEquals("Clean restart should scan nothing", 0, restarted.recover().getScannedBytes());
+        assertEquals("Statuses should be known from the checkpoint", "read",
+            restarted.getStatusUpdates().get(first.getMessageIdValue()));
+        assertEquals("Status should survive the restart", "delivered",
+            restarted.find(second.getMessageIdValue()).getStatus());
+        restarted.close();
+    }
+
+    // Test 18: Compaction writes statuses into the messages and drops the status records
+    @Test
+    public void testCompactFoldsStatusRecords() throws IOException {
+        Path directory = Files.createTempDirectory("segments");
+        MessageLog segmented = openSegmented(directory, 2000);
+        try {
+            List<Message> messages = createMessages(40);
+            for (Message message : messages) {
+                segmented.append(message);
+            }
+            List<Message> updates = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                updates.add(Message.statusRecord(messages.get(i).getMessageIdValue(), Message.READ_STATUS));
+            }
+            segmented.appendAll(updates);
+            assertEquals("Status records should count as dead", 10, segmented.getDeadRecords());
+
+            assertTrue("Compaction should run", segmented.compact(0));
+            assertEquals("Status records should be gone", 0, segmented.getDeadRecords());
+            assertTrue("Nothing should be left to fold", segmented.getStatusUpdates().isEmpty());
+            long records = 0;
+            for (Path segment : segmented.getSegmentPaths()) {
+                try (Stream<Message> stored = new JsonLineCodec().read(segment)) {
+                    records += stored.filter(message -> {
+                        assertFalse("No status record should be left", message.isStatusRecord());
+                        return true;
+                    }).count();
+                }
+            }
+            assertEquals("One record per message should be left", 40, records);
+            ArrayList<Message> read = segmented.readAll();
+            assertEquals("Messages should keep their order", messages.get(0).getMessageID(), read.get(0).getMessageID());
+            assertEquals("Status should be written into the message", "read", read.get(9).getStatus());
+            assertEquals("Other messages should keep theirs", "sent", read.get(10).getStatus());
+        } finally {
+            segmented.close();
+            deleteDirectory(directory);
+        }
+    }
+
+    // Test 19: Deleting an ID that was never stored appends no tombstone
+    @Test
+    public void testDeleteUnknownId() throws IOException {
+        log.append(createMessage("Keep me", "sent"));
+        long before = Files.size(logFile);
+        Message neverStored = createMessage("Never stored", "sent");
+
+        assertFalse("Unknown ID should not be deleted", log.delete(neverStored.getMessageIdValue()));
+        assertEquals("Log should not grow", before, Files.size(logFile));
+        assertFalse("Unknown ID should not count as deleted", log.isDeleted(neverStored.getMessageIdValue()));
+        assertEquals("Nothing should be dead", 0, log.getDeadRecords());
+    }
+
+    // Changes one byte of the text of a record that is already on disk
+    private void damage(String text) throws IOException {
+        byte[] bytes = Files.readAllBytes(logFile);
+        int at = new String(bytes, StandardCharsets.ISO_8859_1).indexOf(text);
+        assertTrue("Record to damage should be in the log", at >= 0);
+        bytes[at] ^= 0x20;
+        Files.write(logFile, bytes);
+    }
+
+    // Test 20: A complete last line whose checksum does not match is cut off
+    @Test
+    public void testRecoverDamagedLastRecord() throws IOException {
+        log.append(createMessage("Complete", "sent"));
+        long intact = Files.size(logFile);
+        log.append(createMessage("Damaged", "sent"));
+        log.close();
+        long size = Files.size(logFile);
+        damage("Damaged");
+
+        MessageLog.Recovery recovery = log.recover();
+        assertEquals("Damaged line should be reported", size - intact, recovery.getTruncatedBytes());
+        assertEquals("Log should be cut back to the intact record", intact, Files.size(logFile));
+        assertEquals("Only the intact record should be left", 1, log.readAll().size());
+    }
+
+    // Test 21: Damage followed by intact records is an error, not a silent cut
+    @Test
+    public void testDamageBeforeIntactRecordsFails() throws IOException {
+        log.appendAll(Arrays.asList(createMessage("First", "sent"), createMessage("Middle", "sent"),
+            createMessage("Last", "sent")));
+        log.close();
+        damage("Middle");
+        long size = Files.size(logFile);
+
+        try {
+            log.recover();
+            fail("Recovery should refuse to drop intact records");
+        } catch (IOException e) {
+            assertTrue("Error should say why", e.getMessage().contains("would be lost"));
+        }
+        assertEquals("Nothing should be cut", size, Files.size(logFile));
+    }
+
+    // Test 22: Lines written before checksums are still accepted
+    @Test
+    public void testRecoverLinesWithoutChecksum() throws IOException {
+        Message old = createMessage("Written before checksums", "sent");
+        Files.write(logFile, (JSONHandler.createMessageRecord(old) + "\n").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("Old line should be kept", 0, log.recover().getTruncatedBytes());
+        log.append(createMessage("Checksummed", "sent"));
+        log.close();
+        assertEquals("Both lines should be kept", 0, log.recover().getTruncatedBytes());
+        List<Message> messages = log.readAll();
+        assertEquals("Both should be read", 2, messages.size());
+        assertEquals("Old line should read as before", old.getMessage(), messages.get(0).getMessage());
+    }
+}
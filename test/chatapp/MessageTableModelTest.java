@@ -0,0 +1,115 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import javax.swing.table.TableRowSorter;
+
+public class MessageTableModelTest {
+
+    private ArrayList<Message> messages;
+
+    @Before
+    public void setUp() {
+        messages = new ArrayList<>();
+        messages.add(message("1000000001", "+27838884567", "Did you get the cake?", "sent"));
+        messages.add(message("1000000002", "+27838884567", "Where are you?", "stored"));
+        messages.add(message("1000000003", "+27834484567", "Yohoooo, I am at your gate.", "sent"));
+    }
+
+    private Message message(String id, String recipient, String text, String status) {
+        Message message = new Message();
+        message.setMessageID(id);
+        message.setRecipient(recipient);
+        message.setMessage(text);
+        message.setStatus(status);
+        return message;
+    }
+
+    // Test 1: Cells are read from the message list
+    @Test
+    public void testListModel() {
+        MessageTableModel model = MessageTableModel.forMessages(messages);
+
+        assertEquals("Model should have one row per message", 3, model.getRowCount());
+        assertEquals("Row number should be 1-based", 2, model.getValueAt(1, MessageTableModel.COLUMN_NUMBER));
+        assertEquals("Message column should match", "Where are you?", model.getValueAt(1, MessageTableModel.COLUMN_MESSAGE));
+        assertEquals("Status column should match", "stored", model.getValueAt(1, MessageTableModel.COLUMN_STATUS));
+        assertEquals("Column name should match", "Recipient", model.getColumnName(MessageTableModel.COLUMN_RECIPIENT));
+    }
+
+    // Test 2: Cells are read lazily from a mapped store
+    @Test
+    public void testStoreModel() throws IOException {
+        Path file = Files.createTempFile("messages", ".log");
+        try {
+            Files.write(file, ("{\"messageID\":\"1000000001\",\"messageCount\":4,\"recipient\":\"+27838884567\",\"message\":\"One\",\"status\":\"sent\"}\n"
+                + "{\"messageID\":\"1000000002\",\"messageCount\":5,\"recipient\":\"+27838884567\",\"message\":\"Two\",\"status\":\"stored\"}\n")
+                .getBytes(StandardCharsets.UTF_8));
+            try (MappedMessageStore store = MappedMessageStore.open(file)) {
+                MessageTableModel model = MessageTableModel.forStore(store);
+                assertEquals("Model should have one row per record", 2, model.getRowCount());
+                assertEquals("Message column should match", "Two", model.getValueAt(1, MessageTableModel.COLUMN_MESSAGE));
+                assertEquals("Count column should match", 5, model.getValueAt(1, MessageTableModel.COLUMN_COUNT));
+                assertEquals("Earlier rows should still be readable", "1000000001", model.getValueAt(0, MessageTableModel.COLUMN_ID));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Test 3: A large store is counted a page at a time as rows are reached
+    @Test
+    public void testStoreRowsCountedLazily() throws IOException {
+        Path file = Files.createTempFile("messages", ".log");
+        try {
+            StringBuilder records = new StringBuilder();
+            int total = MessageTableModel.PAGE_ROWS + 10;
+            for (int i = 0; i < total; i++) {
+                records.append("{\"messageID\":\"").append(1000000001L + i)
+                    .append("\",\"recipient\":\"+27838884567\",\"message\":\"Row ").append(i).append("\",\"status\":\"sent\"}\n");
+            }
+            Files.write(file, records.toString().getBytes(StandardCharsets.UTF_8));
+            try (MappedMessageStore store = MappedMessageStore.open(file)) {
+                MessageTableModel model = MessageTableModel.forStore(store);
+                assertEquals("Only the first page should be counted", MessageTableModel.PAGE_ROWS, model.getRowCount());
+                assertFalse("Total should not be known yet", model.isComplete());
+
+                int[] inserted = new int[2];
+                model.addTableModelListener(e -> {
+                    inserted[0] = e.getFirstRow();
+                    inserted[1] = e.getLastRow();
+                });
+                model.indexMoreRows();
+                assertEquals("Every row should be counted after the next page", total, model.getRowCount());
+                assertTrue("Total should now be known", model.isComplete());
+                assertEquals("New rows should be reported from the old end", MessageTableModel.PAGE_ROWS, inserted[0]);
+                assertEquals("New rows should be reported up to the last", total - 1, inserted[1]);
+                assertEquals("Last row should be readable", "Row " + (total - 1),
+                    model.getValueAt(total - 1, MessageTableModel.COLUMN_MESSAGE));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Test 4: Status and recipient filters
+    @Test
+    public void testFilters() {
+        TableRowSorter<MessageTableModel> sorter = new TableRowSorter<>(MessageTableModel.forMessages(messages));
+
+        sorter.setRowFilter(MessageTableModel.filterFor("sent", null));
+        assertEquals("Two messages are sent", 2, sorter.getViewRowCount());
+
+        sorter.setRowFilter(MessageTableModel.filterFor("sent", "8884567"));
+        assertEquals("One sent message goes to this recipient", 1, sorter.getViewRowCount());
+
+        sorter.setRowFilter(MessageTableModel.filterFor("", " "));
+        assertEquals("Empty filters should show every row", 3, sorter.getViewRowCount());
+    }
+}
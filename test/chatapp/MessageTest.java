@@ -2,6 +2,7 @@ package chatapp;
 
 import org.junit.Test;
 import org.junit.Before;
+import java.util.concurrent.CompletableFuture;
 import static org.junit.Assert.*;
 
 public class MessageTest {
@@ -140,7 +141,7 @@ public class MessageTest {
         // Test local to international conversion
         testMessage.setRecipient("0712345678");
         assertEquals("Local number should be formatted to international", 
-                     "+2712345678", testMessage.getRecipient());
+                     "+27712345678", testMessage.getRecipient());
         
         // Test national to international conversion
         testMessage.setRecipient("27123456789");
@@ -160,4 +161,38 @@ public class MessageTest {
         message.setMessageID("0123456789"); // Starts with 0
         assertFalse("ID starting with 0 should fail", message.checkMessageID());
     }
+    
+    // Test 9: Async send completes once the message is stored
+    @Test
+    public void testSendMessageAsync() throws Exception {
+        message.setRecipient("+27718693002");
+        message.setMessage("Stored before the result");
+        CompletableFuture<String> sent = message.sentMessageAsync(1);
+        message.setStatus(Message.DELIVERED_STATUS);
+        
+        assertEquals("Async send should complete with the success message", 
+                     "Message sent successfully!", sent.get());
+        Message stored = JSONHandler.findMessage(message.getMessageID());
+        assertNotNull("Message should be stored when the future completes", stored);
+        assertEquals("Stored record should keep the status it was sent with", "sent", stored.getStatus());
+        JSONHandler.deleteMessage(message.getMessageID());
+        
+        assertEquals("Discard should complete at once", 
+                     "Message discarded", new Message().sentMessageAsync(2).getNow(null));
+    }
+    
+    // Test 10: Snapshot is not changed by later updates
+    @Test
+    public void testSnapshot() {
+        message.setRecipient("+27718693002");
+        message.setMessage("Snapshot me");
+        message.sentMessage(2);
+        Message copy = message.snapshot();
+        message.setStatus(Message.READ_STATUS);
+        
+        assertEquals("Snapshot should keep the ID", message.getMessageID(), copy.getMessageID());
+        assertEquals("Snapshot should keep the recipient", "+27718693002", copy.getRecipient());
+        assertEquals("Snapshot should keep the text", "Snapshot me", copy.getMessage());
+        assertEquals("Snapshot should keep the status it had", "discarded", copy.getStatus());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,252 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class NioChatServerTest {
+
+    private Path deliveryDir;
+    private DeliveryQueues deliveries;
+    private ChatService service;
+    private NioChatServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        deliveryDir = Files.createTempDirectory("deliveries");
+        deliveries = new DeliveryQueues(deliveryDir.resolve("deliveries.log"), deliveryDir.resolve("spill"),
+            16, 1000, 8, 1000, 8000);
+        deliveries.recover();
+        service = new ChatService(deliveries);
+        server = new NioChatServer(service, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        deliveries.close();
+        try (Stream<Path> files = Files.walk(deliveryDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private ChatFrameClient login() throws IOException {
+        ChatFrameClient client = new ChatFrameClient(server.getAddress());
+        client.call(ChatFrames.LOGIN, "kyl_1", "Ch&&sec@ke99!");
+        return client;
+    }
+
+    private void waitFor(int connections) throws InterruptedException {
+        for (int i = 0; i < 500 && server.getConnectionCount() != connections; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("Server should see every connection", connections, server.getConnectionCount());
+    }
+
+    // Test 1: Register, login, send, search and delete as binary frames
+    @Test
+    public void testSessionOverLoopback() throws IOException {
+        try (ChatFrameClient client = new ChatFrameClient(server.getAddress())) {
+            assertEquals("Registration should succeed", ChatFrames.OK,
+                client.call(ChatFrames.REGISTER, "Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976").getType());
+            assertTrue("Send before login should be refused", client.call(ChatFrames.SEND, "+27718693002", "Hi").isError());
+            assertTrue("Wrong password should be refused", client.call(ChatFrames.LOGIN, "kyl_1", "wrong").isError());
+            assertEquals("Login should greet the user", "Welcome Kyle Smith, it is great to see you again.",
+                client.call(ChatFrames.LOGIN, "kyl_1", "Ch&&sec@ke99!").getText());
+
+            Message sent = client.call(ChatFrames.SEND, "+27718693002", "Hi Mike, can you join us for dinner tonight").getMessage();
+            assertEquals("Status should be sent", "sent", sent.getStatus());
+            Message found = client.call(ChatFrames.SEARCH, sent.getMessageID()).getMessage();
+            assertEquals("Search should find the message", sent.getMessageIdValue(), found.getMessageIdValue());
+            assertEquals("Recipient should be returned", "+27718693002", found.getRecipient());
+            assertEquals("Text should be returned", "Hi Mike, can you join us for dinner tonight", found.getMessage());
+            assertEquals("Hash should be returned", sent.getMessageHash(), found.getMessageHash());
+
+            assertEquals("Recipient search should find one message", 1,
+                client.call(ChatFrames.RECIPIENT, "+27718693002").getMessages().size());
+            assertFalse("Report should have lines", client.call(ChatFrames.REPORT).getLines().isEmpty());
+
+            assertEquals("Delete should return the ID", sent.getMessageID(),
+                client.call(ChatFrames.DELETE, sent.getMessageHash()).getText());
+            assertTrue("Deleted hash should be gone", client.call(ChatFrames.DELETE, sent.getMessageHash()).isError());
+            assertEquals("Quit should be acknowledged", "Bye", client.call(ChatFrames.QUIT).getText());
+            try {
+                client.receive();
+                fail("Server should close the connection");
+            } catch (EOFException e) {
+                // Expected
+            }
+        }
+    }
+
+    // Test 2: Frames split across writes, and several in one write, are all answered in order
+    @Test
+    public void testFragmentedAndPipelinedFrames() throws IOException {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        try (SocketChannel channel = SocketChannel.open(server.getAddress());
+             ChatFrameClient client = login()) {
+            ByteBuffer request = ByteBuffer.allocate(256);
+            ChatFrames.putRequest(request, ChatFrames.LOGIN, 7, "kyl_1", "Ch&&sec@ke99!");
+            request.flip();
+            // One byte at a time
+            while (request.hasRemaining()) {
+                ByteBuffer single = request.slice();
+                single.limit(1);
+                channel.write(single);
+                request.position(request.position() + 1);
+            }
+            ByteBuffer reply = ByteBuffer.allocate(256);
+            while (reply.position() < 4 || reply.position() < reply.getInt(0) + 4) {
+                channel.read(reply);
+            }
+            reply.flip();
+            reply.getInt();
+            assertEquals("Login should succeed", ChatFrames.OK, reply.get());
+            assertEquals("Tag should be echoed", 7, reply.getInt());
+
+            List<Integer> tags = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                tags.add(client.send(ChatFrames.STORE, "+27718693002", "Pipelined " + i));
+            }
+            for (int i = 0; i < 20; i++) {
+                ChatFrameClient.Reply stored = client.receive();
+                assertEquals("Replies should keep request order", (int) tags.get(i), stored.getTag());
+                assertEquals("Text should match its request", "Pipelined " + i, stored.getMessage().getMessage());
+            }
+        }
+    }
+
+    // Test 3: A frame with an impossible length drops only that connection
+    @Test
+    public void testMalformedFrameClosesConnection() throws Exception {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        try (SocketChannel channel = SocketChannel.open(server.getAddress());
+             ChatFrameClient client = login()) {
+            ByteBuffer garbage = ByteBuffer.allocate(8);
+            garbage.putInt(ChatFrames.MAX_REQUEST_BYTES + 1).putInt(0).flip();
+            channel.write(garbage);
+            assertEquals("Server should close the connection", -1, channel.read(ByteBuffer.allocate(16)));
+            assertTrue("Missing fields should be reported", client.call(ChatFrames.SEARCH).isError());
+            assertEquals("Other clients should still be served", ChatFrames.MESSAGE,
+                client.call(ChatFrames.SEND, "+27718693002", "Still here").getType());
+        }
+    }
+
+    // Test 4: Idle connections hold no buffers
+    @Test
+    public void testIdleConnectionsHoldNoBuffers() throws Exception {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        List<SocketChannel> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 500; i++) {
+                idle.add(SocketChannel.open(server.getAddress()));
+            }
+            waitFor(500);
+            try (ChatFrameClient client = login()) {
+                for (int i = 0; i < 50; i++) {
+                    client.call(ChatFrames.SEND, "+27718693002", "Message " + i);
+                }
+            }
+            BufferPool pool = server.getBufferPool();
+            // The reply can arrive before the server has handed its buffer back
+            for (int i = 0; i < 500 && pool.getPooled() != pool.getAllocated(); i++) {
+                Thread.sleep(10);
+            }
+            assertTrue("Buffers should be reused, not allocated per connection", pool.getAllocated() <= 4);
+            assertEquals("Every buffer should be back in the pool", pool.getAllocated(), pool.getPooled());
+        } finally {
+            for (SocketChannel channel : idle) {
+                channel.close();
+            }
+        }
+        waitFor(0);
+    }
+
+    // Test 5: The load generator completes every request and reports ordered percentiles
+    @Test
+    public void testLoadGenerator() throws Exception {
+        ChatLoadGenerator.Result result = ChatLoadGenerator.run(server.getAddress(), 8, 100, 200);
+        assertEquals("Every request should be timed", 800, result.getRequests());
+        assertEquals("No request should fail", 0, result.getFailures());
+        assertTrue("Throughput should be positive", result.getThroughput() > 0);
+        assertTrue("p50 should not exceed p99", result.getPercentileMicros(0.50) <= result.getPercentileMicros(0.99));
+        assertTrue("p99 should not exceed p99.9", result.getPercentileMicros(0.99) <= result.getPercentileMicros(0.999));
+        assertEquals("Every message should be recorded", 800, service.getMessages().getSentMessages().size());
+    }
+
+    // Test 6: A logged-in recipient is sent queued and new messages as DELIVER frames
+    @Test
+    public void testDeliveryToRecipient() throws IOException {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        service.register("Mike", "Jones", "mik_1", "Ch&&sec@ke99!", "+27718693002");
+        try (ChatFrameClient sender = login()) {
+            Message early = sender.call(ChatFrames.SEND, "+27718693002", "Sent while you were away").getMessage();
+            try (ChatFrameClient recipient = new ChatFrameClient(server.getAddress())) {
+                recipient.call(ChatFrames.LOGIN, "mik_1", "Ch&&sec@ke99!");
+                Message first = recipient.nextDelivery();
+                assertEquals("The waiting message should be delivered", early.getMessageIdValue(), first.getMessageIdValue());
+                assertEquals("Ack should be accepted", ChatFrames.OK,
+                    recipient.call(ChatFrames.ACK, first.getMessageID()).getType());
+
+                Message live = sender.call(ChatFrames.SEND, "+27718693002", "And one more").getMessage();
+                Message second = recipient.nextDelivery();
+                assertEquals("A live message should be pushed", live.getMessageIdValue(), second.getMessageIdValue());
+                assertEquals("Text should arrive intact", "And one more", second.getMessage());
+                assertEquals("Ack should be accepted", ChatFrames.OK,
+                    recipient.call(ChatFrames.ACK, second.getMessageID()).getType());
+                assertTrue("A second ack should be refused", recipient.call(ChatFrames.ACK, second.getMessageID()).isError());
+            }
+            assertEquals("Nothing should be left to deliver", 0,
+                deliveries.getPendingCount(PhoneNumberCodec.encode("+27718693002")));
+        }
+    }
+
+    // Test 7: The sender is pushed coalesced RECEIPT frames for a cumulative ack and a read
+    @Test
+    public void testReceiptsToSender() throws IOException {
+        service.register("Kyle", "Smith", "kyl_1", "Ch&&sec@ke99!", "+27838968976");
+        service.register("Mike", "Jones", "mik_1", "Ch&&sec@ke99!", "+27718693002");
+        try (ChatFrameClient sender = login();
+             ChatFrameClient recipient = new ChatFrameClient(server.getAddress())) {
+            recipient.call(ChatFrames.LOGIN, "mik_1", "Ch&&sec@ke99!");
+            List<Message> sent = new ArrayList<>();
+            // No more than the server keeps in flight at once
+            for (int i = 0; i < 8; i++) {
+                sent.add(sender.call(ChatFrames.SEND, "+27718693002", "Message " + i).getMessage());
+            }
+            for (int i = 0; i < 8; i++) {
+                recipient.nextDelivery();
+            }
+            String last = sent.get(7).getMessageID();
+            assertEquals("One frame should ack all eight", "8", recipient.call(ChatFrames.ACK_THROUGH, last).getText());
+            ReceiptTracker.Receipt delivered = sender.nextReceipt();
+            assertEquals("Receipt should be for deliveries", "delivered", delivered.getStatus());
+            assertEquals("One receipt should cover all eight", 8, delivered.getCount());
+            assertEquals("Receipt should reach the last message", sent.get(7).getMessageIdValue(), delivered.getThroughId());
+            assertEquals("Receipt should name the recipient", "+27718693002", delivered.getRecipient());
+
+            assertEquals("All eight should be read", "8",
+                recipient.call(ChatFrames.READ, "+27838968976", last).getText());
+            ReceiptTracker.Receipt read = sender.nextReceipt();
+            assertEquals("Receipt should be for reading", "read", read.getStatus());
+            assertEquals("One receipt should cover all eight", 8, read.getCount());
+            assertEquals("Stored status should follow", "read",
+                sender.call(ChatFrames.SEARCH, sent.get(0).getMessageID()).getMessage().getStatus());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package chatapp;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PhoneNumberCodecTest {
+
+    // Test 1: All accepted formats
+    @Test
+    public void testValidFormats() {
+        assertTrue("International format should be valid", PhoneNumberCodec.isValid("+27838968976"));
+        assertTrue("Format without + should be valid", PhoneNumberCodec.isValid("27838968976"));
+        assertTrue("Local 0 format should be valid", PhoneNumberCodec.isValid("0821234567"));
+        assertTrue("Local 07 format should be valid", PhoneNumberCodec.isValid("0712345678"));
+    }
+
+    // Test 2: Rejected numbers
+    @Test
+    public void testInvalidFormats() {
+        assertFalse("Null should be invalid", PhoneNumberCodec.isValid(null));
+        assertFalse("Empty should be invalid", PhoneNumberCodec.isValid(""));
+        assertFalse("Non-mobile prefix should be invalid", PhoneNumberCodec.isValid("+27123456789"));
+        assertFalse("Too long should be invalid", PhoneNumberCodec.isValid("+278389689761"));
+        assertFalse("Letters should be invalid", PhoneNumberCodec.isValid("08212a4567"));
+        assertFalse("Other country code should be invalid", PhoneNumberCodec.isValid("+44838968976"));
+        assertFalse("Legacy short form of an 07 number is not input", PhoneNumberCodec.isValid("+2712345678"));
+        assertEquals("Invalid number should encode to NONE", PhoneNumberCodec.NONE, PhoneNumberCodec.encode("0712"));
+    }
+
+    // Test 3: Canonical forms match the existing formatting rules
+    @Test
+    public void testCanonicalize() {
+        assertEquals("+27838968976", PhoneNumberCodec.canonicalize("+27838968976"));
+        assertEquals("+27838968976", PhoneNumberCodec.canonicalize("27838968976"));
+        assertEquals("+27821234567", PhoneNumberCodec.canonicalize("0821234567"));
+        assertEquals("+27712345678", PhoneNumberCodec.canonicalize("0712345678"));
+        assertNull("Invalid number has no canonical form", PhoneNumberCodec.canonicalize("12345"));
+    }
+
+    // Test 4: Encoded values round-trip and compare equal across input formats
+    @Test
+    public void testEncodeDecode() {
+        long encoded = PhoneNumberCodec.encode("0838968976");
+        assertEquals("Same number in another format should encode the same", encoded, PhoneNumberCodec.encode("+27838968976"));
+        assertEquals("Decode should give the canonical form", "+27838968976", PhoneNumberCodec.decode(encoded));
+
+        long local = PhoneNumberCodec.encode("0712345678");
+        assertEquals("07 numbers should have one code in every spelling", local, PhoneNumberCodec.encode("+27712345678"));
+        assertEquals("07 numbers should round-trip", "+27712345678", PhoneNumberCodec.decode(local));
+    }
+
+    // Test 5: Stored legacy forms of 07 numbers map onto the canonical code
+    @Test
+    public void testLegacyShortForm() {
+        long canonical = PhoneNumberCodec.encode("+27712345678");
+        assertEquals("Stored legacy string should map to the full number", canonical, PhoneNumberCodec.encodeStored("+2712345678"));
+        assertEquals("Stored canonical string is unchanged", canonical, PhoneNumberCodec.encodeStored("+27712345678"));
+        assertEquals("Legacy code should map to the full number", canonical, PhoneNumberCodec.normalize(1012345678L));
+        assertEquals("Legacy code should decode to the full number", "+27712345678", PhoneNumberCodec.decode(1012345678L));
+        assertEquals("Canonical codes are unchanged", canonical, PhoneNumberCodec.normalize(canonical));
+    }
+
+    // Test 6: Decoding something that is not an encoded number
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalid() {
+        PhoneNumberCodec.decode(PhoneNumberCodec.NONE);
+    }
+}
@@ -0,0 +1,193 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class ReceiptTrackerTest {
+
+    private static final long SENDER = PhoneNumberCodec.encode("+27838968976");
+    private static final long RECIPIENT = PhoneNumberCodec.encode("+27718693002");
+
+    private ReceiptTracker tracker;
+    private final LinkedBlockingQueue<ReceiptTracker.Receipt> receipts = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        // Long enough that the tests decide when to flush
+        tracker = new ReceiptTracker(60000);
+        tracker.subscribe(SENDER, receipts::add);
+    }
+
+    private List<Message> sendMessages(int count) {
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message message = new Message();
+            message.setRecipient("+27718693002");
+            message.setMessage("Message " + i);
+            message.sentMessage(1);
+            tracker.sent(SENDER, message);
+            sent.add(message);
+        }
+        return sent;
+    }
+
+    private List<ReceiptTracker.Receipt> flush() {
+        tracker.flush();
+        List<ReceiptTracker.Receipt> flushed = new ArrayList<>();
+        receipts.drainTo(flushed);
+        return flushed;
+    }
+
+    // Test 1: Many deliveries in one conversation make a single receipt
+    @Test
+    public void testDeliveriesAreCoalesced() {
+        List<Message> sent = sendMessages(5);
+        for (Message message : sent) {
+            tracker.delivered(message);
+        }
+        List<ReceiptTracker.Receipt> flushed = flush();
+        assertEquals("One receipt should cover all five", 1, flushed.size());
+        assertEquals("Receipt should be for deliveries", "delivered", flushed.get(0).getStatus());
+        assertEquals("Receipt should cover up to the last message", sent.get(4).getMessageIdValue(), flushed.get(0).getThroughId());
+        assertEquals("Receipt should count every message", 5, flushed.get(0).getCount());
+        assertEquals("Receipt should name the recipient", "+27718693002", flushed.get(0).getRecipient());
+        assertEquals("Message status should change", "delivered", sent.get(0).getStatus());
+        assertTrue("Nothing new, nothing sent", flush().isEmpty());
+    }
+
+    // Test 2: A delivered receipt does not pass a message that has not been delivered
+    @Test
+    public void testOutOfOrderDeliveryWaits() {
+        List<Message> sent = sendMessages(3);
+        tracker.delivered(sent.get(1));
+        assertTrue("Second alone should not be reported", flush().isEmpty());
+        tracker.delivered(sent.get(0));
+        List<ReceiptTracker.Receipt> flushed = flush();
+        assertEquals("One receipt should cover both", 1, flushed.size());
+        assertEquals("Receipt should reach the second message", sent.get(1).getMessageIdValue(), flushed.get(0).getThroughId());
+        assertEquals("Two messages should be counted", 2, flushed.get(0).getCount());
+    }
+
+    // Test 3: Reading is cumulative, also covers undelivered messages, and is stored
+    @Test
+    public void testReadThroughMessage() {
+        List<Message> sent = sendMessages(4);
+        tracker.delivered(sent.get(0));
+        assertEquals("Three should be marked read", 3, tracker.read(RECIPIENT, SENDER, sent.get(2).getMessageIdValue()));
+        assertEquals("Read messages cannot be read again", -1, tracker.read(RECIPIENT, SENDER, sent.get(1).getMessageIdValue()));
+        assertEquals("Other conversations are unknown", -1, tracker.read(SENDER, RECIPIENT, sent.get(3).getMessageIdValue()));
+
+        List<ReceiptTracker.Receipt> flushed = flush();
+        assertEquals("One delivered and one read receipt", 2, flushed.size());
+        assertEquals("Delivered first", "delivered", flushed.get(0).getStatus());
+        assertEquals("Then read", "read", flushed.get(1).getStatus());
+        assertEquals("Read should cover three", 3, flushed.get(1).getCount());
+        assertEquals("Read should reach the third message", sent.get(2).getMessageIdValue(), flushed.get(1).getThroughId());
+        assertEquals("Unread message keeps its status", "sent", sent.get(3).getStatus());
+        assertEquals("Storage should have the new status", "read", JSONHandler.findMessage(sent.get(1).getMessageID()).getStatus());
+        assertEquals("Storage should have the unread one unchanged", "sent",
+            JSONHandler.findMessage(sent.get(3).getMessageID()).getStatus());
+    }
+
+    // Test 4: Receipts are flushed by themselves after the delay
+    @Test
+    public void testScheduledFlush() throws InterruptedException {
+        tracker = new ReceiptTracker(20);
+        tracker.subscribe(SENDER, receipts::add);
+        List<Message> sent = sendMessages(2);
+        tracker.delivered(sent.get(0));
+        tracker.delivered(sent.get(1));
+        ReceiptTracker.Receipt receipt = receipts.poll(5, TimeUnit.SECONDS);
+        assertNotNull("A receipt should arrive", receipt);
+        assertEquals("Both deliveries should be in it", 2, receipt.getCount());
+    }
+
+    // Test 5: Acks for messages read back from spill files still reach the sent messages
+    @Test
+    public void testDeliveredAfterSpill() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("receipts");
+        DeliveryQueues queues = new DeliveryQueues(dir.resolve("deliveries.log"), dir.resolve("spill"), 2, 1000, 1, 1000, 8000);
+        try {
+            queues.recover();
+            List<Message> sent = sendMessages(5);
+            for (Message message : sent) {
+                queues.enqueue(message);
+            }
+            LinkedBlockingQueue<Message> delivered = new LinkedBlockingQueue<>();
+            DeliveryQueues.Session session = queues.connect(RECIPIENT, delivered::add, tracker::delivered);
+            for (int i = 0; i < sent.size(); i++) {
+                Message received = delivered.poll(5, TimeUnit.SECONDS);
+                assertNotNull("A message should be delivered", received);
+                assertTrue("Ack should be accepted", session.ack(received.getMessageIdValue()));
+            }
+
+            List<ReceiptTracker.Receipt> flushed = flush();
+            assertEquals("One receipt should cover all five", 1, flushed.size());
+            assertEquals("Receipt should reach the last message", sent.get(4).getMessageIdValue(), flushed.get(0).getThroughId());
+            assertEquals("Spilled messages should be counted too", 5, flushed.get(0).getCount());
+            assertEquals("The sent message should change, not the copy", "delivered", sent.get(4).getStatus());
+        } finally {
+            queues.close();
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // Test 6: Unread messages past the limit are forgotten and read conversations dropped
+    @Test
+    public void testTrackingIsBounded() {
+        tracker = new ReceiptTracker(60000, 3);
+        tracker.subscribe(SENDER, receipts::add);
+        List<Message> sent = sendMessages(5);
+        assertEquals("Only three should be tracked", 3, tracker.getTrackedCount());
+        assertEquals("Forgotten messages cannot be read", -1, tracker.read(RECIPIENT, SENDER, sent.get(1).getMessageIdValue()));
+
+        tracker.delivered(sent.get(0));
+        tracker.delivered(sent.get(2));
+        List<ReceiptTracker.Receipt> flushed = flush();
+        assertEquals("Forgotten messages are not waited for", 1, flushed.size());
+        assertEquals("Only the tracked one is counted", 1, flushed.get(0).getCount());
+        assertEquals("Forgotten message keeps its status", "sent", sent.get(0).getStatus());
+
+        assertEquals("The rest should be read", 3, tracker.read(RECIPIENT, SENDER, sent.get(4).getMessageIdValue()));
+        assertEquals("Nothing should be left", 0, tracker.getTrackedCount());
+        assertEquals("Read conversation should be dropped", 0, tracker.getConversationCount());
+        assertEquals("Read receipt should still be sent", "read", flush().get(0).getStatus());
+    }
+
+    // Test 7: A forgotten message gets no receipts and is not waited for
+    @Test
+    public void testForgetDeletedMessage() {
+        List<Message> sent = sendMessages(3);
+        assertTrue("Tracked message should be forgotten", tracker.forget(sent.get(1).getMessageIdValue()));
+        assertFalse("It cannot be forgotten twice", tracker.forget(sent.get(1).getMessageIdValue()));
+        assertEquals("Two should be tracked", 2, tracker.getTrackedCount());
+
+        tracker.delivered(sent.get(1));
+        tracker.delivered(sent.get(0));
+        tracker.delivered(sent.get(2));
+        List<ReceiptTracker.Receipt> flushed = flush();
+        assertEquals("One receipt should pass the forgotten message", 1, flushed.size());
+        assertEquals("Receipt should reach the last message", sent.get(2).getMessageIdValue(), flushed.get(0).getThroughId());
+        assertEquals("Forgotten message is not counted", 2, flushed.get(0).getCount());
+        assertEquals("Forgotten message keeps its status", "sent", sent.get(1).getStatus());
+
+        assertEquals("Forgotten messages cannot be read", -1, tracker.read(RECIPIENT, SENDER, sent.get(1).getMessageIdValue()));
+        assertEquals("Reading should skip it", 2, tracker.read(RECIPIENT, SENDER, sent.get(2).getMessageIdValue()));
+        assertEquals("Read conversation should be dropped", 0, tracker.getConversationCount());
+    }
+}
@@ -0,0 +1,110 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.After;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SegmentIndexTest {
+
+    private Path file;
+
+    @After
+    public void tearDown() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Test 1: With increasing IDs a lookup lands on the one block that can hold the ID
+    @Test
+    public void testFindSortedBlocks() {
+        SegmentIndex index = new SegmentIndex();
+        index.add(0, 100, 1000, 1063, 64);
+        index.add(100, 200, 1064, 1127, 64);
+        index.add(200, 250, 1128, 1130, 3);
+
+        assertEquals("Two full blocks plus the open one", 3, index.blockCount());
+        assertArrayEquals("ID in the second block", new long[] {100, 200}, index.find(1100));
+        assertArrayEquals("ID in the open block", new long[] {200, 250}, index.find(1129));
+        assertEquals("ID below every block", 0, index.find(999).length);
+        assertEquals("ID above every block", 0, index.find(2000).length);
+    }
+
+    // Test 2: Overlapping blocks fall back to checking every block
+    @Test
+    public void testFindOverlappingBlocks() {
+        SegmentIndex index = new SegmentIndex();
+        index.add(0, 100, 5000, 9000, 64);
+        index.add(100, 200, 1000, 6000, 64);
+        index.add(200, 300, 7000, 8000, 64);
+
+        assertArrayEquals("Both blocks covering the ID", new long[] {0, 100, 100, 200}, index.find(5500));
+        assertTrue("Zone map should match an ID in range", index.mayContainAny(new long[] {10, 7500}));
+        assertFalse("Zone map should reject IDs outside every block", index.mayContainAny(new long[] {10, 9500}));
+    }
+
+    // Test 3: An index survives a write and read, and is rejected for a different segment length
+    @Test
+    public void testWriteAndRead() throws IOException {
+        file = Files.createTempFile("segment", ".idx");
+        SegmentIndex index = new SegmentIndex();
+        index.add(0, 100, 1000, 1063, 64);
+        index.add(100, 140, 1064, 1070, 7);
+        index.closeBlock();
+        index.write(file, 140);
+
+        SegmentIndex loaded = SegmentIndex.read(file, 140);
+        assertNotNull("Index should load", loaded);
+        assertEquals("Blocks should be kept", 2, loaded.blockCount());
+        assertEquals("Record count should be kept", 71, loaded.recordCount());
+        assertArrayEquals("Lookups should match", new long[] {100, 140}, loaded.find(1065));
+        assertNull("Index for another length should be rejected", SegmentIndex.read(file, 141));
+    }
+
+    // Test 4: Building from a segment file finds every record again
+    @Test
+    public void testBuildFromSegment() throws IOException {
+        file = Files.createTempFile("segment", ".bin");
+        MessageCodec codec = new BinaryMessageCodec();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            Message message = new Message();
+            message.setRecipient("+27834557896");
+            message.setMessage("Message " + i);
+            message.setStatus("sent");
+            messages.add(message);
+        }
+        ByteBuffer header = ByteBuffer.wrap(codec.fileHeader());
+        ByteBuffer records = codec.encode(messages);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            out.write(header);
+            while (records.hasRemaining()) {
+                out.write(records);
+            }
+        }
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            SegmentIndex index = SegmentIndex.build(in, codec);
+            assertEquals("150 records make three blocks", 3, index.blockCount());
+            assertEquals("Every record should be counted", 150, index.recordCount());
+
+            Message wanted = messages.get(100);
+            long[] ranges = index.find(wanted.getMessageIdValue());
+            assertEquals("One block should match", 2, ranges.length);
+            try (Stream<Message> block = SegmentIndex.readRange(in, codec, ranges[0], ranges[1])) {
+                List<String> ids = block.map(Message::getMessageID).collect(Collectors.toList());
+                assertTrue("Block should hold the message", ids.contains(wanted.getMessageID()));
+            }
+        }
+    }
+}
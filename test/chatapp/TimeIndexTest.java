@@ -0,0 +1,134 @@
+package chatapp;
+
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+public class TimeIndexTest {
+
+    private TimeIndex index;
+
+    @Before
+    public void setUp() {
+        index = new TimeIndex();
+    }
+
+    private Message messageAt(long timestamp) {
+        Message message = new Message();
+        message.setRecipient("+27834557896");
+        message.setMessage("Message at " + timestamp);
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    // Test 1: Range queries are inclusive at both ends
+    @Test
+    public void testBetween() {
+        for (long t = 1000; t <= 10000; t += 1000) {
+            index.add(messageAt(t));
+        }
+        ArrayList<Message> found = index.between(3000, 6000);
+        assertEquals("Four messages fall in the range", 4, found.size());
+        assertEquals("Oldest first", 3000, found.get(0).getTimestamp());
+        assertEquals("Range end is included", 6000, found.get(3).getTimestamp());
+        assertTrue("Empty range finds nothing", index.between(3001, 3999).isEmpty());
+        assertEquals("Open range finds everything", 10, index.between(Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    // Test 2: Out-of-order adds are kept sorted, equal times keep insertion order
+    @Test
+    public void testOutOfOrderAdds() {
+        Message late = messageAt(5000);
+        Message early = messageAt(1000);
+        Message sameTime = messageAt(5000);
+        index.add(late);
+        index.add(early);
+        index.add(sameTime);
+
+        ArrayList<Message> all = index.between(0, 10000);
+        assertSame("Earliest should be first", early, all.get(0));
+        assertSame("Equal times keep insertion order", late, all.get(1));
+        assertSame("Equal times keep insertion order", sameTime, all.get(2));
+    }
+
+    // Test 3: Removal only takes out the given message
+    @Test
+    public void testRemove() {
+        Message first = messageAt(5000);
+        Message second = messageAt(5000);
+        long firstSequence = index.add(first);
+        long secondSequence = index.add(second);
+
+        assertFalse("Sequence of another message should not match", index.remove(first, secondSequence));
+        assertTrue("Message should be removed", index.remove(first, firstSequence));
+        assertFalse("Already removed", index.remove(first, firstSequence));
+        assertSame("Other message with the same time stays", second, index.between(5000, 5000).get(0));
+        assertEquals("Only one message should be counted", 1, index.size());
+    }
+
+    // Test 4: Timestamps format and parse back to the same second
+    @Test
+    public void testTimestampFormat() {
+        long millis = TimestampFormat.parse("2025-11-21 15:08:39");
+        assertTrue("Valid timestamp should parse", millis >= 0);
+        assertEquals("Should format back to the same text", "2025-11-21 15:08:39", TimestampFormat.format(millis + 999));
+        assertEquals("Missing separator should be rejected", -1, TimestampFormat.parse("2025-11-21T15:08:39"));
+        assertEquals("Impossible date should be rejected", -1, TimestampFormat.parse("2025-02-30 10:00:00"));
+        assertEquals("Letters should be rejected", -1, TimestampFormat.parse("2025-1a-21 15:08:39"));
+    }
+
+    // Test 5: Timestamps survive a save and reload
+    @Test
+    public void testTimestampPersisted() {
+        Message message = messageAt(TimestampFormat.parse("2024-03-01 08:30:00"));
+        String record = JSONHandler.createMessageRecord(message);
+        assertTrue("Record should carry the message time", record.contains("\"timestamp\":\"2024-03-01 08:30:00\""));
+
+        Message reloaded = new MessageJsonReader(new StringReader(record)).next();
+        assertEquals("Reloaded message should keep its time", message.getTimestamp(), reloaded.getTimestamp());
+    }
+
+    // Test 6: Manager answers time-range queries
+    @Test
+    public void testManagerTimeRange() {
+        ChatAppArrayManager manager = new ChatAppArrayManager();
+        Message sent = messageAt(2000);
+        manager.addToSentMessages(sent);
+        manager.addToStoredMessages(messageAt(4000));
+
+        assertEquals("Both messages fall in the range", 2, manager.searchMessagesBetween(1000, 5000).size());
+        manager.deleteMessageByHash(sent.getMessageHash());
+        assertEquals("Deleted message should drop out", 1, manager.searchMessagesBetween(1000, 5000).size());
+    }
+
+    // Test 7: Many removals among equal times keep the rest sorted and in order
+    @Test
+    public void testRemoveManyWithEqualTimes() {
+        ArrayList<Message> kept = new ArrayList<>();
+        ArrayList<Message> added = new ArrayList<>();
+        ArrayList<Long> sequences = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Message message = messageAt(1000 + (i % 50) * 10);
+            added.add(message);
+            sequences.add(index.add(message));
+        }
+        for (int i = 0; i < added.size(); i++) {
+            if (i % 5 != 0) {
+                assertTrue("Message should be removed", index.remove(added.get(i), sequences.get(i)));
+            }
+        }
+        for (int i = 0; i < added.size(); i += 5) {
+            kept.add(added.get(i));
+        }
+        kept.sort((a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+
+        assertEquals("Only kept messages should be counted", 40, index.size());
+        assertEquals("Kept messages should stay sorted, equal times in insertion order",
+            kept, index.between(Long.MIN_VALUE, Long.MAX_VALUE));
+        Message late = messageAt(1005);
+        index.add(late);
+        assertTrue("Adds after removals should still be sorted", index.between(1005, 1005).contains(late));
+    }
+}